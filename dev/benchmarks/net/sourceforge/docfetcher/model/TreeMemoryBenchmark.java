@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.sourceforge.docfetcher.model.index.file.FileDocument;
+import net.sourceforge.docfetcher.model.index.file.FileFolder;
+
+/**
+ * Measures the heap usage of the in-memory document tree. Builds a synthetic
+ * file tree with the given number of documents (default: one million) and
+ * prints the number of bytes used per document, including the folders and
+ * the file names.
+ * <p>
+ * Run with a fixed heap size, e.g. <tt>-Xms2g -Xmx2g</tt>, so that the
+ * measurements aren't distorted by heap resizing.
+ * <p>
+ * This class is kept outside of the 'src' folder so that it isn't shipped
+ * with DocFetcher. Compile it together with the sources, e.g. with
+ * <tt>-sourcepath src:dev/benchmarks</tt>.
+ *
+ * @author Tran Nam Quang
+ */
+final class TreeMemoryBenchmark {
+
+	private static final int DOCS_PER_FOLDER = 20; // On average
+
+	private TreeMemoryBenchmark() {
+	}
+
+	public static void main(String[] args) {
+		int docCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000 * 1000;
+
+		long namesBefore = usedMemory();
+		List<String> names = new ArrayList<String>(docCount);
+		for (int i = 0; i < docCount; i++)
+			names.add(String.format("document-%08d.pdf", i)); //$NON-NLS-1$
+		long namesBytes = usedMemory() - namesBefore;
+
+		long treeBefore = usedMemory();
+		List<FileFolder> folders = buildTree(names);
+		long treeBytes = usedMemory() - treeBefore;
+
+		System.out.println(String.format(
+			"Documents: %d, folders: %d", docCount, folders.size())); //$NON-NLS-1$
+		System.out.println(String.format(
+			"Tree without file names: %.1f bytes per document", //$NON-NLS-1$
+			(double) treeBytes / docCount));
+		System.out.println(String.format(
+			"Tree with file names: %.1f bytes per document", //$NON-NLS-1$
+			(double) (treeBytes + namesBytes) / docCount));
+
+		// Keep the tree reachable until the measurement is done
+		if (folders.get(0).getDocumentCount() < 0)
+			System.out.println(names.size());
+	}
+
+	/*
+	 * Builds a tree in which the folders have on average a fixed number of
+	 * documents and one or two subfolders, and returns all folders of the tree, starting
+	 * with the root. The file names are taken from the given list, so that
+	 * their memory can be measured separately.
+	 */
+	private static List<FileFolder> buildTree(List<String> names) {
+		Random random = new Random(0);
+		FileFolder root = new FileFolder(new Path("/benchmark/root"), null); //$NON-NLS-1$
+		List<FileFolder> queue = new ArrayList<FileFolder>();
+		queue.add(root);
+		int folderIndex = 0;
+		int docIndex = 0;
+		int nameIndex = 0;
+		while (docIndex < names.size()) {
+			FileFolder folder = queue.get(folderIndex++);
+			int docs = 1 + random.nextInt(2 * DOCS_PER_FOLDER);
+			for (int i = 0; i < docs && docIndex < names.size(); i++, docIndex++)
+				new FileDocument(folder, names.get(docIndex), 1300000000000L + docIndex);
+			int subFolders = 1 + random.nextInt(2);
+			for (int i = 0; i < subFolders; i++)
+				queue.add(new FileFolder(folder, "folder-" + nameIndex++, null)); //$NON-NLS-1$
+		}
+		return queue;
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
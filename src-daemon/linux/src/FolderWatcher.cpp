@@ -11,6 +11,7 @@
 
 #include <string>
 #include <map>
+#include <set>
 #include <iostream>
 #include <fstream>
 #include <sys/types.h>
@@ -39,7 +40,7 @@
  * constructor
  *
  */
-FolderWatcher::FolderWatcher():CHAR_MODIFIED('#') {
+FolderWatcher::FolderWatcher():CHAR_MODIFIED('#'),MAX_JOURNAL_FOLDERS(1000),_notifyFilter(0),_fd(-1) {
 }
 
 /**
@@ -101,7 +102,7 @@ bool FolderWatcher::startWatch() {
 
 	std::string file_name;
 
-	const long notifyFilter =  	//  IN_ACCESS			//File was accessed (read) (*)
+	_notifyFilter =  			//  IN_ACCESS			//File was accessed (read) (*)
 								//|IN_ATTRIB			//Metadata changed (permissions, timestamps, extended attributes, etc.) (*)
 								 IN_CLOSE_WRITE		//File opened for writing was closed (*)
 								//|IN_CLOSE_NOWRITE	//File not opened for writing was closed (*)
@@ -117,34 +118,35 @@ bool FolderWatcher::startWatch() {
 
 
 
-	WatchedFolder aWatchedFolder;
-	aWatchedFolder._modified = false;
-
 	int watchId = 0;
 
 
  	while(std::getline(in,line)){
+		WatchedFolder aWatchedFolder;
+		aWatchedFolder._modified = false;
+		aWatchedFolder._overflowed = false;
+
 		if(line.empty()){
 			continue;
-		}else if(line.at(0) == CHAR_MODIFIED){
-			log("folder already signaled modified : %s", line.c_str());
-			continue;
 		}else if(line.size()>=2 && line.substr(0,2) == "//"){
 			// a comment line, ignore
 			continue;
-		}else{
-
-			file_name = line;
+		}else if(line.at(0) == CHAR_MODIFIED){
+			// keep on journaling the changes, DocFetcher hasn't seen them yet
+			log("folder already signaled modified : %s", line.c_str());
+			aWatchedFolder._modified = true;
+			line = line.substr(1);
+		}
 
-			if(!addWatchRecursive(true, watchId, file_name, notifyFilter)) {
-				log("error add_watch for dir=%s", line.c_str());
-			}else{
-				log("Watch installed for directory %s", line.c_str());
-				aWatchedFolder._path = line;
-				_indexed_folders.insert(std::make_pair(watchId, aWatchedFolder));
-				watchId++;
-			}
+		file_name = line;
 
+		if(!addWatchRecursive(true, watchId, file_name, _notifyFilter)) {
+			log("error add_watch for dir=%s", line.c_str());
+		}else{
+			log("Watch installed for directory %s", line.c_str());
+			aWatchedFolder._path = line;
+			_indexed_folders.insert(std::make_pair(watchId, aWatchedFolder));
+			watchId++;
 		}
 
 	}
@@ -161,6 +163,7 @@ bool FolderWatcher::addWatchRecursive(const bool isRoot, const int watchId, cons
 			return false;
 		}else{
 			_inotify2id.insert(std::make_pair(inotifyId, watchId));
+			_inotify2path[inotifyId] = folder_name;
 			log("watch added for root=%s", folder_name.c_str());
 		}
 	}
@@ -200,6 +203,7 @@ bool FolderWatcher::addWatchRecursive(const bool isRoot, const int watchId, cons
 				continue;
 			}else{
 				_inotify2id.insert(std::make_pair(inotifyId, watchId));
+				_inotify2path[inotifyId] = sub_folder_name;
 				log("watch added for sub_dir=%s", sub_folder_name.c_str());
 
 				addWatchRecursive(false, watchId, sub_folder_name, notifyFilter);
@@ -225,6 +229,7 @@ bool FolderWatcher::stopWatch() {
 
 	_indexed_folders.clear();
 	_inotify2id.clear();
+	_inotify2path.clear();
 
 	close(_fd);
 	_fd = -1;
@@ -238,33 +243,74 @@ bool FolderWatcher::stopWatch() {
 /**
  * Watches' callback
  *
- * Removes the watch and updates the indexes file
+ * Marks the indexed folder as modified in the indexes file, and appends the
+ * changed folder to the journal, so that DocFetcher can update only the
+ * changed folders. Each folder is journaled once. If too many folders have
+ * changed, the indexed folder is journaled as overflowed, which means that
+ * DocFetcher must update all of it, and the watches are removed.
  *
  */
-void FolderWatcher::callback(int inotifyId, int action) {
+void FolderWatcher::callback(int inotifyId, int action, const std::string &name) {
 	log("callback : inotifyId=%d,action=%d", inotifyId, action);
 
+	if(action & IN_Q_OVERFLOW) {
+		// events were lost, so all indexed folders must be updated
+		for(folders_container_type::iterator it = _indexed_folders.begin() ; it != _indexed_folders.end() ; ++it) {
+			if(!it->second._overflowed) {
+				it->second._overflowed = true;
+				it->second._modified = true;
+				appendToJournal(CHAR_MODIFIED + it->second._path);
+			}
+		}
+		updateIndexesFile();
+		return;
+	}
+
+	if(action & IN_IGNORED) {
+		// watch was removed
+		_inotify2id.erase(inotifyId);
+		_inotify2path.erase(inotifyId);
+		return;
+	}
+
 	if(_inotify2id.find(inotifyId) == _inotify2id.end()) {
 		log("id unknown ???");
 		return;
 	}
 
 	const int watchId = _inotify2id[inotifyId];
+	WatchedFolder &folder = _indexed_folders[watchId];
 
-	if(_indexed_folders[watchId]._modified == true){
+	if(folder._overflowed){
 		log("already done...");
 		return;
+	}
+
+	const std::string path = _inotify2path[inotifyId];
 
+	// watch new subdirectories, so that changes inside them are journaled too
+	if((action & IN_ISDIR) && (action & (IN_CREATE | IN_MOVED_TO)) && !name.empty()) {
+		addWatchRecursive(true, watchId, path + "/" + name, _notifyFilter);
 	}
 
-	for(inotify2id_container_type::const_iterator it = _inotify2id.begin() ; it != _inotify2id.end() ; ++it) {
-		if(it->second == watchId) {
-			inotify_rm_watch(_fd, it->first);
+	if(folder._journaled.find(path) == folder._journaled.end()) {
+		if(folder._journaled.size() >= MAX_JOURNAL_FOLDERS) {
+			log("too many changed folders in %s", folder._path.c_str());
+			folder._overflowed = true;
+			folder._journaled.clear();
+			appendToJournal(CHAR_MODIFIED + folder._path);
+			removeWatches(watchId);
+		}else{
+			folder._journaled.insert(path);
+			appendToJournal(path);
 		}
+	}
 
+	if(folder._modified){
+		return;
 	}
 
-	_indexed_folders[watchId]._modified = true;
+	folder._modified = true;
 
 	if(!updateIndexesFile()){
 		log("updateIndexesFile failed");
@@ -274,6 +320,39 @@ void FolderWatcher::callback(int inotifyId, int action) {
 }
 
 
+/**
+ * Removes all inotify watches of the given indexed folder
+ *
+ */
+void FolderWatcher::removeWatches(const int watchId) {
+	for(inotify2id_container_type::const_iterator it = _inotify2id.begin() ; it != _inotify2id.end() ; ++it) {
+		if(it->second == watchId) {
+			inotify_rm_watch(_fd, it->first);
+		}
+	}
+}
+
+
+/**
+ * Appends a line to the journal
+ *
+ * The journal contains one changed folder per line. A line starting with
+ * CHAR_MODIFIED means that the given indexed folder must be updated entirely.
+ * The journal is only appended to, and it is deleted by DocFetcher after
+ * reading it.
+ *
+ */
+bool FolderWatcher::appendToJournal(const std::string &line) {
+	std::ofstream out(getJournalFile().c_str(), std::ios::out | std::ios::app);
+	if(!out){
+		log("Cannot open journal file (%s)", getJournalFile().c_str());
+		return false;
+	}
+	out << line << std::endl;
+	return true;
+}
+
+
 
 /**
  * Writes the indexes file
@@ -316,7 +395,8 @@ void FolderWatcher::run()
 	    while (i < len)
 	    {
 	        struct inotify_event *event = (struct inotify_event *) &buf[i];
-	       	callback(event->wd, event->mask);
+	        std::string name = event->len > 0 ? event->name : "";
+	       	callback(event->wd, event->mask, name);
 
 	        i += sizeof (struct inotify_event) + event->len;
 	    }
@@ -329,3 +409,8 @@ std::string FolderWatcher::getLockFile() {
 	return _indexes_file_path + ".lock";
 }
 
+
+std::string FolderWatcher::getJournalFile() {
+	return _indexes_file_path + ".journal";
+}
+
@@ -15,12 +15,15 @@
 struct WatchedFolder {
 	std::string _path;
 	bool _modified;
+	bool _overflowed;
+	std::set<std::string> _journaled;
 };
 
 class FolderWatcher {
 public:
 	typedef std::map<int,WatchedFolder> folders_container_type;
 	typedef std::map<int,int> 			inotify2id_container_type;
+	typedef std::map<int,std::string> 	inotify2path_container_type;
 
 	FolderWatcher();
 	virtual ~FolderWatcher();
@@ -28,6 +31,7 @@ public:
 	bool findIndexesFile();
 
 	std::string getLockFile();
+	std::string getJournalFile();
 
 	bool startWatch();
 	bool stopWatch();
@@ -38,17 +42,22 @@ public:
 private:
 	bool updateIndexesFile();
 	bool addWatchRecursive(const bool, const int, const std::string &, const long);
+	bool appendToJournal(const std::string &);
+	void removeWatches(const int);
 
 
 
-	void callback(int watchID, int action);
+	void callback(int watchID, int action, const std::string &name);
 
 	std::string _indexes_file_path;
 	const char CHAR_MODIFIED;
+	const size_t MAX_JOURNAL_FOLDERS;
+	long _notifyFilter;
 
 
 	folders_container_type _indexed_folders;
 	inotify2id_container_type   _inotify2id;
+	inotify2path_container_type _inotify2path;
 
 	int _fd;
 };
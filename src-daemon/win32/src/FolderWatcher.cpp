@@ -15,6 +15,7 @@
 
 #include <shlobj.h>
 #include <fstream>
+#include <vector>
 
 #include "FolderWatcher.h"
 
@@ -45,11 +46,24 @@ FolderWatcher *_this = NULL;
 extern HWND _hwndMain;
 
 
+/**
+ * Converts a wide string to UTF-8
+ *
+ */
+static std::string toUtf8(const std::wstring &wstr) {
+	int count_bytes = ::WideCharToMultiByte(CP_UTF8, 0, wstr.c_str(), -1, NULL, 0, NULL, NULL);
+	if(count_bytes <= 0)
+		return "";
+	std::vector<char> buf(count_bytes);
+	::WideCharToMultiByte(CP_UTF8, 0, wstr.c_str(), -1, &buf[0], count_bytes, NULL, NULL);
+	return &buf[0];
+}
+
 /**
  * constructor
  *
  */
-FolderWatcher::FolderWatcher():CHAR_MODIFIED('#') {
+FolderWatcher::FolderWatcher():CHAR_MODIFIED('#'),MAX_JOURNAL_FOLDERS(1000) {
 	_this = this;
 }
 
@@ -100,23 +114,28 @@ bool FolderWatcher::startWatch() {
 
 	const bool watchSubdirs = true;
 
-	WatchedFolder aWatchedFolder;
-	aWatchedFolder._modified = false;
-
 	log("locking");
 	RaiiLocker aLock(_lock);
 
 	while(std::getline(in,line)){
+		WatchedFolder aWatchedFolder;
+		aWatchedFolder._modified = false;
+		aWatchedFolder._overflowed = false;
+
 		log("line=%s", line.c_str());
 		if(line.empty()){
 			continue;
-		}else if(line.at(0) == CHAR_MODIFIED){
-			log("folder already signaled modified : %s", line.c_str());
-			continue;
 		}else if(line.size()>=2 && line.substr(0,2) == "//"){
 			// a comment line, ignore
 			continue;
 		}else{
+			if(line.at(0) == CHAR_MODIFIED){
+				// keep on journaling the changes, DocFetcher hasn't seen them yet
+				log("folder already signaled modified : %s", line.c_str());
+				aWatchedFolder._modified = true;
+				line = line.substr(1);
+			}
+
 			log("add_watch for dir=%s", line.c_str());
 
 			int count_chars = mbstowcs( NULL, line.c_str(), 0);
@@ -164,7 +183,11 @@ bool FolderWatcher::stopWatch() {
 /**
  * Watches' callback
  *
- * Removes the watch and updates the indexes file
+ * Marks the indexed folder as modified in the indexes file, and appends the
+ * folder containing the changed file to the journal, so that DocFetcher can
+ * update only the changed folders. Each folder is journaled once. If too many
+ * folders have changed, the indexed folder is journaled as overflowed, which
+ * means that DocFetcher must update all of it, and the watch is removed.
  *
  */
 void FolderWatcher::callback(int watchID, int action, const WCHAR* rootPath, const WCHAR* filePath) {
@@ -181,16 +204,45 @@ void FolderWatcher::callback(int watchID, int action, const WCHAR* rootPath, con
 		return;
 	}
 
-	// impossible to remove here, we tell the main thread to do it
-	::PostMessage(_hwndMain, WM_REMOVE_WATCH, 0, watchID);
+	WatchedFolder &folder = _this->_indexed_folders[watchID];
 
-	if(_this->_indexed_folders[watchID]._modified == true){
+	if(folder._overflowed){
 		log("already done...");
 		return;
+	}
 
+	// the file path is relative to the root path
+	std::wstring wpath = rootPath;
+	std::wstring wfile = filePath;
+	std::wstring::size_type sep = wfile.rfind(L'\\');
+	if(sep != std::wstring::npos) {
+		if(!wpath.empty() && wpath[wpath.size() - 1] != L'\\')
+			wpath += L'\\';
+		wpath += wfile.substr(0, sep);
 	}
 
-	_this->_indexed_folders[watchID]._modified = true;
+	// the journal is UTF-8 encoded
+	std::string path = toUtf8(wpath);
+	bool known = folder._journaled.find(path) != folder._journaled.end();
+
+	if(path.empty() || (!known && folder._journaled.size() >= _this->MAX_JOURNAL_FOLDERS)) {
+		log("too many changed folders in %s", folder._path.c_str());
+		folder._overflowed = true;
+		folder._journaled.clear();
+		_this->appendToJournal(_this->CHAR_MODIFIED + toUtf8(rootPath));
+
+		// impossible to remove here, we tell the main thread to do it
+		::PostMessage(_hwndMain, WM_REMOVE_WATCH, 0, watchID);
+	}else if(!known) {
+		folder._journaled.insert(path);
+		_this->appendToJournal(path);
+	}
+
+	if(folder._modified){
+		return;
+	}
+
+	folder._modified = true;
 
 	if(!_this->updateIndexesFile()){
 		log("updateIndexesFile failed");
@@ -199,10 +251,33 @@ void FolderWatcher::callback(int watchID, int action, const WCHAR* rootPath, con
 
 }
 
+/**
+ * Appends a line to the journal
+ *
+ * The journal contains one changed folder per line. A line starting with
+ * CHAR_MODIFIED means that the given indexed folder must be updated entirely.
+ * The journal is only appended to, and it is deleted by DocFetcher after
+ * reading it.
+ *
+ */
+bool FolderWatcher::appendToJournal(const std::string &line) {
+	std::ofstream out(getJournalFile().c_str(), std::ios::out | std::ios::app);
+	if(!out){
+		log("Cannot open journal file (%s)", getJournalFile().c_str());
+		return false;
+	}
+	out << line << std::endl;
+	return true;
+}
+
 std::string FolderWatcher::getLockFile() {
 	return _indexes_file_path + ".lock";
 }
 
+std::string FolderWatcher::getJournalFile() {
+	return _indexes_file_path + ".journal";
+}
+
 bool FolderWatcher::findIndexesFile() {
 
 	// Portable version -> the directory ./indexes exists
@@ -13,6 +13,7 @@
 #define INDEXEDDIRECTORIES_H_
 
 #include <map>
+#include <set>
 #include <string>
 #include "jnotify_win32/Lock.h"
 
@@ -22,6 +23,8 @@
 struct WatchedFolder {
 	std::string _path;
 	bool _modified;
+	bool _overflowed;
+	std::set<std::string> _journaled;
 };
 
 class FolderWatcher {
@@ -34,6 +37,7 @@ public:
 	bool findIndexesFile();
 
 	std::string FolderWatcher::getLockFile();
+	std::string getJournalFile();
 
 	bool startWatch();
 	bool stopWatch();
@@ -41,10 +45,12 @@ public:
 private:
 	std::string _indexes_file_path;
 	const char CHAR_MODIFIED;
+	const size_t MAX_JOURNAL_FOLDERS;
 
 	static void callback(int watchID, int action, const WCHAR* rootPath, const WCHAR* filePath);
 
 	bool updateIndexesFile();
+	bool appendToJournal(const std::string &line);
 
 	folders_container_type _indexed_folders;
 
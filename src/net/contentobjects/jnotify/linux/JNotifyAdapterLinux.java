@@ -32,9 +32,19 @@
 
 package net.contentobjects.jnotify.linux;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.contentobjects.jnotify.IJNotify;
 import net.contentobjects.jnotify.JNotify;
@@ -47,14 +57,41 @@ import net.contentobjects.jnotify.Util;
 
 public class JNotifyAdapterLinux implements IJNotify
 {
-	private Hashtable<Integer, Integer> _linuxWd2Wd;
-	private Hashtable<Integer, WatchData> _id2Data;
-	
 	/**
-	 * A set of files which was added by registerToSubTree (auto-watches)
+	 * The number of threads used for registering the watches of a directory
+	 * tree. Most of the time is spent on listing the directories, which can
+	 * be done in parallel.
 	 */
-	private Hashtable<String, String> _autoWatchesPaths;
-	private static int _watchIDCounter = 0;
+	private static final int REGISTRATION_THREADS = 4;
+
+	// The errno value returned by inotify_add_watch when the watch limit is reached
+	private static final int ENOSPC = 28;
+
+	private static final ThreadPoolExecutor _registrationExecutor = new ThreadPoolExecutor(
+		REGISTRATION_THREADS, REGISTRATION_THREADS, 5, TimeUnit.SECONDS,
+		new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+		{
+			private final AtomicInteger _count = new AtomicInteger(0);
+
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "INotify registration thread " + _count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+	static
+	{
+		_registrationExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	private static volatile int _watchBudget = getDefaultWatchBudget();
+	private static final AtomicInteger _watchCount = new AtomicInteger(0);
+	private static final AtomicInteger _watchIDCounter = new AtomicInteger(0);
+
+	private Hashtable<Integer, Integer> _linuxWd2Wd;
+	private Hashtable<Integer, WatchData> _id2Data;
 
 	public JNotifyAdapterLinux()
 	{
@@ -75,7 +112,61 @@ public class JNotifyAdapterLinux implements IJNotify
 
 		_id2Data = new Hashtable<Integer, WatchData>();
 		_linuxWd2Wd = new Hashtable<Integer, Integer>();
-		_autoWatchesPaths = new Hashtable<String, String>();
+	}
+
+	/**
+	 * Sets the maximum number of inotify watches to be used. Directories that
+	 * can't be watched because this budget or the system-wide limit is
+	 * exhausted are reported to listeners implementing
+	 * {@link WatchLimitListener}. A value of zero or less selects the default,
+	 * which is 90% of the system-wide limit, leaving the remaining watches to
+	 * other programs.
+	 */
+	public static void setWatchBudget(int budget)
+	{
+		_watchBudget = budget > 0 ? budget : getDefaultWatchBudget();
+	}
+
+	public static int getWatchBudget()
+	{
+		return _watchBudget;
+	}
+
+	/**
+	 * Returns the number of inotify watches currently in use.
+	 */
+	public static int getWatchCount()
+	{
+		return _watchCount.get();
+	}
+
+	private static int getDefaultWatchBudget()
+	{
+		BufferedReader reader = null;
+		try
+		{
+			reader = new BufferedReader(new FileReader("/proc/sys/fs/inotify/max_user_watches"));
+			int limit = Integer.parseInt(reader.readLine().trim());
+			return limit - limit / 10;
+		}
+		catch (Exception e)
+		{
+			// Leave it to inotify to tell us when the limit is reached
+			return Integer.MAX_VALUE;
+		}
+		finally
+		{
+			if (reader != null)
+			{
+				try
+				{
+					reader.close();
+				}
+				catch (IOException e)
+				{
+				}
+			}
+		}
 	}
 
 	public int addWatch(String path, int mask, boolean watchSubtree, JNotifyListener listener)
@@ -117,17 +208,24 @@ public class JNotifyAdapterLinux implements IJNotify
 		WatchData watchData = createWatch(null, true, new File(path), mask, linuxMask, watchSubtree, listener);
 		if (watchSubtree)
 		{
+			SubtreeRegistration registration = new SubtreeRegistration(watchData, false);
+			registration.submitChildren(new File(path));
 			try
 			{
-				File file = new File(path);
-				registerToSubTree(true,watchData, file, false);
+				registration.await();
 			}
-			catch (JNotifyException e)
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				registration.fail(new JNotifyException_linux("Interrupted while watching " + path, JNotifyException.ERROR_UNSPECIFIED));
+			}
+			JNotifyException error = registration.getError();
+			if (error != null)
 			{
 				// cleanup
 				removeWatch(watchData._wd);
 				// and throw.
-				throw e;
+				throw error;
 			}
 		}
 		return watchData._wd;
@@ -136,65 +234,186 @@ public class JNotifyAdapterLinux implements IJNotify
 	private WatchData createWatch(WatchData parentWatchData, boolean user,File path, int mask, int linuxMask, boolean watchSubtree, JNotifyListener listener) throws JNotifyException
 	{
 		String absPath = path.getPath();
-		int wd = _watchIDCounter++;
-		int linuxWd = JNotify_linux.addWatch(absPath, linuxMask);
-		WatchData watchData = new WatchData(parentWatchData, user, absPath, wd, linuxWd, mask, linuxMask, watchSubtree, listener);
-		_linuxWd2Wd.put(Integer.valueOf(linuxWd), Integer.valueOf(wd));
-		_id2Data.put(Integer.valueOf(wd), watchData);
-		if (!user)
+		if (!user && _watchCount.get() >= _watchBudget)
 		{
-			_autoWatchesPaths.put(absPath, absPath);
+			throw new JNotifyException_linux("Error watching " + absPath + " : watch budget of " + _watchBudget + " exhausted", ENOSPC);
+		}
+		int wd = _watchIDCounter.getAndIncrement();
+		// Hold the lock while adding the watch, so that the notify thread
+		// doesn't drop events that arrive before the watch is in the maps
+		synchronized (_id2Data)
+		{
+			int linuxWd = JNotify_linux.addWatch(absPath, linuxMask);
+			_watchCount.incrementAndGet();
+			WatchData watchData = new WatchData(parentWatchData, user, absPath, wd, linuxWd, mask, linuxMask, watchSubtree, listener);
+			_linuxWd2Wd.put(Integer.valueOf(linuxWd), Integer.valueOf(wd));
+			_id2Data.put(Integer.valueOf(wd), watchData);
+			if (parentWatchData != null && !parentWatchData.addSubwatch(linuxWd))
+			{
+				// The parent watch was removed in the meantime
+				JNotify_linux.removeWatch(linuxWd);
+			}
+			return watchData;
 		}
-		return watchData;
 	}
-	
 
-	private void registerToSubTree(boolean isRoot, WatchData parentWatch, File root, boolean fireCreatedEvents) throws JNotifyException
+	/**
+	 * Registers watches for the directories underneath a user watch. The
+	 * directories are listed and registered by the registration threads, so
+	 * that neither the caller nor the notify thread is blocked for longer
+	 * than necessary, and no lock is held while listing. Subtrees that can't
+	 * be watched because the watch limit was reached or because of an
+	 * unexpected error are skipped and reported to the listener if it's a
+	 * {@link WatchLimitListener}. Otherwise, the registration fails, or, for
+	 * directories created after the user watch was added, a warning is
+	 * printed, since there is no caller to report the failure to.
+	 */
+	private final class SubtreeRegistration
 	{
-		if (!parentWatch._user)
-		{
-			throw new RuntimeException("!parentWatch._user");
-		}
+		private final WatchData _parentWatch;
+		private final boolean _fireCreatedEvents;
+		private final AtomicInteger _pending = new AtomicInteger(0);
+		private volatile JNotifyException _error;
 
-		// make sure user really requested to be notified on this event.
-		// (in case of recursive listening, this IN_CREATE flag is always on, even if 
-		// the user is not interester in creation events).
-		if (fireCreatedEvents && (parentWatch._mask & JNotify.FILE_CREATED) != 0)
+		SubtreeRegistration(WatchData parentWatch, boolean fireCreatedEvents)
 		{
-			String name = root.toString().substring(parentWatch._path.length()+1);
-			parentWatch.notifyFileCreated(name);
+			if (!parentWatch._user)
+			{
+				throw new RuntimeException("!parentWatch._user");
+			}
+			_parentWatch = parentWatch;
+			_fireCreatedEvents = fireCreatedEvents;
 		}
 
-		
-		if (root.isDirectory())
+		void submit(final File dir)
 		{
-			// root was already registered by the calling method.
-			if (!isRoot)
+			_pending.incrementAndGet();
+			_registrationExecutor.execute(new Runnable()
 			{
-				try
+				public void run()
 				{
-					createWatch(parentWatch, false, root, parentWatch._mask, parentWatch._linuxMask, parentWatch._watchSubtree, parentWatch._listener);
+					try
+					{
+						register(dir);
+					}
+					catch (RuntimeException e)
+					{
+						notWatched(dir, new JNotifyException_linux("Error watching " + dir + " : " + e, JNotifyException.ERROR_UNSPECIFIED));
+					}
+					finally
+					{
+						if (_pending.decrementAndGet() == 0)
+						{
+							synchronized (SubtreeRegistration.this)
+							{
+								SubtreeRegistration.this.notifyAll();
+							}
+						}
+					}
 				}
-				catch (JNotifyException e)
+			});
+		}
+
+		void submitChildren(File dir)
+		{
+			String files[] = dir.list();
+			if (files == null)
+			{
+				return;
+			}
+			// make sure user really requested to be notified on this event.
+			// (in case of recursive listening, this IN_CREATE flag is always on, even if 
+			// the user is not interester in creation events).
+			boolean fireCreatedEvents = _fireCreatedEvents && (_parentWatch._mask & JNotify.FILE_CREATED) != 0;
+			for (int i = 0; i < files.length; i++)
+			{
+				File file = new File(dir, files[i]);
+				if (fireCreatedEvents)
 				{
-					if (e.getErrorCode() == JNotifyException.ERROR_WATCH_LIMIT_REACHED)
-						JNotify_linux.warn("JNotifyAdapterLinux.registerToSubTree : warning, failed to register " + root + " :" + e.getMessage());
+					synchronized (_id2Data)
 					{
-						throw e;
+						_parentWatch.notifyFileCreated(getRelativeName(file));
 					}
-					// else, on any other error, try subtree anyway..
+				}
+				if (file.isDirectory())
+				{
+					submit(file);
 				}
 			}
-			
-			String files[] = root.list();
-			if (files != null)
+		}
+
+		private void register(File dir)
+		{
+			if (_error != null || _parentWatch.isRemoved())
 			{
-				for (int i = 0; i < files.length; i++)
+				return;
+			}
+			try
+			{
+				createWatch(_parentWatch, false, dir, _parentWatch._mask, _parentWatch._linuxMask, _parentWatch._watchSubtree, _parentWatch._listener);
+			}
+			catch (JNotifyException e)
+			{
+				switch (e.getErrorCode())
 				{
-					String file = files[i];
-					registerToSubTree(false, parentWatch, new File(root, file), fireCreatedEvents);
+				case JNotifyException.ERROR_WATCH_LIMIT_REACHED:
+					notWatched(dir, e);
+					return;
+				case JNotifyException.ERROR_NO_SUCH_FILE_OR_DIRECTORY:
+					// deleted in the meantime
+					return;
+				default:
+					// on any other error, try subtree anyway..
+					JNotify_linux.warn("JNotifyAdapterLinux.registerToSubTree : warning, failed to register " + dir + " :" + e.getMessage());
 				}
 			}
+			submitChildren(dir);
+		}
+
+		private void notWatched(File dir, JNotifyException e)
+		{
+			if (_parentWatch._listener instanceof WatchLimitListener)
+			{
+				synchronized (_id2Data)
+				{
+					((WatchLimitListener) _parentWatch._listener).subtreeNotWatched(_parentWatch._wd, _parentWatch._path, getRelativeName(dir));
+				}
+			}
+			else if (_fireCreatedEvents)
+			{
+				// Registration from the notify thread; nobody reads the error
+				JNotify_linux.warn("JNotifyAdapterLinux: warning, failed to watch " + dir + " : " + e.getMessage());
+			}
+			else
+			{
+				fail(e);
+			}
+		}
+
+		private String getRelativeName(File file)
+		{
+			return file.getPath().substring(_parentWatch._path.length() + 1);
+		}
+
+		void fail(JNotifyException e)
+		{
+			if (_error == null)
+			{
+				_error = e;
+			}
+		}
+
+		JNotifyException getError()
+		{
+			return _error;
+		}
+
+		synchronized void await() throws InterruptedException
+		{
+			while (_pending.get() > 0)
+			{
+				wait();
+			}
 		}
 	}
 
@@ -236,10 +455,11 @@ public class JNotifyAdapterLinux implements IJNotify
 		
 		if (data._user)
 		{
-			for (int i = 0; i < data._subWd.size(); i++)
+			List<Integer> subWds = data.markRemoved();
+			for (int i = 0; i < subWds.size(); i++)
 			{
 				
-				int wd = data._subWd.get(i).intValue();
+				int wd = subWds.get(i).intValue();
 				try
 				{
 					JNotify_linux.removeWatch(wd);
@@ -282,20 +502,17 @@ public class JNotifyAdapterLinux implements IJNotify
 			{
 				if ((linuxMask & JNotify_linux.IN_CREATE) != 0)
 				{
-					File newRootFile = new File(watchData._path, name);
-					if (watchData._watchSubtree)
+					/*
+					 * Watches for new directories are created by the
+					 * registration threads, so that copying a large tree into
+					 * a watched directory doesn't block the notify thread.
+					 * Files created in the new directories before their
+					 * watches are in place are reported by the registration.
+					 */
+					if (watchData._watchSubtree && (linuxMask & JNotify_linux.IN_ISDIR) != 0)
 					{
-						try
-						{				
-							createWatch(watchData.getParentWatch(), false, newRootFile, watchData._mask, watchData._linuxMask, watchData._watchSubtree, watchData._listener);
-							// fire events for newly found directories under the new root.
-							WatchData parent = watchData.getParentWatch();
-							registerToSubTree(true, parent, newRootFile, true);
-						}
-						catch (JNotifyException e)
-						{
-							System.out.println("registerToSubTree : warning, failed to register " + newRootFile + " :" + e.getMessage());
-						}
+						File newRootFile = new File(watchData._path, name);
+						new SubtreeRegistration(watchData.getParentWatch(), true).submit(newRootFile);
 					}
 					
 					// make sure user really requested to be notified on this event.
@@ -303,16 +520,7 @@ public class JNotifyAdapterLinux implements IJNotify
 					// the user is not interester in creation events).
 					if ((watchData._mask & JNotify.FILE_CREATED) != 0)
 					{
-						// fire an event only if the path is not in the path2Watch,
-						// meaning no watch has been created on it.
-						if (!_autoWatchesPaths.contains(newRootFile.getPath()))
-						{
-							watchData.notifyFileCreated(name);
-						}
-						else
-						{
-							JNotify_linux.debug("Assuming already sent event for " + newRootFile.getPath());
-						}
+						watchData.notifyFileCreated(name);
 					}
 				}
 				else
@@ -345,9 +553,9 @@ public class JNotifyAdapterLinux implements IJNotify
 				{
 					_linuxWd2Wd.remove(Integer.valueOf(watchData._linuxWd));
 					_id2Data.remove(Integer.valueOf(watchData._wd));
+					_watchCount.decrementAndGet();
 					if (!watchData._user)
 					{
-						_autoWatchesPaths.remove(watchData._path);
 						watchData.removeFromParent();
 					}
 				}				
@@ -415,7 +623,9 @@ public class JNotifyAdapterLinux implements IJNotify
 		boolean _user;
 		int _wd;
 		private int _linuxWd;
-		private ArrayList<Integer> _subWd;
+		// The linux WDs of the auto watches of a user watch, guarded by this
+		private HashSet<Integer> _subWd;
+		private boolean _removed;
 		int _mask; 
 		int _linuxMask;
 		boolean _watchSubtree;
@@ -441,7 +651,7 @@ public class JNotifyAdapterLinux implements IJNotify
 			}
 			_parentWatchData = parentWatchData;
 			_user = user;
-			_subWd = new ArrayList<Integer>();
+			_subWd = new HashSet<Integer>();
 			_path = path;
 			_wd = wd;
 			_linuxMask = linuxMask;
@@ -449,11 +659,6 @@ public class JNotifyAdapterLinux implements IJNotify
 			_mask = mask;
 			_watchSubtree = watchSubtree;
 			_listener = listener;
-			
-			if (parentWatchData != null)
-			{
-				parentWatchData.addSubwatch(_linuxWd);
-			}
 		}
 		
 		public WatchData getParentWatch()
@@ -502,17 +707,44 @@ public class JNotifyAdapterLinux implements IJNotify
 			_listener.fileCreated(getParentWatchID(), outRoot, outName);
 		}
 
-		void remveSubwatch(int linuxWd)
+		synchronized void remveSubwatch(int linuxWd)
 		{
-			if (!_subWd.remove(Integer.valueOf(linuxWd)))
+			if (!_subWd.remove(Integer.valueOf(linuxWd)) && !_removed)
 			{
 				throw new RuntimeException("Error removing " + linuxWd + " from list");
 			}
 		}
 
-		void addSubwatch(int linuxWd)
-		{
+		/**
+		 * Adds the given auto watch to this user watch. Returns false if this
+		 * watch has been removed, in which case the caller must remove the
+		 * auto watch.
+		 */
+		synchronized boolean addSubwatch(int linuxWd)
+		{
+			if (_removed)
+			{
+				return false;
+			}
 			_subWd.add(Integer.valueOf(linuxWd));
+			return true;
+		}
+
+		/**
+		 * Marks this user watch as removed and returns its auto watches,
+		 * which the caller must remove.
+		 */
+		synchronized List<Integer> markRemoved()
+		{
+			_removed = true;
+			List<Integer> subWds = new ArrayList<Integer>(_subWd);
+			_subWd.clear();
+			return subWds;
+		}
+
+		synchronized boolean isRemoved()
+		{
+			return _removed;
 		}
 		
 		public String toString()
@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * JNotify - Allow java applications to register to File system events.
+ * 
+ * Copyright (C) 2005 - Content Objects
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * 
+ ******************************************************************************/
+
+package net.contentobjects.jnotify.linux;
+
+/**
+ * Can be implemented by a {@link net.contentobjects.jnotify.JNotifyListener}
+ * in order to be told about directories that couldn't be watched because the
+ * watch limit was reached or because of an unexpected error. Without it, such
+ * errors make the registration of a recursive watch fail.
+ */
+public interface WatchLimitListener
+{
+	/**
+	 * Called when the directory with the given name, relative to the root
+	 * path of the watch, couldn't be watched. Its subdirectories aren't
+	 * watched either.
+	 */
+	public void subtreeNotWatched(int wd, String rootPath, String name);
+}
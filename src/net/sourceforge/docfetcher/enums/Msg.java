@@ -127,6 +127,12 @@ public enum Msg {
 		"An error message that is shown during startup if it seems as if the " +
 		"user has installed or unpacked multiple DocFetcher instances on top " +
 		"of one another."),
+	index_folder_in_use (
+		"The index folder {0} is in use by the DocFetcher indexing server. " +
+		"Please stop the server before starting DocFetcher.",
+		"An error message that is shown during startup if the indexes are " +
+		"currently being kept up to date by DocFetcher running as a server. " +
+		"The path of the index folder will be inserted at the {0} slot."),
 	
 	// Filter panel
 	min_max_filesize (
@@ -535,6 +541,8 @@ public enum Msg {
 	archive_entry_encrypted ("Archive entry is encrypted."),
 	not_an_archive ("Not an archive."),
 	parser_not_found ("Could not find a suitable parser."),
+	parse_timeout ("Parsing was aborted because it took longer than {0} seconds."),
+	parse_memory_limit ("Parsing was aborted because the memory usage exceeded {0}% of the memory limit."),
 	folder_hierarchy_too_deep ("The folder hierarchy is too deep (at least {0} levels). Please " +
 			"reduce the folder depth and rebuild the index. This error occurred at: {1}"),
 	folder_hierarchy_too_deep_on_loading ("The following indexes couldn't be loaded because their "
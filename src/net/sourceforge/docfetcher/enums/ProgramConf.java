@@ -57,6 +57,8 @@ public final class ProgramConf {
 		SkipTarArchives (false),
 		IgnoreJunctionsAndSymlinks (true),
 		SaveSettings (true),
+		MemoryMappedTrees (false),
+		PollNetworkFolders (true),
 		;
 
 		private boolean value;
@@ -76,10 +78,24 @@ public final class ProgramConf {
 		MaxLinesInProgressPanel (1000, 2),
 		SearchBoxMaxWidth (200, 0),
 		MaxResultsTotal (10000, 1),
+		SearchThreads (0, 0),
+		QueryCacheSize (8192, 0),
 		PatternTableHeight (4, 1),
 		UnpackCacheCapacity (20, 1),
 		Analyzer (0, 0),
 		InitialSorting (0, Integer.MIN_VALUE),
+		OutlookIndexingThreads (0, 0),
+		PstFileCacheCapacity (4, 1),
+		AttachmentTextCacheSize (16384, 0),
+		PdfScratchFileThreshold (32, 0),
+		ContentStreamingThreshold (32, 0),
+		ParseTimeout (600, 0),
+		ParseMemoryLimit (90, 0),
+		ParseSandboxThreshold (1, 0),
+		FolderWatchLimit (0, 0),
+		FolderPollInterval (60, 1),
+		FolderPollRate (1000, 0),
+		ServerPort (0, 0),
 		;
 
 		private int value;
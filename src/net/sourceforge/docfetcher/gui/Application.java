@@ -47,7 +47,9 @@ import net.sourceforge.docfetcher.model.FolderWatcher;
 import net.sourceforge.docfetcher.model.IndexLoadingProblems;
 import net.sourceforge.docfetcher.model.IndexLoadingProblems.CorruptedIndex;
 import net.sourceforge.docfetcher.model.IndexLoadingProblems.OverflowIndex;
+import net.sourceforge.docfetcher.model.IndexFolderLock;
 import net.sourceforge.docfetcher.model.IndexRegistry;
+import net.sourceforge.docfetcher.model.IndexingServer;
 import net.sourceforge.docfetcher.model.LuceneIndex;
 import net.sourceforge.docfetcher.model.index.IndexingQueue;
 import net.sourceforge.docfetcher.model.index.Task.CancelAction;
@@ -109,6 +111,8 @@ public final class Application {
 
 	private static volatile IndexRegistry indexRegistry;
 	private static volatile FolderWatcher folderWatcher;
+	// Must be referenced for as long as the program runs
+	@Nullable private static IndexFolderLock indexFolderLock;
 	@Nullable private static HotkeyHandler hotkeyHandler;
 	private static File programConfFile;
 
@@ -246,11 +250,32 @@ public final class Application {
 			loadIndexRegistryHeadless(getIndexParentDir(IndexRegistry.indexPathOverride));
 			return;
 		}
+		
+		// Keep indexes up to date in headless server mode
+		if (args.length >= 1 && args[0].equals("--server")) {
+			runServer(getIndexParentDir(IndexRegistry.indexPathOverride));
+			return;
+		}
 
 		// Check single instance
 		if (!AppUtil.checkSingleInstance())
 			return;
 		
+		// Don't load the indexes while the indexing server is using them
+		File indexParentDir = getIndexParentDir(IndexRegistry.indexPathOverride);
+		try {
+			indexFolderLock = IndexFolderLock.tryAcquire(indexParentDir, false);
+			if (indexFolderLock == null) {
+				String msg = Msg.index_folder_in_use.format(
+					Util.getSystemAbsPath(indexParentDir));
+				AppUtil.showErrorOnStart(msg, true);
+				return;
+			}
+		}
+		catch (IOException e) {
+			// The index folder might be read-only, e.g. on a CD-ROM
+		}
+		
 		checkMultipleDocFetcherJars();
 
 		// Determine shell title
@@ -270,7 +295,7 @@ public final class Application {
 		Display display = new Display();
 		AppUtil.setDisplay(display);
 		shell = new Shell(display);
-		loadIndexRegistry(shell, getIndexParentDir(IndexRegistry.indexPathOverride));
+		loadIndexRegistry(shell, indexParentDir);
 
 		// Load images
 		LazyImageCache lazyImageCache = new LazyImageCache(
@@ -623,14 +648,34 @@ public final class Application {
 	}
 	
 	private static void loadIndexRegistryHeadless(@NotNull File indexParentDir) {
+		// Don't load the indexes while the indexing server is using them
+		final IndexFolderLock lock;
+		try {
+			lock = IndexFolderLock.tryAcquire(indexParentDir, false);
+			if (lock == null) {
+				Util.printErr(Msg.index_folder_in_use.format(
+					Util.getSystemAbsPath(indexParentDir)));
+				return;
+			}
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+			return;
+		}
+		
 		int cacheCapacity = ProgramConf.Int.UnpackCacheCapacity.get();
 		int reporterCapacity = ProgramConf.Int.MaxLinesInProgressPanel.get();
 		indexRegistry = new IndexRegistry(
 			indexParentDir, cacheCapacity, reporterCapacity);
+		final IndexingQueue queue = indexRegistry.getQueue();
+		queue.evtWorkerThreadTerminated.add(new Event.Listener<Void>() {
+			public void update(Void eventData) {
+				lock.release();
+			}
+		});
 		
 		try {
 			indexRegistry.load(Cancelable.nullCancelable);
-			final IndexingQueue queue = indexRegistry.getQueue();
 			
 			queue.evtQueueEmpty.add(new Event.Listener<Void>() {
 				public void update(Void eventData) {
@@ -651,6 +696,30 @@ public final class Application {
 		}
 	}
 	
+	private static void runServer(@NotNull File indexParentDir) {
+		final IndexingServer server = new IndexingServer(indexParentDir);
+		
+		// Save the indexes if the server is terminated, e.g. with Ctrl+C
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				server.shutdown();
+				try {
+					server.awaitTermination(10000);
+				}
+				catch (InterruptedException e) {
+					// Ignore
+				}
+			}
+		});
+		
+		try {
+			server.run(ProgramConf.Int.ServerPort.get());
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+		}
+	}
+	
 	private static void reportObsoleteIndexFiles(	@NotNull Shell mainShell,
 	                                             	@NotNull File indexDir,
 													@NotNull List<File> filesToDelete) {
@@ -329,6 +329,42 @@ class HighlightingToolBarWithTextViewer {
 		}
 	}
 	
+	/**
+	 * Sets the text of the page with the given zero-based index. Unlike
+	 * {@link #appendPage(HighlightedString)}, this method allows adding pages
+	 * out of order: Missing pages before the given page are filled with empty
+	 * placeholder pages, which are replaced when the missing pages arrive. The
+	 * first page added after clearing the receiver is displayed.
+	 */
+	public final void setPage(int pageIndex, @NotNull HighlightedString string) {
+		Util.checkThat(pageIndex >= 0);
+		boolean wasEmpty = pages.isEmpty();
+		while (pages.size() <= pageIndex)
+			pages.add(HighlightedString.createEmpty());
+		HighlightedString oldString = pages.set(pageIndex, string);
+		occCount += string.getRangeCount() - oldString.getRangeCount();
+		
+		if (wasEmpty) {
+			this.pageIndex = pageIndex;
+			textViewer.appendText(string);
+		}
+		else if (this.pageIndex == pageIndex) {
+			textViewer.setText(string); // Replace placeholder page
+		}
+		else if (this.pageIndex > pageIndex && string.getRangeCount() > 0) {
+			// Absolute occurrence number of the selection has changed
+			currentOcc = null;
+		}
+		
+		updatePageToolbar(true);
+		occField.setRange(currentOcc, occCount);
+		if (occCount > 0) {
+			upBt.setEnabled(true);
+			downBt.setEnabled(true);
+			highlightBt.setEnabled(true);
+		}
+	}
+	
 	public final void clear(boolean showPageToolbar) {
 		currentOcc = null;
 		occCount = 0;
@@ -333,6 +333,21 @@ public final class PreviewPanel extends Composite {
 		});
 	}
 	
+	// Returns true on success
+	@ThreadSafe
+	private boolean setPagesSafely(	@NotNull final List<HighlightedString> strings,
+									@NotNull final List<Integer> pageIndices,
+									final long requestCount) {
+		return runSafely(requestCount, textPreview, new Runnable() {
+			public void run() {
+				textPreview.setUseMonoFont(false);
+				Iterator<Integer> it = pageIndices.iterator();
+				for (HighlightedString string : strings)
+					textPreview.setPage(it.next(), string);
+			}
+		});
+	}
+	
 	// Returns true on success
 	@ThreadSafe
 	private boolean runSafely(	final long requestCount,
@@ -400,12 +415,16 @@ public final class PreviewPanel extends Composite {
 				FileNotFoundException, CheckedOutOfMemoryError {
 			class Item {
 				private final List<HighlightedString> strings = new LinkedList<HighlightedString>();
+				private final List<Integer> pageIndices = new LinkedList<Integer>();
 				private boolean isLastItem;
 				
 				public Item(@Nullable HighlightedString string,
+							int pageIndex,
 							boolean isLastItem) {
-					if (string != null)
+					if (string != null) {
 						strings.add(string);
+						pageIndices.add(pageIndex);
+					}
 					this.isLastItem = isLastItem;
 				}
 			}
@@ -413,6 +432,7 @@ public final class PreviewPanel extends Composite {
 			final MergingBlockingQueue<Item> queue = new MergingBlockingQueue<Item>() {
 				protected Item merge(Item item1, Item item2) {
 					item1.strings.addAll(item2.strings);
+					item1.pageIndices.addAll(item2.pageIndices);
 					item1.isLastItem = item1.isLastItem || item2.isLastItem;
 					return item1;
 				};
@@ -424,7 +444,7 @@ public final class PreviewPanel extends Composite {
 						try {
 							Item item = queue.take();
 							if (!item.strings.isEmpty())
-								if (!setTextSafely(item.strings, false, startCount, true))
+								if (!setPagesSafely(item.strings, item.pageIndices, startCount))
 									isStopped = true;
 							overlayHider.hide(); // Hide overlay after first page
 							if (item.isLastItem)
@@ -440,15 +460,15 @@ public final class PreviewPanel extends Composite {
 			updater.start();
 			
 			doc.readPages(new PreviewPageHandler() {
-				public void handlePage(HighlightedString pageText) {
-					queue.put(new Item(pageText, false));
+				public void handlePage(HighlightedString pageText, int pageIndex) {
+					queue.put(new Item(pageText, pageIndex, false));
 				}
 				public boolean isStopped() {
 					return isStopped;
 				}
 			});
 			
-			queue.put(new Item(null, true));
+			queue.put(new Item(null, -1, true));
 		}
 	}
 	
@@ -81,5 +81,9 @@ final class TextPreview extends ToolBarForm {
 	public void appendPage(@NotNull HighlightedString string) {
 		toolBarWithTextViewer.appendPage(string);
 	}
+	
+	public void setPage(int pageIndex, @NotNull HighlightedString string) {
+		toolBarWithTextViewer.setPage(pageIndex, string);
+	}
 
 }
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.sourceforge.docfetcher.model.index.IndexingQueue;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.concurrent.DelayedExecutor;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Collects the changes reported for the folders of each index and hands them
+ * over in batches once the changes have stopped for a while.
+ * <p>
+ * The delay before a batch is handed over depends on the number of changes
+ * in it: A single saved file is handed over after a short delay, while during
+ * a bulk copy the delay grows, so that the copy doesn't cause a series of
+ * index updates. Thus, indexes with few changes are also updated before
+ * indexes with many changes. However, no batch is held back longer than a
+ * fixed maximum after its first change.
+ * <p>
+ * Each batch keeps at most {@link IndexingQueue#MAX_TARGET_FOLDERS} folders.
+ * If there are more changed folders, or if a change can't be attributed to a
+ * folder, the batch is turned into a rescan of the entire index, and the
+ * folders are dropped. The batches of all indexes share a single timer thread.
+ *
+ * @author Tran Nam Quang
+ */
+final class ChangeBuffer {
+
+	public interface UpdateHandler {
+		/**
+		 * Called without lock from the timer thread. The given folders are
+		 * null if the entire index should be updated.
+		 */
+		public void update(	@NotNull LuceneIndex index,
+							@Nullable Collection<File> folders);
+	}
+
+	static final long MIN_DELAY = 300;
+	static final long DELAY_PER_CHANGE = 20;
+	static final long MAX_DELAY = 5000;
+	static final long MAX_LATENCY = 60000;
+
+	private final class Batch implements Runnable {
+		private final LuceneIndex index;
+		private final DelayedExecutor executor = new DelayedExecutor(MIN_DELAY);
+		private final long firstChange = System.currentTimeMillis();
+		private int changeCount = 0;
+
+		// Null if the entire index should be updated
+		@Nullable private Set<File> folders = new LinkedHashSet<File>();
+
+		private Batch(@NotNull LuceneIndex index) {
+			this.index = index;
+		}
+
+		public void run() {
+			flush(this);
+		}
+	}
+
+	private final UpdateHandler handler;
+	private final Map<LuceneIndex, Batch> batches = Maps.newHashMap(); // guarded by this
+
+	public ChangeBuffer(@NotNull UpdateHandler handler) {
+		this.handler = Util.checkNotNull(handler);
+	}
+
+	/**
+	 * Records that the contents of the given folder of the given index have
+	 * changed.
+	 */
+	public synchronized void addChange(	@NotNull LuceneIndex index,
+										@NotNull File folder) {
+		Util.checkNotNull(index, folder);
+		Batch batch = getBatch(index);
+		if (batch.folders != null) {
+			batch.folders.add(folder);
+			if (batch.folders.size() > IndexingQueue.MAX_TARGET_FOLDERS)
+				batch.folders = null;
+		}
+		schedule(batch);
+	}
+
+	/**
+	 * Records that the entire given index must be updated.
+	 */
+	public synchronized void addRescan(@NotNull LuceneIndex index) {
+		Util.checkNotNull(index);
+		Batch batch = getBatch(index);
+		batch.folders = null;
+		schedule(batch);
+	}
+
+	/**
+	 * Discards the pending changes of the given index.
+	 */
+	public synchronized void remove(@NotNull LuceneIndex index) {
+		batches.remove(index);
+	}
+
+	// Must be called while holding the lock
+	@NotNull
+	private Batch getBatch(@NotNull LuceneIndex index) {
+		Batch batch = batches.get(index);
+		if (batch == null) {
+			batch = new Batch(index);
+			batches.put(index, batch);
+		}
+		return batch;
+	}
+
+	// Must be called while holding the lock
+	private void schedule(@NotNull Batch batch) {
+		batch.changeCount++;
+		long delay = Math.min(
+			MIN_DELAY + DELAY_PER_CHANGE * (batch.changeCount - 1), MAX_DELAY);
+		long remaining = batch.firstChange + MAX_LATENCY - System.currentTimeMillis();
+		batch.executor.schedule(batch, Math.max(0, Math.min(delay, remaining)));
+	}
+
+	private void flush(@NotNull Batch batch) {
+		Collection<File> folders;
+		synchronized (this) {
+			// The batch may have been discarded in the meantime
+			if (batches.get(batch.index) != batch)
+				return;
+			batches.remove(batch.index);
+			folders = batch.folders == null
+				? null
+				: new ArrayList<File>(batch.folders);
+		}
+		handler.update(batch.index, folders);
+	}
+
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.sourceforge.docfetcher.model.index.IndexingQueue;
+import net.sourceforge.docfetcher.model.index.file.FileIndex;
+import net.sourceforge.docfetcher.util.AppUtil;
+
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class ChangeBufferTest {
+
+	static {
+		AppUtil.Const.autoInit();
+	}
+
+	private static final class Update {
+		private final LuceneIndex index;
+		private final Collection<File> folders;
+
+		private Update(LuceneIndex index, Collection<File> folders) {
+			this.index = index;
+			this.folders = folders;
+		}
+	}
+
+	private final BlockingQueue<Update> updates = new LinkedBlockingQueue<Update>();
+
+	private final ChangeBuffer buffer = new ChangeBuffer(new ChangeBuffer.UpdateHandler() {
+		public void update(LuceneIndex index, Collection<File> folders) {
+			updates.add(new Update(index, folders));
+		}
+	});
+
+	@Test
+	public void testCoalescing() throws Exception {
+		LuceneIndex index1 = new FileIndex(null, new File("one"));
+		LuceneIndex index2 = new FileIndex(null, new File("two"));
+		File a = new File("one/a");
+		File b = new File("one/b");
+
+		buffer.addChange(index1, a);
+		buffer.addChange(index1, b);
+		buffer.addChange(index1, a);
+		buffer.addRescan(index2);
+
+		List<Update> received = new ArrayList<Update>();
+		received.add(poll());
+		received.add(poll());
+		assertNull(updates.poll(ChangeBuffer.MIN_DELAY * 2, TimeUnit.MILLISECONDS));
+
+		for (Update update : received) {
+			if (update.index == index1)
+				assertEquals(Arrays.asList(a, b), update.folders);
+			else
+				assertNull(update.folders);
+		}
+	}
+
+	@Test
+	public void testOverflow() throws Exception {
+		LuceneIndex index = new FileIndex(null, new File("root"));
+		for (int i = 0; i <= IndexingQueue.MAX_TARGET_FOLDERS; i++)
+			buffer.addChange(index, new File("root/" + i));
+		Update update = poll();
+		assertTrue(update.index == index);
+		assertNull(update.folders);
+	}
+
+	private Update poll() throws InterruptedException {
+		Update update = updates.poll(ChangeBuffer.MAX_DELAY * 2, TimeUnit.MILLISECONDS);
+		assertTrue(update != null);
+		return update;
+	}
+
+}
@@ -16,14 +16,23 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import net.sourceforge.docfetcher.model.index.IndexingQueue;
 import net.sourceforge.docfetcher.model.index.Task.IndexAction;
+import net.sourceforge.docfetcher.model.index.file.FileIndex;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 
 import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.io.Closeables;
 import com.google.common.io.Files;
 import com.google.common.io.LineProcessor;
@@ -33,8 +42,61 @@ import com.google.common.io.LineProcessor;
  */
 public final class Daemon {
 	
+	/**
+	 * The changes recorded by the daemon while DocFetcher wasn't running. The
+	 * journal file contains one changed folder per line. A line starting with
+	 * "#" means that the given index root must be updated entirely, e.g.
+	 * because too many folders have changed.
+	 */
+	static final class Journal {
+		private final Map<LuceneIndex, Set<File>> folders = Maps.newHashMap();
+		private final Set<LuceneIndex> overflowed = Sets.newHashSet();
+		
+		@NotNull
+		static Journal read(@NotNull File file,
+		                    @NotNull Collection<LuceneIndex> indexes)
+				throws IOException {
+			Journal journal = new Journal();
+			if (!file.exists())
+				return journal;
+			for (String line : Files.readLines(file, Charsets.UTF_8)) {
+				if (line.isEmpty() || line.startsWith("//")) //$NON-NLS-1$
+					continue;
+				if (line.startsWith("#")) { //$NON-NLS-1$
+					LuceneIndex index = findIndex(indexes, line.substring(1), false);
+					if (index != null)
+						journal.overflowed.add(index);
+					continue;
+				}
+				File folder = new File(line).getAbsoluteFile();
+				LuceneIndex index = findIndex(indexes, line, true);
+				if (index == null || journal.overflowed.contains(index))
+					continue;
+				Set<File> indexFolders = journal.folders.get(index);
+				if (indexFolders == null) {
+					indexFolders = new LinkedHashSet<File>();
+					journal.folders.put(index, indexFolders);
+				}
+				indexFolders.add(folder);
+			}
+			return journal;
+		}
+		
+		/**
+		 * Returns the changed folders of the given index, or null if the entire
+		 * index must be updated.
+		 */
+		@Nullable
+		Collection<File> getFolders(@NotNull LuceneIndex index) {
+			if (!(index instanceof FileIndex) || overflowed.contains(index))
+				return null;
+			return folders.get(index);
+		}
+	}
+	
 	private final IndexRegistry indexRegistry;
 	private final File indexesFile;
+	private final File journalFile;
 
 	public Daemon(@NotNull IndexRegistry indexRegistry) {
 		Util.checkNotNull(indexRegistry);
@@ -42,6 +104,7 @@ public final class Daemon {
 		
 		File indexParentDir = indexRegistry.getIndexParentDir();
 		indexesFile = new File(indexParentDir, ".indexes.txt");
+		journalFile = new File(indexParentDir, ".indexes.txt.journal");
 		
 		/*
 		 * Open a FileOutputStream for writing. This lets the daemon know that
@@ -67,13 +130,15 @@ public final class Daemon {
 	
 	/**
 	 * Checks if the daemon has detected changes in the indexed folders and runs
-	 * index updates on all changed folders.
+	 * index updates on all changed folders. If the daemon has recorded which
+	 * folders have changed, only these folders are updated.
 	 */
 	public void enqueueUpdateTasks() {
 		if (!indexesFile.exists())
 			return; // Happens when we're inside the IDE
 		
-		final IndexingQueue queue = indexRegistry.getQueue();
+		final List<LuceneIndex> indexes = indexRegistry.getIndexes();
+		final List<LuceneIndex> changedIndexes = new ArrayList<LuceneIndex>();
 		try {
 			Files.readLines(indexesFile, Charsets.UTF_8, new LineProcessor<Void>() {
 				public boolean processLine(String line) throws IOException {
@@ -86,11 +151,11 @@ public final class Daemon {
 						return true;
 					
 					String rootPath = line.substring(1);
-					LuceneIndex index = findIndex(rootPath);
+					LuceneIndex index = findIndex(indexes, rootPath, false);
 					if (index == null)
 						return true; // Unknown directory?
 					
-					queue.addTask(index, IndexAction.UPDATE);
+					changedIndexes.add(index);
 					return true;
 				}
 				public Void getResult() {
@@ -102,14 +167,41 @@ public final class Daemon {
 			// Don't show stacktrace window here, GUI might not be available
 			Util.printErr(e);
 		}
+		
+		/*
+		 * Older versions of the daemon don't write a journal, in which case
+		 * the changed indexes are updated entirely.
+		 */
+		Journal journal = new Journal();
+		try {
+			journal = Journal.read(journalFile, changedIndexes);
+		}
+		catch (Exception e) {
+			Util.printErr(e);
+		}
+		journalFile.delete();
+		
+		IndexingQueue queue = indexRegistry.getQueue();
+		for (LuceneIndex index : changedIndexes)
+			queue.addTask(index, IndexAction.UPDATE, journal.getFolders(index));
 	}
 	
+	/**
+	 * Returns the index with the given root path. If <tt>orParent</tt> is
+	 * true, an index whose root contains the given path is also accepted.
+	 */
 	@Nullable
-	private LuceneIndex findIndex(@NotNull String rootPath) {
-		File rootFile = new File(rootPath).getAbsoluteFile();
-		for (LuceneIndex index : indexRegistry.getIndexes())
-			if (rootFile.equals(index.getCanonicalRootFile()))
+	private static LuceneIndex findIndex(	@NotNull Collection<LuceneIndex> indexes,
+											@NotNull String path,
+											boolean orParent) {
+		File file = new File(path).getAbsoluteFile();
+		for (LuceneIndex index : indexes) {
+			File rootFile = index.getCanonicalRootFile();
+			if (file.equals(rootFile))
+				return index;
+			if (orParent && Util.contains(rootFile, file))
 				return index;
+		}
 		return null;
 	}
 	
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sourceforge.docfetcher.model.Daemon.Journal;
+import net.sourceforge.docfetcher.model.index.file.FileIndex;
+import net.sourceforge.docfetcher.util.AppUtil;
+import net.sourceforge.docfetcher.util.Util;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.io.Files;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class DaemonTest {
+
+	static {
+		AppUtil.Const.autoInit();
+	}
+
+	@Test
+	public void testReadJournal() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			File root1 = new File(tempDir, "one");
+			File root2 = new File(tempDir, "two");
+			File root3 = new File(tempDir, "three");
+			root1.mkdir();
+			root2.mkdir();
+			root3.mkdir();
+			LuceneIndex index1 = new FileIndex(null, root1);
+			LuceneIndex index2 = new FileIndex(null, root2);
+			LuceneIndex index3 = new FileIndex(null, root3);
+			List<LuceneIndex> indexes = Arrays.asList(index1, index2, index3);
+
+			File sub = new File(root1, "sub");
+			File journalFile = new File(tempDir, "journal.txt");
+			Files.write(Joiner.on(Util.LS).join(
+				"//Comment",
+				sub.getPath(),
+				root1.getPath(),
+				sub.getPath(),
+				root2.getPath(),
+				"#" + root2.getPath(),
+				new File(tempDir, "unknown").getPath()
+			), journalFile, Charsets.UTF_8);
+
+			Journal journal = Journal.read(journalFile, indexes);
+			assertEquals(Arrays.asList(sub, root1), new ArrayList<File>(journal.getFolders(index1)));
+			assertNull(journal.getFolders(index2));
+			assertNull(journal.getFolders(index3));
+
+			// Missing journal
+			journal = Journal.read(new File(tempDir, "missing.txt"), indexes);
+			assertNull(journal.getFolders(index1));
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+}
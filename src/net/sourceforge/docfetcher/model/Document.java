@@ -54,8 +54,9 @@ public abstract class Document<D extends Document<D, F>, F extends Folder<D, F>>
 	}
 	
 	/*
-	 * TODO post-release-1.1: This method is somewhat expensive. Try to avoid
-	 * calling it. May also have multi-threading issues.
+	 * The paths of documents are not cached in order to save RAM, since there
+	 * may be millions of documents. Constructing the path is cheap though,
+	 * because the parent's path is cached. May have multi-threading issues.
 	 */
 	@NotNull
 	public final Path getPath() {
@@ -11,6 +11,8 @@
 
 package net.sourceforge.docfetcher.model;
 
+import java.io.Reader;
+
 import javolution.io.CharSequenceReader;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
@@ -49,6 +51,7 @@ public enum Fields {
 	// filtering and sorting for the web interface
 	SIZE (Store.YES, Index.ANALYZED_NO_NORMS),
 	PARSER (Store.YES, Index.NO), // Use constant EMAIL_PARSER for emails
+	PAGES (Store.YES, Index.NO), // optional character offsets of pages, see encodePageOffsets
 	
 	// Fields available for files
 	FILENAME (Store.YES, Index.ANALYZED),
@@ -109,6 +112,19 @@ public enum Fields {
 		TermVector termVector = withOffsets
 			? TermVector.WITH_POSITIONS_OFFSETS
 			: TermVector.NO;
+		return createContent(fieldValue, termVector);
+	}
+	
+	// Creates a tokenized and indexed field that is not stored; the given
+	// reader is consumed when the field is written to the index
+	@NotNull
+	public static Field createContent(@NotNull Reader reader) {
+		return new Field(CONTENT.key, reader, TermVector.NO);
+	}
+	
+	@NotNull
+	public static Field createContent(	@NotNull CharSequence fieldValue,
+										@NotNull TermVector termVector) {
 		if (fieldValue instanceof String) {
 			return new Field(
 				CONTENT.key, (String) fieldValue, CONTENT.store, CONTENT.index,
@@ -118,5 +134,43 @@ public enum Fields {
 			CONTENT.key, new CharSequenceReader().setInput(fieldValue),
 			termVector);
 	}
+	
+	/**
+	 * Encodes the given page offsets for storage in the {@link #PAGES} field.
+	 * The page offsets consist of the character offsets at which the pages
+	 * start in the content field, followed by the character offset at which the
+	 * last page ends.
+	 */
+	@NotNull
+	public static String encodePageOffsets(@NotNull int[] pageOffsets) {
+		// Store differences between offsets, since these are much shorter
+		StringBuilder sb = new StringBuilder(pageOffsets.length * 5);
+		int last = 0;
+		for (int i = 0; i < pageOffsets.length; i++) {
+			if (i > 0)
+				sb.append(' ');
+			sb.append(Integer.toString(pageOffsets[i] - last, Character.MAX_RADIX));
+			last = pageOffsets[i];
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Inverse of {@link #encodePageOffsets(int[])}. Throws a
+	 * NumberFormatException if the given string is malformed.
+	 */
+	@NotNull
+	public static int[] decodePageOffsets(@NotNull String encoded) {
+		if (encoded.isEmpty())
+			return new int[0];
+		String[] parts = encoded.split(" ");
+		int[] pageOffsets = new int[parts.length];
+		int last = 0;
+		for (int i = 0; i < parts.length; i++) {
+			last += Integer.parseInt(parts[i], Character.MAX_RADIX);
+			pageOffsets[i] = last;
+		}
+		return pageOffsets;
+	}
 
 }
@@ -11,19 +11,22 @@
 
 package net.sourceforge.docfetcher.model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
 import net.sourceforge.docfetcher.UtilGlobal;
 import net.sourceforge.docfetcher.util.Event;
 import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.Immutable;
 import net.sourceforge.docfetcher.util.annotations.ImmutableCopy;
 import net.sourceforge.docfetcher.util.annotations.MutableCopy;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
@@ -33,7 +36,6 @@ import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
 import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
 
 import com.google.common.base.Predicate;
-import com.google.common.collect.Maps;
 
 /**
  * @author Tran Nam Quang
@@ -56,6 +58,30 @@ public abstract class Folder
 		}
 	}
 
+	/**
+	 * Creates the children of a folder on demand, for folders whose children
+	 * are stored outside of the heap. For folders whose children haven't been
+	 * created yet, the loader also answers some queries about the unloaded
+	 * descendants, so that these queries don't force the entire tree into
+	 * memory.
+	 */
+	@VisibleForPackageGroup
+	public interface ChildLoader
+		<D extends Document<D, F>, F extends Folder<D, F>> {
+		/**
+		 * Creates the documents and subfolders of the given folder. This is
+		 * called while the folder's lock is held, and once it has returned
+		 * normally, it isn't called again for the same folder. Throws an
+		 * unchecked exception if the children can't be created.
+		 */
+		public void loadChildren(@NotNull F folder);
+
+		/**
+		 * Returns whether any of the unloaded descendants has errors.
+		 */
+		public boolean hasErrorsDeep();
+	}
+
 	/*
 	 * TODO post-release-1.1: Rethink the synchronization used here. Maybe use
 	 * a global static lock for all instances of TreeNode, Folder, Document, etc.?
@@ -63,6 +89,27 @@ public abstract class Folder
 	
 	private static final long serialVersionUID = 1L;
 
+	/*
+	 * The serialized form of this class is defined explicitly, so that indexes
+	 * created by older versions can still be loaded, in which the children
+	 * were stored as HashMaps and the last-modified value as a Long. The
+	 * children are stored as arrays, which avoids creating a temporary HashMap
+	 * for each folder when the index is saved. The path hash code is no longer
+	 * used, but is still written as zero, so that older versions can load the
+	 * indexes.
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("documents", HashMap.class), //$NON-NLS-1$
+		new ObjectStreamField("subFolders", HashMap.class), //$NON-NLS-1$
+		new ObjectStreamField("documentArray", TreeNode[].class), //$NON-NLS-1$
+		new ObjectStreamField("subFolderArray", TreeNode[].class), //$NON-NLS-1$
+		new ObjectStreamField("parent", Folder.class), //$NON-NLS-1$
+		new ObjectStreamField("path", Path.class), //$NON-NLS-1$
+		new ObjectStreamField("pathHashCode", int.class), //$NON-NLS-1$
+		new ObjectStreamField("lastModified", Long.class), //$NON-NLS-1$
+		new ObjectStreamField("isChecked", boolean.class) //$NON-NLS-1$
+	};
+
 	// Making these events non-static would lead to trouble with serialization
 	public static final Event<FolderEvent> evtFolderAdding = new Event<FolderEvent>();
 	public static final Event<FolderEvent> evtFolderAdded = new Event<FolderEvent>();
@@ -82,10 +129,17 @@ public abstract class Folder
 	 * different maps.)
 	 *
 	 * These maps are set to null when they're empty in order to avoid wasting
-	 * RAM when the tree is very large and has many empty leaf nodes.
+	 * RAM when the tree is very large and has many empty leaf nodes. For the
+	 * same reason, they're NodeMaps rather than HashMaps.
+	 *
+	 * The maps are copy-on-write: Readers freeze the current map and then
+	 * traverse it without locking, while writers hold the folder's lock and
+	 * replace a frozen map with a modified copy. This way, the GUI, the folder
+	 * watcher and the search filter can read the tree while an index update
+	 * is modifying it, without contending for the folder locks.
 	 */
-	@Nullable private HashMap<String, D> documents;
-	@Nullable protected HashMap<String, F> subFolders;
+	@Nullable private transient volatile NodeMap<D> documents;
+	@Nullable protected transient volatile NodeMap<F> subFolders;
 
 	/*
 	 * If this is a root folder, then it has a non-null path and a null parent.
@@ -95,15 +149,53 @@ public abstract class Folder
 	 */
 	@Nullable protected F parent;
 	@Nullable protected Path path;
-	private int pathHashCode;
+
+	/*
+	 * The lazily constructed path of a non-root folder, together with the
+	 * parent path it was constructed from. Both are stored in a single
+	 * immutable object so that they can be read and replaced atomically
+	 * without locking.
+	 */
+	private static final class PathCache {
+		private final Path parentPath;
+		private final Path path;
+
+		private PathCache(@NotNull Path parentPath, @NotNull Path path) {
+			this.parentPath = parentPath;
+			this.path = path;
+		}
+	}
+
+	@Nullable private transient volatile PathCache pathCache;
 
 	/**
-	 * The last time this object was modified. Null if the object has no last
-	 * modified field (e.g. regular folder).
+	 * The last time this object was modified, or NO_LAST_MODIFIED if the
+	 * object has no last modified field (e.g. regular folder). Stored as a
+	 * primitive in order to avoid allocating a Long object for each archive.
+	 */
+	private transient long lastModified;
+	private static final long NO_LAST_MODIFIED = Long.MIN_VALUE;
+
+	protected volatile boolean isChecked = true;
+
+	/*
+	 * If non-null, the children of this folder haven't been created yet and
+	 * will be created by this loader as soon as they're accessed.
 	 */
-	@Nullable private Long lastModified;
+	@Nullable private transient volatile ChildLoader<D, F> childLoader;
 
-	protected boolean isChecked = true;
+	/*
+	 * Whether the child loader is running. The child loader is only cleared
+	 * after it has finished, so that readers that don't acquire the lock
+	 * won't see a partially loaded folder.
+	 */
+	private transient boolean loadingChildren;
+
+	/*
+	 * Whether the children of this folder are omitted when the folder is
+	 * serialized, because they're stored elsewhere.
+	 */
+	private transient boolean childrenStoredExternally;
 
 	@SuppressWarnings("unchecked")
 	protected Folder(	@NotNull F parent,
@@ -112,41 +204,229 @@ public abstract class Folder
 		super(name);
 		Util.checkNotNull(parent);
 		this.parent = parent;
-		this.lastModified = lastModified;
+		setLastModified(lastModified);
 		parent.putSubFolder((F) this);
-		updatePathHashCode();
 	}
 
 	protected Folder(@NotNull Path path, @Nullable Long lastModified) {
 		super(path.getName());
 		this.path = path;
-		this.lastModified = lastModified;
-		updatePathHashCode();
+		setLastModified(lastModified);
+	}
+
+	/**
+	 * Creates a subfolder of the given parent while the parent's children are
+	 * being loaded by a {@link ChildLoader}. In contrast to the other
+	 * constructors, this doesn't fire any events, since the new folder isn't
+	 * actually new. The children of the new folder will be created on demand
+	 * by the given loader.
+	 */
+	@SuppressWarnings("unchecked")
+	protected Folder(	@NotNull F parent,
+						@NotNull String name,
+						@Nullable Long lastModified,
+						@NotNull ChildLoader<D, F> childLoader) {
+		super(name);
+		Util.checkNotNull(parent, childLoader);
+		this.parent = parent;
+		this.childLoader = childLoader;
+		setLastModified(lastModified);
+		synchronized (parent) {
+			NodeMap<F> siblings = beginWrite(parent.subFolders);
+			siblings.put((F) this);
+			parent.subFolders = endWrite(siblings);
+		}
 	}
 	
-	public final synchronized int getParentCount() {
-		int count = 0;
-		F current = parent;
-		while (current != null) {
-			count++;
-			current = current.parent; // this is not really thread-safe :-/
+	private void writeObject(@NotNull ObjectOutputStream out)
+			throws IOException {
+		TreeNode[] documentArray = null;
+		TreeNode[] subFolderArray = null;
+		synchronized (this) {
+			if (!childrenStoredExternally) {
+				loadChildren();
+				if (documents != null)
+					documentArray = documents.toArray();
+				if (subFolders != null)
+					subFolderArray = subFolders.toArray();
+			}
 		}
-		return count;
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("documentArray", documentArray); //$NON-NLS-1$
+		fields.put("subFolderArray", subFolderArray); //$NON-NLS-1$
+		fields.put("parent", parent); //$NON-NLS-1$
+		fields.put("path", path); //$NON-NLS-1$
+		fields.put("pathHashCode", 0); //$NON-NLS-1$
+		fields.put("lastModified", getLastModified()); //$NON-NLS-1$
+		fields.put("isChecked", isChecked); //$NON-NLS-1$
+		out.writeFields();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(@NotNull ObjectInputStream in)
+			throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		documents = readChildren(fields, "documentArray", "documents"); //$NON-NLS-1$ //$NON-NLS-2$
+		subFolders = readChildren(fields, "subFolderArray", "subFolders"); //$NON-NLS-1$ //$NON-NLS-2$
+		parent = (F) fields.get("parent", null); //$NON-NLS-1$
+		path = (Path) fields.get("path", null); //$NON-NLS-1$
+		setLastModified((Long) fields.get("lastModified", null)); //$NON-NLS-1$
+		isChecked = fields.get("isChecked", true); //$NON-NLS-1$
 	}
 
-	protected void updatePathHashCode() {
-		if (path != null) {
-			pathHashCode = path.getPath().hashCode();
+	@Nullable
+	@SuppressWarnings("unchecked")
+	private static <T extends TreeNode> NodeMap<T> readChildren(@NotNull ObjectInputStream.GetField fields,
+																@NotNull String arrayField,
+																@NotNull String mapField)
+			throws IOException {
+		Collection<T> children;
+		TreeNode[] array = (TreeNode[]) fields.get(arrayField, null);
+		if (array != null) {
+			children = (Collection<T>) Arrays.asList(array);
 		}
 		else {
-			String parentPath = parent.getPath().getPath();
-			String thisPath = Util.joinPath(parentPath, getName());
-			pathHashCode = thisPath.hashCode();
+			// Index created by an older version
+			Map<String, T> map = (Map<String, T>) fields.get(mapField, null);
+			if (map == null)
+				return null;
+			children = map.values();
 		}
+		return children.isEmpty() ? null : new NodeMap<T>(children);
 	}
 
-	synchronized int getPathHashCode() {
-		return pathHashCode;
+	/**
+	 * Returns a version of the given map that the caller may modify: The map
+	 * itself if no reader has frozen it, a copy if it's frozen, or a new map
+	 * if it's null. The caller must hold the lock of the folder that owns the
+	 * map, and must pass the modified map to {@link #endWrite(NodeMap)} and
+	 * store the result.
+	 */
+	@NotNull
+	private static <T extends TreeNode> NodeMap<T> beginWrite(@Nullable NodeMap<T> map) {
+		if (map == null)
+			return new NodeMap<T>();
+		if (map.tryBeginWrite())
+			return map;
+		return map.copy();
+	}
+
+	/**
+	 * Finishes a modification started with {@link #beginWrite(NodeMap)} and
+	 * returns the map to be stored, which is null if the map is empty.
+	 */
+	@Nullable
+	private static <T extends TreeNode> NodeMap<T> endWrite(@NotNull NodeMap<T> map) {
+		map.endWrite();
+		return map.isEmpty() ? null : map;
+	}
+
+	/**
+	 * Returns the document map in a frozen state, or null if there are no
+	 * documents. This only acquires the receiver's lock if the children
+	 * haven't been loaded yet or the map is being modified at the moment.
+	 */
+	@Nullable
+	private NodeMap<D> readDocuments() {
+		if (childLoader == null) {
+			NodeMap<D> docs = documents;
+			if (docs == null || docs.tryFreeze())
+				return docs;
+		}
+		synchronized (this) {
+			loadChildren();
+			NodeMap<D> docs = documents;
+			if (docs != null)
+				Util.checkThat(docs.tryFreeze());
+			return docs;
+		}
+	}
+
+	/**
+	 * Same as {@link #readDocuments()}, but for the subfolder map.
+	 */
+	@Nullable
+	private NodeMap<F> readSubFolders() {
+		if (childLoader == null) {
+			NodeMap<F> folders = subFolders;
+			if (folders == null || folders.tryFreeze())
+				return folders;
+		}
+		synchronized (this) {
+			loadChildren();
+			NodeMap<F> folders = subFolders;
+			if (folders != null)
+				Util.checkThat(folders.tryFreeze());
+			return folders;
+		}
+	}
+
+	/**
+	 * Creates the children of the receiver if they haven't been created yet.
+	 * The caller must hold the receiver's lock. If the child loader fails, the
+	 * children created so far are discarded and the loader is kept, so that
+	 * the receiver is never left partially loaded.
+	 */
+	@SuppressWarnings("unchecked")
+	private void loadChildren() {
+		ChildLoader<D, F> loader = childLoader;
+		if (loader == null || loadingChildren)
+			return;
+		loadingChildren = true;
+		boolean success = false;
+		try {
+			loader.loadChildren((F) this);
+			success = true;
+		}
+		finally {
+			loadingChildren = false;
+			if (success) {
+				childLoader = null;
+			}
+			else {
+				documents = null;
+				subFolders = null;
+			}
+		}
+	}
+
+	/**
+	 * Returns the loader that will create the children of the receiver, or
+	 * null if the children have already been created.
+	 */
+	@Nullable
+	@VisibleForPackageGroup
+	public final ChildLoader<D, F> getChildLoader() {
+		return childLoader;
+	}
+
+	/**
+	 * Sets the loader that will create the children of the receiver on
+	 * demand. The receiver must not have any children.
+	 */
+	@VisibleForPackageGroup
+	public synchronized final void setChildLoader(@Nullable ChildLoader<D, F> childLoader) {
+		Util.checkThat(documents == null && subFolders == null);
+		this.childLoader = childLoader;
+	}
+
+	/**
+	 * Sets whether the children of the receiver are stored elsewhere and
+	 * should therefore be omitted when the receiver is serialized.
+	 */
+	@VisibleForPackageGroup
+	public synchronized final void setChildrenStoredExternally(boolean childrenStoredExternally) {
+		this.childrenStoredExternally = childrenStoredExternally;
+	}
+
+	public final synchronized int getParentCount() {
+		int count = 0;
+		F current = parent;
+		while (current != null) {
+			count++;
+			current = current.parent; // this is not really thread-safe :-/
+		}
+		return count;
 	}
 
 	@Nullable
@@ -161,59 +441,70 @@ public abstract class Folder
 		return parent == null ? (F) this : parent.getRoot();
 	}
 
-	// TODO post-release-1.1: This method is somewhat expensive. Try to avoid calling it
-	@SuppressWarnings("unchecked")
 	@NotNull
 	public synchronized final Path getPath() {
 		assert (parent == null) == (path != null);
+		return getPathUnchecked();
+	}
 
+	/**
+	 * Returns the path of the receiver, using the cached path if it is still
+	 * valid. The cache is valid as long as the parent returns the same path
+	 * object from which the cached path was constructed, so that moving an
+	 * ancestor or changing the root path invalidates the cached paths of all
+	 * descendants without having to visit them. In the common case, this
+	 * method therefore only walks up to the root and doesn't allocate
+	 * anything.
+	 * <p>
+	 * This method doesn't acquire the locks of the ancestors, in order to
+	 * avoid deadlocks with methods that hold a parent's lock while calling
+	 * into a child.
+	 */
+	@NotNull
+	@RecursiveMethod
+	private Path getPathUnchecked() {
 		// Just return the path if this instance is a root
-		if (path != null)
-			return path;
-
-		// Create a list of nodes from the root down to this instance
-		LinkedList<F> list = new LinkedList<F>();
-		list.add((F) this);
-		F current = parent;
-		while (current != null) {
-			list.addFirst(current);
-			current = current.parent;
-		}
-
-		// Construct path for this instance
-		StringBuilder sb = new StringBuilder();
-		sb.append(list.removeFirst().path.getPath()); // root path
-		for (F node : list) {
-			sb.append("/");
-			sb.append(node.getName());
-		}
+		Path rootPath = path;
+		if (rootPath != null)
+			return rootPath;
 
-		return new Path(sb.toString());
+		Folder<?, ?> parentFolder = parent;
+		Path parentPath = parentFolder.getPathUnchecked();
+		PathCache cache = pathCache;
+		if (cache != null && cache.parentPath == parentPath)
+			return cache.path;
+		Path thisPath = parentPath.createSubPath(getName());
+		pathCache = new PathCache(parentPath, thisPath);
+		return thisPath;
 	}
 
 	synchronized final void setPath(@NotNull Path path) {
 		Util.checkNotNull(path);
 		this.path = path;
 		parent = null;
-		updatePathHashCode();
 	}
 
 	@Nullable
 	public synchronized final Long getLastModified() {
-		return lastModified;
+		return lastModified == NO_LAST_MODIFIED ? null : lastModified;
+	}
+
+	public synchronized final boolean hasLastModified() {
+		return lastModified != NO_LAST_MODIFIED;
 	}
 
 	public synchronized final void setLastModified(@Nullable Long lastModified) {
-		this.lastModified = lastModified;
+		this.lastModified = lastModified == null ? NO_LAST_MODIFIED : lastModified;
 	}
 
 	// will replace document with identical name;
 	// will detach document from previous parent if there is one
 	@SuppressWarnings("unchecked")
 	public synchronized final void putDocument(@NotNull D doc) {
-		if (documents == null)
-			documents = Maps.newHashMap();
-		documents.put(doc.getName(), doc);
+		loadChildren();
+		NodeMap<D> docs = beginWrite(documents);
+		docs.put(doc);
+		documents = endWrite(docs);
 		if (doc.parent != null && doc.parent != this)
 			doc.parent.removeDocument(doc);
 		doc.parent = (F) this;
@@ -224,14 +515,12 @@ public abstract class Folder
 	public final void putSubFolder(@NotNull F subFolder) {
 		evtFolderAdding.fire(new FolderEvent(this, subFolder));
 		synchronized (this) {
-			if (subFolders == null)
-				subFolders = Maps.newHashMap();
-			if (subFolder.parent != null)
-				subFolder.parent.subFolders.remove(subFolder);
+			loadChildren();
 			subFolder.parent = (F) this;
 			subFolder.path = null;
-			subFolder.updatePathHashCode();
-			subFolders.put(subFolder.getName(), subFolder);
+			NodeMap<F> folders = beginWrite(subFolders);
+			folders.put(subFolder);
+			subFolders = endWrite(folders);
 		}
 		evtFolderAdded.fire(new FolderEvent(this, subFolder));
 	}
@@ -241,24 +530,29 @@ public abstract class Folder
 	 * document is null.
 	 */
 	public synchronized final void removeDocument(@Nullable D doc) {
-		if (documents == null || doc == null) return;
-		D candidate = documents.remove(doc.getName());
+		if (doc == null) return;
+		loadChildren();
+		if (documents == null) return;
+		NodeMap<D> docs = beginWrite(documents);
+		D candidate = docs.remove(doc.getName());
+		documents = endWrite(docs);
 		Util.checkThat(candidate == doc);
 		doc.parent = null;
-		if (documents.isEmpty())
-			documents = null;
 	}
 
 	public final void removeChildren() {
-		Collection<F> toNotify = subFolders == null
-			? Collections.<F>emptyList()
-			: subFolders.values();
+		Collection<F> toNotify;
 		synchronized (this) {
-			if (documents != null) {
-				for (D doc : documents.values())
-					doc.parent = null;
-				documents.clear();
+			// Unloaded children can be discarded without creating them first
+			childLoader = null;
+			toNotify = subFolders == null
+				? Collections.<F>emptyList()
+				: subFolders.toList();
+			NodeMap<D> docs = documents;
+			if (docs != null) {
 				documents = null;
+				for (D doc : docs)
+					doc.parent = null;
 			}
 			if (subFolders != null) {
 				subFolders = null;
@@ -281,9 +575,12 @@ public abstract class Folder
 		if (subFolder == null)
 			return;
 		synchronized (this) {
+			loadChildren();
 			if (subFolders == null)
 				return;
-			F candidate = subFolders.remove(subFolder.getName());
+			NodeMap<F> folders = beginWrite(subFolders);
+			F candidate = folders.remove(subFolder.getName());
+			subFolders = endWrite(folders);
 			Util.checkThat(candidate == subFolder);
 
 			/*
@@ -293,25 +590,18 @@ public abstract class Folder
 			 */
 			subFolder.path = subFolder.getPath();
 			subFolder.parent = null;
-
-			if (subFolders.isEmpty())
-				subFolders = null;
 		}
 		evtFolderRemoved.fire(new FolderEvent(this, subFolder));
 	}
 
 	public synchronized final void removeDocuments(@NotNull Predicate<D> predicate) {
+		loadChildren();
 		if (documents == null) return;
-		Iterator<D> docIt = documents.values().iterator();
-		while (docIt.hasNext()) {
-			D doc = docIt.next();
-			if (predicate.apply(doc)) {
-				docIt.remove();
-				doc.parent = null;
-			}
-		}
-		if (documents.isEmpty())
-			documents = null;
+		NodeMap<D> docs = beginWrite(documents);
+		List<D> removed = docs.removeAll(predicate);
+		documents = endWrite(docs);
+		for (D doc : removed)
+			doc.parent = null;
 	}
 
 	/**
@@ -320,53 +610,78 @@ public abstract class Folder
 	 * obtained via {@link #getPath()}.
 	 */
 	public synchronized final void removeSubFolders(@NotNull Predicate<F> predicate) {
-		List<F> toNotify = new ArrayList<F>(subFolders == null ? 0 : subFolders.size());
+		List<F> toNotify;
 		synchronized (this) {
+			loadChildren();
 			if (subFolders == null) return;
-			Iterator<F> subFolderIt = subFolders.values().iterator();
-			while (subFolderIt.hasNext()) {
-				F subFolder = subFolderIt.next();
-				if (predicate.apply(subFolder)) {
-					subFolderIt.remove();
-					subFolder.path = subFolder.getPath();
-					subFolder.parent = null;
-					toNotify.add(subFolder);
-				}
+			NodeMap<F> folders = beginWrite(subFolders);
+			toNotify = folders.removeAll(predicate);
+			for (F subFolder : toNotify) {
+				subFolder.path = subFolder.getPath();
+				subFolder.parent = null;
 			}
-			if (subFolders.isEmpty())
-				subFolders = null;
+			subFolders = endWrite(folders);
 		}
 		for (F subFolder : toNotify)
 			evtFolderRemoved.fire(new FolderEvent(this, subFolder));
 	}
 
+	/*
+	 * Single lookups don't freeze the maps, so that code which alternates
+	 * between looking up and adding children doesn't cause a copy of the map
+	 * on each addition. Instead, they only skip the lock if the map happens to
+	 * be frozen already.
+	 */
+
 	@Nullable
-	public synchronized final D getDocument(String name) {
-		if (documents == null) return null;
-		return documents.get(name);
+	public final D getDocument(String name) {
+		if (childLoader == null) {
+			NodeMap<D> docs = documents;
+			if (docs == null)
+				return null;
+			if (docs.isFrozen())
+				return docs.get(name);
+		}
+		synchronized (this) {
+			loadChildren();
+			if (documents == null) return null;
+			return documents.get(name);
+		}
 	}
 
-	public synchronized final int getDocumentCount() {
-		if (documents == null) return 0;
-		return documents.size();
+	public final int getDocumentCount() {
+		if (childLoader == null) {
+			NodeMap<D> docs = documents;
+			if (docs == null)
+				return 0;
+			if (docs.isFrozen())
+				return docs.size();
+		}
+		synchronized (this) {
+			loadChildren();
+			if (documents == null) return 0;
+			return documents.size();
+		}
 	}
 
 	@ImmutableCopy
 	@NotNull
-	public synchronized final List<D> getDocuments() {
-		return UtilModel.nullSafeImmutableList(documents);
+	public final List<D> getDocuments() {
+		NodeMap<D> docs = readDocuments();
+		return docs == null ? Collections.<D>emptyList() : docs.toList();
 	}
 
-	@ImmutableCopy
+	@Immutable
 	@NotNull
-	public synchronized final Map<String, D> getDocumentMap() {
-		return UtilModel.nullSafeImmutableMap(documents);
+	public final Map<String, D> getDocumentMap() {
+		NodeMap<D> docs = readDocuments();
+		return docs == null ? Collections.<String, D>emptyMap() : docs.asMap();
 	}
 
 	@MutableCopy
 	@NotNull
 	@SuppressWarnings("unchecked")
-	public synchronized final List<D> getDocumentsDeep() {
+	public final List<D> getDocumentsDeep() {
 		final List<D> docsDeep = new ArrayList<D> ();
 		new FolderVisitor<D, F, Throwable>((F) this) {
 			protected void visitDocument(F parent, D fileDocument) {
@@ -377,79 +692,180 @@ public abstract class Folder
 	}
 
 	@Nullable
-	public synchronized final F getSubFolder(String name) {
-		if (subFolders == null)
+	public final F getSubFolder(String name) {
+		if (childLoader == null) {
+			NodeMap<F> folders = subFolders;
+			if (folders == null)
+				return null;
+			if (folders.isFrozen())
+				return folders.get(name);
+		}
+		synchronized (this) {
+			loadChildren();
+			if (subFolders == null)
+				return null;
+			return subFolders.get(name);
+		}
+	}
+
+	/**
+	 * Returns the subfolder whose path is equal to the given path or contains
+	 * it, or null if there is no such subfolder.
+	 */
+	@Nullable
+	private F findSubFolder(@NotNull String target) {
+		NodeMap<F> folders = readSubFolders();
+		if (folders == null)
 			return null;
-		return subFolders.get(name);
+		for (F subFolder : folders) {
+			String path = subFolder.getPath().getPath();
+			if (target.startsWith(path) && (target.length() == path.length()
+					|| target.charAt(path.length()) == '/'))
+				return subFolder;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the subfolder whose name is equal to the given region of the
+	 * given string, or null if there is no such subfolder.
+	 */
+	@Nullable
+	private F getSubFolder(@NotNull String str, int start, int end) {
+		if (childLoader == null) {
+			NodeMap<F> folders = subFolders;
+			if (folders == null)
+				return null;
+			if (folders.isFrozen())
+				return folders.get(str, start, end);
+		}
+		synchronized (this) {
+			loadChildren();
+			if (subFolders == null)
+				return null;
+			return subFolders.get(str, start, end);
+		}
 	}
 
-	public synchronized final int getSubFolderCount() {
-		if (subFolders == null)
-			return 0;
-		return subFolders.size();
+	public final int getSubFolderCount() {
+		if (childLoader == null) {
+			NodeMap<F> folders = subFolders;
+			if (folders == null)
+				return 0;
+			if (folders.isFrozen())
+				return folders.size();
+		}
+		synchronized (this) {
+			loadChildren();
+			if (subFolders == null)
+				return 0;
+			return subFolders.size();
+		}
 	}
 
 	@ImmutableCopy
 	@NotNull
-	public synchronized final List<F> getSubFolders() {
-		return UtilModel.nullSafeImmutableList(subFolders);
+	public final List<F> getSubFolders() {
+		NodeMap<F> folders = readSubFolders();
+		return folders == null ? Collections.<F>emptyList() : folders.toList();
 	}
 
-	@ImmutableCopy
+	@Immutable
 	@NotNull
-	public synchronized final Map<String, F> getSubFolderMap() {
-		return UtilModel.nullSafeImmutableMap(subFolders);
+	public final Map<String, F> getSubFolderMap() {
+		NodeMap<F> folders = readSubFolders();
+		return folders == null ? Collections.<String, F>emptyMap() : folders.asMap();
 	}
 
-	public synchronized final int getChildCount() {
-		int count = 0;
-		if (documents != null)
-			count += documents.size();
-		if (subFolders != null)
-			count += subFolders.size();
-		return count;
+	public final int getChildCount() {
+		return getDocumentCount() + getSubFolderCount();
 	}
 
 	@ImmutableCopy
 	@NotNull
-	public synchronized final Iterable<ViewNode> getChildren() {
+	public final Iterable<ViewNode> getChildren() {
 		Collection<F> col = getSubFolders(); // returns a copy
 		return UtilGlobal.<ViewNode>convert(col);
 	}
 
-	public synchronized final boolean isChecked() {
+	public final boolean isChecked() {
 		return isChecked;
 	}
 
-	public synchronized final void setChecked(boolean isChecked) {
+	public final void setChecked(boolean isChecked) {
 		this.isChecked = isChecked;
 	}
 
 	@NotNull
-	@SuppressWarnings("unchecked")
-	public synchronized final TreeCheckState getTreeCheckState() {
-		final TreeCheckState state = new TreeCheckState();
-		state.add(this, isChecked);
-		new FolderVisitor<D, F, Throwable>((F) this) {
-			protected void visitFolder(F parent, F folder) {
-				state.add(folder, folder.isChecked);
-			}
-		}.runSilently();
+	public final TreeCheckState getTreeCheckState() {
+		TreeCheckState state = new TreeCheckState();
+		state.add(this);
 		return state;
 	}
 
+	/**
+	 * Returns the check state of the folder with the given path, which is
+	 * either the receiver or one of its descendants. If there is no such
+	 * folder, the check state of its nearest existing ancestor is returned.
+	 * Returns null if the given path doesn't lie within the receiver.
+	 * <p>
+	 * The folder is looked up one path segment at a time, without extracting
+	 * the segments into separate strings, so that this method doesn't
+	 * allocate anything in the common case. Only the folders along the given
+	 * path are loaded.
+	 */
+	@Nullable
+	@ThreadSafe
+	final Boolean getCheckState(@NotNull Path targetPath) {
+		String target = targetPath.getPath();
+		String thisPath = getPathUnchecked().getPath();
+		if (!target.startsWith(thisPath))
+			return null;
+		int start = thisPath.length();
+		if (start == target.length())
+			return isChecked;
+		if (start > 0 && thisPath.charAt(start - 1) != '/') {
+			if (target.charAt(start) != '/')
+				return null;
+			start++;
+		}
+		Folder<D, F> folder = this;
+		while (true) {
+			int end = target.indexOf('/', start);
+			if (end < 0)
+				end = target.length();
+			F subFolder = folder.getSubFolder(target, start, end);
+			if (subFolder == null) {
+				/*
+				 * The lookup fails if the folder names are not in the same
+				 * Unicode normalization form as the paths, in which case
+				 * we'll fall back to comparing the paths of the subfolders.
+				 */
+				subFolder = folder.findSubFolder(target);
+				if (subFolder == null)
+					return folder.isChecked;
+				end = subFolder.getPath().getPath().length();
+			}
+			if (end == target.length())
+				return subFolder.isChecked;
+			folder = subFolder;
+			start = end + 1;
+		}
+	}
+
 	public final boolean isIndex() {
 		return false;
 	}
 
 	@ImmutableCopy
 	@NotNull
-	public synchronized final List<String> getDocumentIds() {
-		if (documents == null)
+	public final List<String> getDocumentIds() {
+		NodeMap<D> docs = readDocuments();
+		if (docs == null)
 			return Collections.emptyList();
-		String[] uids = new String[documents.size()];
+		String[] uids = new String[docs.size()];
 		int i = 0;
-		for (D document : documents.values()) {
+		for (D document : docs) {
 			uids[i] = document.getUniqueId();
 			i++;
 		}
@@ -481,21 +897,44 @@ public abstract class Folder
 	@Nullable
 	@RecursiveMethod
 	@ThreadSafe
-	protected synchronized TreeNode findTreeNodeUnchecked(@NotNull Path targetPath) {
+	protected TreeNode findTreeNodeUnchecked(@NotNull Path targetPath) {
 		/*
-		 * TODO post-release-1.1: since getPath() constructs the returned path
-		 * dynamically, this search algorithm is somewhat inefficient. Maybe
-		 * improve it? (Consider making use of the path hashcode.)
+		 * Look up the child directly by the next part of the target path. This
+		 * fails only if the child names are not in the same Unicode
+		 * normalization form as the paths, in which case we'll fall back to
+		 * comparing the paths of all children.
 		 */
-		if (documents != null) {
-			for (D document : documents.values()) {
+		String target = targetPath.getPath();
+		String thisPath = getPathUnchecked().getPath();
+		int start = thisPath.length() + 1;
+		if (target.length() > start && target.startsWith(thisPath)
+				&& target.charAt(start - 1) == '/') {
+			int end = target.indexOf('/', start);
+			String childName = target.substring(start, end < 0 ? target.length() : end);
+			if (end < 0) {
+				D document = getDocument(childName);
+				if (document != null && targetPath.equals(document.getPath()))
+					return document;
+			}
+			F subFolder = getSubFolder(childName);
+			if (subFolder != null) {
+				if (end < 0)
+					return subFolder;
+				return subFolder.findTreeNodeUnchecked(targetPath);
+			}
+		}
+
+		NodeMap<D> docs = readDocuments();
+		if (docs != null) {
+			for (D document : docs) {
 				Path path = document.getPath();
 				if (targetPath.equals(path))
 					return document;
 			}
 		}
-		if (subFolders != null) {
-			for (F subFolder : subFolders.values()) {
+		NodeMap<F> folders = readSubFolders();
+		if (folders != null) {
+			for (F subFolder : folders) {
 				Path path = subFolder.getPath();
 				if (targetPath.equals(path))
 					return subFolder;
@@ -506,15 +945,20 @@ public abstract class Folder
 		return null;
 	}
 
-	public synchronized final boolean hasErrorsDeep() {
+	public final boolean hasErrorsDeep() {
 		if (hasErrors())
 			return true;
-		if (documents != null)
-			for (D document : documents.values())
+		ChildLoader<D, F> loader = childLoader;
+		if (loader != null)
+			return loader.hasErrorsDeep();
+		NodeMap<D> docs = readDocuments();
+		if (docs != null)
+			for (D document : docs)
 				if (document.hasErrors())
 					return true;
-		if (subFolders != null)
-			for (F subFolder : subFolders.values())
+		NodeMap<F> folders = readSubFolders();
+		if (folders != null)
+			for (F subFolder : folders)
 				if (subFolder.hasErrorsDeep())
 					return true;
 		return false;
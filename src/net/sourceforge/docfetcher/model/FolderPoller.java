@@ -0,0 +1,368 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import com.google.common.io.Closeables;
+
+/**
+ * Periodically checks folder trees for changes. This is used for folders that
+ * can't be watched with JNotify, for example because the system's limit on
+ * the number of watches has been reached.
+ * <p>
+ * For each folder, a fingerprint computed from the folder's last-modified
+ * value and the names, sizes and last-modified values of its children is
+ * kept. A folder whose fingerprint changed between two checks is reported to
+ * the listener of its tree. Thus, only one number per folder is kept in
+ * memory, rather than a snapshot of each folder's contents. If the root of a
+ * tree is a file rather than a folder, e.g. an archive or a PST file, only
+ * the last-modified value and the size of the file itself are checked. All
+ * trees are
+ * checked by a single daemon thread, which is started when the first tree
+ * is added.
+ * <p>
+ * The attributes of each child are read with a single call, and the number
+ * of files and folders checked per second can be limited, so that checking
+ * large trees on network drives doesn't saturate the network or the file
+ * server. If a check takes longer than the interval because of the limit, the
+ * next check starts right after it.
+ *
+ * @author Tran Nam Quang
+ */
+final class FolderPoller {
+
+	public interface ChangeListener {
+		/**
+		 * Called from the poller thread for each folder that was added,
+		 * removed or whose contents changed since the last check. If the root
+		 * of the tree is a file, this is called with the root file when it was
+		 * modified or removed.
+		 */
+		public void folderChanged(@NotNull File folder);
+	}
+
+	private static final class Tree {
+		private final File root;
+		private final boolean isFile;
+		private final ChangeListener listener;
+
+		// Only accessed by the poller thread; null until the first check
+		@Nullable private Map<String, Long> fingerprints;
+
+		private Tree(@NotNull File root, @NotNull ChangeListener listener) {
+			this.root = root;
+			this.isFile = root.isFile();
+			this.listener = listener;
+		}
+	}
+
+	private final long interval;
+	private final int maxRate;
+	private final List<Tree> trees = new ArrayList<Tree>(); // guarded by this
+	private final AtomicInteger folderCount = new AtomicInteger(0);
+	@Nullable private Thread thread; // guarded by this
+	private boolean shutdown = false; // guarded by this
+
+	// Only accessed by the poller thread
+	private long rateWindowStart = 0;
+	private int rateWindowCount = 0;
+
+	/**
+	 * Creates a poller that checks the trees at the given interval, in
+	 * milliseconds.
+	 */
+	public FolderPoller(long interval) {
+		this(interval, 0);
+	}
+
+	/**
+	 * Creates a poller that checks the trees at the given interval, in
+	 * milliseconds, and that checks at most the given number of files and
+	 * folders per second. Zero means no limit.
+	 */
+	public FolderPoller(long interval, int maxRate) {
+		Util.checkThat(interval > 0 && maxRate >= 0);
+		this.interval = interval;
+		this.maxRate = maxRate;
+	}
+
+	/**
+	 * Adds the tree under the given folder, whose changes will be reported to
+	 * the given listener. The current state of the tree is recorded on the
+	 * poller thread, so that the changes made before that aren't reported.
+	 */
+	public synchronized void add(	@NotNull File root,
+									@NotNull ChangeListener listener) {
+		Util.checkNotNull(root, listener);
+		if (shutdown)
+			return;
+		trees.add(new Tree(root, listener));
+		if (thread == null) {
+			thread = new Thread(FolderPoller.class.getName()) {
+				public void run() {
+					threadLoop();
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+		notifyAll(); // Record the state of the new tree right away
+	}
+
+	/**
+	 * Removes all trees that were added with the given listener.
+	 */
+	public synchronized void removeAll(@NotNull ChangeListener listener) {
+		Util.checkNotNull(listener);
+		for (int i = trees.size() - 1; i >= 0; i--)
+			if (trees.get(i).listener == listener)
+				trees.remove(i);
+	}
+
+	/**
+	 * Returns the number of folders that were found in the trees during the
+	 * last check. Trees whose roots are files are not counted.
+	 */
+	public int getFolderCount() {
+		return folderCount.get();
+	}
+
+	public synchronized void shutdown() {
+		shutdown = true;
+		trees.clear();
+		notifyAll();
+	}
+
+	private void threadLoop() {
+		long nextCheck = 0;
+		while (true) {
+			List<Tree> treesCopy;
+			synchronized (this) {
+				if (shutdown)
+					return;
+				treesCopy = new ArrayList<Tree>(trees);
+			}
+
+			// Between the regular checks, only check the newly added trees
+			boolean isDue = System.currentTimeMillis() >= nextCheck;
+			int count = 0;
+			for (Tree tree : treesCopy) {
+				if (!isActive(tree))
+					continue;
+				if ((isDue || tree.fingerprints == null) && !check(tree))
+					break;
+				if (!tree.isFile)
+					count += tree.fingerprints.size();
+			}
+			folderCount.set(count);
+			if (isDue)
+				nextCheck = System.currentTimeMillis() + interval;
+
+			synchronized (this) {
+				long waitTime = nextCheck - System.currentTimeMillis();
+				if (shutdown || hasNewTrees() || waitTime <= 0)
+					continue;
+				try {
+					wait(waitTime);
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	// Must be called while holding the lock
+	private boolean hasNewTrees() {
+		for (Tree tree : trees)
+			if (tree.fingerprints == null)
+				return true;
+		return false;
+	}
+
+	private synchronized boolean isActive(@NotNull Tree tree) {
+		return trees.contains(tree);
+	}
+
+	/**
+	 * Computes the fingerprints of all folders in the given tree and reports
+	 * the folders whose fingerprints changed. Returns false if the poller was
+	 * shut down in the meantime, in which case the check is incomplete.
+	 */
+	private boolean check(@NotNull Tree tree) {
+		if (tree.isFile)
+			return checkFile(tree);
+		Map<String, Long> oldFingerprints = tree.fingerprints;
+		Map<String, Long> newFingerprints = new HashMap<String, Long>(
+			oldFingerprints == null ? 16 : oldFingerprints.size() * 4 / 3 + 1);
+		Deque<File> stack = new ArrayDeque<File>();
+		stack.push(tree.root);
+		while (!stack.isEmpty()) {
+			File folder = stack.pop();
+			if (!throttle())
+				return false;
+			DirectoryStream<java.nio.file.Path> children;
+			try {
+				children = Files.newDirectoryStream(folder.toPath());
+			}
+			catch (IOException e) {
+				continue; // Folder was deleted or can't be read
+			}
+			long fingerprint = folder.lastModified();
+			try {
+				for (java.nio.file.Path child : children) {
+					if (!throttle())
+						return false;
+					BasicFileAttributes attr = readAttributes(child);
+					if (attr == null)
+						continue; // Child was deleted in the meantime
+					String name = child.getFileName().toString();
+					long childHash = name.hashCode();
+					// Symlinks and junctions are skipped, like during indexing
+					if (attr.isDirectory() && !attr.isOther())
+						stack.push(new File(folder, name));
+					else
+						childHash = childHash * 31 + attr.size();
+					childHash = childHash * 31 + attr.lastModifiedTime().toMillis();
+
+					// Addition makes the fingerprint independent of the order
+					fingerprint += mix(childHash);
+				}
+			}
+			catch (DirectoryIteratorException e) {
+				// Folder can't be read anymore; the fingerprint will differ
+			}
+			finally {
+				Closeables.closeQuietly(children);
+			}
+			String path = folder.getPath();
+			newFingerprints.put(path, fingerprint);
+			if (oldFingerprints == null)
+				continue;
+			Long oldFingerprint = oldFingerprints.remove(path);
+			if (oldFingerprint == null || oldFingerprint != fingerprint)
+				tree.listener.folderChanged(folder);
+		}
+
+		/*
+		 * Removed folders are normally covered by the changed fingerprints of
+		 * their parents, except if the root itself was removed.
+		 */
+		if (oldFingerprints != null && oldFingerprints.containsKey(tree.root.getPath()))
+			tree.listener.folderChanged(tree.root);
+
+		tree.fingerprints = newFingerprints;
+		return true;
+	}
+
+	/**
+	 * Same as {@link #check(Tree)}, but for a tree whose root is a file.
+	 */
+	private boolean checkFile(@NotNull Tree tree) {
+		if (!throttle())
+			return false;
+		String path = tree.root.getPath();
+		long fingerprint = mix(tree.root.lastModified() * 31 + tree.root.length());
+		Map<String, Long> oldFingerprints = tree.fingerprints;
+		if (oldFingerprints != null) {
+			Long oldFingerprint = oldFingerprints.get(path);
+			if (oldFingerprint == null || oldFingerprint != fingerprint)
+				tree.listener.folderChanged(tree.root);
+		}
+		Map<String, Long> newFingerprints = new HashMap<String, Long>(2);
+		newFingerprints.put(path, fingerprint);
+		tree.fingerprints = newFingerprints;
+		return true;
+	}
+
+	/**
+	 * Returns the attributes of the given file, or null if they can't be
+	 * read. The attributes of symlinks to files are those of the target files.
+	 * Symlinks to folders are not followed, and Windows junctions are
+	 * reported as both folders and 'other' files.
+	 */
+	@Nullable
+	private static BasicFileAttributes readAttributes(@NotNull java.nio.file.Path file) {
+		try {
+			BasicFileAttributes attr = Files.readAttributes(
+				file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			if (!attr.isSymbolicLink())
+				return attr;
+			BasicFileAttributes target = Files.readAttributes(
+				file, BasicFileAttributes.class);
+			return target.isDirectory() ? attr : target;
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Waits as long as needed to keep the number of checked files and folders
+	 * per second within the limit. Returns false if the poller was shut down.
+	 */
+	private boolean throttle() {
+		if (maxRate == 0)
+			return true;
+		long now = System.currentTimeMillis();
+		if (now - rateWindowStart >= 1000) {
+			rateWindowStart = now;
+			rateWindowCount = 0;
+		}
+		if (++rateWindowCount <= maxRate)
+			return true;
+		synchronized (this) {
+			while (!shutdown) {
+				long waitTime = rateWindowStart + 1000 - System.currentTimeMillis();
+				if (waitTime <= 0)
+					break;
+				try {
+					wait(waitTime);
+				}
+				catch (InterruptedException e) {
+					return false;
+				}
+			}
+			if (shutdown)
+				return false;
+		}
+		rateWindowStart = System.currentTimeMillis();
+		rateWindowCount = 1;
+		return true;
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.sourceforge.docfetcher.util.Util;
+
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class FolderPollerTest {
+
+	@Test
+	public void testChanges() throws Exception {
+		File root = Util.createTempDir();
+		FolderPoller poller = new FolderPoller(50);
+		try {
+			File sub = new File(root, "sub");
+			File file = new File(sub, "file.txt");
+			sub.mkdir();
+			Files.write("one".getBytes(), file);
+			new File(root, "other").mkdir();
+
+			final BlockingQueue<File> changes = new LinkedBlockingQueue<File>();
+			poller.add(root, new FolderPoller.ChangeListener() {
+				public void folderChanged(File folder) {
+					changes.add(folder);
+				}
+			});
+			for (int i = 0; i < 100 && poller.getFolderCount() < 3; i++)
+				Thread.sleep(50);
+			assertEquals(3, poller.getFolderCount());
+			assertTrue(changes.isEmpty());
+
+			// Changing the size of a file doesn't change the folder's last-modified value
+			Files.write("two, three".getBytes(), file);
+			assertEquals(sub, changes.poll(5, TimeUnit.SECONDS));
+			Thread.sleep(200);
+			assertTrue(changes.isEmpty());
+		}
+		finally {
+			poller.shutdown();
+			Util.deleteRecursively(root);
+		}
+	}
+
+	@Test
+	public void testFileRoot() throws Exception {
+		File root = Util.createTempDir();
+		FolderPoller poller = new FolderPoller(50);
+		try {
+			File file = new File(root, "archive.zip");
+			Files.write("one".getBytes(), file);
+
+			final BlockingQueue<File> changes = new LinkedBlockingQueue<File>();
+			poller.add(file, new FolderPoller.ChangeListener() {
+				public void folderChanged(File folder) {
+					changes.add(folder);
+				}
+			});
+			Thread.sleep(200);
+
+			// Changes next to the file must not be reported
+			Files.write("other".getBytes(), new File(root, "other.txt"));
+			Thread.sleep(200);
+			assertTrue(changes.isEmpty());
+			assertEquals(0, poller.getFolderCount());
+
+			Files.write("two, three".getBytes(), file);
+			assertEquals(file, changes.poll(5, TimeUnit.SECONDS));
+			file.delete();
+			assertEquals(file, changes.poll(5, TimeUnit.SECONDS));
+		}
+		finally {
+			poller.shutdown();
+			Util.deleteRecursively(root);
+		}
+	}
+
+	@Test
+	public void testRateLimit() throws Exception {
+		File root = Util.createTempDir();
+		// 11 folder listings and 10 child lookups at 20 per second
+		FolderPoller poller = new FolderPoller(50, 20);
+		try {
+			for (int i = 0; i < 10; i++)
+				new File(root, "sub" + i).mkdir();
+			long start = System.currentTimeMillis();
+			poller.add(root, new FolderPoller.ChangeListener() {
+				public void folderChanged(File folder) {
+				}
+			});
+			while (poller.getFolderCount() < 11
+					&& System.currentTimeMillis() - start < 10000)
+				Thread.sleep(20);
+			assertEquals(11, poller.getFolderCount());
+			assertTrue(System.currentTimeMillis() - start >= 1000);
+		}
+		finally {
+			poller.shutdown();
+			Util.deleteRecursively(root);
+		}
+	}
+
+}
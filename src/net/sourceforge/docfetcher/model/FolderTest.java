@@ -11,8 +11,13 @@
 
 package net.sourceforge.docfetcher.model;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
 import net.sourceforge.docfetcher.model.index.file.FileDocument;
 import net.sourceforge.docfetcher.model.index.file.FileFolder;
 
@@ -42,5 +47,48 @@ public final class FolderTest {
 			assertNull(f1.findTreeNode(new Path(prefix + "does/not/exist")));
 		}
 	}
+	
+	@Test
+	public void testSnapshots() throws Exception {
+		final FileFolder folder = new FileFolder(new Path("folder"), null);
+		new FileDocument(folder, "one", 1L);
+		Map<String, FileDocument> snapshot = folder.getDocumentMap();
+		new FileDocument(folder, "two", 2L);
+		assertEquals(1, snapshot.size());
+		assertEquals(2, folder.getDocumentMap().size());
+		assertEquals(1L, snapshot.get("one").getLastModified());
+		
+		// Read the folder while another thread modifies it
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		Thread reader = new Thread() {
+			public void run() {
+				try {
+					while (!isInterrupted()) {
+						Map<String, FileDocument> docs = folder.getDocumentMap();
+						int count = 0;
+						for (Map.Entry<String, FileDocument> entry : docs.entrySet()) {
+							assertEquals(entry.getKey(), entry.getValue().getName());
+							assertTrue(docs.get(entry.getKey()) == entry.getValue());
+							count++;
+						}
+						assertEquals(docs.size(), count);
+					}
+				}
+				catch (Throwable t) {
+					error.set(t);
+				}
+			}
+		};
+		reader.start();
+		for (int i = 0; i < 20000; i++) {
+			new FileDocument(folder, "doc" + i, i);
+			if (i % 3 == 0)
+				folder.removeDocument(folder.getDocument("doc" + (i / 2)));
+		}
+		reader.interrupt();
+		reader.join();
+		assertNull(error.get());
+		assertEquals(20002 - 6667, folder.getDocumentCount());
+	}
 
 }
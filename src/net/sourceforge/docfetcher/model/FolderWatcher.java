@@ -12,13 +12,20 @@
 package net.sourceforge.docfetcher.model;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 
 import net.contentobjects.jnotify.JNotify;
+import net.contentobjects.jnotify.linux.JNotifyAdapterLinux;
 import net.sourceforge.docfetcher.enums.Msg;
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.gui.ManualLocator;
 import net.sourceforge.docfetcher.model.IndexRegistry.ExistingIndexesHandler;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
@@ -32,9 +39,9 @@ import net.sourceforge.docfetcher.util.Event;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
-import net.sourceforge.docfetcher.util.concurrent.DelayedExecutor;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 
 /**
@@ -52,7 +59,38 @@ public final class FolderWatcher {
 	private final Map<LuceneIndex, Boolean> watchQueue = Maps.newLinkedHashMap(); // guarded by lock
 	
 	// Should only be accessed from the worker thread
-	private final Map<LuceneIndex, Integer> watchIdMap = Maps.newHashMap();
+	private final Map<LuceneIndex, JNotifyListenerImpl> watchMap = Maps.newHashMap();
+	private volatile int watchedIndexCount = 0;
+	
+	/*
+	 * Checks the folders that couldn't be watched because the system's watch
+	 * limit was reached. These are on local disks, so the checks aren't
+	 * throttled.
+	 */
+	private final FolderPoller poller = new FolderPoller(
+		ProgramConf.Int.FolderPollInterval.get() * 1000L);
+	
+	/*
+	 * Checks the folders on network drives, at a limited rate so as to spare
+	 * the network and the file server.
+	 */
+	private final FolderPoller networkPoller = new FolderPoller(
+		ProgramConf.Int.FolderPollInterval.get() * 1000L,
+		ProgramConf.Int.FolderPollRate.get());
+	
+	/*
+	 * File system types of network drives, as returned by FileStore.type() on
+	 * Linux and Mac OS X. Changes made to these by other computers aren't
+	 * reported by inotify and FSEvents. On Windows, on the other hand, changes
+	 * to SMB shares are reported.
+	 */
+	private static final Set<String> networkFileSystems = ImmutableSet.of(
+		"nfs", "nfs4", "cifs", "smb", "smbfs", "smb2", "smb3", "afpfs",
+		"webdav", "ncpfs", "afs", "9p", "ceph", "glusterfs", "lustre",
+		"fuse.sshfs", "fuse.glusterfs", "fuse.davfs2");
+	
+	// Coalesces the changes reported for each index into index updates
+	private final ChangeBuffer changeBuffer;
 
 	private final Lock writeLock;
 	private final Condition needsUpdate;
@@ -67,9 +105,19 @@ public final class FolderWatcher {
 	public FolderWatcher(@NotNull IndexRegistry indexRegistry) {
 		this.indexRegistry = Util.checkNotNull(indexRegistry);
 		
+		changeBuffer = new ChangeBuffer(new ChangeBuffer.UpdateHandler() {
+			public void update(LuceneIndex index, Collection<File> folders) {
+				FolderWatcher.this.indexRegistry.getQueue().addTask(
+					index, IndexAction.UPDATE, folders);
+			}
+		});
+		
 		writeLock = indexRegistry.getWriteLock();
 		needsUpdate = writeLock.newCondition();
 		
+		if (Util.IS_LINUX)
+			JNotifyAdapterLinux.setWatchBudget(ProgramConf.Int.FolderWatchLimit.get());
+		
 		initListeners();
 		
 		/*
@@ -186,15 +234,20 @@ public final class FolderWatcher {
 		 * change from false to true.
 		 */
 		if (shutdown) {
-			for (Integer id : watchIdMap.values()) {
+			for (JNotifyListenerImpl listener : watchMap.values()) {
+				if (listener.isPolled)
+					continue;
 				try {
-					JNotify.removeWatch(id);
+					JNotify.removeWatch(listener.watchId);
 				}
 				catch (Exception e) {
 					Util.printErr(e);
 				}
 			}
-			watchIdMap.clear();
+			watchMap.clear();
+			watchedIndexCount = 0;
+			poller.shutdown();
+			networkPoller.shutdown();
 			LuceneIndex.evtWatchFoldersChanged.remove(watchChangedListener);
 			throw new InterruptedException();
 		}
@@ -202,28 +255,43 @@ public final class FolderWatcher {
 		for (LuceneIndex index : watchQueueCopy.keySet()) {
 			File rootFile = index.getCanonicalRootFile();
 			
-			// Don't watch read-only files (some might be on a CD-ROM)
-			if (!rootFile.canWrite())
-				continue;
-			
 			/*
 			 * Note: Before adding or removing a watch, we must check
-			 * whether the watch ID map already contains or doesn't contain
+			 * whether the watch map already contains or doesn't contain
 			 * the index as a key, respectively. Theoretically, this could
 			 * happen if the watch state is 'flipped' forth and back before
 			 * the worker thread processes the change. For example, an index
 			 * that is already being watched could quickly flip from
 			 * 'watched' to 'unwatched' and then back to 'watched'. Without
-			 * looking at the watch ID map, it would then appear that we
+			 * looking at the watch map, it would then appear that we
 			 * need to add a watch for the index, even though we're already
 			 * watching it.
 			 */
 			// Add watch
 			if (watchQueueCopy.get(index)) {
-				if (watchIdMap.containsKey(index))
+				if (watchMap.containsKey(index))
 					continue;
 				if (!rootFile.exists())
 					continue;
+				
+				/*
+				 * Network drives are polled, since they can be modified by
+				 * other computers. They may be read-only for us, but not for
+				 * those. If the root is a file (archive or PST file), only
+				 * the file itself is polled, not its parent folder.
+				 */
+				if (ProgramConf.Bool.PollNetworkFolders.get()
+						&& isNetworkFolder(rootFile)) {
+					JNotifyListenerImpl listener = new JNotifyListenerImpl(index);
+					listener.isPolled = true;
+					networkPoller.add(rootFile, listener.pollListener);
+					watchMap.put(index, listener);
+					continue;
+				}
+				
+				// Don't watch read-only files (some might be on a CD-ROM)
+				if (!rootFile.canWrite())
+					continue;
 
 				/*
 				 * Tests indicate that Linux can watch individual files, but
@@ -237,10 +305,11 @@ public final class FolderWatcher {
 
 				JNotifyListenerImpl listener = new JNotifyListenerImpl(index);
 				try {
-					int id = listener.addWatch(fileToWatch);
-					watchIdMap.put(index, id);
+					listener.watchId = listener.addWatch(fileToWatch);
+					watchMap.put(index, listener);
 				}
 				catch (Exception e) {
+					poller.removeAll(listener.pollListener);
 					String url = ManualLocator.getManualSubpageUrl("Watch_Limit.html");
 					String msg = Msg.install_watch_failed.format(
 						index.getDisplayName(), url, e.getMessage());
@@ -249,21 +318,63 @@ public final class FolderWatcher {
 			}
 			// Remove watch
 			else {
-				Integer id = watchIdMap.remove(index);
-				if (id == null)
+				JNotifyListenerImpl listener = watchMap.remove(index);
+				if (listener == null)
+					continue;
+				poller.removeAll(listener.pollListener);
+				networkPoller.removeAll(listener.pollListener);
+				changeBuffer.remove(index);
+				if (listener.isPolled)
 					continue;
 				if (!rootFile.exists()) {
 					// Remove ID from map even if root file doesn't exist
 					continue;
 				}
 				try {
-					JNotify.removeWatch(id);
+					JNotify.removeWatch(listener.watchId);
 				}
 				catch (Exception e) {
 					Util.printErr(e);
 				}
 			}
 		}
+		int count = 0;
+		for (JNotifyListenerImpl listener : watchMap.values())
+			if (!listener.isPolled)
+				count++;
+		watchedIndexCount = count;
+	}
+	
+	/**
+	 * Returns the number of folders currently watched. On Linux, this is the
+	 * number of inotify watches in use, which includes one watch per folder in
+	 * each watched tree. On other platforms, it's the number of watched
+	 * indexes.
+	 */
+	public int getWatchCount() {
+		if (Util.IS_LINUX)
+			return JNotifyAdapterLinux.getWatchCount();
+		return watchedIndexCount;
+	}
+	
+	private static boolean isNetworkFolder(@NotNull File file) {
+		if (Util.IS_WINDOWS)
+			return false;
+		try {
+			String type = Files.getFileStore(file.toPath()).type();
+			return networkFileSystems.contains(type.toLowerCase(Locale.ENGLISH));
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Returns the number of folders that are periodically checked for changes
+	 * because they couldn't be watched or are on network drives.
+	 */
+	public int getPolledFolderCount() {
+		return poller.getFolderCount() + networkPoller.getFolderCount();
 	}
 	
 	public void shutdown() {
@@ -282,7 +393,21 @@ public final class FolderWatcher {
 	
 	private final class JNotifyListenerImpl extends SimpleJNotifyListener {
 		private final LuceneIndex watchedIndex;
-		private final DelayedExecutor delayedExecutor = new DelayedExecutor(1000);
+		private int watchId;
+		private boolean isPolled = false;
+		
+		private final FolderPoller.ChangeListener pollListener = new FolderPoller.ChangeListener() {
+			public void folderChanged(File folder) {
+				if (Util.contains(indexRegistry.getIndexParentDir(), folder))
+					return;
+				// A modified archive or PST file requires a full update
+				if (folder.equals(watchedIndex.getCanonicalRootFile())
+						&& !folder.isDirectory())
+					changeBuffer.addRescan(watchedIndex);
+				else
+					addChange(folder);
+			}
+		};
 		
 		private JNotifyListenerImpl(@NotNull LuceneIndex watchedIndex) {
 			this.watchedIndex = Util.checkNotNull(watchedIndex);
@@ -291,17 +416,38 @@ public final class FolderWatcher {
 		protected void handleEvent(File targetFile, EventType eventType) {
 			if (!accept(targetFile, eventType))
 				return;
-			
+			addChange(Util.getParentFile(targetFile));
+		}
+		
+		protected void handleRename(File oldFile, File newFile) {
 			/*
-			 * JNotify can fire many events in rapid succession, so we'll add a
-			 * small delay here in order to let the file system "cool down".
+			 * The file is gone from its old folder, so that folder must be
+			 * updated as well. Otherwise, a file moved from one folder into
+			 * another would remain indexed under the old folder until the
+			 * next full update.
 			 */
-			delayedExecutor.schedule(new Runnable() {
-				public void run() {
-					indexRegistry.getQueue().addTask(
-						watchedIndex, IndexAction.UPDATE);
-				}
-			});
+			if (accept(oldFile, EventType.DELETED))
+				addChange(Util.getParentFile(oldFile));
+			handleEvent(newFile, EventType.RENAMED);
+		}
+		
+		protected void handleUnwatchedFolder(File folder) {
+			poller.add(folder, pollListener);
+		}
+		
+		/*
+		 * JNotify can fire many events in rapid succession, so the changes are
+		 * buffered until the file system has "cooled down". Changes outside
+		 * the root folder, e.g. to an archive or PST file that is the root
+		 * itself, require a full update.
+		 */
+		private void addChange(@NotNull File folder) {
+			File rootFile = watchedIndex.getCanonicalRootFile();
+			if (watchedIndex instanceof FileIndex
+					&& (folder.equals(rootFile) || Util.contains(rootFile, folder)))
+				changeBuffer.addChange(watchedIndex, folder);
+			else
+				changeBuffer.addRescan(watchedIndex);
 		}
 		
 		private boolean accept(	@NotNull File target,
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import com.google.common.io.Closeables;
+
+/**
+ * A lock on the file <tt>.lock</tt> in an index folder, which keeps the
+ * indexing server and other program instances from loading and writing the
+ * same indexes at the same time. Program instances with a GUI and headless
+ * index updates (<tt>--update-indexes</tt>) take a shared lock, so that they
+ * can still run alongside each other, while the indexing server takes an
+ * exclusive lock. The lock is released by the operating system when
+ * the process terminates.
+ *
+ * @author Tran Nam Quang
+ */
+public final class IndexFolderLock {
+
+	private static final String LOCK_FILENAME = ".lock"; //$NON-NLS-1$
+
+	private final RandomAccessFile file;
+	private final FileLock lock;
+
+	private IndexFolderLock(@NotNull RandomAccessFile file,
+							@NotNull FileLock lock) {
+		this.file = file;
+		this.lock = lock;
+	}
+
+	/**
+	 * Tries to lock the given index folder, creating the folder if necessary.
+	 * Returns null if the folder is already locked in a conflicting way by
+	 * this or another process. The returned lock must be referenced for as
+	 * long as the lock is needed.
+	 */
+	@Nullable
+	public static IndexFolderLock tryAcquire(	@NotNull File indexParentDir,
+												boolean exclusive)
+			throws IOException {
+		Util.checkNotNull(indexParentDir);
+		indexParentDir.mkdirs();
+		File lockFile = new File(indexParentDir, LOCK_FILENAME);
+		RandomAccessFile file = new RandomAccessFile(lockFile, "rw"); //$NON-NLS-1$
+		boolean success = false;
+		try {
+			FileLock lock = file.getChannel().tryLock(0, Long.MAX_VALUE, !exclusive);
+			if (lock == null)
+				return null;
+			success = true;
+			return new IndexFolderLock(file, lock);
+		}
+		catch (OverlappingFileLockException e) {
+			return null; // Already locked by this process
+		}
+		finally {
+			if (!success)
+				Closeables.closeQuietly(file);
+		}
+	}
+
+	public void release() {
+		try {
+			lock.release();
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+		}
+		Closeables.closeQuietly(file);
+	}
+
+}
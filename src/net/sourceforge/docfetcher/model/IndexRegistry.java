@@ -38,6 +38,7 @@ import net.sourceforge.docfetcher.model.IndexLoadingProblems.CorruptedIndex;
 import net.sourceforge.docfetcher.model.IndexLoadingProblems.OverflowIndex;
 import net.sourceforge.docfetcher.model.index.IndexingQueue;
 import net.sourceforge.docfetcher.model.index.file.FileFactory;
+import net.sourceforge.docfetcher.model.index.file.FileIndex;
 import net.sourceforge.docfetcher.model.index.outlook.OutlookMailFactory;
 import net.sourceforge.docfetcher.model.search.Searcher;
 import net.sourceforge.docfetcher.model.search.SourceCodeTokenizer;
@@ -403,13 +404,23 @@ public final class IndexRegistry {
 		try {
 			final DelayedExecutor executor = new DelayedExecutor(1000);
 
+			/*
+			 * The delayed executor's thread is shared with other delayed
+			 * executors, such as the change buffer of the folder watcher. The
+			 * reload takes the write lock and deserializes the indexes, so it
+			 * runs on its own thread in order not to hold up the others.
+			 */
 			final int watchId = new SimpleJNotifyListener() {
 				protected void handleEvent(File targetFile, EventType eventType) {
 					if (!targetFile.getName().equals(SER_FILENAME))
 						return;
 					executor.schedule(new Runnable() {
 						public void run() {
-							reload();
+							new Thread(IndexRegistry.class.getName() + " (reload)") {
+								public void run() {
+									reload();
+								}
+							}.start();
 						}
 					});
 				}
@@ -455,6 +466,9 @@ public final class IndexRegistry {
 			finally {
 				lock.release();
 			}
+			if (index instanceof FileIndex
+					&& !((FileIndex) index).loadTree(serFile.getParentFile()))
+				return false;
 			addIndex(index, serFile.lastModified());
 			return true;
 		}
@@ -533,6 +547,16 @@ public final class IndexRegistry {
 			if (serFile.exists() && !serFile.canWrite())
 				return;
 
+			/*
+			 * If enabled, the folder tree of a file index is saved to a
+			 * memory-mapped tree file rather than serialized with the index.
+			 */
+			FileIndex fileIndex = index instanceof FileIndex
+				? (FileIndex) index
+				: null;
+			if (fileIndex != null)
+				fileIndex.saveTree(indexDir);
+
 			ObjectOutputStream out = null;
 			try {
 				serFile.createNewFile();
@@ -560,6 +584,9 @@ public final class IndexRegistry {
 			finally {
 				Closeables.closeQuietly(out);
 			}
+			
+			if (fileIndex != null)
+				fileIndex.deleteObsoleteTreeFiles(indexDir);
 
 			// Update cached last-modified value of index
 			indexes.put(index, serFile.lastModified());
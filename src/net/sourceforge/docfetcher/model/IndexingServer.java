@@ -0,0 +1,466 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.index.DelegatingReporter.ExistingMessagesHandler;
+import net.sourceforge.docfetcher.model.index.IndexingError;
+import net.sourceforge.docfetcher.model.index.IndexingInfo;
+import net.sourceforge.docfetcher.model.index.IndexingInfo.InfoType;
+import net.sourceforge.docfetcher.model.index.IndexingQueue;
+import net.sourceforge.docfetcher.model.index.IndexingQueue.ExistingTasksHandler;
+import net.sourceforge.docfetcher.model.index.IndexingQueue.Rejection;
+import net.sourceforge.docfetcher.model.index.IndexingReporter;
+import net.sourceforge.docfetcher.model.index.Task;
+import net.sourceforge.docfetcher.model.index.Task.CancelAction;
+import net.sourceforge.docfetcher.model.index.Task.CancelHandler;
+import net.sourceforge.docfetcher.model.index.Task.IndexAction;
+import net.sourceforge.docfetcher.model.index.file.FileIndex;
+import net.sourceforge.docfetcher.util.Event;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+
+/**
+ * Keeps the indexes up to date without a GUI, e.g. on a file server. The
+ * indexes are loaded, watched and updated like in the GUI, and the changes
+ * recorded by the DocFetcher daemon are picked up on startup. The server runs
+ * until it receives the <tt>stop</tt> command or the JVM is shut down.
+ * <p>
+ * The server takes an exclusive {@link IndexFolderLock} on the index folder,
+ * so it refuses to start while another server, a program instance with a GUI
+ * or a headless index update is using the same indexes, and vice versa.
+ * <p>
+ * The server is controlled through a TCP socket that only accepts connections
+ * from the local machine. Once the indexes have been loaded, the port is
+ * written to the file <tt>.server-port</tt> in the index folder. Clients send
+ * one command per
+ * line, and the server answers each command with zero or more lines of
+ * output, followed by a line that is either <tt>OK</tt> or starts with
+ * <tt>ERROR</tt>. The commands are:
+ * <ul>
+ * <li><tt>status</tt>: The number of indexes, the number of tasks in the
+ * indexing queue, the number of finished tasks and indexed documents, the
+ * number of documents indexed per second during the last minute, and the
+ * number of watched and polled folders, as <tt>key: value</tt> lines.
+ * <li><tt>list</tt>: The root folders and files of the indexes.
+ * <li><tt>update &lt;path&gt;</tt>: Updates the index with the given root. If
+ * the path is a folder inside the root of a file index, only that folder is
+ * updated.
+ * <li><tt>update-all</tt>: Updates all indexes.
+ * <li><tt>stop</tt>: Lets the running task finish, saves the indexes and
+ * stops the server.
+ * </ul>
+ *
+ * @author Tran Nam Quang
+ */
+public final class IndexingServer {
+
+	/**
+	 * Counts events per second in a sliding window of one minute, using one
+	 * bucket per second.
+	 */
+	@VisibleForTesting
+	static final class RateCounter {
+		static final int WINDOW = 60; // seconds
+
+		private final long[] counts = new long[WINDOW];
+		private final long[] seconds = new long[WINDOW];
+		private long total = 0;
+
+		public synchronized void add(long time) {
+			total++;
+			long second = time / 1000;
+			int i = (int) (second % WINDOW);
+			if (seconds[i] != second) {
+				seconds[i] = second;
+				counts[i] = 0;
+			}
+			counts[i]++;
+		}
+
+		public synchronized long getTotal() {
+			return total;
+		}
+
+		/**
+		 * Returns the average number of events per second during the minute
+		 * before the given time.
+		 */
+		public synchronized double getRate(long time) {
+			long second = time / 1000;
+			long sum = 0;
+			for (int i = 0; i < WINDOW; i++)
+				if (second - seconds[i] < WINDOW)
+					sum += counts[i];
+			return (double) sum / WINDOW;
+		}
+	}
+
+	/**
+	 * The index to update for a path given to the <tt>update</tt> command, and
+	 * the folder to update if only a part of the index is to be updated.
+	 */
+	@VisibleForTesting
+	static final class UpdateTarget {
+		final LuceneIndex index;
+		@Nullable final File folder;
+
+		private UpdateTarget(@NotNull LuceneIndex index, @Nullable File folder) {
+			this.index = index;
+			this.folder = folder;
+		}
+	}
+
+	private final File indexParentDir;
+	private final IndexRegistry indexRegistry;
+	private final Daemon daemon;
+	private final File portFile;
+	private final long startTime = System.currentTimeMillis();
+	private final CountDownLatch terminated = new CountDownLatch(1);
+
+	@Nullable private ServerSocket serverSocket;
+	@Nullable private volatile IndexFolderLock indexFolderLock;
+	@Nullable private volatile FolderWatcher folderWatcher;
+	private volatile boolean shutdown = false;
+	private volatile boolean loaded = false;
+
+	private final AtomicInteger queueSize = new AtomicInteger(0);
+	private final AtomicInteger finishedTasks = new AtomicInteger(0);
+
+	private final RateCounter documentCounter = new RateCounter();
+
+	private final IndexingReporter documentReporter = new IndexingReporter() {
+		public void info(IndexingInfo info) {
+			if (info.is(InfoType.EXTRACTING))
+				documentCounter.add(System.currentTimeMillis());
+		}
+	};
+
+	public IndexingServer(@NotNull File indexParentDir) {
+		this.indexParentDir = Util.checkNotNull(indexParentDir);
+		int cacheCapacity = ProgramConf.Int.UnpackCacheCapacity.get();
+		int reporterCapacity = ProgramConf.Int.MaxLinesInProgressPanel.get();
+		indexRegistry = new IndexRegistry(
+			indexParentDir, cacheCapacity, reporterCapacity);
+		daemon = new Daemon(indexRegistry);
+		portFile = new File(indexParentDir, ".server-port");
+
+		IndexingQueue queue = indexRegistry.getQueue();
+		queue.evtWorkerThreadTerminated.add(new Event.Listener<Void>() {
+			public void update(Void eventData) {
+				daemon.writeIndexesToFile();
+				IndexFolderLock lock = indexFolderLock;
+				if (lock != null)
+					lock.release();
+				terminated.countDown();
+			}
+		});
+
+		final Event.Listener<Boolean> finishedListener = new Event.Listener<Boolean>() {
+			public void update(Boolean hasErrors) {
+				finishedTasks.incrementAndGet();
+			}
+		};
+		final ExistingMessagesHandler messagesHandler = new ExistingMessagesHandler() {
+			public void handleMessages(	List<IndexingInfo> infos,
+										List<IndexingError> errors) {
+				// Messages of tasks that were already running are not counted
+			}
+		};
+		queue.addListeners(new ExistingTasksHandler() {
+			public void handleExistingTasks(List<Task> tasks) {
+				queueSize.addAndGet(tasks.size());
+			}
+		}, new Event.Listener<Task>() {
+			public void update(Task task) {
+				queueSize.incrementAndGet();
+				task.evtFinished.add(finishedListener);
+				task.attachReporter(documentReporter, messagesHandler);
+			}
+		}, new Event.Listener<Task>() {
+			public void update(Task task) {
+				queueSize.decrementAndGet();
+			}
+		});
+	}
+
+	/**
+	 * Loads the indexes, starts watching them and runs the server until it is
+	 * stopped. The given port is the port of the control socket; zero means
+	 * that any free port is used. Throws an IOException if the index folder is
+	 * in use or the control socket can't be opened, before any indexes are
+	 * loaded.
+	 */
+	public void run(int port) throws IOException {
+		try {
+			indexFolderLock = IndexFolderLock.tryAcquire(indexParentDir, true);
+			if (indexFolderLock == null)
+				throw new IOException("Index folder is in use: " + indexParentDir);
+
+			ServerSocket socket = new ServerSocket(
+				port, 50, InetAddress.getByName(null));
+			synchronized (this) {
+				serverSocket = socket;
+				if (shutdown) { // Stopped in the meantime
+					socket.close();
+					return;
+				}
+			}
+
+			indexRegistry.load(new Cancelable() {
+				public boolean isCanceled() {
+					return shutdown;
+				}
+			});
+			loaded = true;
+
+			// See Application.loadIndexRegistry
+			FolderWatcher watcher = new FolderWatcher(indexRegistry);
+			watcher.evtWatchLimitError.add(new Event.Listener<String>() {
+				public void update(String eventData) {
+					Util.printErr(eventData);
+				}
+			});
+			folderWatcher = watcher;
+			daemon.enqueueUpdateTasks();
+
+			// Connections made in the meantime are accepted from here on
+			Files.write(String.valueOf(socket.getLocalPort()), portFile, Charsets.UTF_8);
+			Util.println("Server listening on port " + socket.getLocalPort());
+
+			while (!shutdown) {
+				final Socket client;
+				try {
+					client = socket.accept();
+				}
+				catch (IOException e) {
+					if (shutdown)
+						break;
+					throw e;
+				}
+				Thread thread = new Thread(IndexingServer.class.getName() + " (client)") {
+					public void run() {
+						handleClient(client);
+					}
+				};
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+		finally {
+			shutdown();
+			terminate();
+		}
+	}
+
+	/**
+	 * Stops the server. Can be called from any thread.
+	 */
+	public void shutdown() {
+		ServerSocket socket;
+		synchronized (this) {
+			shutdown = true;
+			socket = serverSocket;
+		}
+		Closeables.closeQuietly(socket);
+	}
+
+	/**
+	 * Waits until the server has stopped and the indexes have been saved, or
+	 * until the given timeout in milliseconds has elapsed. Returns whether the
+	 * server has stopped.
+	 */
+	public boolean awaitTermination(long timeout) throws InterruptedException {
+		return terminated.await(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	private void terminate() {
+		portFile.delete();
+		boolean queueStopped = indexRegistry.getQueue().shutdown(new CancelHandler() {
+			public CancelAction cancel() {
+				return CancelAction.KEEP;
+			}
+		});
+		assert queueStopped;
+		FolderWatcher watcher = folderWatcher;
+		if (watcher != null)
+			watcher.shutdown();
+
+		// The searcher isn't available if the indexes couldn't be loaded
+		if (loaded)
+			indexRegistry.getSearcher().shutdown();
+	}
+
+	private void handleClient(@NotNull Socket client) {
+		BufferedReader in = null;
+		PrintWriter out = null;
+		try {
+			in = new BufferedReader(new InputStreamReader(
+				client.getInputStream(), Charsets.UTF_8));
+			out = new PrintWriter(new OutputStreamWriter(
+				client.getOutputStream(), Charsets.UTF_8));
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty())
+					continue;
+				boolean stop = handleCommand(line, out);
+				out.flush();
+				if (stop) {
+					shutdown();
+					break;
+				}
+			}
+		}
+		catch (IOException e) {
+			// Client disconnected
+		}
+		finally {
+			Closeables.closeQuietly(in);
+			Closeables.closeQuietly(out);
+			Closeables.closeQuietly(client);
+		}
+	}
+
+	/**
+	 * Splits the given command line into the command and its argument, which
+	 * is empty if there is none.
+	 */
+	@NotNull
+	@VisibleForTesting
+	static String[] parseCommand(@NotNull String line) {
+		line = line.trim();
+		int space = line.indexOf(' ');
+		if (space < 0)
+			return new String[] { line, "" };
+		return new String[] {
+			line.substring(0, space), line.substring(space + 1).trim() };
+	}
+
+	// Returns whether the server should be stopped
+	private boolean handleCommand(@NotNull String line, @NotNull PrintWriter out) {
+		String[] parts = parseCommand(line);
+		String command = parts[0];
+		String arg = parts[1];
+
+		if (command.equals("status")) {
+			FolderWatcher watcher = folderWatcher;
+			out.println("indexes: " + indexRegistry.getIndexes().size());
+			out.println("queue: " + queueSize.get());
+			out.println("tasks-finished: " + finishedTasks.get());
+			out.println("documents: " + documentCounter.getTotal());
+			out.println("documents-per-second: " + String.format(
+				Locale.ENGLISH, "%.1f",
+				documentCounter.getRate(System.currentTimeMillis())));
+			out.println("watched-folders: " + (watcher == null ? 0 : watcher.getWatchCount()));
+			out.println("polled-folders: " + (watcher == null ? 0 : watcher.getPolledFolderCount()));
+			out.println("uptime: " + (System.currentTimeMillis() - startTime) / 1000);
+			out.println("OK");
+		}
+		else if (command.equals("list")) {
+			for (LuceneIndex index : indexRegistry.getIndexes())
+				out.println(index.getCanonicalRootFile().getPath());
+			out.println("OK");
+		}
+		else if (command.equals("update")) {
+			if (arg.isEmpty()) {
+				out.println("ERROR Missing path");
+				return false;
+			}
+			UpdateTarget target = findUpdateTarget(indexRegistry.getIndexes(), arg);
+			if (target == null)
+				out.println("ERROR No index found for " + arg);
+			else
+				printResult(out, addUpdate(target.index, target.folder));
+		}
+		else if (command.equals("update-all")) {
+			for (LuceneIndex index : indexRegistry.getIndexes())
+				addUpdate(index, null);
+			out.println("OK");
+		}
+		else if (command.equals("stop")) {
+			out.println("OK");
+			return true;
+		}
+		else {
+			out.println("ERROR Unknown command: " + command);
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the index with the given root, which will be updated entirely,
+	 * or the file index whose root contains the given path, of which only the
+	 * folder with the given path will be updated. Returns null if there is no
+	 * such index. Since the roots of the indexes are canonical, the given path
+	 * is canonicalized as well.
+	 */
+	@Nullable
+	@VisibleForTesting
+	static UpdateTarget findUpdateTarget(	@NotNull Collection<LuceneIndex> indexes,
+											@NotNull String path) {
+		File file;
+		try {
+			file = new File(path).getCanonicalFile();
+		}
+		catch (IOException e) {
+			file = new File(path).getAbsoluteFile();
+		}
+		for (LuceneIndex index : indexes) {
+			File rootFile = index.getCanonicalRootFile();
+			if (file.equals(rootFile))
+				return new UpdateTarget(index, null);
+			if (index instanceof FileIndex && Util.contains(rootFile, file))
+				return new UpdateTarget(index, file);
+		}
+		return null;
+	}
+
+	@Nullable
+	private Rejection addUpdate(@NotNull LuceneIndex index,
+	                            @Nullable File folder) {
+		Rejection rejection = indexRegistry.getQueue().addTask(
+			index, IndexAction.UPDATE,
+			folder == null ? null : Collections.singleton(folder));
+		// Redundant updates have been merged into a task in the queue
+		return rejection == Rejection.REDUNDANT_UPDATE ? null : rejection;
+	}
+
+	private static void printResult(@NotNull PrintWriter out,
+	                                @Nullable Rejection rejection) {
+		out.println(rejection == null ? "OK" : "ERROR " + rejection.name());
+	}
+
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sourceforge.docfetcher.model.IndexingServer.RateCounter;
+import net.sourceforge.docfetcher.model.IndexingServer.UpdateTarget;
+import net.sourceforge.docfetcher.model.index.file.FileIndex;
+import net.sourceforge.docfetcher.util.AppUtil;
+import net.sourceforge.docfetcher.util.Util;
+
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class IndexingServerTest {
+
+	static {
+		AppUtil.Const.autoInit();
+	}
+
+	@Test
+	public void testParseCommand() {
+		assertArrayEquals(new String[] { "status", "" },
+			IndexingServer.parseCommand("status"));
+		assertArrayEquals(new String[] { "update", "/path/with spaces" },
+			IndexingServer.parseCommand(" update   /path/with spaces "));
+		assertArrayEquals(new String[] { "", "" },
+			IndexingServer.parseCommand("  "));
+	}
+
+	@Test
+	public void testFindUpdateTarget() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			File root1 = new File(tempDir, "one");
+			File root2 = new File(tempDir, "two");
+			File sub = new File(root1, "sub");
+			sub.mkdirs();
+			root2.mkdir();
+			LuceneIndex index1 = new FileIndex(null, root1);
+			LuceneIndex index2 = new FileIndex(null, root2);
+			List<LuceneIndex> indexes = Arrays.asList(index1, index2);
+
+			// Index root
+			UpdateTarget target = IndexingServer.findUpdateTarget(
+				indexes, root2.getPath());
+			assertSame(index2, target.index);
+			assertNull(target.folder);
+
+			// Folder inside an index, given as a non-normalized path
+			String path = root2.getPath() + "/../one/./sub";
+			target = IndexingServer.findUpdateTarget(indexes, path);
+			assertSame(index1, target.index);
+			assertEquals(sub.getCanonicalFile(), target.folder);
+
+			// Unknown path
+			File other = new File(tempDir, "other");
+			assertNull(IndexingServer.findUpdateTarget(indexes, other.getPath()));
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	public void testIndexFolderLock() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			IndexFolderLock lock = IndexFolderLock.tryAcquire(tempDir, true);
+			assertNotNull(lock);
+			assertNull(IndexFolderLock.tryAcquire(tempDir, false));
+			lock.release();
+			lock = IndexFolderLock.tryAcquire(tempDir, false);
+			assertNotNull(lock);
+			lock.release();
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	public void testRateCounter() {
+		RateCounter counter = new RateCounter();
+		long start = 1000 * 1000;
+		for (int i = 0; i < 30; i++)
+			counter.add(start);
+		for (int i = 0; i < 30; i++)
+			counter.add(start + 1500);
+		assertEquals(60, counter.getTotal());
+		assertEquals(1.0, counter.getRate(start + 2000), 0.001);
+
+		// The first second drops out of the window
+		assertEquals(0.5, counter.getRate(start + 60500), 0.001);
+
+		// Its bucket is reused for a later second
+		counter.add(start + 60000);
+		assertEquals(31.0 / 60, counter.getRate(start + 60500), 0.001);
+		assertEquals(0, counter.getRate(start + 200000), 0.001);
+		assertEquals(61, counter.getTotal());
+	}
+
+}
@@ -14,6 +14,7 @@ package net.sourceforge.docfetcher.model;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Collection;
 
 import net.sourceforge.docfetcher.model.TreeIndex.IndexingResult;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
@@ -61,6 +62,17 @@ public interface LuceneIndex extends ViewNode, Serializable {
 	public IndexingResult update(	@Nullable IndexingReporter reporter,
 	                             	@Nullable Cancelable cancelable);
 	
+	/**
+	 * Updates the index like {@link #update(IndexingReporter, Cancelable)},
+	 * but if the given collection of folders is not null, only the contents
+	 * of these folders are checked for changes, without descending into their
+	 * existing subfolders. Implementations may fall back to a full update.
+	 */
+	@NotNull
+	public IndexingResult update(	@Nullable IndexingReporter reporter,
+	                             	@Nullable Cancelable cancelable,
+	                             	@Nullable Collection<File> folders);
+	
 	@NotNull
 	public Directory getLuceneDir() throws IOException;
 	
@@ -0,0 +1,425 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import net.sourceforge.docfetcher.util.annotations.Immutable;
+import net.sourceforge.docfetcher.util.annotations.ImmutableCopy;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * A memory-efficient map of tree nodes, using the names of the nodes as keys.
+ * <p>
+ * In contrast to a <tt>HashMap</tt>, no entry objects are allocated and the
+ * keys are not stored separately, since each node already knows its name.
+ * Small maps are stored as plain arrays that are searched linearly, which is
+ * faster than hashing for a handful of entries. Larger maps are stored as
+ * open-addressing hash tables with linear probing. This takes between 5 and
+ * 11 bytes per entry with compressed object references, compared to about 40
+ * bytes per entry for a <tt>HashMap</tt>.
+ * <p>
+ * This class is not thread-safe, the callers must synchronize modifications.
+ * However, a map can be frozen, after which it can no longer be modified and
+ * can therefore be read by any number of threads without locking. This allows
+ * copy-on-write: A writer modifies a map in place as long as no reader has
+ * frozen it, and works on a copy otherwise. Thus, while a folder is being
+ * updated, it is copied at most once per reader that looked at it, rather than
+ * once per modification.
+ *
+ * @author Tran Nam Quang
+ */
+final class NodeMap<T extends TreeNode> implements Iterable<T> {
+
+	private static final int MAX_ARRAY_SIZE = 8;
+	private static final int MIN_TABLE_SIZE = 16;
+
+	/*
+	 * If the length of this array is not greater than MAX_ARRAY_SIZE, the
+	 * entries are stored in the first 'size' slots. Otherwise the array is a
+	 * hash table whose length is a power of two, and which is never more than
+	 * three quarters full.
+	 */
+	private TreeNode[] table = new TreeNode[2];
+	private int size = 0;
+
+	private static final int IDLE = 0;
+	private static final int WRITING = 1;
+	private static final int FROZEN = 2;
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<NodeMap> stateUpdater
+		= AtomicIntegerFieldUpdater.newUpdater(NodeMap.class, "state"); //$NON-NLS-1$
+
+	private volatile int state = IDLE;
+
+	public NodeMap() {
+	}
+
+	public NodeMap(@NotNull Iterable<? extends T> nodes) {
+		for (T node : nodes)
+			put(node);
+	}
+
+	/**
+	 * Returns a modifiable copy of this map.
+	 */
+	@NotNull
+	public NodeMap<T> copy() {
+		NodeMap<T> copy = new NodeMap<T>();
+		copy.table = table.clone();
+		copy.size = size;
+		return copy;
+	}
+
+	public boolean isFrozen() {
+		return state == FROZEN;
+	}
+
+	/**
+	 * Freezes this map unless it is being modified at the moment. Returns
+	 * whether the map is frozen. Can be called without holding the lock that
+	 * guards the modifications.
+	 */
+	public boolean tryFreeze() {
+		return state == FROZEN || stateUpdater.compareAndSet(this, IDLE, FROZEN);
+	}
+
+	/**
+	 * Announces that this map is about to be modified. Returns false if the
+	 * map is frozen, in which case a copy must be modified instead. Each
+	 * successful call must be followed by a call to {@link #endWrite()}.
+	 */
+	public boolean tryBeginWrite() {
+		return stateUpdater.compareAndSet(this, IDLE, WRITING);
+	}
+
+	public void endWrite() {
+		state = IDLE;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	private boolean isHashTable() {
+		return table.length > MAX_ARRAY_SIZE;
+	}
+
+	@Nullable
+	@SuppressWarnings("unchecked")
+	public T get(@NotNull String name) {
+		int i = indexOf(name);
+		return i < 0 ? null : (T) table[i];
+	}
+
+	/**
+	 * Returns the node whose name is equal to the given region of the given
+	 * string, or null if there is no such node. Unlike {@link #get(String)},
+	 * this doesn't require the name to be extracted into a separate string
+	 * first.
+	 */
+	@Nullable
+	@SuppressWarnings("unchecked")
+	public T get(@NotNull String str, int start, int end) {
+		int i = indexOf(str, start, end);
+		return i < 0 ? null : (T) table[i];
+	}
+
+	/**
+	 * Adds the given node, replacing any node with the same name. Returns the
+	 * replaced node, or null if there was no node with the same name.
+	 */
+	@Nullable
+	@SuppressWarnings("unchecked")
+	public T put(@NotNull T node) {
+		assert state != FROZEN;
+		String name = node.getName();
+		if (isHashTable()) {
+			int mask = table.length - 1;
+			int i = hash(name) & mask;
+			while (table[i] != null) {
+				if (table[i].getName().equals(name)) {
+					T old = (T) table[i];
+					table[i] = node;
+					return old;
+				}
+				i = (i + 1) & mask;
+			}
+			table[i] = node;
+			if (++size > table.length / 4 * 3)
+				rehash(table.length * 2);
+			return null;
+		}
+		int i = indexOf(name);
+		if (i >= 0) {
+			T old = (T) table[i];
+			table[i] = node;
+			return old;
+		}
+		if (size == table.length) {
+			if (size == MAX_ARRAY_SIZE) {
+				rehash(MIN_TABLE_SIZE);
+				return put(node);
+			}
+			table = Arrays.copyOf(table, size * 2);
+		}
+		table[size++] = node;
+		return null;
+	}
+
+	/**
+	 * Removes the node with the given name and returns it, or returns null if
+	 * there is no such node.
+	 */
+	@Nullable
+	@SuppressWarnings("unchecked")
+	public T remove(@NotNull String name) {
+		assert state != FROZEN;
+		int i = indexOf(name);
+		if (i < 0)
+			return null;
+		T old = (T) table[i];
+		if (isHashTable()) {
+			deleteSlot(i);
+		}
+		else {
+			System.arraycopy(table, i + 1, table, i, size - i - 1);
+			table[size - 1] = null;
+		}
+		size--;
+		return old;
+	}
+
+	/**
+	 * Removes all nodes that satisfy the given predicate and returns them.
+	 */
+	@NotNull
+	public List<T> removeAll(@NotNull Predicate<? super T> predicate) {
+		List<T> removed = new ArrayList<T>();
+		for (T node : this)
+			if (predicate.apply(node))
+				removed.add(node);
+		for (T node : removed)
+			remove(node.getName());
+		return removed;
+	}
+
+	@ImmutableCopy
+	@NotNull
+	public List<T> toList() {
+		return ImmutableList.copyOf(this);
+	}
+
+	@ImmutableCopy
+	@NotNull
+	public Map<String, T> toMap() {
+		ImmutableMap.Builder<String, T> builder = ImmutableMap.builder();
+		for (T node : this)
+			builder.put(node.getName(), node);
+		return builder.build();
+	}
+
+	/**
+	 * Returns an unmodifiable view of this map, which must be frozen.
+	 */
+	@Immutable
+	@NotNull
+	public Map<String, T> asMap() {
+		assert state == FROZEN;
+		return new AbstractMap<String, T>() {
+			public T get(Object key) {
+				return key instanceof String ? NodeMap.this.get((String) key) : null;
+			}
+			public boolean containsKey(Object key) {
+				return get(key) != null;
+			}
+			public int size() {
+				return size;
+			}
+			public Set<Map.Entry<String, T>> entrySet() {
+				return new AbstractSet<Map.Entry<String, T>>() {
+					public int size() {
+						return size;
+					}
+					public Iterator<Map.Entry<String, T>> iterator() {
+						final Iterator<T> it = NodeMap.this.iterator();
+						return new Iterator<Map.Entry<String, T>>() {
+							public boolean hasNext() {
+								return it.hasNext();
+							}
+							public Map.Entry<String, T> next() {
+								T node = it.next();
+								return new SimpleImmutableEntry<String, T>(node.getName(), node);
+							}
+							public void remove() {
+								throw new UnsupportedOperationException();
+							}
+						};
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Returns the nodes of this map as an array. Used for serialization.
+	 */
+	@NotNull
+	public TreeNode[] toArray() {
+		TreeNode[] array = new TreeNode[size];
+		int i = 0;
+		for (T node : this)
+			array[i++] = node;
+		return array;
+	}
+
+	/**
+	 * Returns an iterator over the nodes of this map, in no particular order.
+	 * The iterator does not support removal, and the map must not be modified
+	 * during iteration.
+	 */
+	public Iterator<T> iterator() {
+		if (size == 0)
+			return Collections.<T>emptyList().iterator();
+		return new Iterator<T>() {
+			private int i = nextIndex(0);
+
+			public boolean hasNext() {
+				return i < table.length;
+			}
+
+			@SuppressWarnings("unchecked")
+			public T next() {
+				if (i >= table.length)
+					throw new NoSuchElementException();
+				T node = (T) table[i];
+				i = nextIndex(i + 1);
+				return node;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private int nextIndex(int from) {
+		for (int i = from; i < table.length; i++)
+			if (table[i] != null)
+				return i;
+		return table.length;
+	}
+
+	private int indexOf(@NotNull String name) {
+		if (isHashTable()) {
+			int mask = table.length - 1;
+			int i = hash(name) & mask;
+			while (table[i] != null) {
+				if (table[i].getName().equals(name))
+					return i;
+				i = (i + 1) & mask;
+			}
+			return -1;
+		}
+		for (int i = 0; i < size; i++)
+			if (table[i].getName().equals(name))
+				return i;
+		return -1;
+	}
+
+	private int indexOf(@NotNull String str, int start, int end) {
+		int length = end - start;
+		if (isHashTable()) {
+			// Same as String.hashCode(), computed over the given region
+			int h = 0;
+			for (int j = start; j < end; j++)
+				h = 31 * h + str.charAt(j);
+			int mask = table.length - 1;
+			int i = (h ^ (h >>> 16)) & mask;
+			while (table[i] != null) {
+				String name = table[i].getName();
+				if (name.length() == length && name.regionMatches(0, str, start, length))
+					return i;
+				i = (i + 1) & mask;
+			}
+			return -1;
+		}
+		for (int i = 0; i < size; i++) {
+			String name = table[i].getName();
+			if (name.length() == length && name.regionMatches(0, str, start, length))
+				return i;
+		}
+		return -1;
+	}
+
+	/*
+	 * Removes the entry at the given slot of the hash table and moves
+	 * subsequent entries of the same probe sequence back, so that lookups
+	 * don't need tombstones.
+	 */
+	private void deleteSlot(int hole) {
+		int mask = table.length - 1;
+		table[hole] = null;
+		int i = (hole + 1) & mask;
+		while (table[i] != null) {
+			int home = hash(table[i].getName()) & mask;
+			// Move the entry if its home slot is not between the hole and i
+			if (((i - home) & mask) >= ((i - hole) & mask)) {
+				table[hole] = table[i];
+				table[i] = null;
+				hole = i;
+			}
+			i = (i + 1) & mask;
+		}
+	}
+
+	private void rehash(int newLength) {
+		TreeNode[] oldTable = table;
+		table = new TreeNode[newLength];
+		int mask = newLength - 1;
+		for (int j = 0; j < oldTable.length; j++) {
+			TreeNode node = oldTable[j];
+			if (node == null)
+				continue;
+			int i = hash(node.getName()) & mask;
+			while (table[i] != null)
+				i = (i + 1) & mask;
+			table[i] = node;
+		}
+	}
+
+	private static int hash(@NotNull String name) {
+		int h = name.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.base.Predicate;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class NodeMapTest {
+
+	private static final class Node extends TreeNode {
+		private static final long serialVersionUID = 1L;
+
+		public Node(String name) {
+			super(name);
+		}
+
+		public Path getPath() {
+			return new Path(getName());
+		}
+	}
+
+	@Test
+	public void testSameAsHashMap() {
+		/*
+		 * Run random operations on a NodeMap and a HashMap, with map sizes
+		 * below and above the threshold at which the NodeMap switches from
+		 * linear search to hashing.
+		 */
+		Random random = new Random(0);
+		for (int maxSize : new int[] { 4, 12, 200 }) {
+			NodeMap<Node> nodeMap = new NodeMap<Node>();
+			Map<String, Node> hashMap = new HashMap<String, Node>();
+			for (int i = 0; i < 20000; i++) {
+				String name = "node" + random.nextInt(maxSize);
+				switch (random.nextInt(3)) {
+				case 0:
+				case 1:
+					Node node = new Node(name);
+					assertSame(hashMap.put(name, node), nodeMap.put(node));
+					break;
+				case 2:
+					assertSame(hashMap.remove(name), nodeMap.remove(name));
+					break;
+				}
+				assertEquals(hashMap.size(), nodeMap.size());
+				assertSame(hashMap.get(name), nodeMap.get(name));
+				String str = "/" + name + "/";
+				assertSame(hashMap.get(name), nodeMap.get(str, 1, str.length() - 1));
+			}
+			assertEquals(hashMap, nodeMap.toMap());
+			assertEquals(
+				new HashSet<Node>(hashMap.values()),
+				new HashSet<Node>(nodeMap.toList()));
+		}
+	}
+
+	@Test
+	public void testRemoveAll() {
+		NodeMap<Node> nodeMap = new NodeMap<Node>();
+		for (int i = 0; i < 100; i++)
+			nodeMap.put(new Node(String.valueOf(i)));
+		nodeMap.removeAll(new Predicate<Node>() {
+			public boolean apply(Node node) {
+				return Integer.parseInt(node.getName()) % 3 != 0;
+			}
+		});
+		assertEquals(34, nodeMap.size());
+		for (int i = 0; i < 100; i++)
+			assertEquals(i % 3 == 0, nodeMap.get(String.valueOf(i)) != null);
+	}
+
+}
@@ -79,6 +79,20 @@ public final class Path implements Serializable {
 		this.name = getDisplayName(canonicalFile);
 	}
 	
+	/**
+	 * Creates a child path of the given path, without running the full
+	 * normalization of the public constructors. The given path must already be
+	 * normalized, and the given name must be a single non-empty path part.
+	 */
+	private Path(@NotNull String normalizedPath, @NotNull String name) {
+		this.path = normalizedPath;
+		this.name = Util.IS_MAC_OS_X ? normalizeUnicode(name, false) : name;
+		/*
+		 * The canonical file is computed lazily, since creating a File object
+		 * for each of the many child paths would be wasteful.
+		 */
+	}
+	
 	@NotNull
 	private static String getDisplayName(@NotNull File canonicalFile) {
 		return canonicalFile.getParent() == null
@@ -117,6 +131,17 @@ public final class Path implements Serializable {
 	
 	@NotNull
 	public Path createSubPath(@NotNull String pathPart) {
+		/*
+		 * Shortcut for the common case of appending a single file or folder
+		 * name, as done when the paths of the tree nodes are constructed.
+		 * Unicode normalization can be applied to the appended name alone,
+		 * since the receiver's path is already normalized.
+		 */
+		if (!path.isEmpty() && !pathPart.isEmpty()
+				&& pathPart.indexOf('/') < 0 && pathPart.indexOf('\\') < 0) {
+			String name = normalizeUnicode(pathPart, true);
+			return new Path(path + "/" + name, name);
+		}
 		return new Path(Util.joinPath(path, pathPart));
 	}
 	
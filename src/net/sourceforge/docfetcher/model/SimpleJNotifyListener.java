@@ -16,6 +16,7 @@ import java.io.File;
 import net.contentobjects.jnotify.JNotify;
 import net.contentobjects.jnotify.JNotifyException;
 import net.contentobjects.jnotify.JNotifyListener;
+import net.contentobjects.jnotify.linux.WatchLimitListener;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.CallOnce;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
@@ -30,7 +31,13 @@ abstract class SimpleJNotifyListener {
 		CREATED, DELETED, MODIFIED, RENAMED
 	}
 
-	@Nullable private JNotifyListener listener = new JNotifyListener() {
+	@Nullable private JNotifyListener listener = new ListenerImpl();
+	
+	/*
+	 * The WatchLimitListener interface is only used on Linux, where the
+	 * number of watches is limited by the system.
+	 */
+	private final class ListenerImpl implements JNotifyListener, WatchLimitListener {
 		public final void fileCreated(int wd, String rootPath, String name) {
 			handleEvent(rootPath, name, EventType.CREATED);
 		}
@@ -47,9 +54,16 @@ abstract class SimpleJNotifyListener {
 		                              	String rootPath,
 		                              	String oldName,
 		                              	String newName) {
-			handleEvent(rootPath, newName, EventType.RENAMED);
+			// Calling File.getAbsoluteFile() is probably not necessary, but just in case...
+			handleRename(
+				new File(rootPath, oldName).getAbsoluteFile(),
+				new File(rootPath, newName).getAbsoluteFile());
+		}
+
+		public final void subtreeNotWatched(int wd, String rootPath, String name) {
+			handleUnwatchedFolder(new File(rootPath, name).getAbsoluteFile());
 		}
-	};
+	}
 	
 	private void handleEvent(	@NotNull String rootPath,
 								@NotNull String name,
@@ -62,6 +76,26 @@ abstract class SimpleJNotifyListener {
 	protected abstract void handleEvent(@NotNull File targetFile,
 										@NotNull EventType eventType);
 	
+	/**
+	 * Called when a file or folder was renamed or moved within the watched
+	 * tree. On Linux, a move from one folder to another is reported as a
+	 * single rename, so both locations may have changed. This implementation
+	 * only reports the new location to {@link #handleEvent(File, EventType)}.
+	 * The given files are always absolute.
+	 */
+	protected void handleRename(@NotNull File oldFile, @NotNull File newFile) {
+		handleEvent(newFile, EventType.RENAMED);
+	}
+	
+	/**
+	 * Called for folders that couldn't be watched because the system's watch
+	 * limit was reached or because of an unexpected error. The subfolders of
+	 * the given folder aren't watched either. This implementation does
+	 * nothing.
+	 */
+	protected void handleUnwatchedFolder(@NotNull File folder) {
+	}
+	
 	@CallOnce
 	public final int addWatch(@NotNull File watchFile) throws JNotifyException {
 		Util.checkNotNull(listener, watchFile);
@@ -11,211 +11,57 @@
 
 package net.sourceforge.docfetcher.model;
 
-import java.util.HashSet;
-import java.util.NoSuchElementException;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
 
 /**
+ * The check states of the folders in one or more folder trees, used for
+ * filtering search results by location.
+ * <p>
+ * Instead of copying the check states of all folders, this class keeps
+ * references to the roots of the trees, and looks up the folder with a given
+ * path in the trees themselves, one path segment at a time. Thus, creating an
+ * instance of this class is cheap, lookups take time proportional to the depth
+ * of the path without allocating anything, and checking or unchecking a folder
+ * in the GUI only touches the folders whose check state actually changed.
+ * Since the check states are read from the folders, they're always up to
+ * date.
+ *
  * @author Tran Nam Quang
  */
 public final class TreeCheckState {
 	
-	/*
-	 * TODO post-release-1.1: Check for multi-threading issues in this class,
-	 * especially check-then-act operations on Folder objects and the likes.
-	 */
-	
-	private final Set<FolderWrapper> checkedSet = new HashSet<FolderWrapper>();
-	private int folderCount = 0; // includes unchecked and checked folders
+	private final List<Folder<?, ?>> roots = new ArrayList<Folder<?, ?>>(1);
 	
-	void add(@NotNull Folder<?, ?> folder, boolean isChecked) {
-		Util.checkNotNull(folder);
-		if (isChecked)
-			checkedSet.add(new FolderWrapper(folder));
-		folderCount++;
+	void add(@NotNull Folder<?, ?> root) {
+		Util.checkNotNull(root);
+		roots.add(root);
 	}
 	
 	void add(@NotNull TreeCheckState other) {
 		Util.checkNotNull(other);
-		checkedSet.addAll(other.checkedSet);
-		folderCount += other.folderCount;
+		roots.addAll(other.roots);
 	}
 	
+	/**
+	 * Returns whether the folder with the given path is checked. If there is
+	 * no such folder, the check state of its nearest existing ancestor is
+	 * returned. Returns false if the given path doesn't lie within any of the
+	 * folder trees.
+	 */
+	@ThreadSafe
 	public boolean isChecked(@NotNull Path path) {
 		Util.checkNotNull(path);
-		if (checkedSet.isEmpty())
-			return false;
-		if (folderCount == checkedSet.size())
-			return true;
-		return checkedSet.contains(new PathWrapper(path));
-	}
-	
-	private static final class PathWrapper {
-		private final Path path;
-
-		public PathWrapper(@NotNull Path path) {
-			this.path = path;
-		}
-		
-		public boolean equals(Object obj) {
-			/*
-			 * The hash map implementation will call this equals method rather
-			 * than the one on the FolderWrapper, so we'll override this equal
-			 * method and redirect to the equals method of the FolderWrapper.
-			 */
-			return ((FolderWrapper) obj).equals(this);
-		}
-		
-		public int hashCode() {
-			return path.getPath().hashCode();
-		}
-	}
-	
-	private static final class FolderWrapper {
-		private final Folder<?, ?> folder;
-
-		private FolderWrapper(@NotNull Folder<?, ?> folder) {
-			this.folder = folder;
-		}
-		
-		public boolean equals(Object obj) {
-			/*
-			 * This equals method is called either as a result of adding
-			 * FolderWrapper instances to the checked set, or as a result of
-			 * determining whether the checked set "contains" a particular
-			 * PathWrapper.
-			 */
-			if (obj instanceof FolderWrapper) {
-				FolderWrapper other = (FolderWrapper) obj;
-				return folder.equals(other.folder);
-			}
-			
-			String targetPath = ((PathWrapper) obj).path.getPath();
-			if (targetPath.length() != getPathLength(folder))
-				return false;
-			PathReverseIterator it1 = new PathReverseIterator(folder);
-			StringReverseIterator it2 = new StringReverseIterator(targetPath);
-			while (true) {
-				if (it1.hasNext()) {
-					if (it2.hasNext()) {
-						if (it1.next() != it2.next())
-							return false;
-					}
-					else {
-						return false;
-					}
-				}
-				else {
-					if (it2.hasNext())
-						return false;
-					else
-						break;
-				}
-			}
-			return true;
-		}
-		
-		/*
-		 * TODO post-release-1.1: Compute and store the path length as an int
-		 * field in Folder during indexing, instead of computing it here.
-		 */
-		private int getPathLength(@NotNull Folder<?, ?> folder) {
-			int count = 0;
-			Folder<?, ?> current = folder;
-			while (true) {
-				Folder<?, ?> parent = current.getParent();
-				if (parent == null) {
-					count += current.getPath().getPath().length();
-					break;
-				}
-				count += current.getName().length() + 1; // +1 for path separator
-				current = parent;
-			}
-			return count;
-		}
-		
-		public int hashCode() {
-			return folder.getPathHashCode();
-		}
-	}
-	
-	private static final class PathReverseIterator {
-		private enum State {
-			PART, SEP, END
-		}
-		
-		private final StringReverseIterator it = new StringReverseIterator();
-		private Folder<?, ?> currentFolder;
-		private State state = State.PART;
-
-		public PathReverseIterator(@NotNull Folder<?, ?> folder) {
-			setCurrentFolder(folder);
-			assert it.hasNext();
-		}
-		
-		public char next() {
-			if (state == State.PART) {
-				char r = it.next();
-				if (!it.hasNext()) {
-					Folder<?, ?> parent = currentFolder.getParent();
-					if (parent == null) {
-						state = State.END;
-					}
-					else {
-						state = State.SEP;
-						setCurrentFolder(parent);
-					}
-				}
-				return r;
-			}
-			else if (state == State.SEP) {
-				state = State.PART;
-				return '/';
-			}
-			throw new NoSuchElementException();
-		}
-		
-		public boolean hasNext() {
-			return state != State.END;
-		}
-		
-		private void setCurrentFolder(@NotNull Folder<?, ?> currentFolder) {
-			this.currentFolder = currentFolder;
-			if (currentFolder.getParent() == null)
-				it.setString(currentFolder.getPath().getPath());
-			else
-				it.setString(currentFolder.getName());
-		}
-	}
-	
-	private static final class StringReverseIterator {
-		private String string;
-		private int i = -1;
-		
-		public StringReverseIterator() {
-		}
-		
-		public StringReverseIterator(@NotNull String string) {
-			setString(string);
-		}
-		
-		public void setString(@NotNull String string) {
-			this.string = string;
-			i = string.length() - 1;
-		}
-		
-		public char next() {
-			if (i < 0)
-				throw new NoSuchElementException();
-			return string.charAt(i--);
-		}
-		
-		public boolean hasNext() {
-			return i >= 0;
+		for (int i = 0; i < roots.size(); i++) {
+			Boolean isChecked = roots.get(i).getCheckState(path);
+			if (isChecked != null && isChecked)
+				return true;
 		}
+		return false;
 	}
 
 }
@@ -44,5 +44,52 @@ public final class TreeCheckStateTest {
 			assertEquals(f.isChecked(), actualOutput);
 		}
 	}
+	
+	@Test
+	public void testDecomposedNames() {
+		/*
+		 * Paths are normalized to composed Unicode form, so the lookup must
+		 * also work for folder names in decomposed form, as returned by the
+		 * file system on Mac OS X.
+		 */
+		FileFolder root = new FileFolder(new Path("../../Root"), null);
+		FileFolder f1 = new FileFolder(root, "Cafe\u0301", null);
+		FileFolder f2 = new FileFolder(f1, "Sub", null);
+		FileFolder f3 = new FileFolder(root, "Other", null);
+		f3.setChecked(false);
+		
+		TreeCheckState checkState = root.getTreeCheckState();
+		assertEquals(true, checkState.isChecked(f1.getPath()));
+		assertEquals(true, checkState.isChecked(f2.getPath()));
+		assertEquals(false, checkState.isChecked(f3.getPath()));
+	}
+	
+	@Test
+	public void testLiveUpdates() {
+		FileFolder root1 = new FileFolder(new Path("/Root"), null);
+		FileFolder f1 = new FileFolder(root1, "Folder", null);
+		FileFolder root2 = new FileFolder(new Path("/Root/Folder/Nested"), null);
+		FileFolder f2 = new FileFolder(root2, "Sub", null);
+		
+		TreeCheckState checkState = root1.getTreeCheckState();
+		checkState.add(root2.getTreeCheckState());
+		assertEquals(true, checkState.isChecked(new Path("/Root/Folder")));
+		assertEquals(true, checkState.isChecked(new Path("/Root/Folder/Nested/Sub")));
+		assertEquals(false, checkState.isChecked(new Path("/Other")));
+		assertEquals(false, checkState.isChecked(new Path("/RootFolder")));
+		
+		// Changes to the check states are visible without rebuilding
+		f1.setChecked(false);
+		f2.setChecked(false);
+		assertEquals(false, checkState.isChecked(new Path("/Root/Folder")));
+		assertEquals(false, checkState.isChecked(new Path("/Root/Folder/Nested/Sub")));
+		assertEquals(true, checkState.isChecked(new Path("/Root/Folder/Nested")));
+		
+		// Unknown folders inherit the check state of their nearest ancestor
+		assertEquals(false, checkState.isChecked(new Path("/Root/Folder/Unknown")));
+		assertEquals(true, checkState.isChecked(new Path("/Root/Unknown/Sub")));
+		new FileFolder(f1, "Added", null);
+		assertEquals(true, checkState.isChecked(new Path("/Root/Folder/Added")));
+	}
 
 }
@@ -13,6 +13,7 @@ package net.sourceforge.docfetcher.model;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
@@ -139,19 +140,40 @@ public abstract class TreeIndex <
 	@NotNull
 	public final IndexingResult update(	@Nullable IndexingReporter reporter,
 										@Nullable Cancelable cancelable) {
+		return update(reporter, cancelable, null);
+	}
+	
+	@NotNull
+	public final IndexingResult update(	@Nullable IndexingReporter reporter,
+										@Nullable Cancelable cancelable,
+										@Nullable Collection<File> folders) {
 		if (reporter == null)
 			reporter = IndexingReporter.nullReporter;
 		if (cancelable == null)
 			cancelable = Cancelable.nullCancelable;
 		if (cancelable.isCanceled())
 			return IndexingResult.SUCCESS_UNCHANGED;
-		return doUpdate(reporter, cancelable);
+		if (folders == null)
+			return doUpdate(reporter, cancelable);
+		return doUpdate(reporter, cancelable, folders);
 	}
 	
 	@NotNull
 	protected abstract IndexingResult doUpdate(	@NotNull IndexingReporter reporter,
 												@NotNull Cancelable cancelable);
 	
+	/**
+	 * Updates only the contents of the given folders, without descending into
+	 * their existing subfolders. The default implementation ignores the given
+	 * folders and updates the entire index, subclasses may override it.
+	 */
+	@NotNull
+	protected IndexingResult doUpdate(	@NotNull IndexingReporter reporter,
+										@NotNull Cancelable cancelable,
+										@NotNull Collection<File> folders) {
+		return doUpdate(reporter, cancelable);
+	}
+	
 	@NotNull
 	public final Directory getLuceneDir() throws IOException {
 		if (fileIndexDirPath != null) {
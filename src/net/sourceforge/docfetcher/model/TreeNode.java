@@ -46,7 +46,7 @@ public abstract class TreeNode implements Serializable {
 	 * The indexing errors that occurred on this tree node the last time the
 	 * index was updated. Null if no error occurred during the last update.
 	 */
-	@Nullable private List<IndexingError> errors; // Null instead of empty list to save RAM
+	@Nullable private volatile List<IndexingError> errors; // Null instead of empty list to save RAM
 	
 	public TreeNode(@NotNull String name) {
 		this(name, null);
@@ -78,21 +78,23 @@ public abstract class TreeNode implements Serializable {
 
 	@Immutable
 	@NotNull
-	public synchronized final List<IndexingError> getErrors() {
+	public final List<IndexingError> getErrors() {
+		List<IndexingError> errors = this.errors;
 		return errors == null
 			? Collections.<IndexingError> emptyList()
 			: errors;
 	}
 	
-	public synchronized final boolean hasErrors() {
+	public final boolean hasErrors() {
+		List<IndexingError> errors = this.errors;
 		return errors != null && !errors.isEmpty();
 	}
 	
-	public synchronized final void setError(@Nullable IndexingError error) {
+	public final void setError(@Nullable IndexingError error) {
 		this.errors = error == null ? null : Collections.singletonList(error);
 	}
 
-	public synchronized final void setErrors(@Nullable List<IndexingError> errors) {
+	public final void setErrors(@Nullable List<IndexingError> errors) {
 		this.errors = errors == null ? null : ImmutableList.copyOf(errors);
 	}
 	
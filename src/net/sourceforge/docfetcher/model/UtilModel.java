@@ -16,10 +16,8 @@ import static org.junit.Assert.assertEquals;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import net.sourceforge.docfetcher.model.index.DiskSpaceException;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
@@ -28,7 +26,6 @@ import net.sourceforge.docfetcher.model.index.IndexingError.ErrorType;
 import net.sourceforge.docfetcher.model.index.IndexingException;
 import net.sourceforge.docfetcher.model.index.IndexingReporter;
 import net.sourceforge.docfetcher.util.Util;
-import net.sourceforge.docfetcher.util.annotations.ImmutableCopy;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
@@ -41,8 +38,6 @@ import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
 
 import com.google.common.base.Objects;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Closeables;
 
 import de.schlichtherle.truezip.file.TArchiveDetector;
@@ -63,30 +58,6 @@ public final class UtilModel {
 	// TODO pre-release: Are any of these methods only used locally? If so,
 	// move them to the call site.
 
-	/**
-	 * Returns an immutable list containing the values of the given map, or an
-	 * immutable empty list if null was given.
-	 */
-	@ImmutableCopy
-	@NotNull
-	static <K, V> List<V> nullSafeImmutableList(@Nullable Map<K, V> map) {
-		if (map == null || map.isEmpty())
-			return Collections.emptyList();
-		return ImmutableList.copyOf(map.values());
-	}
-
-	/**
-	 * Returns an immutable copy of the given map, or an immutable empty map if
-	 * null was given.
-	 */
-	@ImmutableCopy
-	@NotNull
-	static <K, V> Map<K, V> nullSafeImmutableMap(@Nullable Map<K, V> map) {
-		if (map == null || map.isEmpty())
-			return Collections.emptyMap();
-		return ImmutableMap.copyOf(map);
-	}
-	
 	@NotNull
 	public static String getRelativePathIfPossible(@NotNull File file) {
 		if (Util.isUncPath(file))
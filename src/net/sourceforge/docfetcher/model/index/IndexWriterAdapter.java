@@ -97,6 +97,10 @@ public final class IndexWriterAdapter implements Closeable {
 		writer.deleteDocuments(idTerm.createTerm(uid));
 	}
 	
+	public void deleteAll() throws IOException {
+		writer.deleteAll();
+	}
+	
 	public void close() throws IOException {
 		writer.close();
 	}
@@ -38,6 +38,7 @@ public final class IndexingError implements Serializable {
 		NOT_AN_ARCHIVE (Msg.not_an_archive.get()),
 		ENCODING,
 		STACK_OVERFLOW,
+		PARSE_LIMIT,
 		
 		// Outlook
 		ATTACHMENT,
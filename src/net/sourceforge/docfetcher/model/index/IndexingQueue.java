@@ -12,6 +12,7 @@
 package net.sourceforge.docfetcher.model.index;
 
 import java.io.File;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -59,6 +60,12 @@ public final class IndexingQueue {
 		SHUTDOWN,
 	}
 	
+	/**
+	 * The maximum number of folders an update task keeps track of. Update
+	 * tasks with more folders update the entire index instead.
+	 */
+	public static final int MAX_TARGET_FOLDERS = 1000;
+	
 	// may be called from a different thread
 	public final Event<Void> evtQueueEmpty = new Event<Void>();
 	public final Event<Void> evtWorkerThreadTerminated = new Event<Void>();
@@ -315,11 +322,26 @@ public final class IndexingQueue {
 	@ThreadSafe
 	public Rejection addTask(	@NotNull LuceneIndex index,
 								@NotNull IndexAction action) {
+		return addTask(index, action, null);
+	}
+
+	/**
+	 * Adds a task like {@link #addTask(LuceneIndex, IndexAction)}. If the
+	 * given collection of folders is not null, the action must be an update,
+	 * and only the given folders will be updated. If the update is rejected
+	 * as redundant, the given folders are added to the ready update task that
+	 * made it redundant.
+	 */
+	@Nullable
+	@ThreadSafe
+	public Rejection addTask(	@NotNull LuceneIndex index,
+								@NotNull IndexAction action,
+								@Nullable Collection<File> folders) {
 		Util.checkNotNull(index, action);
 		Util.checkThat(index instanceof FileIndex
 				|| index instanceof OutlookIndex);
 		
-		Task task = new Task(this, index, action);
+		Task task = new Task(this, index, action, folders);
 
 		// Check that the given index has the right index directory
 		File taskIndexDir = task.getLuceneIndex().getIndexDirPath().getCanonicalFile();
@@ -373,10 +395,13 @@ public final class IndexingQueue {
 				 * should work well enough, assuming that it is very unlikely
 				 * that the user will cancel ready tasks.
 				 */
-				for (Task queueTask : tasks)
+				for (Task queueTask : tasks) {
 					if (queueTask.is(TaskState.READY)
-							&& sameTarget(queueTask, task))
+							&& sameTarget(queueTask, task)) {
+						queueTask.addFolders(folders);
 						return Rejection.REDUNDANT_UPDATE;
+					}
+				}
 			}
 			else if (index instanceof OutlookIndex) {
 				/*
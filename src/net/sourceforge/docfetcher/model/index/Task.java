@@ -11,6 +11,13 @@
 
 package net.sourceforge.docfetcher.model.index;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.model.LuceneIndex;
 import net.sourceforge.docfetcher.model.PendingDeletion;
@@ -19,6 +26,7 @@ import net.sourceforge.docfetcher.model.index.DelegatingReporter.ExistingMessage
 import net.sourceforge.docfetcher.util.Event;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.NotThreadSafe;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
 
@@ -62,14 +70,24 @@ public final class Task {
 	@Nullable private volatile PendingDeletion deletion;
 	private final DelegatingReporter reporter;
 	@Nullable volatile CancelAction cancelAction;
+	
+	/*
+	 * The folders to update, or null if the entire index should be updated.
+	 * Guarded by the queue lock.
+	 */
+	@Nullable private Set<File> folders;
 
 	Task(	@NotNull IndexingQueue queue,
 			@NotNull LuceneIndex index,
-			@NotNull IndexAction indexAction) {
+			@NotNull IndexAction indexAction,
+			@Nullable Collection<File> folders) {
 		Util.checkNotNull(queue, index, indexAction);
+		Util.checkThat(folders == null || indexAction == IndexAction.UPDATE);
 		this.queue = queue;
 		this.index = index;
 		this.indexAction = indexAction;
+		if (folders != null && folders.size() <= IndexingQueue.MAX_TARGET_FOLDERS)
+			this.folders = new LinkedHashSet<File>(folders);
 		state = is(IndexAction.UPDATE) ? TaskState.READY : TaskState.NOT_READY;
 		reporter = new DelegatingReporter(queue.reporterCapacity);
 	}
@@ -95,11 +113,38 @@ public final class Task {
 
 	@NotNull
 	IndexingResult update() {
+		List<File> foldersCopy;
+		queue.readLock.lock();
+		try {
+			foldersCopy = folders == null ? null : new ArrayList<File>(folders);
+		}
+		finally {
+			queue.readLock.unlock();
+		}
 		return index.update(reporter, new Cancelable() {
 			public boolean isCanceled() {
 				return cancelAction != null;
 			}
-		});
+		}, foldersCopy);
+	}
+	
+	/**
+	 * Adds the given folders to the folders to update. A null argument turns
+	 * this task into an update of the entire index, and so does exceeding
+	 * {@link IndexingQueue#MAX_TARGET_FOLDERS}. Must be called while holding
+	 * the queue's write lock.
+	 */
+	@NotThreadSafe
+	void addFolders(@Nullable Collection<File> newFolders) {
+		if (folders == null)
+			return;
+		if (newFolders == null) {
+			folders = null;
+			return;
+		}
+		folders.addAll(newFolders);
+		if (folders.size() > IndexingQueue.MAX_TARGET_FOLDERS)
+			folders = null;
 	}
 
 	@NotNull
@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index.file;
+
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+
+/**
+ * Thrown when the children of a folder can't be read from a memory-mapped
+ * tree file. See {@link MappedFileTree}.
+ *
+ * @author Tran Nam Quang
+ */
+final class CorruptedTreeException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public CorruptedTreeException(@NotNull Throwable cause) {
+		super("Corrupted tree file", cause); //$NON-NLS-1$
+	}
+
+}
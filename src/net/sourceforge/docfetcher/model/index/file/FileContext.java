@@ -27,6 +27,7 @@ import net.sourceforge.docfetcher.model.index.IndexingReporter;
 import net.sourceforge.docfetcher.model.index.MutableInt;
 import net.sourceforge.docfetcher.model.index.PatternAction;
 import net.sourceforge.docfetcher.model.parse.ParseException;
+import net.sourceforge.docfetcher.model.parse.ParseLimitException;
 import net.sourceforge.docfetcher.model.parse.ParseResult;
 import net.sourceforge.docfetcher.model.parse.ParseService;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
@@ -144,7 +145,8 @@ class FileContext {
 		try {
 			// Text extraction; may throw OutOfMemoryErrors
 			ParseResult parseResult = ParseService.parse(
-				config, file, doc.getName(), doc.getPath(), reporter, cancelable);
+				config, file, doc.getName(), doc.getPath(), reporter,
+				cancelable, writer.supportsStreaming());
 			
 			/*
 			 * If we detect a cancel request at this point, the request probably
@@ -162,6 +164,15 @@ class FileContext {
 			else
 				writer.update(doc, file, parseResult);
 			
+			/*
+			 * For streaming parse results, the text extraction runs while the
+			 * document is being written, so we'll have to check for cancel
+			 * requests again.
+			 */
+			if (parseResult.getStreamingContent() != null
+					&& cancelable.isCanceled())
+				doc.setLastModified(-1);
+			
 			// Clear errors from previous indexing operations
 			doc.setError(null);
 			
@@ -170,6 +181,9 @@ class FileContext {
 		catch (IOException e) {
 			throw new IndexingException(e);
 		}
+		catch (ParseLimitException e) {
+			fail(ErrorType.PARSE_LIMIT, doc, e);
+		}
 		catch (ParseException e) {
 			fail(ErrorType.PARSING, doc, e);
 		}
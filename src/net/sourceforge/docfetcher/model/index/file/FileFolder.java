@@ -47,8 +47,15 @@ public class FileFolder extends Folder<FileDocument, FileFolder> {
 		super(path, lastModified);
 	}
 	
+	FileFolder(	@NotNull FileFolder parent,
+				@NotNull String name,
+				@Nullable Long lastModified,
+				@NotNull ChildLoader<FileDocument, FileFolder> childLoader) {
+		super(parent, name, lastModified, childLoader);
+	}
+	
 	public final boolean isArchive() {
-		return getLastModified() != null;
+		return hasLastModified();
 	}
 
 }
@@ -13,10 +13,14 @@ package net.sourceforge.docfetcher.model.index.file;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import net.sourceforge.docfetcher.enums.Msg;
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.model.DocumentType;
 import net.sourceforge.docfetcher.model.Path;
@@ -29,6 +33,7 @@ import net.sourceforge.docfetcher.model.index.IndexingError;
 import net.sourceforge.docfetcher.model.index.IndexingError.ErrorType;
 import net.sourceforge.docfetcher.model.index.IndexingException;
 import net.sourceforge.docfetcher.model.index.IndexingInfo.InfoType;
+import net.sourceforge.docfetcher.model.index.IndexWriterAdapter;
 import net.sourceforge.docfetcher.model.index.IndexingReporter;
 import net.sourceforge.docfetcher.model.index.MutableInt;
 import net.sourceforge.docfetcher.model.index.file.FileFolder.FileFolderVisitor;
@@ -38,6 +43,7 @@ import net.sourceforge.docfetcher.util.annotations.Nullable;
 import net.sourceforge.docfetcher.util.annotations.RecursiveMethod;
 
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.io.Closeables;
 
 import de.schlichtherle.truezip.file.TArchiveDetector;
@@ -71,6 +77,16 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 	 */
 	
 	private static final long serialVersionUID = 1L;
+	
+	/*
+	 * The name of the file in the index directory that holds the children of
+	 * the root folder, or null if the children are serialized together with
+	 * the root folder. See MappedFileTree.
+	 */
+	@Nullable private String treeFilename;
+	
+	// The tree file the folders are loaded from, if any
+	@Nullable private transient volatile MappedFileTree tree;
 
 	// if indexParentDir is null, all content is written to a RAM index, which
 	// can be retrieved via getLuceneDir
@@ -116,9 +132,123 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 	public DocumentType getDocumentType() {
 		return DocumentType.FILE;
 	}
+	
+	/**
+	 * If memory-mapped trees are enabled, writes the folder tree to a new tree
+	 * file in the given index directory, so that it will be omitted when this
+	 * index is serialized. Otherwise, or if writing the tree file fails, the
+	 * folder tree will be serialized together with this index. This method
+	 * must be called before serializing this index.
+	 */
+	public void saveTree(@NotNull File indexDir) {
+		FileFolder rootFolder = getRootFolder();
+		if (ProgramConf.Bool.MemoryMappedTrees.get()) {
+			String filename = MappedFileTree.FILENAME_PREFIX
+					+ Util.getTimestamp() + MappedFileTree.FILENAME_SUFFIX;
+			File treeFile = new File(indexDir, filename);
+			try {
+				MappedFileTree.write(rootFolder, treeFile);
+				treeFilename = filename;
+				rootFolder.setChildrenStoredExternally(true);
+				return;
+			}
+			catch (IOException e) {
+				Util.printErr(e);
+				treeFile.delete();
+			}
+		}
+		treeFilename = null;
+		rootFolder.setChildrenStoredExternally(false);
+	}
+	
+	/**
+	 * Deletes the tree files in the given index directory that are no longer
+	 * needed. This method should be called after this index was serialized.
+	 */
+	public void deleteObsoleteTreeFiles(@NotNull File indexDir) {
+		MappedFileTree.deleteTreeFiles(indexDir, treeFilename);
+	}
+	
+	/**
+	 * If the folder tree of this index was saved to a tree file in the given
+	 * index directory, maps the tree file into memory, so that the folders
+	 * will be loaded from it on demand. This method must be called after this
+	 * index was deserialized. Returns false if the tree file could not be
+	 * mapped.
+	 */
+	public boolean loadTree(@NotNull File indexDir) {
+		if (treeFilename == null)
+			return true;
+		try {
+			MappedFileTree tree = MappedFileTree.open(new File(indexDir, treeFilename));
+			FileFolder rootFolder = getRootFolder();
+			tree.attach(rootFolder);
+			rootFolder.setChildrenStoredExternally(true);
+			this.tree = tree;
+			return true;
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+			return false;
+		}
+	}
 
+	/**
+	 * Returns whether some folders of this index couldn't be loaded from the
+	 * tree file. In this case, the next update rebuilds the index.
+	 */
+	public boolean isTreeCorrupted() {
+		MappedFileTree tree = this.tree;
+		return tree != null && tree.isCorrupted();
+	}
+	
+	/*
+	 * Discards the folder tree and the documents of this index, so that the
+	 * following full update rebuilds the index. Unlike clear(), this leaves
+	 * the Lucene index files in place, which may be open for searching.
+	 */
+	private void discardCorruptedTree() throws IOException {
+		tree = null;
+		FileFolder rootFolder = getRootFolder();
+		rootFolder.setLastModified(null);
+		rootFolder.removeChildren();
+		IndexWriterAdapter writer = new IndexWriterAdapter(getLuceneDir());
+		try {
+			writer.deleteAll();
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Updates the entire index. If the tree file this index was loaded from
+	 * turns out to be corrupted, the index is rebuilt from scratch, so that the
+	 * folders that couldn't be loaded aren't mistaken for empty folders.
+	 */
 	public IndexingResult doUpdate(	@NotNull IndexingReporter reporter,
 									@NotNull Cancelable cancelable) {
+		try {
+			if (isTreeCorrupted())
+				discardCorruptedTree();
+			try {
+				return updateAll(reporter, cancelable);
+			}
+			catch (CorruptedTreeException e) {
+				Util.printErr(e);
+				discardCorruptedTree();
+				return updateAll(reporter, cancelable);
+			}
+		}
+		catch (IOException e) {
+			report(ErrorType.IO_EXCEPTION, reporter, e);
+			return IndexingResult.FAILURE;
+		}
+	}
+
+	@NotNull
+	private IndexingResult updateAll(	@NotNull IndexingReporter reporter,
+										@NotNull Cancelable cancelable) {
 		reporter.setStartTime(System.currentTimeMillis());
 		IndexingConfig config = getConfig();
 		FileFolder rootFolder = getRootFolder();
@@ -212,6 +342,99 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 		return IndexingResult.FAILURE;
 	}
 	
+	/**
+	 * Updates only the given folders, which is much faster than a full update
+	 * on large indexes when only a few folders have changed. Each of the given
+	 * folders is mapped to the deepest registered folder that contains it and
+	 * still exists on disk. Then the files and new subfolders of this folder
+	 * are checked, but not its existing subfolders. Folders inside archives
+	 * are updated through their archives. Falls back to a full update if the
+	 * root file is not a plain directory or if the tree file is corrupted.
+	 */
+	@NotNull
+	protected IndexingResult doUpdate(	@NotNull IndexingReporter reporter,
+										@NotNull Cancelable cancelable,
+										@NotNull Collection<File> folders) {
+		if (!isTreeCorrupted()) {
+			try {
+				return updateFolders(reporter, cancelable, folders);
+			}
+			catch (CorruptedTreeException e) {
+				Util.printErr(e);
+			}
+		}
+		return doUpdate(reporter, cancelable);
+	}
+
+	@NotNull
+	private IndexingResult updateFolders(	@NotNull IndexingReporter reporter,
+											@NotNull Cancelable cancelable,
+											@NotNull Collection<File> folders) {
+		IndexingConfig config = getConfig();
+		FileFolder rootFolder = getRootFolder();
+		TArchiveDetector zipDetector = config.createZipDetector();
+		TFile rootFile = new TFile(getCanonicalRootFile(), zipDetector);
+		if (!rootFile.isDirectory() || rootFolder.getLastModified() != null
+				|| getZipArchiveLastModified(config, rootFile) != null)
+			return doUpdate(reporter, cancelable);
+
+		reporter.setStartTime(System.currentTimeMillis());
+		rootFolder.setError(null);
+		SimpleDocWriter writer = null;
+		try {
+			writer = new SimpleDocWriter(getLuceneDir());
+			FileContext context = new FileContext(
+				config, zipDetector, writer, reporter, null, cancelable,
+				new MutableInt(0), getIndexParentDir());
+			String rootPath = Util.getAbsPath(rootFile);
+			Set<FileFolder> visited = Sets.newIdentityHashSet();
+			for (File folder : folders) {
+				if (context.isStopped())
+					break;
+				String path = Util.getAbsPath(folder);
+				List<String> names;
+				if (path.equals(rootPath))
+					names = Collections.emptyList();
+				else if (Util.contains(rootPath, path))
+					names = Util.splitPath(path.substring(rootPath.length() + 1));
+				else
+					continue;
+
+				FileFolder target = rootFolder;
+				TFile targetFile = rootFile;
+				for (String name : names) {
+					FileFolder subFolder = target.getSubFolder(name);
+					if (subFolder == null || subFolder.getLastModified() != null)
+						break;
+					TFile subFile = new TFile(targetFile, name);
+					if (!subFile.isDirectory())
+						break;
+					target = subFolder;
+					targetFile = subFile;
+				}
+				if (!visited.add(target))
+					continue;
+				target.setError(null);
+				visitDirOrZip(context, target, targetFile, false);
+			}
+			return IndexingResult.SUCCESS_CHANGED;
+		}
+		catch (IOException e) {
+			report(ErrorType.IO_EXCEPTION, reporter, e);
+		}
+		catch (IndexingException e) {
+			report(ErrorType.IO_EXCEPTION, reporter, e.getIOException());
+		}
+		catch (WrappedStackOverflowError e) {
+			report(ErrorType.STACK_OVERFLOW, reporter, e);
+		}
+		finally {
+			Closeables.closeQuietly(writer);
+			reporter.setEndTime(System.currentTimeMillis());
+		}
+		return IndexingResult.FAILURE;
+	}
+	
 	private void report(@NotNull ErrorType errorType,
 	                    @NotNull IndexingReporter reporter,
 						@Nullable Throwable e) {
@@ -255,6 +478,19 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 										@NotNull final FileFolder folder,
 										@NotNull final File dirOrZip)
 			throws IndexingException {
+		visitDirOrZip(context, folder, dirOrZip, true);
+	}
+
+	/**
+	 * If <tt>deep</tt> is false, the existing subfolders of the given folder
+	 * are not visited, except for modified archives.
+	 */
+	@RecursiveMethod
+	private static void visitDirOrZip(	@NotNull final FileContext context,
+										@NotNull final FileFolder folder,
+										@NotNull final File dirOrZip,
+										final boolean deep)
+			throws IndexingException {
 		assert !folder.hasErrors();
 		
 		/*
@@ -386,6 +622,9 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 				else { // Folder already registered, check modification state
 					if (UtilModel.isUnmodifiedArchive(subFolder, newLastModified))
 						return;
+					if (!deep && newLastModified == null
+							&& subFolder.getLastModified() == null)
+						return;
 					subFolder.setLastModified(newLastModified);
 					subFolder.setError(null);
 				}
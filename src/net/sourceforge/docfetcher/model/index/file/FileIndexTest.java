@@ -12,6 +12,8 @@
 package net.sourceforge.docfetcher.model.index.file;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -21,6 +23,8 @@ import java.util.Collections;
 import java.util.List;
 
 import net.sourceforge.docfetcher.TestFiles;
+import net.sourceforge.docfetcher.model.Path;
+import net.sourceforge.docfetcher.model.TreeNode;
 import net.sourceforge.docfetcher.model.UtilModel;
 import net.sourceforge.docfetcher.model.index.IndexingError;
 import net.sourceforge.docfetcher.model.index.IndexingInfo;
@@ -28,6 +32,8 @@ import net.sourceforge.docfetcher.model.index.IndexingInfo.InfoType;
 import net.sourceforge.docfetcher.model.index.IndexingReporter;
 import net.sourceforge.docfetcher.util.AppUtil;
 import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
 import net.sourceforge.docfetcher.util.collect.ListMap;
 import net.sourceforge.docfetcher.util.collect.ListMap.Entry;
 
@@ -278,6 +284,87 @@ public final class FileIndexTest {
 		Util.deleteRecursively(tempDir);
 	}
 	
+	/**
+	 * Checks that an update of a given folder picks up the changes in that
+	 * folder and its new subfolders, but not in its other subfolders.
+	 */
+	@Test
+	public void testTargetedIndexUpdate() throws Exception {
+		File tempDir = Util.createTempDir();
+		File dirA = new File(tempDir, "A");
+		File dirB = new File(tempDir, "B");
+		File dirC = new File(dirA, "C");
+		dirC.mkdirs();
+		dirB.mkdir();
+		Files.write("Hello World", new File(dirA, "a.txt"), Charsets.UTF_8);
+		Files.write("Hello World", new File(dirB, "b.txt"), Charsets.UTF_8);
+		
+		FileIndex index = new FileIndex(null, tempDir);
+		index.update(null, null);
+		UtilModel.assertDocCount(index.getLuceneDir(), 2);
+		
+		File dirNew = new File(dirA, "New");
+		dirNew.mkdir();
+		Files.write("Hello World", new File(dirNew, "new.txt"), Charsets.UTF_8);
+		Files.write("Hello World", new File(dirB, "b2.txt"), Charsets.UTF_8);
+		Files.write("Hello World", new File(dirC, "c.txt"), Charsets.UTF_8);
+		new File(dirA, "a.txt").delete();
+		
+		// Nonexistent folders are mapped to their nearest existing parent
+		List<File> folders = Arrays.asList(dirA, new File(dirA, "Missing"));
+		index.update(null, null, folders);
+		UtilModel.assertDocCount(index.getLuceneDir(), 2);
+		
+		index.update(null, null, Collections.singleton(dirB));
+		UtilModel.assertDocCount(index.getLuceneDir(), 3);
+		
+		index.update(null, null);
+		UtilModel.assertDocCount(index.getLuceneDir(), 4);
+		
+		Util.deleteRecursively(tempDir);
+	}
+	
+	/**
+	 * Checks that a file moved from one folder into another is removed from
+	 * the old folder when both folders are updated, as reported by the folder
+	 * watcher for a move.
+	 */
+	@Test
+	public void testTargetedIndexUpdateAfterMove() throws Exception {
+		File tempDir = Util.createTempDir();
+		File dirA = new File(tempDir, "A");
+		File dirB = new File(tempDir, "B");
+		dirA.mkdir();
+		dirB.mkdir();
+		File oldFile = new File(dirA, "moved.txt");
+		File newFile = new File(dirB, "moved.txt");
+		Files.write("Hello World", oldFile, Charsets.UTF_8);
+		
+		FileIndex index = new FileIndex(null, tempDir);
+		index.update(null, null);
+		UtilModel.assertDocCount(index.getLuceneDir(), 1);
+		
+		Files.move(oldFile, newFile);
+		
+		// Updating only the new folder leaves the file indexed in the old one
+		index.update(null, null, Collections.singleton(dirB));
+		UtilModel.assertDocCount(index.getLuceneDir(), 2);
+		
+		index.update(null, null, Arrays.asList(dirA, dirB));
+		UtilModel.assertDocCount(index.getLuceneDir(), 1);
+		assertNull(findTreeNode(index, oldFile));
+		assertNotNull(findTreeNode(index, newFile));
+		
+		Util.deleteRecursively(tempDir);
+	}
+	
+	@Nullable
+	private static TreeNode findTreeNode(	@NotNull FileIndex index,
+											@NotNull File file) {
+		Path path = index.getConfig().getStorablePath(file);
+		return index.getRootFolder().findTreeNode(path);
+	}
+	
 	/**
 	 * Checks that the indexing algorithm can properly deal with HTML files
 	 * nested inside the HTML folders of other HTML files.
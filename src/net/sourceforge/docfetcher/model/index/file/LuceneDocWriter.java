@@ -16,12 +16,15 @@ import java.io.IOException;
 import java.util.List;
 
 import net.sourceforge.docfetcher.model.Fields;
+import net.sourceforge.docfetcher.model.parse.ParseException;
 import net.sourceforge.docfetcher.model.parse.ParseResult;
+import net.sourceforge.docfetcher.model.parse.StreamingContent;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.TermVector;
 
 /**
  * @author Tran Nam Quang
@@ -31,17 +34,56 @@ abstract class LuceneDocWriter {
 	public final void add(	@NotNull FileDocument doc,
 							@NotNull File file,
 							@NotNull ParseResult parseResult)
-			throws IOException, CheckedOutOfMemoryError {
+			throws IOException, ParseException, CheckedOutOfMemoryError {
 		Document luceneDoc = createLuceneDoc(doc, file, parseResult);
-		write(doc, luceneDoc, true);
+		write(doc, luceneDoc, parseResult, true);
 	}
 	
 	public void update(	@NotNull FileDocument doc,
 						@NotNull File file,
 						@NotNull ParseResult parseResult)
-			throws IOException, CheckedOutOfMemoryError {
+			throws IOException, ParseException, CheckedOutOfMemoryError {
 		Document luceneDoc = createLuceneDoc(doc, file, parseResult);
-		write(doc, luceneDoc, false);
+		write(doc, luceneDoc, parseResult, false);
+	}
+	
+	/**
+	 * Returns whether the receiver writes documents to the index immediately,
+	 * so that the streaming content of a parse result is read before
+	 * {@link #write(FileDocument, Document, boolean)} returns.
+	 */
+	public boolean supportsStreaming() {
+		return false;
+	}
+	
+	private void write(	@NotNull FileDocument doc,
+						@NotNull Document luceneDoc,
+						@NotNull ParseResult parseResult,
+						boolean added)
+			throws IOException, ParseException, CheckedOutOfMemoryError {
+		if (parseResult.getStreamingContent() == null) {
+			write(doc, luceneDoc, added);
+			return;
+		}
+		
+		/*
+		 * With streaming content, extraction errors only become known after
+		 * the document was written. In that case, the partially indexed
+		 * document is removed again.
+		 */
+		Util.checkThat(supportsStreaming());
+		boolean success = false;
+		try {
+			write(doc, luceneDoc, added);
+			parseResult.finish();
+			success = true;
+		}
+		finally {
+			if (!success) {
+				parseResult.getStreamingContent().close();
+				delete(doc.getUniqueId());
+			}
+		}
 	}
 
 	@NotNull
@@ -82,7 +124,25 @@ abstract class LuceneDocWriter {
 		 * user wouldn't find the file if we store only the full filename and
 		 * the user searches for the filename without extension.
 		 */
-		luceneDoc.add(Fields.createContent(parseResult.getContent()));
+		int[] pageOffsets = parseResult.getPageOffsets();
+		StreamingContent streamingContent = parseResult.getStreamingContent();
+		if (streamingContent != null) {
+			luceneDoc.add(Fields.createContent(streamingContent));
+		}
+		else if (pageOffsets != null && appendMetadata()) {
+			/*
+			 * For documents with pages, store the page offsets and the
+			 * character offsets of the terms, so that the preview can find out
+			 * which pages contain search hits without extracting the entire
+			 * document.
+			 */
+			luceneDoc.add(Fields.PAGES.create(Fields.encodePageOffsets(pageOffsets)));
+			luceneDoc.add(Fields.createContent(
+				parseResult.getContent(), TermVector.WITH_OFFSETS));
+		}
+		else {
+			luceneDoc.add(Fields.createContent(parseResult.getContent()));
+		}
 		StringBuilder metadata = parseResult.getMetadata();
 		metadata.append(filename);
 		String basename = Util.splitFilename(filename)[0];
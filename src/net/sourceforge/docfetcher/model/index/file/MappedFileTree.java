@@ -0,0 +1,574 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index.file;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import net.sourceforge.docfetcher.model.Folder.ChildLoader;
+import net.sourceforge.docfetcher.model.TreeNode;
+import net.sourceforge.docfetcher.model.index.IndexingError;
+import net.sourceforge.docfetcher.model.index.IndexingError.ErrorType;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.RecursiveMethod;
+
+import com.google.common.io.Closeables;
+
+/**
+ * A folder tree stored in a memory-mapped file. Instead of deserializing the
+ * entire tree when the index is loaded, the folder records are read from the
+ * mapped file when the children of a folder are accessed for the first time,
+ * so that the heap only holds the parts of the tree that are actually used.
+ * <p>
+ * The file consists of a header, the folder records and, at the very end, the
+ * offset of the root folder record. The folder records are written in
+ * post-order, so that each folder record can refer to the records of its
+ * subfolders by their offsets. A folder record has the following layout:
+ *
+ * <pre>
+ * byte     flags (see below)
+ * long     last-modified value, only if the LAST_MODIFIED flag is set
+ * UTF      name
+ * errors   only if the ERRORS flag is set
+ * int      number of subfolders, followed by the offsets of their records
+ * int      length in bytes of the following document list
+ * int      number of documents, followed by the document records
+ * </pre>
+ *
+ * A document record contains the flags, the name, the last-modified value,
+ * the errors if there are any and the serialized HTML folder if there is one.
+ * The errors are stored as error type names and serialized throwables; the
+ * tree node of each error is the node the error is attached to.
+ * <p>
+ * Since the file is read via a single mapping, its size is limited to 2 GB.
+ * <p>
+ * When the file is opened, the folder records are checked for consistency,
+ * so that truncated or otherwise damaged files are rejected before any
+ * folders are loaded from them. If a folder record can't be read later on,
+ * the folder is left unloaded, a {@link CorruptedTreeException} is thrown
+ * and the tree is marked as corrupted, so that the index can be rebuilt.
+ *
+ * @author Tran Nam Quang
+ */
+final class MappedFileTree {
+
+	static final String FILENAME_PREFIX = "tree-index-"; //$NON-NLS-1$
+	static final String FILENAME_SUFFIX = ".dat"; //$NON-NLS-1$
+
+	private static final int MAGIC = 0x44465452; // "DFTR"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+
+	private static final int CHECKED = 1;
+	private static final int LAST_MODIFIED = 2;
+	private static final int ERRORS = 4;
+	private static final int ERRORS_BELOW = 8;
+	private static final int HTML_FOLDER = 16;
+
+	private final MappedByteBuffer buffer;
+	private final int rootOffset;
+	private volatile boolean corrupted = false;
+
+	private MappedFileTree(@NotNull MappedByteBuffer buffer, int rootOffset) {
+		this.buffer = buffer;
+		this.rootOffset = rootOffset;
+	}
+
+	/**
+	 * Maps the given tree file into memory.
+	 */
+	@NotNull
+	public static MappedFileTree open(@NotNull File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size < HEADER_SIZE + 4 || size > Integer.MAX_VALUE)
+				throw new IOException("Invalid tree file size: " + file); //$NON-NLS-1$
+
+			// The mapping remains valid after the channel has been closed
+			MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, size);
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+				throw new IOException("Unknown tree file format: " + file); //$NON-NLS-1$
+			int rootOffset = buffer.getInt((int) size - 4);
+			if (rootOffset < HEADER_SIZE || rootOffset >= size - 4)
+				throw new IOException("Invalid root offset: " + file); //$NON-NLS-1$
+			try {
+				checkRecords(buffer, rootOffset);
+			}
+			catch (RuntimeException e) {
+				throw new IOException("Corrupted tree file: " + file, e); //$NON-NLS-1$
+			}
+			return new MappedFileTree(buffer, rootOffset);
+		}
+		finally {
+			Closeables.closeQuietly(raf);
+		}
+	}
+
+	/**
+	 * Walks the folder records reachable from the root record and checks that
+	 * they lie within the file, that each record refers only to records
+	 * written before it, and that the document lists fit into their records.
+	 * Only the record headers are read, so this is much cheaper than loading
+	 * the tree. Throws an unchecked exception if a check fails.
+	 */
+	private static void checkRecords(@NotNull ByteBuffer buffer, int rootOffset)
+			throws IOException {
+		// The last four bytes hold the root offset
+		ByteBuffer records = buffer.duplicate();
+		records.limit(records.capacity() - 4);
+		Deque<Integer> offsets = new ArrayDeque<Integer>();
+		offsets.push(rootOffset);
+		while (!offsets.isEmpty()) {
+			int offset = offsets.pop();
+			Cursor in = new Cursor(records, offset);
+			in.skipFolderHeader();
+			int subFolderCount = in.readInt();
+			Util.checkThat(subFolderCount >= 0);
+			for (int i = 0; i < subFolderCount; i++) {
+				int subOffset = in.readInt();
+				Util.checkThat(subOffset >= HEADER_SIZE && subOffset < offset);
+				offsets.push(subOffset);
+			}
+			int documentLength = in.readInt();
+			Util.checkThat(documentLength >= 4);
+			in.skip(documentLength);
+		}
+	}
+
+	/**
+	 * Returns whether a folder record of this tree couldn't be read.
+	 */
+	public boolean isCorrupted() {
+		return corrupted;
+	}
+
+	/**
+	 * Lets the children of the given root folder be created on demand from
+	 * the root record of this tree. The root folder must not have any
+	 * children.
+	 */
+	public void attach(@NotNull FileFolder rootFolder) {
+		rootFolder.setChildLoader(new Loader(rootOffset));
+	}
+
+	/**
+	 * Writes the tree under the given root folder to the given file. The
+	 * children of folders that haven't been loaded yet are copied from the
+	 * tree files they were loaded from, without creating them on the heap.
+	 */
+	public static void write(@NotNull FileFolder rootFolder, @NotNull File file)
+			throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			new FileOutputStream(file)));
+		boolean success = false;
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			Writer writer = new Writer(out);
+			int offset = writer.writeFolder(rootFolder).offset;
+			out.writeInt(offset);
+			writer.checkSize();
+			success = true;
+		}
+		finally {
+			Closeables.close(out, !success);
+		}
+	}
+
+	/**
+	 * Deletes all tree files in the given index directory, except the tree
+	 * file with the given name. Files that can't be deleted, e.g. because
+	 * they're still mapped into memory on Windows, are left in place and will
+	 * be deleted on a later attempt.
+	 */
+	public static void deleteTreeFiles(	@NotNull File indexDir,
+										@Nullable String filenameToKeep) {
+		for (File file : Util.listFiles(indexDir)) {
+			String name = file.getName();
+			if (name.startsWith(FILENAME_PREFIX)
+					&& name.endsWith(FILENAME_SUFFIX)
+					&& !name.equals(filenameToKeep))
+				file.delete();
+		}
+	}
+
+	@NotNull
+	private Cursor cursor(int offset) {
+		return new Cursor(buffer, offset);
+	}
+
+	/**
+	 * Creates the documents and subfolders of the given folder from the
+	 * folder record at the given offset.
+	 */
+	private void readChildren(@NotNull FileFolder folder, int offset)
+			throws IOException, ClassNotFoundException {
+		Cursor in = cursor(offset);
+		in.skipFolderHeader();
+		int subFolderCount = in.readInt();
+		for (int i = 0; i < subFolderCount; i++)
+			readSubFolder(folder, in.readInt());
+		in.readInt(); // Length of document list
+		int documentCount = in.readInt();
+		for (int i = 0; i < documentCount; i++)
+			readDocument(folder, in);
+	}
+
+	private void readSubFolder(@NotNull FileFolder parent, int offset)
+			throws IOException, ClassNotFoundException {
+		Cursor in = cursor(offset);
+		int flags = in.readByte();
+		Long lastModified = (flags & LAST_MODIFIED) != 0 ? in.readLong() : null;
+		String name = in.readUTF();
+		FileFolder folder = new FileFolder(
+			parent, name, lastModified, new Loader(offset));
+		folder.setChecked((flags & CHECKED) != 0);
+		if ((flags & ERRORS) != 0)
+			folder.setErrors(in.readErrors(folder));
+	}
+
+	private static void readDocument(	@NotNull FileFolder parent,
+										@NotNull Cursor in)
+			throws IOException, ClassNotFoundException {
+		int flags = in.readByte();
+		String name = in.readUTF();
+		long lastModified = in.readLong();
+		FileDocument doc = new FileDocument(parent, name, lastModified);
+		if ((flags & ERRORS) != 0)
+			doc.setErrors(in.readErrors(doc));
+		if ((flags & HTML_FOLDER) != 0)
+			doc.setHtmlFolder((FileFolder) in.readObject());
+	}
+
+	private final class Loader implements ChildLoader<FileDocument, FileFolder> {
+		private final int offset;
+
+		public Loader(int offset) {
+			this.offset = offset;
+		}
+
+		public void loadChildren(@NotNull FileFolder folder) {
+			/*
+			 * Besides IOExceptions and ClassNotFoundExceptions, damaged
+			 * records can cause BufferUnderflowExceptions and other unchecked
+			 * exceptions. The folder discards the children created so far.
+			 */
+			try {
+				readChildren(folder, offset);
+			}
+			catch (Exception e) {
+				corrupted = true;
+				throw new CorruptedTreeException(e);
+			}
+		}
+
+		public boolean hasErrorsDeep() {
+			return (buffer.get(offset) & ERRORS_BELOW) != 0;
+		}
+
+		@NotNull
+		private MappedFileTree getTree() {
+			return MappedFileTree.this;
+		}
+	}
+
+	/**
+	 * Reads the records of a tree file. Each cursor has its own position, so
+	 * multiple threads can read from the same mapping concurrently.
+	 */
+	private static final class Cursor {
+		private final ByteBuffer buffer;
+
+		public Cursor(@NotNull ByteBuffer buffer, int offset) {
+			this.buffer = buffer.duplicate();
+			this.buffer.position(offset);
+		}
+
+		public int position() {
+			return buffer.position();
+		}
+
+		public int readByte() {
+			return buffer.get();
+		}
+
+		public int readInt() {
+			return buffer.getInt();
+		}
+
+		public long readLong() {
+			return buffer.getLong();
+		}
+
+		@NotNull
+		public String readUTF() throws IOException {
+			// Let DataInputStream decode the modified UTF-8 written by writeUTF
+			int length = buffer.getShort(buffer.position()) & 0xFFFF;
+			byte[] bytes = readBytes(length + 2);
+			return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+		}
+
+		@NotNull
+		public byte[] readBytes(int length) {
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			return bytes;
+		}
+
+		@Nullable
+		public Object readObject() throws IOException, ClassNotFoundException {
+			int length = readInt();
+			if (length < 0)
+				return null;
+			ObjectInputStream in = new ObjectInputStream(
+				new ByteArrayInputStream(readBytes(length)));
+			return in.readObject();
+		}
+
+		@NotNull
+		public List<IndexingError> readErrors(@NotNull TreeNode treeNode)
+				throws IOException, ClassNotFoundException {
+			int count = readInt();
+			List<IndexingError> errors = new ArrayList<IndexingError>(count);
+			for (int i = 0; i < count; i++) {
+				ErrorType errorType = ErrorType.valueOf(readUTF());
+				Throwable throwable = (Throwable) readObject();
+				errors.add(new IndexingError(errorType, treeNode, throwable));
+			}
+			return errors;
+		}
+
+		public void skipFolderHeader() throws IOException {
+			int flags = readByte();
+			if ((flags & LAST_MODIFIED) != 0)
+				readLong();
+			skipUTF();
+			if ((flags & ERRORS) != 0)
+				skipErrors();
+		}
+
+		private void skipUTF() {
+			skip(2 + (buffer.getShort(buffer.position()) & 0xFFFF));
+		}
+
+		private void skipErrors() {
+			int count = readInt();
+			for (int i = 0; i < count; i++) {
+				skipUTF();
+				int length = readInt();
+				if (length > 0)
+					skip(length);
+			}
+		}
+
+		public void skip(int length) {
+			buffer.position(buffer.position() + length);
+		}
+	}
+
+	private static final class Record {
+		private final int offset;
+		private final boolean hasErrorsDeep;
+
+		public Record(int offset, boolean hasErrorsDeep) {
+			this.offset = offset;
+			this.hasErrorsDeep = hasErrorsDeep;
+		}
+	}
+
+	private static final class Writer {
+		private final DataOutputStream out;
+
+		public Writer(@NotNull DataOutputStream out) {
+			this.out = out;
+		}
+
+		/*
+		 * DataOutputStream.size() stops counting at Integer.MAX_VALUE, which
+		 * is also the maximum size of a single mapping.
+		 */
+		public void checkSize() throws IOException {
+			if (out.size() == Integer.MAX_VALUE)
+				throw new IOException("Folder tree too large for tree file."); //$NON-NLS-1$
+		}
+
+		@NotNull
+		@RecursiveMethod
+		public Record writeFolder(@NotNull FileFolder folder)
+				throws IOException {
+			ChildLoader<FileDocument, FileFolder> childLoader = folder.getChildLoader();
+			if (childLoader != null) {
+				// Children haven't been loaded, copy them from the old file
+				Loader loader = (Loader) childLoader;
+				MappedFileTree tree = loader.getTree();
+				Cursor in = tree.cursor(loader.offset);
+				in.skipFolderHeader();
+				int subFolderCount = in.readInt();
+				int[] subOffsets = new int[subFolderCount];
+				for (int i = 0; i < subFolderCount; i++)
+					subOffsets[i] = copyFolder(tree, in.readInt());
+				byte[] documentBytes = in.readBytes(in.readInt());
+				int flags = getFlags(folder, childLoader.hasErrorsDeep());
+				return writeRecord(folder, flags, subOffsets, documentBytes);
+			}
+
+			List<FileFolder> subFolders = folder.getSubFolders();
+			int[] subOffsets = new int[subFolders.size()];
+			boolean hasErrorsDeep = false;
+			for (int i = 0; i < subOffsets.length; i++) {
+				Record record = writeFolder(subFolders.get(i));
+				subOffsets[i] = record.offset;
+				hasErrorsDeep |= record.hasErrorsDeep;
+			}
+
+			ByteArrayOutputStream documentBytes = new ByteArrayOutputStream();
+			DataOutputStream docOut = new DataOutputStream(documentBytes);
+			List<FileDocument> documents = folder.getDocuments();
+			docOut.writeInt(documents.size());
+			for (FileDocument doc : documents) {
+				int docFlags = 0;
+				List<IndexingError> errors = doc.getErrors();
+				if (!errors.isEmpty()) {
+					docFlags |= ERRORS;
+					hasErrorsDeep = true;
+				}
+				FileFolder htmlFolder = doc.getHtmlFolder();
+				if (htmlFolder != null)
+					docFlags |= HTML_FOLDER;
+				docOut.writeByte(docFlags);
+				docOut.writeUTF(doc.getName());
+				docOut.writeLong(doc.getLastModified());
+				if (!errors.isEmpty())
+					writeErrors(docOut, errors);
+				if (htmlFolder != null)
+					writeObject(docOut, htmlFolder);
+			}
+			docOut.flush();
+			int flags = getFlags(folder, hasErrorsDeep);
+			return writeRecord(folder, flags, subOffsets, documentBytes.toByteArray());
+		}
+
+		/*
+		 * Copies the folder record at the given offset of the given tree and
+		 * the records of its descendants. Returns the offset of the copy.
+		 */
+		@RecursiveMethod
+		private int copyFolder(@NotNull MappedFileTree tree, int offset)
+				throws IOException {
+			Cursor in = tree.cursor(offset);
+			in.skipFolderHeader();
+			int headerLength = in.position() - offset;
+			int subFolderCount = in.readInt();
+			int[] subOffsets = new int[subFolderCount];
+			for (int i = 0; i < subFolderCount; i++)
+				subOffsets[i] = copyFolder(tree, in.readInt());
+			byte[] documentBytes = in.readBytes(in.readInt());
+
+			int newOffset = out.size();
+			out.write(tree.cursor(offset).readBytes(headerLength));
+			writeChildren(subOffsets, documentBytes);
+			checkSize();
+			return newOffset;
+		}
+
+		private static int getFlags(@NotNull FileFolder folder,
+									boolean hasErrorsDeep) {
+			int flags = 0;
+			if (folder.isChecked())
+				flags |= CHECKED;
+			if (folder.hasLastModified())
+				flags |= LAST_MODIFIED;
+			if (folder.hasErrors())
+				flags |= ERRORS;
+			if (hasErrorsDeep)
+				flags |= ERRORS_BELOW;
+			return flags;
+		}
+
+		@NotNull
+		private Record writeRecord(	@NotNull FileFolder folder,
+									int flags,
+									@NotNull int[] subOffsets,
+									@NotNull byte[] documentBytes)
+				throws IOException {
+			int offset = out.size();
+			out.writeByte(flags);
+			if ((flags & LAST_MODIFIED) != 0)
+				out.writeLong(folder.getLastModified());
+			out.writeUTF(folder.getName());
+			if ((flags & ERRORS) != 0)
+				writeErrors(out, folder.getErrors());
+			writeChildren(subOffsets, documentBytes);
+			checkSize();
+			boolean hasErrorsDeep = (flags & (ERRORS | ERRORS_BELOW)) != 0;
+			return new Record(offset, hasErrorsDeep);
+		}
+
+		private void writeChildren(	@NotNull int[] subOffsets,
+									@NotNull byte[] documentBytes)
+				throws IOException {
+			out.writeInt(subOffsets.length);
+			for (int subOffset : subOffsets)
+				out.writeInt(subOffset);
+			out.writeInt(documentBytes.length);
+			out.write(documentBytes);
+		}
+
+		private static void writeErrors(@NotNull DataOutputStream out,
+										@NotNull List<IndexingError> errors)
+				throws IOException {
+			out.writeInt(errors.size());
+			for (IndexingError error : errors) {
+				out.writeUTF(error.getErrorType().name());
+				writeObject(out, error.getThrowable());
+			}
+		}
+
+		private static void writeObject(@NotNull DataOutputStream out,
+										@Nullable Serializable object)
+				throws IOException {
+			if (object == null) {
+				out.writeInt(-1);
+				return;
+			}
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+			objectOut.writeObject(object);
+			objectOut.close();
+			out.writeInt(bytes.size());
+			bytes.writeTo(out);
+		}
+	}
+
+}
@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.sourceforge.docfetcher.model.Path;
+import net.sourceforge.docfetcher.model.TreeCheckState;
+import net.sourceforge.docfetcher.model.index.IndexingError;
+import net.sourceforge.docfetcher.model.index.IndexingError.ErrorType;
+import net.sourceforge.docfetcher.util.Util;
+
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class MappedFileTreeTest {
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		FileFolder root = new FileFolder(new Path("/Root"), null);
+		FileFolder folder = new FileFolder(root, "Folder", null);
+		FileFolder archive = new FileFolder(folder, "archive.zip", 123L);
+		archive.setChecked(false);
+		new FileFolder(archive, "Empty", null);
+		new FileDocument(root, "one.txt", 1);
+		FileDocument brokenDoc = new FileDocument(archive, "broken.pdf", 2);
+		brokenDoc.setError(new IndexingError(
+			ErrorType.PARSING, brokenDoc, new IOException("Broken file")));
+		FileDocument htmlDoc = new FileDocument(folder, "page.html", 3);
+		FileFolder htmlFolder = new FileFolder(new Path("page_files"), null);
+		new FileDocument(htmlFolder, "image.png", 4);
+		htmlDoc.setHtmlFolder(htmlFolder);
+		String expected = dump(root);
+
+		File tempDir = Util.createTempDir();
+		try {
+			File file1 = new File(tempDir, "tree1.dat");
+			MappedFileTree.write(root, file1);
+			FileFolder copy1 = new FileFolder(new Path("/Root"), null);
+			MappedFileTree.open(file1).attach(copy1);
+
+			// This query shouldn't create any children
+			assertTrue(copy1.hasErrorsDeep());
+			assertNotNull(copy1.getChildLoader());
+
+			// Check state lookups should only load the folders along the path
+			TreeCheckState state = copy1.getTreeCheckState();
+			assertTrue(state.isChecked(new Path("/Root/Folder")));
+			assertNull(copy1.getChildLoader());
+			assertNotNull(copy1.getSubFolder("Folder").getChildLoader());
+			assertFalse(state.isChecked(new Path("/Root/Folder/archive.zip")));
+			assertTrue(state.isChecked(new Path("/Root/Folder/archive.zip/Empty")));
+
+			assertEquals(expected, dump(copy1));
+
+			/*
+			 * Write a partially loaded tree, so that the unloaded folders are
+			 * copied from the first tree file.
+			 */
+			FileFolder copy2 = new FileFolder(new Path("/Root"), null);
+			MappedFileTree.open(file1).attach(copy2);
+			FileFolder folder2 = copy2.getSubFolder("Folder");
+			assertNotNull(folder2.getChildLoader());
+			folder2.setChecked(false);
+			File file2 = new File(tempDir, "tree2.dat");
+			MappedFileTree.write(copy2, file2);
+			FileFolder copy3 = new FileFolder(new Path("/Root"), null);
+			MappedFileTree.open(file2).attach(copy3);
+			assertFalse(copy3.getTreeCheckState().isChecked(new Path("/Root/Folder")));
+			folder.setChecked(false);
+			assertEquals(dump(root), dump(copy3));
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	public void testTruncatedFile() throws Exception {
+		FileFolder root = new FileFolder(new Path("/Root"), null);
+		new FileFolder(new FileFolder(root, "Folder", null), "Sub", null);
+		new FileDocument(root, "one.txt", 1);
+		File tempDir = Util.createTempDir();
+		try {
+			File file = new File(tempDir, "tree.dat");
+			MappedFileTree.write(root, file);
+			byte[] bytes = Files.toByteArray(file);
+
+			// Cut off a folder record, but keep the root offset at the end
+			byte[] truncated = new byte[bytes.length - 6];
+			System.arraycopy(bytes, 0, truncated, 0, truncated.length - 4);
+			System.arraycopy(bytes, bytes.length - 4, truncated, truncated.length - 4, 4);
+			Files.write(truncated, file);
+			try {
+				MappedFileTree.open(file);
+				fail();
+			}
+			catch (IOException e) {
+				// Expected
+			}
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	public void testCorruptedRecord() throws Exception {
+		FileFolder root = new FileFolder(new Path("/Root"), null);
+		new FileFolder(root, "Folder", null);
+		new FileDocument(root, "one.txt", 1);
+		File tempDir = Util.createTempDir();
+		try {
+			File file = new File(tempDir, "tree.dat");
+			MappedFileTree.write(root, file);
+
+			// Replace a character of the document name with an invalid byte
+			byte[] bytes = Files.toByteArray(file);
+			byte[] name = "one.txt".getBytes("UTF-8");
+			int index = indexOf(bytes, name);
+			assertTrue(index >= 0);
+			bytes[index] = (byte) 0xFF;
+			Files.write(bytes, file);
+
+			MappedFileTree tree = MappedFileTree.open(file);
+			FileFolder copy = new FileFolder(new Path("/Root"), null);
+			tree.attach(copy);
+			assertFalse(tree.isCorrupted());
+			for (int i = 0; i < 2; i++) {
+				try {
+					copy.getSubFolders();
+					fail();
+				}
+				catch (CorruptedTreeException e) {
+					// Expected
+				}
+				// The folder must not be left partially loaded
+				assertNotNull(copy.getChildLoader());
+			}
+			assertTrue(tree.isCorrupted());
+
+			// The unloaded folder is still copied when the tree is written
+			File file2 = new File(tempDir, "tree2.dat");
+			MappedFileTree.write(copy, file2);
+			assertTrue(Arrays.equals(
+				Files.toByteArray(file), Files.toByteArray(file2)));
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	private static int indexOf(byte[] bytes, byte[] target) {
+		outer: for (int i = 0; i <= bytes.length - target.length; i++) {
+			for (int j = 0; j < target.length; j++)
+				if (bytes[i + j] != target[j])
+					continue outer;
+			return i;
+		}
+		return -1;
+	}
+
+	private static String dump(FileFolder folder) {
+		StringBuilder sb = new StringBuilder();
+		dump(folder, "", sb);
+		return sb.toString();
+	}
+
+	private static void dump(FileFolder folder, String indent, StringBuilder sb) {
+		sb.append(indent).append(folder.getPath()).append(" ")
+			.append(folder.getLastModified()).append(" ")
+			.append(folder.isChecked()).append(" ")
+			.append(folder.hasErrorsDeep()).append("\n");
+		for (FileDocument doc : folder.getDocuments()) {
+			sb.append(indent).append(doc.getPath()).append(" ")
+				.append(doc.getLastModified()).append(" ");
+			for (IndexingError error : doc.getErrors()) {
+				assertEquals(doc, error.getTreeNode());
+				sb.append(error.getErrorType()).append(": ")
+					.append(error.getLocalizedMessage()).append(" ");
+			}
+			sb.append("\n");
+			if (doc.getHtmlFolder() != null)
+				dump(doc.getHtmlFolder(), indent + "  ", sb);
+		}
+		for (FileFolder subFolder : folder.getSubFolders())
+			dump(subFolder, indent + "  ", sb);
+	}
+
+}
@@ -36,6 +36,10 @@ final class SimpleDocWriter extends LuceneDocWriter implements Closeable {
 		return true;
 	}
 	
+	public boolean supportsStreaming() {
+		return true;
+	}
+	
 	public void write(	@NotNull FileDocument doc,
 						@NotNull Document luceneDoc,
 						@NotNull boolean added) throws IOException,
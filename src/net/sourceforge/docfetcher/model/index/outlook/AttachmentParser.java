@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index.outlook;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.model.Path;
+import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.model.index.IndexingReporter;
+import net.sourceforge.docfetcher.model.index.PatternAction;
+import net.sourceforge.docfetcher.model.parse.ParseResult;
+import net.sourceforge.docfetcher.model.parse.ParseService;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Parses email attachments on a pool of background threads, so that the
+ * attachments of an email can be parsed while the email body is being
+ * processed.
+ * <p>
+ * The extracted text is cached by a hash of the attachment bytes, so that an
+ * attachment that was forwarded many times is only parsed once. The cache is
+ * shared by all instances of this class, i.e. by all Outlook indexes, and its
+ * keys include the indexing settings that affect parsing, so that indexes with
+ * different settings don't share text. The cache size is bounded by the
+ * amount of cached text rather than by the number of entries. Only
+ * successfully parsed attachments are cached.
+ *
+ * @author Tran Nam Quang
+ */
+final class AttachmentParser {
+
+	static final class AttachmentText {
+		@NotNull final String content;
+		@NotNull final String metadata;
+
+		AttachmentText(@NotNull String content, @NotNull String metadata) {
+			this.content = content;
+			this.metadata = metadata;
+		}
+
+		// Approximate memory footprint in bytes
+		long getSize() {
+			return 2L * (content.length() + metadata.length());
+		}
+	}
+
+	private static final TextCache textCache = new TextCache();
+
+	private final IndexingConfig config;
+	private final String configKey;
+	private final IndexingReporter reporter;
+	private final Cancelable cancelable;
+	private final ExecutorService executor;
+
+	public AttachmentParser(@NotNull IndexingConfig config,
+							@NotNull IndexingReporter reporter,
+							@NotNull Cancelable cancelable,
+							int threadCount) {
+		Util.checkNotNull(config, reporter, cancelable);
+		this.config = config;
+		this.configKey = getConfigKey(config);
+		this.reporter = reporter;
+		this.cancelable = cancelable;
+		executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger(0);
+
+			public Thread newThread(Runnable r) {
+				String name = AttachmentParser.class.getName()
+						+ " (parser " + count.incrementAndGet() + ")";
+				return new Thread(r, name);
+			}
+		});
+	}
+
+	/**
+	 * Schedules the given attachment for parsing and returns a future for the
+	 * extracted text. If the future throws an exception, its cause is either a
+	 * ParseException or a CheckedOutOfMemoryError. The given temporary file
+	 * will be deleted after parsing.
+	 * <p>
+	 * The filename extension and the indexing settings are part of the cache
+	 * key, since the choice of parser and the extracted text may depend on
+	 * them.
+	 */
+	@NotNull
+	public Future<AttachmentText> submit(	@NotNull final Path path,
+											@NotNull final String filename,
+											@NotNull final File tempFile,
+											@NotNull String hash) {
+		final String key = hash + "." + Util.getExtension(filename) + "\n" + configKey;
+		AttachmentText cached = textCache.get(key);
+		if (cached != null) {
+			tempFile.delete();
+			return Futures.immediateFuture(cached);
+		}
+		return executor.submit(new Callable<AttachmentText>() {
+			public AttachmentText call() throws Exception {
+				try {
+					/*
+					 * It is assumed here that mime type detection is turned
+					 * on for all attachments, so we'll just hand over all
+					 * attachments to the parse service.
+					 */
+					ParseResult parseResult = ParseService.parse(
+						config, tempFile, filename, path, reporter, cancelable);
+					AttachmentText text = new AttachmentText(
+						parseResult.getContent().toString(),
+						parseResult.getMetadata().toString());
+					textCache.put(key, text);
+					return text;
+				}
+				finally {
+					tempFile.delete();
+				}
+			}
+		});
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/*
+	 * Returns a string that contains all settings that are used by the parse
+	 * service to select a parser and extract text.
+	 */
+	@NotNull
+	private static String getConfigKey(@NotNull IndexingConfig config) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(config.isIndexFilenames()).append('|');
+		sb.append(config.isHtmlPairing()).append('|');
+		sb.append(ProgramConf.Bool.IndexExcelFormulas.get()).append('|');
+		sb.append(config.getTextExtensions()).append('|');
+		sb.append(config.getHtmlExtensions()).append('|');
+		for (PatternAction patternAction : config.getPatternActions()) {
+			sb.append(patternAction.getTarget()).append(' ');
+			sb.append(patternAction.getAction()).append(' ');
+			sb.append(patternAction.getRegex()).append('|');
+		}
+		return sb.toString();
+	}
+
+	// An LRU cache whose capacity is measured in bytes of cached text
+	private static final class TextCache {
+		private final Map<String, AttachmentText> map = new LinkedHashMap<String, AttachmentText>(
+			16, 0.75f, true);
+		private long size = 0;
+
+		@Nullable
+		public synchronized AttachmentText get(@NotNull String key) {
+			return map.get(key);
+		}
+
+		public synchronized void put(	@NotNull String key,
+										@NotNull AttachmentText text) {
+			long capacity = ProgramConf.Int.AttachmentTextCacheSize.get() * 1024L;
+			if (text.getSize() > capacity / 4)
+				return; // Don't let a single large attachment flush the cache
+			AttachmentText oldText = map.put(key, text);
+			if (oldText != null)
+				size -= oldText.getSize();
+			size += text.getSize();
+			Iterator<AttachmentText> it = map.values().iterator();
+			while (size > capacity && it.hasNext()) {
+				size -= it.next().getSize();
+				it.remove();
+			}
+		}
+	}
+
+}
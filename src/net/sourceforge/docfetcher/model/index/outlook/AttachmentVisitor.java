@@ -14,6 +14,7 @@ package net.sourceforge.docfetcher.model.index.outlook;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.security.MessageDigest;
 
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
 import net.sourceforge.docfetcher.model.index.IndexingException;
@@ -22,6 +23,9 @@ import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
 import com.google.common.io.Closeables;
 import com.pff.PSTAttachment;
 import com.pff.PSTMessage;
@@ -49,6 +53,7 @@ abstract class AttachmentVisitor {
 		for (int i = 0; i < numberOfAttachments; i++) {
 			String filename = null;
 			File tempFile = null;
+			boolean handedOver = false;
 			try {
 				PSTAttachment attach = email.getAttachment(i);
 
@@ -70,25 +75,26 @@ abstract class AttachmentVisitor {
 				 */
 
 				/*
-				 * Copy bytes from input stream to output stream
+				 * Copy bytes from input stream to output stream, and compute
+				 * a hash of the attachment bytes along the way, which allows
+				 * subclasses to recognize identical attachments.
 				 * 
 				 * 8176 is the block size used internally and should give the
 				 * best performance.
 				 */
-				int bufferSize = 8176;
-				byte[] buffer = new byte[bufferSize];
-				int count = in.read(buffer);
-				while (count == bufferSize) {
-					out.write(buffer);
-					count = in.read(buffer);
+				MessageDigest digest = DigestUtils.getSha1Digest();
+				byte[] buffer = new byte[8176];
+				int count;
+				while ((count = in.read(buffer)) > 0) {
+					out.write(buffer, 0, count);
+					digest.update(buffer, 0, count);
 				}
-				byte[] endBuffer = new byte[count];
-				System.arraycopy(buffer, 0, endBuffer, 0, count);
-				out.write(endBuffer);
 				Closeables.closeQuietly(out);
 				Closeables.closeQuietly(in);
+				String hash = Hex.encodeHexString(digest.digest());
 
-				handleAttachment(filename, tempFile);
+				handleAttachment(filename, tempFile, hash);
+				handedOver = true;
 			}
 			catch (CheckedOutOfMemoryError e) {
 				if (filename == null)
@@ -103,15 +109,18 @@ abstract class AttachmentVisitor {
 				handleException(filename, e);
 			}
 			finally {
-				if (deleteTempFiles && tempFile != null)
+				// Don't leave orphaned temporary files behind after errors
+				if ((deleteTempFiles || !handedOver) && tempFile != null)
 					tempFile.delete();
 			}
 		}
 		runFinally();
 	}
 	
+	// The hash is a hex-encoded SHA-1 hash of the attachment bytes
 	protected abstract void handleAttachment(	@NotNull String filename,
-												@NotNull File tempFile)
+												@NotNull File tempFile,
+												@NotNull String hash)
 			throws ParseException, CheckedOutOfMemoryError;
 	
 	protected abstract void handleException(@NotNull String filename,
@@ -28,6 +28,17 @@ final class MailFolder extends Folder<MailDocument, MailFolder> {
 	
 	private boolean hasDeepContent = false;
 	
+	/*
+	 * The content count and last-modified value of the corresponding PST
+	 * folder at the time of the last update. If these are unchanged, the
+	 * emails of the folder don't have to be enumerated again. The flag is
+	 * needed because folders deserialized from older indexes don't have
+	 * these fields.
+	 */
+	private boolean hasPstState = false;
+	private int pstContentCount;
+	private long pstLastModified;
+	
 	public MailFolder(@NotNull MailFolder parent, @NotNull String name) {
 		super(parent, name, null);
 	}
@@ -43,5 +54,29 @@ final class MailFolder extends Folder<MailDocument, MailFolder> {
 	public boolean hasDeepContent() {
 		return hasDeepContent;
 	}
+	
+	/**
+	 * Returns whether the given content count and last-modified value of the
+	 * corresponding PST folder are the same as the ones that were stored at
+	 * the end of the last update. A last-modified value of -1 means the PST
+	 * folder has no last-modified value, in which case this method returns
+	 * false.
+	 */
+	public boolean isUnmodifiedPstFolder(int contentCount, long lastModified) {
+		return hasPstState
+			&& lastModified != -1
+			&& pstContentCount == contentCount
+			&& pstLastModified == lastModified;
+	}
+	
+	public void setPstState(int contentCount, long lastModified) {
+		hasPstState = true;
+		pstContentCount = contentCount;
+		pstLastModified = lastModified;
+	}
+	
+	public void clearPstState() {
+		hasPstState = false;
+	}
 
 }
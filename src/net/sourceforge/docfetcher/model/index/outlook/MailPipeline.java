@@ -0,0 +1,309 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index.outlook;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.index.IndexingException;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+
+import org.apache.lucene.document.Document;
+
+import com.google.common.io.Closeables;
+import com.pff.PSTException;
+import com.pff.PSTFile;
+import com.pff.PSTMessage;
+import com.pff.PSTObject;
+
+/**
+ * A three-stage pipeline for indexing the emails of a PST file:
+ * <ol>
+ * <li>Enumeration: The thread that walks the PST folder tree hands over the
+ * descriptor node IDs of new and modified emails via
+ * {@link #submit(MailDocument, long, boolean)}.</li>
+ * <li>Extraction: A number of worker threads load the emails by their IDs,
+ * extract the email bodies and parse the attachments.</li>
+ * <li>Writing: A single writer thread adds the resulting Lucene documents to
+ * the index, and also carries out all deletions.</li>
+ * </ol>
+ * Since the PSTFile class reads from a single RandomAccessFile and is not
+ * thread-safe, each extraction thread opens its own handle on the PST file. The
+ * queues between the stages are bounded, so the enumeration blocks if the
+ * extraction falls behind, and the extraction blocks if the writing falls
+ * behind.
+ * <p>
+ * The first I/O or PST error that occurs in any of the stages stops the
+ * pipeline and is rethrown by {@link #finish()}.
+ *
+ * @author Tran Nam Quang
+ */
+final class MailPipeline {
+
+	private static final class MailTask {
+		final MailDocument doc;
+		final long descriptorId;
+		final boolean added;
+
+		MailTask(MailDocument doc, long descriptorId, boolean added) {
+			this.doc = doc;
+			this.descriptorId = descriptorId;
+			this.added = added;
+		}
+	}
+
+	private static final class WriteTask {
+		@Nullable final MailDocument doc;
+		@Nullable final Document luceneDoc;
+		@Nullable final String deletionUid;
+		final boolean added;
+
+		WriteTask(	@Nullable MailDocument doc,
+					@Nullable Document luceneDoc,
+					@Nullable String deletionUid,
+					boolean added) {
+			this.doc = doc;
+			this.luceneDoc = luceneDoc;
+			this.deletionUid = deletionUid;
+			this.added = added;
+		}
+	}
+
+	// Poison pills for terminating the worker threads and the writer thread
+	private static final MailTask endOfMails = new MailTask(null, -1, false);
+	private static final WriteTask endOfWrites = new WriteTask(null, null, null, false);
+
+	private final OutlookContext context;
+	private final File pstFile;
+	private final BlockingQueue<MailTask> mailQueue;
+	private final BlockingQueue<WriteTask> writeQueue;
+	private final List<Thread> extractors;
+	private final Thread writer;
+
+	@Nullable private volatile Throwable failure;
+	private boolean isShutdown = false;
+
+	public MailPipeline(@NotNull OutlookContext context,
+						@NotNull File pstFile,
+						int threadCount) {
+		Util.checkNotNull(context, pstFile);
+		Util.checkThat(threadCount >= 1);
+		this.context = context;
+		this.pstFile = pstFile;
+
+		mailQueue = new ArrayBlockingQueue<MailTask>(threadCount * 4);
+		writeQueue = new ArrayBlockingQueue<WriteTask>(threadCount * 4);
+
+		extractors = new ArrayList<Thread>(threadCount);
+		for (int i = 0; i < threadCount; i++) {
+			String name = MailPipeline.class.getName() + " (extractor " + (i + 1) + ")";
+			Thread extractor = new Thread(name) {
+				public void run() {
+					runExtractor();
+				}
+			};
+			extractors.add(extractor);
+			extractor.start();
+		}
+
+		writer = new Thread(MailPipeline.class.getName() + " (writer)") {
+			public void run() {
+				runWriter();
+			}
+		};
+		writer.start();
+	}
+
+	// Returns the configured number of extraction threads
+	static int getThreadCount() {
+		int count = ProgramConf.Int.OutlookIndexingThreads.get();
+		if (count <= 0)
+			count = Runtime.getRuntime().availableProcessors();
+		return Math.max(1, count);
+	}
+
+	/**
+	 * Schedules the email with the given descriptor node ID for indexing. This
+	 * method blocks if the extraction stage is busy. Should only be called
+	 * from the enumeration thread.
+	 */
+	public void submit(@NotNull MailDocument doc, long descriptorId, boolean added)
+			throws IndexingException, PSTException {
+		checkFailure();
+		put(mailQueue, new MailTask(doc, descriptorId, added));
+	}
+
+	/**
+	 * Schedules the removal of the Lucene document with the given UID. Should
+	 * only be called from the enumeration thread.
+	 */
+	public void delete(@NotNull String uid)
+			throws IndexingException, PSTException {
+		checkFailure();
+		put(writeQueue, new WriteTask(null, null, uid, false));
+	}
+
+	/**
+	 * Waits until all scheduled emails have been indexed, then terminates the
+	 * pipeline threads and rethrows the first error that occurred in any of
+	 * the pipeline stages.
+	 */
+	public void finish() throws IndexingException, PSTException {
+		shutdown();
+		checkFailure();
+	}
+
+	/**
+	 * Waits until all scheduled emails have been indexed, then terminates the
+	 * pipeline threads. Unlike {@link #finish()}, this method does not rethrow
+	 * errors and can be called multiple times, so it can be used in finally
+	 * blocks.
+	 */
+	public void shutdown() {
+		if (isShutdown)
+			return;
+		isShutdown = true;
+		try {
+			for (int i = 0; i < extractors.size(); i++)
+				mailQueue.put(endOfMails);
+			for (Thread extractor : extractors)
+				extractor.join();
+			writeQueue.put(endOfWrites);
+			writer.join();
+		}
+		catch (InterruptedException e) {
+			setFailure(new IOException(e));
+		}
+	}
+
+	private void runExtractor() {
+		PSTFile pst = null;
+		try {
+			while (true) {
+				MailTask task = mailQueue.take();
+				if (task == endOfMails)
+					break;
+
+				// After a failure, drain the queue without doing any work
+				if (failure != null)
+					continue;
+				try {
+					if (pst == null)
+						pst = new PSTFile(pstFile);
+					PSTMessage email = (PSTMessage) PSTObject.detectAndLoadPSTObject(
+						pst, task.descriptorId);
+					Document luceneDoc = context.createLuceneDoc(task.doc, email); // might store some errors
+					writeQueue.put(new WriteTask(task.doc, luceneDoc, null, task.added));
+				}
+				catch (PSTException e) {
+					setFailure(e);
+				}
+				catch (IOException e) {
+					setFailure(e);
+				}
+				catch (ClassCastException e) {
+					/*
+					 * The descriptor node ID was obtained from a PSTMessage
+					 * object on the enumeration thread, so this shouldn't
+					 * happen unless the PST file was modified concurrently.
+					 */
+					setFailure(new IOException(e));
+				}
+				catch (RuntimeException e) {
+					setFailure(e);
+				}
+				catch (Error e) {
+					setFailure(e); // Rethrow on the enumeration thread
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			setFailure(new IOException(e));
+		}
+		finally {
+			if (pst != null)
+				Closeables.closeQuietly(pst.getFileHandle());
+		}
+	}
+
+	private void runWriter() {
+		try {
+			while (true) {
+				WriteTask task = writeQueue.take();
+				if (task == endOfWrites)
+					break;
+				if (failure != null)
+					continue;
+				try {
+					if (task.deletionUid != null)
+						context.writeDeletion(task.deletionUid);
+					else
+						context.writeDocument(task.doc, task.luceneDoc, task.added);
+				}
+				catch (IndexingException e) {
+					setFailure(e);
+				}
+				catch (RuntimeException e) {
+					setFailure(e);
+				}
+				catch (Error e) {
+					setFailure(e);
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			setFailure(new IOException(e));
+		}
+	}
+
+	@ThreadSafe
+	private synchronized void setFailure(@NotNull Throwable e) {
+		if (failure == null)
+			failure = e;
+	}
+
+	private void checkFailure() throws IndexingException, PSTException {
+		Throwable t = failure;
+		if (t == null)
+			return;
+		if (t instanceof IndexingException)
+			throw (IndexingException) t;
+		if (t instanceof PSTException)
+			throw (PSTException) t;
+		if (t instanceof IOException)
+			throw new IndexingException((IOException) t);
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		throw new IllegalStateException(t);
+	}
+
+	private static <T> void put(@NotNull BlockingQueue<T> queue, @NotNull T item)
+			throws IndexingException {
+		try {
+			queue.put(item);
+		}
+		catch (InterruptedException e) {
+			throw new IndexingException(new IOException(e));
+		}
+	}
+
+}
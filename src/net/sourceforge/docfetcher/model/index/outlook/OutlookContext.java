@@ -6,6 +6,9 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.model.Fields;
@@ -21,9 +24,7 @@ import net.sourceforge.docfetcher.model.index.IndexingInfo;
 import net.sourceforge.docfetcher.model.index.IndexingInfo.InfoType;
 import net.sourceforge.docfetcher.model.index.IndexingReporter;
 import net.sourceforge.docfetcher.model.index.MutableInt;
-import net.sourceforge.docfetcher.model.parse.ParseException;
-import net.sourceforge.docfetcher.model.parse.ParseResult;
-import net.sourceforge.docfetcher.model.parse.ParseService;
+import net.sourceforge.docfetcher.model.index.outlook.AttachmentParser.AttachmentText;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.MutableCopy;
@@ -32,6 +33,10 @@ import net.sourceforge.docfetcher.util.annotations.Nullable;
 
 import org.apache.lucene.document.Document;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.pff.PSTException;
 import com.pff.PSTMessage;
 import com.pff.PSTRecipient;
 
@@ -41,32 +46,72 @@ final class OutlookContext {
 	private final IndexWriterAdapter writer;
 	private final IndexingReporter reporter;
 	private final Cancelable cancelable;
+	private final MailPipeline pipeline;
+	private final AttachmentParser attachmentParser;
 	private final MutableInt fileCount = new MutableInt(0);
 
 	public OutlookContext(	@NotNull IndexingConfig config,
 	                      	@NotNull IndexWriterAdapter writer,
 							@NotNull IndexingReporter reporter,
-							@NotNull Cancelable cancelable) {
-		Util.checkNotNull(config, writer, reporter, cancelable);
+							@NotNull Cancelable cancelable,
+							@NotNull File pstFile) {
+		Util.checkNotNull(config, writer, reporter, cancelable, pstFile);
 		this.config = config;
 		this.writer = writer;
 		this.reporter = reporter;
 		this.cancelable = cancelable;
+		int threadCount = MailPipeline.getThreadCount();
+		this.attachmentParser = new AttachmentParser(
+			config, reporter, cancelable, threadCount);
+		this.pipeline = new MailPipeline(this, pstFile, threadCount);
 	}
 	
 	public final boolean isStopped() {
 		return cancelable.isCanceled();
 	}
 	
+	/**
+	 * Schedules the email with the given descriptor node ID for indexing. The
+	 * email will be loaded, parsed and written to the index on the threads of
+	 * the mail pipeline, so indexing errors may surface in later calls to this
+	 * method or in {@link #finish()}.
+	 */
 	// Will handle attachments
 	public void index(	@NotNull MailDocument doc,
-						@NotNull PSTMessage email,
-						boolean added) throws IndexingException {
+						long descriptorId,
+						boolean added) throws IndexingException, PSTException {
 		fileCount.increment();
 		reporter.info(new IndexingInfo(InfoType.EXTRACTING, doc, fileCount.get()));
+		doc.setError(null);
+		pipeline.submit(doc, descriptorId, added);
+	}
+	
+	public void deleteFromIndex(@NotNull String uid)
+			throws IndexingException, PSTException {
+		pipeline.delete(uid);
+	}
+	
+	// Waits for all scheduled emails to be indexed and rethrows pipeline errors
+	public void finish() throws IndexingException, PSTException {
+		try {
+			pipeline.finish();
+		}
+		finally {
+			attachmentParser.shutdown();
+		}
+	}
+	
+	// Same as finish(), but without rethrowing; can be called multiple times
+	public void shutdown() {
+		pipeline.shutdown();
+		attachmentParser.shutdown();
+	}
+	
+	// Called on the writer thread of the mail pipeline
+	void writeDocument(	@NotNull MailDocument doc,
+						@NotNull Document luceneDoc,
+						boolean added) throws IndexingException {
 		try {
-			doc.setError(null);
-			Document luceneDoc = createLuceneDoc(doc, email); // might store some errors
 			if (added)
 				writer.add(luceneDoc);
 			else
@@ -80,7 +125,8 @@ final class OutlookContext {
 		}
 	}
 	
-	public void deleteFromIndex(@NotNull String uid) throws IndexingException {
+	// Called on the writer thread of the mail pipeline
+	void writeDeletion(@NotNull String uid) throws IndexingException {
 		try {
 			writer.delete(uid);
 		} catch (IOException e) {
@@ -88,10 +134,37 @@ final class OutlookContext {
 		}
 	}
 	
+	// Called on the extraction threads of the mail pipeline
 	@NotNull
-	private Document createLuceneDoc(	@NotNull final MailDocument doc,
+	Document createLuceneDoc(	@NotNull final MailDocument doc,
 										@NotNull final PSTMessage email) {
 		final Document luceneDoc = new Document();
+		
+		/*
+		 * Copy the attachments to temporary files and hand them over to the
+		 * attachment parser. The copying must be done on this thread since
+		 * reading from the PST file is not thread-safe, but the actual parsing
+		 * runs on the attachment parser threads while we're processing the
+		 * email body below.
+		 */
+		final List<Map.Entry<String, Future<AttachmentText>>> attachments = Lists.newArrayList();
+		final AttachmentErrorHandler handler = new AttachmentErrorHandler(doc);
+		new AttachmentVisitor(config, email, false) {
+			protected void handleAttachment(String filename,
+											File tempFile,
+											String hash) {
+				// TODO post-release-1.1: Maybe recurse into archive attachments
+				Path path = doc.getPath().createSubPath(filename);
+				Future<AttachmentText> future = attachmentParser.submit(
+					path, filename, tempFile, hash);
+				attachments.add(Maps.immutableEntry(filename, future));
+			}
+			protected void handleException(	String filename,
+											Throwable t) {
+				handler.handleException(filename, t);
+			}
+		}.run();
+		
 		String subject = email.getSubject();
 		String body = email.getBody();
 		String sender = getSender(email);
@@ -123,49 +196,49 @@ final class OutlookContext {
 		contents.append(body).append(" ");
 		luceneDoc.add(Fields.createContent(contents));
 		
-		// Parse and append attachments
-		new AttachmentVisitor(config, email, true) {
-			@Nullable private List<IndexingError> errors;
-			
-			protected void handleAttachment(String filename,
-											File tempFile)
-					throws ParseException, CheckedOutOfMemoryError {
-				// TODO post-release-1.1: Maybe recurse into archive attachments
-
-				/*
-				 * It is assumed here that mime type detection is turned on for
-				 * all attachments, so we'll just hand over all attachments to
-				 * the parse service.
-				 */
-				Path path = doc.getPath().createSubPath(filename);
-				ParseResult parseResult = ParseService.parse(
-					config, tempFile, filename, path, reporter, cancelable);
-				luceneDoc.add(Fields.createContent(parseResult.getContent()));
-				StringBuilder metadata = parseResult.getMetadata();
-				metadata.append(filename);
-				luceneDoc.add(Fields.createContent(metadata));
-			}
-			protected void handleException(	String filename,
-											Throwable t) {
-				Path path = doc.getPath().createSubPath(filename);
-				TreeNode attachNode = new AttachNode(path);
-
-				// Put error in temporary list and report it
-				if (errors == null)
-					errors = new ArrayList<IndexingError>(5);
-				IndexingError error = new IndexingError(
-					ErrorType.ATTACHMENT, attachNode, t);
-				errors.add(error);
-				reporter.fail(error);
+		// Append attachments, in their original order
+		for (Map.Entry<String, Future<AttachmentText>> entry : attachments) {
+			String filename = entry.getKey();
+			try {
+				AttachmentText text = Uninterruptibles.getUninterruptibly(entry.getValue());
+				luceneDoc.add(Fields.createContent(text.content));
+				luceneDoc.add(Fields.createContent(text.metadata + filename));
 			}
-			protected void runFinally() {
-				doc.setErrors(errors);
+			catch (ExecutionException e) {
+				Throwable t = e.getCause();
+				if (t instanceof CheckedOutOfMemoryError)
+					t = t.getCause();
+				handler.handleException(filename, t);
 			}
-		}.run();
+		}
+		doc.setErrors(handler.errors);
 		
 		return luceneDoc;
 	}
 	
+	private final class AttachmentErrorHandler {
+		private final MailDocument doc;
+		@Nullable private List<IndexingError> errors;
+		
+		public AttachmentErrorHandler(@NotNull MailDocument doc) {
+			this.doc = doc;
+		}
+		
+		public void handleException(@NotNull String filename,
+									@NotNull Throwable t) {
+			Path path = doc.getPath().createSubPath(filename);
+			TreeNode attachNode = new AttachNode(path);
+
+			// Put error in temporary list and report it
+			if (errors == null)
+				errors = new ArrayList<IndexingError>(5);
+			IndexingError error = new IndexingError(
+				ErrorType.ATTACHMENT, attachNode, t);
+			errors.add(error);
+			reporter.fail(error);
+		}
+	}
+	
 	/*
 	 * Must be static in order to avoid attempting to serialize the surrounding
 	 * OutlookContext instance.
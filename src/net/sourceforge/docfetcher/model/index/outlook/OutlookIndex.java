@@ -21,6 +21,7 @@ import java.util.Map;
 
 import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.model.DocumentType;
+import net.sourceforge.docfetcher.model.FolderVisitor;
 import net.sourceforge.docfetcher.model.Path;
 import net.sourceforge.docfetcher.model.TreeIndex;
 import net.sourceforge.docfetcher.model.UtilModel;
@@ -90,6 +91,7 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 		MailFolder rootFolder = getRootFolder();
 		rootFolder.setError(null);
 		IndexWriterAdapter writer = null;
+		OutlookContext context = null;
 		
 		PSTFile pstFile = null;
 		try {
@@ -104,11 +106,12 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 			rootFolder.setLastModified(newLastModified);
 			
 			writer = new IndexWriterAdapter(getLuceneDir());
-			OutlookContext context = new OutlookContext(
-					getConfig(), writer, reporter, cancelable
+			context = new OutlookContext(
+					getConfig(), writer, reporter, cancelable, rootFile
 			);
 			pstFile = new PSTFile(rootFile.getPath());
 			visitFolder(context, rootFolder, pstFile.getRootFolder());
+			context.finish();
 			
 			simplifiedRootFolder = new TreeRootSimplifier<MailFolder> () {
 				protected boolean hasContent(MailFolder node) {
@@ -134,6 +137,8 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 			report(reporter, e.getIOException());
 		}
 		finally {
+			if (context != null)
+				context.shutdown(); // must be done before closing the writer
 			if (pstFile != null) {
 				Closeables.closeQuietly(pstFile.getFileHandle());
 			}
@@ -150,6 +155,18 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 			ErrorType.IO_EXCEPTION, rootFolder, e);
 		rootFolder.setError(error);
 		reporter.fail(error);
+		
+		/*
+		 * The index is saved even if the update fails, so we must make sure the
+		 * next update doesn't skip folders whose emails may not have been
+		 * written to the index.
+		 */
+		rootFolder.clearPstState();
+		new FolderVisitor<MailDocument, MailFolder, Throwable>(rootFolder) {
+			protected void visitFolder(MailFolder parent, MailFolder folder) {
+				folder.clearPstState();
+			}
+		}.runSilently();
 	}
 	
 	// TODO post-release-1.1: method currently not in use
@@ -171,8 +188,22 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 		final Map<String, MailFolder> unseenSubFolders = Maps.newHashMap(folder.getSubFolderMap());
 		final List<PSTFolder> subFoldersToVisit = new LinkedList<PSTFolder>();
 		
-		// Visit mails
-		if (pstFolder.getContentCount() > 0) {
+		/*
+		 * Visit mails, unless the content count and the last-modified value of
+		 * the PST folder are unchanged since the last update. In the latter
+		 * case, we'll keep the existing mails without enumerating the PST
+		 * folder's messages, which is by far the most expensive part of
+		 * re-checking large PST files.
+		 */
+		int contentCount = pstFolder.getContentCount();
+		Date folderLastModDate = pstFolder.getLastModificationTime();
+		long folderLastMod = folderLastModDate == null ? -1 : folderLastModDate.getTime();
+		if (folder.isUnmodifiedPstFolder(contentCount, folderLastMod)) {
+			unseenMails.clear();
+			if (folder.getDocumentCount() > 0)
+				folder.setHasDeepContent(true);
+		}
+		else if (contentCount > 0) {
 			try {
 				PSTObject pstObject;
 				try {
@@ -226,7 +257,7 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 							String subject = pstMail.getSubject();
 							mail = new MailDocument(
 								folder, id, subject, newLastMod);
-							context.index(mail, pstMail, true);
+							context.index(mail, pstMail.getDescriptorNodeId(), true);
 						}
 						else if (mail.isModified(newLastMod)) { // Mail modified
 							/*
@@ -240,7 +271,7 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 							 * value to reflect such changes.
 							 */
 							mail.setLastModified(newLastMod);
-							context.index(mail, pstMail, false);
+							context.index(mail, pstMail.getDescriptorNodeId(), false);
 						}
 					}
 					
@@ -295,6 +326,8 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 		}
 		for (MailFolder subFolder : unseenSubFolders.values())
 			folder.removeSubFolder(subFolder);
+		
+		folder.setPstState(contentCount, folderLastMod);
 	}
 
 }
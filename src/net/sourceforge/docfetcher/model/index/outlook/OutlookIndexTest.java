@@ -11,10 +11,15 @@
 
 package net.sourceforge.docfetcher.model.index.outlook;
 
+import static org.junit.Assert.assertEquals;
+
 import java.io.File;
 
 import net.sourceforge.docfetcher.TestFiles;
 import net.sourceforge.docfetcher.model.UtilModel;
+import net.sourceforge.docfetcher.model.index.IndexingInfo;
+import net.sourceforge.docfetcher.model.index.IndexingInfo.InfoType;
+import net.sourceforge.docfetcher.model.index.IndexingReporter;
 import net.sourceforge.docfetcher.util.AppUtil;
 
 import org.apache.lucene.store.Directory;
@@ -45,6 +50,37 @@ public final class OutlookIndexTest {
 		UtilModel.assertResultCount(luceneDir, "\"test.pdf\"", 1);
 	}
 	
+	@Test
+	public void testUnmodifiedFoldersSkipped() throws Exception {
+		File pstFile = TestFiles.outlook_test.get();
+		
+		final int[] extractCount = { 0 };
+		IndexingReporter reporter = new IndexingReporter() {
+			public void info(IndexingInfo info) {
+				if (info.is(InfoType.EXTRACTING))
+					extractCount[0]++;
+			}
+		};
+		
+		OutlookIndex index = new OutlookIndex(null, pstFile);
+		index.update(reporter, null);
+		assertEquals(1, extractCount[0]);
+		
+		/*
+		 * Force a re-check of the PST file. Since none of the PST folders has
+		 * changed, the existing emails must be kept without being reindexed.
+		 */
+		extractCount[0] = 0;
+		index.getRootFolder().setLastModified(null);
+		index.update(reporter, null);
+		assertEquals(0, extractCount[0]);
+		Directory luceneDir = index.getLuceneDir();
+		
+		UtilModel.assertDocCount(luceneDir, 1);
+		UtilModel.assertResultCount(luceneDir, "Subject1", 1);
+		assertEquals(1, index.getRootFolder().getDocumentsDeep().size());
+	}
+	
 	// TODO test
 	
 }
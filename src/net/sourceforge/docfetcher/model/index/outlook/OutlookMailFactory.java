@@ -11,14 +11,17 @@
 
 package net.sourceforge.docfetcher.model.index.outlook;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.model.HotColdFileCache;
 import net.sourceforge.docfetcher.model.MailResource;
 import net.sourceforge.docfetcher.model.Path;
 import net.sourceforge.docfetcher.model.Path.PathParts;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.model.index.outlook.PstFileCache.PstHandle;
 import net.sourceforge.docfetcher.model.parse.ParseException;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
 import net.sourceforge.docfetcher.util.Util;
@@ -27,9 +30,7 @@ import net.sourceforge.docfetcher.util.annotations.NotNull;
 import org.apache.lucene.search.Query;
 
 import com.pff.PSTException;
-import com.pff.PSTFile;
 import com.pff.PSTMessage;
-import com.pff.PSTObject;
 
 /**
  * @author Tran Nam Quang
@@ -39,6 +40,8 @@ public final class OutlookMailFactory {
 	// TODO test
 	
 	private final HotColdFileCache unpackCache;
+	private final PstFileCache pstFileCache = new PstFileCache(
+		ProgramConf.Int.PstFileCacheCapacity.get());
 	
 	public OutlookMailFactory(@NotNull HotColdFileCache unpackCache) {
 		this.unpackCache = Util.checkNotNull(unpackCache);
@@ -59,15 +62,26 @@ public final class OutlookMailFactory {
 			long pstId = Long.valueOf(leftMiddle_right.getRight());
 			
 			String absLeft = left_middle.getLeft().getCanonicalPath();
-			PSTFile pstFile = new PSTFile(absLeft);
-			PSTMessage email = (PSTMessage) PSTObject.detectAndLoadPSTObject(
-				pstFile, pstId);
-			
 			Path emailId = new Path(Util.joinPath(
 				absLeft, left_middle.getRight(), leftMiddle_right.getRight()));
 			
-			return new OutlookMailResource(
-				config, query, isPhraseQuery, unpackCache, emailId, email);
+			/*
+			 * The email and its attachments are completely read while
+			 * constructing the mail resource, so we can give the PST handle
+			 * back to the cache afterwards.
+			 */
+			PstHandle pstHandle = pstFileCache.acquire(new File(absLeft));
+			boolean success = false;
+			try {
+				PSTMessage email = pstHandle.getMessage(pstId);
+				MailResource mailResource = new OutlookMailResource(
+					config, query, isPhraseQuery, unpackCache, emailId, email);
+				success = true;
+				return mailResource;
+			}
+			finally {
+				pstFileCache.release(pstHandle, !success);
+			}
 		}
 		catch (FileNotFoundException e) {
 			throw e; // should not be caught by IOException catch clause
@@ -68,7 +68,9 @@ public final class OutlookMailResource extends MailResource {
 		
 		new AttachmentVisitor(config, email, false) {
 			// TODO post-release-1.1: tell attachment visitor to skip a file if it was found in the cache
-			protected void handleAttachment(String filename, File tempFile)
+			protected void handleAttachment(String filename,
+											File tempFile,
+											String hash)
 					throws ParseException {
 				Path cacheKey = emailId.createSubPath(filename);
 				FileResource fileResource = unpackCache.putIfAbsent(cacheKey, tempFile);
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index.outlook;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.NotThreadSafe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.Closeables;
+import com.pff.PSTException;
+import com.pff.PSTFile;
+import com.pff.PSTMessage;
+import com.pff.PSTObject;
+
+/**
+ * A pool of open PST file handles. Opening a PST file is expensive, since it
+ * involves reading the file header and the B-tree structures, so handles are
+ * kept open and reused across email previews.
+ * <p>
+ * Since PSTFile instances are not thread-safe, each handle is leased
+ * exclusively to one thread between {@link #acquire(File)} and
+ * {@link #release(PstHandle, boolean)}. If another thread requests the same
+ * PST file in the meantime, a second handle is opened. Idle handles are
+ * discarded when the last-modified value of their PST file changes, and the
+ * least recently used idle handles are closed when the number of open handles
+ * exceeds the capacity of the pool.
+ *
+ * @author Tran Nam Quang
+ */
+final class PstFileCache {
+
+	/**
+	 * An open PST file, along with a small LRU cache of the emails that were
+	 * recently loaded from it. The email cache makes repeated lookups of the
+	 * same descriptor node ID (e.g. when the user clicks back and forth
+	 * between results) constant-time operations. Note that java-libpst does
+	 * not expose its descriptor B-tree lookup, so caching the loaded emails
+	 * is the closest we can get to a node offset cache.
+	 */
+	@NotThreadSafe
+	static final class PstHandle {
+		private static final int MESSAGE_CACHE_SIZE = 32;
+
+		private final String path;
+		private final long lastModified;
+		private final PSTFile pstFile;
+		private final Map<Long, PSTMessage> messages = new LinkedHashMap<Long, PSTMessage>(
+				MESSAGE_CACHE_SIZE + 1, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Long, PSTMessage> eldest) {
+				return size() > MESSAGE_CACHE_SIZE;
+			}
+		};
+
+		private PstHandle(@NotNull File file, long lastModified)
+				throws PSTException, IOException {
+			this.path = file.getPath();
+			this.lastModified = lastModified;
+			this.pstFile = new PSTFile(file);
+		}
+
+		@NotNull
+		public PSTMessage getMessage(long descriptorId)
+				throws PSTException, IOException {
+			PSTMessage message = messages.get(descriptorId);
+			if (message == null) {
+				PSTObject pstObject = PSTObject.detectAndLoadPSTObject(
+					pstFile, descriptorId);
+				if (!(pstObject instanceof PSTMessage))
+					throw new IOException("Not an email: " + descriptorId);
+				message = (PSTMessage) pstObject;
+				messages.put(descriptorId, message);
+			}
+			return message;
+		}
+
+		private void close() {
+			messages.clear();
+			Closeables.closeQuietly(pstFile.getFileHandle());
+		}
+	}
+
+	private final int capacity;
+
+	// Most recently used handles are at the end; guarded by this
+	private final LinkedList<PstHandle> idleHandles = new LinkedList<PstHandle>();
+	private int openCount = 0; // guarded by this
+
+	public PstFileCache(int capacity) {
+		Util.checkThat(capacity >= 1);
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns an open handle for the given PST file, which must be given back
+	 * to the receiver via {@link #release(PstHandle, boolean)} after use. The
+	 * given file should be a canonical file so that different paths to the same
+	 * PST file map to the same handles.
+	 */
+	@NotNull
+	public PstHandle acquire(@NotNull File file) throws PSTException,
+			IOException {
+		long lastModified = file.lastModified();
+		String path = file.getPath();
+		synchronized (this) {
+			Iterator<PstHandle> it = idleHandles.descendingIterator();
+			while (it.hasNext()) {
+				PstHandle handle = it.next();
+				if (!handle.path.equals(path))
+					continue;
+				it.remove();
+				if (handle.lastModified == lastModified)
+					return handle;
+				handle.close(); // PST file was modified
+				openCount--;
+			}
+		}
+
+		// Open new handle outside the lock, since this can take a while
+		PstHandle handle = new PstHandle(file, lastModified);
+		synchronized (this) {
+			openCount++;
+		}
+		return handle;
+	}
+
+	/**
+	 * Gives the given handle back to the receiver. If <code>discard</code> is
+	 * true, e.g. because an error occurred while reading from the handle, the
+	 * handle is closed instead of being put back into the pool.
+	 */
+	public void release(@NotNull PstHandle handle, boolean discard) {
+		Util.checkNotNull(handle);
+		boolean modified = new File(handle.path).lastModified() != handle.lastModified;
+		synchronized (this) {
+			if (discard || modified) {
+				handle.close();
+				openCount--;
+			}
+			else {
+				idleHandles.addLast(handle);
+			}
+			while (openCount > capacity && !idleHandles.isEmpty()) {
+				idleHandles.removeFirst().close();
+				openCount--;
+			}
+		}
+	}
+
+	@VisibleForTesting
+	synchronized int getOpenCount() {
+		return openCount;
+	}
+
+	@VisibleForTesting
+	synchronized int getIdleCount() {
+		return idleHandles.size();
+	}
+
+}
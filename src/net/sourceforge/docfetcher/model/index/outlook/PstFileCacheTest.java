@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index.outlook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+
+import net.sourceforge.docfetcher.TestFiles;
+import net.sourceforge.docfetcher.model.index.outlook.PstFileCache.PstHandle;
+
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class PstFileCacheTest {
+
+	@Test
+	public void testReuse() throws Exception {
+		File pstFile = TestFiles.outlook_test.get().getCanonicalFile();
+		PstFileCache cache = new PstFileCache(1);
+
+		PstHandle handle1 = cache.acquire(pstFile);
+		cache.release(handle1, false);
+		PstHandle handle2 = cache.acquire(pstFile);
+		assertSame(handle1, handle2);
+
+		// Concurrent leases get separate handles
+		PstHandle handle3 = cache.acquire(pstFile);
+		assertNotSame(handle2, handle3);
+		assertEquals(2, cache.getOpenCount());
+
+		// Capacity is enforced on release
+		cache.release(handle2, false);
+		cache.release(handle3, false);
+		assertEquals(1, cache.getOpenCount());
+		assertEquals(1, cache.getIdleCount());
+
+		// Discarded handles are closed
+		PstHandle handle4 = cache.acquire(pstFile);
+		cache.release(handle4, true);
+		assertEquals(0, cache.getOpenCount());
+	}
+
+}
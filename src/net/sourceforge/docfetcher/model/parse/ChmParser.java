@@ -12,8 +12,8 @@
 package net.sourceforge.docfetcher.model.parse;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -21,29 +21,50 @@ import java.util.List;
 
 import net.htmlparser.jericho.Source;
 import net.sourceforge.docfetcher.enums.Msg;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 
 import org.apache.tika.parser.chm.accessor.DirectoryListingEntry;
 import org.apache.tika.parser.chm.core.ChmExtractor;
 
+import com.google.common.io.Closeables;
+
 /**
  * @author Tran Nam Quang
  */
-public final class ChmParser extends StreamParser {
+public final class ChmParser extends FileParser {
 
 	private static final Collection<String> extensions = Collections.singleton("chm");
 	
 	@Override
-	protected ParseResult parse(InputStream in,
+	protected ParseResult parse(File file,
 								ParseContext context) throws ParseException {
-		ChmExtractor chmExtractor = null;
+		/*
+		 * The CHM file is read on demand rather than loaded into memory, so
+		 * that large CHM files don't cost their full size on the heap.
+		 */
+		ChmExtractor chmExtractor = openExtractor(file);
+		try {
+			return parse(chmExtractor, context);
+		}
+		finally {
+			Closeables.closeQuietly(chmExtractor);
+		}
+	}
+	
+	@NotNull
+	static ChmExtractor openExtractor(@NotNull File file) throws ParseException {
 		try {
-			chmExtractor = new ChmExtractor(in);
+			return new ChmExtractor(file);
 		}
 		catch (Exception e) {
 			throw new ParseException(e);
 		}
-
+	}
+	
+	@NotNull
+	private static ParseResult parse(	@NotNull ChmExtractor chmExtractor,
+										@NotNull ParseContext context) {
 		List<DirectoryListingEntry> htmlEntries = new ArrayList<DirectoryListingEntry>();
 		for (DirectoryListingEntry entry : chmExtractor.getChmDirList().getDirectoryListingEntryList()) {
 			String entryName = entry.getName().toLowerCase();
@@ -56,6 +77,8 @@ public final class ChmParser extends StreamParser {
 		int pageCount = htmlEntries.size();
 		int pageNo = 1;
 		for (DirectoryListingEntry entry : htmlEntries) {
+			if (context.getCancelable().isCanceled())
+				break;
 			context.getReporter().subInfo(pageNo, pageCount);
 			try {
 				byte[] data = chmExtractor.extractChmEntry(entry);
@@ -75,15 +98,19 @@ public final class ChmParser extends StreamParser {
 	}
 	
 	@Override
-	protected String renderText(InputStream in, String filename)
+	protected String renderText(File file, String filename)
 			throws ParseException {
-		ChmExtractor chmExtractor = null;
+		ChmExtractor chmExtractor = openExtractor(file);
 		try {
-			chmExtractor = new ChmExtractor(in);
+			return renderText(chmExtractor);
 		}
-		catch (Exception e) {
-			throw new ParseException(e);
+		finally {
+			Closeables.closeQuietly(chmExtractor);
 		}
+	}
+	
+	@NotNull
+	private static String renderText(@NotNull ChmExtractor chmExtractor) {
 		StringBuilder contents = new StringBuilder();
 		for (DirectoryListingEntry entry : chmExtractor.getChmDirList().getDirectoryListingEntryList()) {
 			String entryName = entry.getName().toLowerCase();
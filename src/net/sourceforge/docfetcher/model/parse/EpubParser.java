@@ -13,19 +13,24 @@ package net.sourceforge.docfetcher.model.parse;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import net.htmlparser.jericho.Element;
 import net.htmlparser.jericho.HTMLElementName;
 import net.htmlparser.jericho.Segment;
 import net.htmlparser.jericho.Source;
 import net.sourceforge.docfetcher.enums.Msg;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 
 /**
@@ -52,46 +57,22 @@ public final class EpubParser extends FileParser {
 	
 	protected ParseResult parse(File file, ParseContext context, boolean render)
 			throws ParseException {
-		ZipFile zipFile = null;
+		ZipPackage pkg = null;
 		try {
 			// Get zip entries
-			zipFile = new ZipFile(file);
-			Source containerSource = UtilParser.getSource(zipFile, "META-INF/container.xml"); //$NON-NLS-1$
-			Element rootfileEl = containerSource.getNextElement(0, "rootfile"); //$NON-NLS-1$
-			maybeThrow(rootfileEl, "No rootfile element in META-INF/container.xml");
-			String opfPath = rootfileEl.getAttributeValue("full-path");
-			Source opfSource = UtilParser.getSource(zipFile, opfPath);
-			
-			// Get top-level elements in OPF file
-			Element packageEl = getFirstOpfElement(opfSource, "package");
-			maybeThrow(packageEl, "No package element in OPF file");
-			Element metadataEl = getFirstOpfElement(packageEl, "metadata");
-			Element manifestEl = getFirstOpfElement(packageEl, "manifest");
-			Element spineEl = getFirstOpfElement(packageEl, "spine");
-			maybeThrow(metadataEl, "No metadata element in OPF file");
-			maybeThrow(manifestEl, "No manifest element in OPF file");
-			maybeThrow(spineEl, "No spine element in OPF file");
-			
-			// Parse metadata
-			String title = UtilParser.extract(metadataEl.getFirstElement("dc:title"));
-			Element creatorEl = metadataEl.getFirstElement("dc:creator");
-			String creator = null;
-			if (creatorEl != null) {
-				creator = UtilParser.extract(creatorEl);
-			}
-			
-			// Parse manifest
-			Map<String, String> itemIdToRef = new HashMap<String, String>();
-			for (Element itemEl : manifestEl.getChildElements()) {
-				String id = itemEl.getAttributeValue("id");
-				String href = itemEl.getAttributeValue("href");
-				itemIdToRef.put(id, href);
-			}
+			pkg = new ZipPackage(file);
+			String opfPath = readRootfilePath(pkg);
+			maybeThrow(opfPath, "No rootfile element in META-INF/container.xml");
+			Opf opf = readOpf(pkg, opfPath);
+			maybeThrow(opf.packageFound, "No package element in OPF file");
+			maybeThrow(opf.metadataFound, "No metadata element in OPF file");
+			maybeThrow(opf.manifestFound, "No manifest element in OPF file");
+			maybeThrow(opf.spineFound, "No spine element in OPF file");
 			
 			// Get spine paths
 			List<String> spinePaths = new LinkedList<String>();
-			for (Element itemRefEl : spineEl.getChildElements()) {
-				String subPath = itemIdToRef.get(itemRefEl.getAttributeValue("idref"));
+			for (String idref : opf.spineIdrefs) {
+				String subPath = opf.itemIdToRef.get(idref);
 				if (subPath == null) {
 					// Broken spine reference; ignore
 					continue;
@@ -112,10 +93,8 @@ public final class EpubParser extends FileParser {
 			boolean first = true;
 			
 			// Parse description
-			Element descriptionEl = metadataEl.getFirstElement("dc:description");
-			if (descriptionEl != null) {
-				String description = descriptionEl.getContent().getTextExtractor().toString();
-				Source source = new Source(description);
+			if (opf.description != null) {
+				Source source = new Source(opf.description);
 				source.setLogger(null);
 				contents.append(UtilParser.render(source));
 				first = false;
@@ -125,9 +104,11 @@ public final class EpubParser extends FileParser {
 			final int spineCount = spinePaths.size();
 			int i = 1;
 			for (String spinePath : spinePaths) {
+				if (context.getCancelable().isCanceled())
+					break;
 				final Source spineSource;
 				try {
-					spineSource = UtilParser.getSource(zipFile, spinePath);
+					spineSource = pkg.openSource(spinePath);
 				} catch (ParseException e) {
 					// Ignore missing spine files
 					continue;
@@ -152,17 +133,172 @@ public final class EpubParser extends FileParser {
 			
 			// Create and return parse result
 			return new ParseResult(contents)
-				.setTitle(title)
-				.addAuthor(creator);
+				.setTitle(opf.title)
+				.addAuthor(opf.creator);
 		}
 		catch (IOException e) {
 			throw new ParseException(e);
 		}
 		finally {
-			UtilParser.closeZipFile(zipFile);
+			if (pkg != null)
+				pkg.close();
+		}
+	}
+	
+	@Nullable
+	private static String readRootfilePath(@NotNull ZipPackage pkg)
+			throws IOException, ParseException {
+		String path = "META-INF/container.xml"; //$NON-NLS-1$
+		XMLStreamReader reader = pkg.openXml(path);
+		try {
+			while (reader.hasNext())
+				if (reader.next() == XMLStreamConstants.START_ELEMENT
+						&& reader.getLocalName().equals("rootfile")) //$NON-NLS-1$
+					return reader.getAttributeValue(null, "full-path"); //$NON-NLS-1$
+			return null;
+		}
+		catch (XMLStreamException e) {
+			// Malformed XML; retry with the lenient parser
+			Element rootfileEl = pkg.openSource(path).getNextElement(0, "rootfile"); //$NON-NLS-1$
+			return rootfileEl == null ? null : rootfileEl.getAttributeValue("full-path"); //$NON-NLS-1$
+		}
+		finally {
+			ZipPackage.closeQuietly(reader);
 		}
 	}
 	
+	/**
+	 * The parts of an OPF file needed for text extraction. Elements are
+	 * matched by their local names, since they may or may not carry an
+	 * "opf:" prefix.
+	 */
+	private static final class Opf {
+		boolean packageFound;
+		boolean metadataFound;
+		boolean manifestFound;
+		boolean spineFound;
+		@Nullable String title;
+		@Nullable String creator;
+		@Nullable String description;
+		final Map<String, String> itemIdToRef = new HashMap<String, String>();
+		final List<String> spineIdrefs = new ArrayList<String>();
+	}
+	
+	/**
+	 * Reads the given OPF file with the pull parser, or with the lenient
+	 * Jericho parser if the file is not well-formed XML, e.g. because it
+	 * contains HTML entities such as <tt>&amp;nbsp;</tt>.
+	 */
+	@NotNull
+	private static Opf readOpf(@NotNull ZipPackage pkg, @NotNull String opfPath)
+			throws IOException, ParseException {
+		XMLStreamReader reader = pkg.openXml(opfPath);
+		try {
+			return readOpf(reader);
+		}
+		catch (XMLStreamException e) {
+			return readOpf(pkg.openSource(opfPath));
+		}
+		finally {
+			ZipPackage.closeQuietly(reader);
+		}
+	}
+	
+	@NotNull
+	private static Opf readOpf(@NotNull XMLStreamReader reader)
+			throws XMLStreamException {
+		Opf opf = new Opf();
+		String section = null;
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				if (reader.getLocalName().equals(section))
+					section = null;
+				continue;
+			}
+			if (event != XMLStreamConstants.START_ELEMENT)
+				continue;
+			String name = reader.getLocalName();
+			if (!opf.packageFound) {
+				opf.packageFound = name.equals("package"); //$NON-NLS-1$
+			}
+			else if (section == null) {
+				if (name.equals("metadata")) //$NON-NLS-1$
+					opf.metadataFound = true;
+				else if (name.equals("manifest")) //$NON-NLS-1$
+					opf.manifestFound = true;
+				else if (name.equals("spine")) //$NON-NLS-1$
+					opf.spineFound = true;
+				else
+					continue;
+				section = name;
+			}
+			else if (section.equals("metadata")) { //$NON-NLS-1$
+				if (name.equals("title") && opf.title == null) //$NON-NLS-1$
+					opf.title = ZipPackage.readText(reader);
+				else if (name.equals("creator") && opf.creator == null) //$NON-NLS-1$
+					opf.creator = ZipPackage.readText(reader);
+				else if (name.equals("description") && opf.description == null) //$NON-NLS-1$
+					opf.description = ZipPackage.readText(reader);
+			}
+			else if (section.equals("manifest") && name.equals("item")) { //$NON-NLS-1$ //$NON-NLS-2$
+				opf.itemIdToRef.put(
+					reader.getAttributeValue(null, "id"), //$NON-NLS-1$
+					reader.getAttributeValue(null, "href")); //$NON-NLS-1$
+			}
+			else if (section.equals("spine") && name.equals("itemref")) { //$NON-NLS-1$ //$NON-NLS-2$
+				opf.spineIdrefs.add(reader.getAttributeValue(null, "idref")); //$NON-NLS-1$
+			}
+		}
+		return opf;
+	}
+	
+	@NotNull
+	private static Opf readOpf(@NotNull Source source) {
+		Opf opf = new Opf();
+		Element packageEl = getFirstOpfElement(source, "package"); //$NON-NLS-1$
+		if (packageEl == null)
+			return opf;
+		opf.packageFound = true;
+		
+		// Parse metadata
+		Element metadataEl = getFirstOpfElement(packageEl, "metadata"); //$NON-NLS-1$
+		if (metadataEl != null) {
+			opf.metadataFound = true;
+			opf.title = UtilParser.extract(metadataEl.getFirstElement("dc:title")); //$NON-NLS-1$
+			opf.creator = UtilParser.extract(metadataEl.getFirstElement("dc:creator")); //$NON-NLS-1$
+			opf.description = UtilParser.extract(metadataEl.getFirstElement("dc:description")); //$NON-NLS-1$
+		}
+		
+		// Parse manifest
+		Element manifestEl = getFirstOpfElement(packageEl, "manifest"); //$NON-NLS-1$
+		if (manifestEl != null) {
+			opf.manifestFound = true;
+			for (Element itemEl : manifestEl.getChildElements()) {
+				opf.itemIdToRef.put(
+					itemEl.getAttributeValue("id"), //$NON-NLS-1$
+					itemEl.getAttributeValue("href")); //$NON-NLS-1$
+			}
+		}
+		
+		// Parse spine
+		Element spineEl = getFirstOpfElement(packageEl, "spine"); //$NON-NLS-1$
+		if (spineEl != null) {
+			opf.spineFound = true;
+			for (Element itemRefEl : spineEl.getChildElements())
+				opf.spineIdrefs.add(itemRefEl.getAttributeValue("idref")); //$NON-NLS-1$
+		}
+		return opf;
+	}
+	
+	@Nullable
+	private static Element getFirstOpfElement(@NotNull Segment segment,
+												@NotNull String tagName) {
+		Element el = segment.getFirstElement(tagName);
+		if (el != null) return el;
+		return segment.getFirstElement("opf:" + tagName); //$NON-NLS-1$
+	}
+	
 	private static <T> T maybeThrow(@Nullable T object, String message) throws ParseException {
 		if (object == null) {
 			throw new ParseException(message);
@@ -170,11 +306,10 @@ public final class EpubParser extends FileParser {
 		return object;
 	}
 	
-	@Nullable
-	private static Element getFirstOpfElement(Segment segment, String tagName) {
-		Element el = segment.getFirstElement(tagName);
-		if (el != null) return el;
-		return segment.getFirstElement("opf:" + tagName);
+	private static void maybeThrow(boolean found, String message) throws ParseException {
+		if (!found) {
+			throw new ParseException(message);
+		}
 	}
 	
 	protected Collection<String> getExtensions() {
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import net.sourceforge.docfetcher.util.Util;
+
+import org.junit.Test;
+
+import com.google.common.io.Closeables;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class EpubParserTest {
+	
+	private static final String container = "<?xml version='1.0'?>"
+			+ "<container xmlns='urn:oasis:names:tc:opendocument:xmlns:container'>"
+			+ "<rootfiles><rootfile full-path='OEBPS/content.opf'"
+			+ " media-type='application/oebps-package+xml'/></rootfiles>"
+			+ "</container>";
+	
+	private static final String chapter = "<html><body><p>Chapter text</p></body></html>";
+	
+	@Test
+	public void testWellFormedOpf() throws Exception {
+		ParseResult result = parse(createOpf("Tale &amp; Title", "A description"));
+		assertEquals("Tale & Title", result.getTitle());
+		assertEquals(Arrays.asList("Author"), result.getAuthors());
+		String text = result.getContent().toString();
+		assertTrue(text.contains("A description"));
+		assertTrue(text.contains("Chapter text"));
+	}
+	
+	@Test
+	public void testHtmlEntityInOpf() throws Exception {
+		/*
+		 * HTML entities are not declared in XML, so the pull parser rejects
+		 * the OPF file. The parser must fall back to the lenient parser
+		 * instead of failing on the whole file.
+		 */
+		ParseResult result = parse(createOpf("Title", "A&nbsp;description"));
+		assertEquals("Title", result.getTitle());
+		assertEquals(Arrays.asList("Author"), result.getAuthors());
+		String text = result.getContent().toString();
+		assertTrue(text.contains("description"));
+		assertTrue(text.contains("Chapter text"));
+	}
+	
+	private static String createOpf(String title, String description) {
+		return "<?xml version='1.0'?>"
+				+ "<package xmlns='http://www.idpf.org/2007/opf' version='2.0'>"
+				+ "<metadata xmlns:dc='http://purl.org/dc/elements/1.1/'>"
+				+ "<dc:title>" + title + "</dc:title>"
+				+ "<dc:creator>Author</dc:creator>"
+				+ "<dc:description>" + description + "</dc:description>"
+				+ "</metadata>"
+				+ "<manifest><item id='ch1' href='ch1.html' media-type='application/xhtml+xml'/></manifest>"
+				+ "<spine><itemref idref='ch1'/></spine>"
+				+ "</package>";
+	}
+	
+	private static ParseResult parse(String opf) throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			File file = new File(tempDir, "test.epub");
+			ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+			try {
+				putEntry(out, "META-INF/container.xml", container);
+				putEntry(out, "OEBPS/content.opf", opf);
+				putEntry(out, "OEBPS/ch1.html", chapter);
+			}
+			finally {
+				Closeables.closeQuietly(out);
+			}
+			return new EpubParser().parse(file, new ParseContext(file.getName()));
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
+	static void putEntry(ZipOutputStream out, String path, String contents)
+			throws Exception {
+		out.putNextEntry(new ZipEntry(path));
+		out.write(contents.getBytes("UTF-8"));
+		out.closeEntry();
+	}
+
+}
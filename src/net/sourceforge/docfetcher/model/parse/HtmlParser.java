@@ -16,14 +16,9 @@ import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Collection;
 
-import net.htmlparser.jericho.CharacterReference;
-import net.htmlparser.jericho.Element;
-import net.htmlparser.jericho.HTMLElementName;
 import net.htmlparser.jericho.Source;
-import net.htmlparser.jericho.StartTag;
 import net.sourceforge.docfetcher.enums.Msg;
-import net.sourceforge.docfetcher.util.annotations.NotNull;
-import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.CharsetDetectorHelper;
 
 /**
  * @author Tran Nam Quang
@@ -40,55 +35,26 @@ public final class HtmlParser extends StreamParser {
 	HtmlParser() {
 	}
 	
+	/**
+	 * Extracts the text and metadata for indexing with a lightweight
+	 * tokenizer. Jericho is only used for rendering the text for the preview,
+	 * see {@link #renderText(InputStream, String)}.
+	 */
 	@Override
 	public ParseResult parse(	InputStream in,
 	                         	ParseContext context) throws ParseException {
-		Source source;
+		HtmlTextExtractor extractor;
 		try {
-			source = UtilParser.getSource(in);
+			extractor = HtmlTextExtractor.extract(CharsetDetectorHelper.toString(in));
 		}
 		catch (IOException e) {
 			throw new ParseException(e);
 		}
-		
-		source.setLogger(null);
-		source.fullSequentialParse();
-		
-		// Get tags
-		Element titleElement = source.getNextElement(0, HTMLElementName.TITLE);
-		String title = titleElement == null ?
-				"" : CharacterReference.decodeCollapseWhiteSpace(titleElement.getContent());
-		String author = getMetaValue(source, "author");
-		String description = getMetaValue(source, "description");
-		String keywords = getMetaValue(source, "keywords");
-		
-		// Get contents
-		Element bodyElement = source.getNextElement(0, HTMLElementName.BODY);
-		String contents = bodyElement == null ?
-				"" : bodyElement.getContent().getTextExtractor().toString(); //$NON-NLS-1$
-		
-		return new ParseResult(contents)
-			.setTitle(title)
-			.addAuthor(author)
-			.addMiscMetadata(description)
-			.addMiscMetadata(keywords);
-	}
-	
-	/**
-	 * Returns the value of the meta tag with the given name in the specified
-	 * HTML source. Returns null if the meta tag does not exist.
-	 */
-	@Nullable
-	private String getMetaValue(@NotNull Source source, @NotNull String key) {
-		int pos = 0;
-		while (pos < source.length()) {
-			StartTag startTag = source.getNextStartTag(pos, "name", key, false); //$NON-NLS-1$
-			if (startTag == null) return null;
-			if (startTag.getName() == HTMLElementName.META)
-				return startTag.getAttributeValue("content"); //$NON-NLS-1$
-			pos = startTag.getEnd();
-		}
-		return null;
+		return new ParseResult(extractor.getText())
+			.setTitle(extractor.getTitle())
+			.addAuthor(extractor.getAuthor())
+			.addMiscMetadata(extractor.getDescription())
+			.addMiscMetadata(extractor.getKeywords());
 	}
 	
 	@Override
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.Arrays;
+
+import net.htmlparser.jericho.Element;
+import net.htmlparser.jericho.HTMLElementName;
+import net.htmlparser.jericho.Source;
+import net.sourceforge.docfetcher.TestFiles;
+import net.sourceforge.docfetcher.util.CharsetDetectorHelper;
+
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class HtmlParserTest {
+
+	@Test
+	public void testSameTextAsJericho() throws Exception {
+		for (TestFiles testFile : new TestFiles[] {
+				TestFiles.html, TestFiles.lorem_ipsum_html }) {
+			File file = testFile.get();
+			String html = CharsetDetectorHelper.toString(file);
+			Source source = new Source(html);
+			source.setLogger(null);
+			source.fullSequentialParse();
+			Element body = source.getNextElement(0, HTMLElementName.BODY);
+			String expected = body.getContent().getTextExtractor().toString();
+			String actual = HtmlTextExtractor.extract(html).getText();
+			assertEquals(
+				Arrays.asList(expected.split(" ")),
+				Arrays.asList(actual.split(" ")));
+		}
+	}
+
+	@Test
+	public void testMarkup() throws Exception {
+		String html = "<html><head><TITLE> Fish &amp;\n Chips </TITLE>"
+				+ "<meta name=\"Author\" content=\"Tran &quot;Q&quot;\">"
+				+ "<meta content='foo, bar' name=keywords />"
+				+ "<style>p { color: red; }</style></head>"
+				+ "<body onload=\"if (a > b) x();\">"
+				+ "<!-- comment --><script>document.write('<p>x</p>');</script>"
+				+ "One&nbsp;t<b>w</b>o<p>three</p>&#x20AC;&#8364;&euro &lt;tag&gt;"
+				+ " a < b <br>four<![CDATA[ five ]]>six</body>seven</html>";
+		HtmlTextExtractor extractor = HtmlTextExtractor.extract(html);
+		assertEquals(
+			"One two three \u20ac\u20ac\u20ac <tag> a < b four six",
+			extractor.getText());
+		assertEquals("Fish & Chips", extractor.getTitle());
+		assertEquals("Tran \"Q\"", extractor.getAuthor());
+		assertEquals("foo, bar", extractor.getKeywords());
+		assertNull(extractor.getDescription());
+	}
+
+	@Test
+	public void testNoBody() throws Exception {
+		String html = "<title>Title</title><h1>Head&shy;line</h1>Text";
+		HtmlTextExtractor extractor = HtmlTextExtractor.extract(html);
+		assertEquals("Head\u00adline Text", extractor.getText());
+		assertEquals("Title", extractor.getTitle());
+	}
+
+}
@@ -0,0 +1,494 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import net.htmlparser.jericho.CharacterEntityReference;
+import net.htmlparser.jericho.CharacterReference;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+/**
+ * Extracts the text, the title and a few meta tags of an HTML document in a
+ * single pass over its characters.
+ * <p>
+ * In contrast to Jericho's <tt>Source</tt>, no segment tree is built and no
+ * tags are kept in memory: The tokenizer only looks at one tag at a time and
+ * appends the decoded text between the tags to the output. The content of
+ * script and style elements is skipped, and start and end tags of elements
+ * that are not inline-level elements are treated as whitespace, so that the
+ * output is the same as that of Jericho's <tt>TextExtractor</tt>.
+ * <p>
+ * If the document has a body element, only the text inside of it is
+ * extracted. Otherwise the text of the whole document is extracted, except for
+ * the text inside of the head element.
+ *
+ * @author Tran Nam Quang
+ */
+final class HtmlTextExtractor {
+
+	/**
+	 * The inline-level elements as defined by HTML 4.01, plus some HTML5
+	 * elements. Start and end tags of all other elements separate words.
+	 */
+	private static final Set<String> inlineElements = new HashSet<String>(Arrays.asList(
+		"a", "abbr", "acronym", "applet", "b", "basefont", "bdi", "bdo", "big", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$
+		"button", "cite", "code", "data", "del", "dfn", "em", "font", "i", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$
+		"iframe", "img", "input", "ins", "kbd", "label", "map", "mark", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$
+		"nobr", "object", "q", "s", "samp", "select", "small", "span", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$
+		"strike", "strong", "sub", "sup", "textarea", "time", "tt", "u", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$
+		"var", "wbr" //$NON-NLS-1$ //$NON-NLS-2$
+	));
+
+	private static final int MAX_ENTITY_NAME_LENGTH = 32;
+
+	private final String html;
+	private final int length;
+	private int pos = 0;
+
+	private final StringBuilder text;
+	private boolean pendingSpace = false;
+	private boolean inHead = false;
+	private boolean bodyFound = false;
+	private boolean bodyEnded = false;
+
+	@Nullable private String title;
+	@Nullable private String author;
+	@Nullable private String description;
+	@Nullable private String keywords;
+
+	/*
+	 * Attributes of the last start tag. Only collected for meta tags.
+	 */
+	@Nullable private String metaName;
+	@Nullable private String metaContent;
+
+	private HtmlTextExtractor(@NotNull String html) {
+		this.html = html;
+		this.length = html.length();
+		this.text = new StringBuilder(Math.min(length, 1024 * 1024));
+	}
+
+	@NotNull
+	public static HtmlTextExtractor extract(@NotNull String html) {
+		Util.checkNotNull(html);
+		HtmlTextExtractor extractor = new HtmlTextExtractor(html);
+		extractor.run();
+		return extractor;
+	}
+
+	/**
+	 * Returns the extracted text, with whitespace collapsed and trimmed.
+	 */
+	@NotNull
+	public String getText() {
+		return text.toString();
+	}
+
+	/**
+	 * Returns the content of the first title element, or an empty string if
+	 * there is no title element.
+	 */
+	@NotNull
+	public String getTitle() {
+		return title == null ? "" : title; //$NON-NLS-1$
+	}
+
+	@Nullable
+	public String getAuthor() {
+		return author;
+	}
+
+	@Nullable
+	public String getDescription() {
+		return description;
+	}
+
+	@Nullable
+	public String getKeywords() {
+		return keywords;
+	}
+
+	private void run() {
+		while (pos < length) {
+			int tagStart = html.indexOf('<', pos);
+			if (tagStart < 0) {
+				appendText(pos, length);
+				break;
+			}
+			appendText(pos, tagStart);
+			pos = tagStart;
+			if (!readMarkup())
+				appendText(pos, ++pos); // A '<' that doesn't start a tag
+		}
+	}
+
+	/**
+	 * Reads the markup starting at the current position, which must be a
+	 * '&lt;' character, and moves the current position behind it. Returns
+	 * false and leaves the current position unchanged if the '&lt;' character
+	 * does not start any markup.
+	 */
+	private boolean readMarkup() {
+		int next = pos + 1;
+		if (next >= length)
+			return false;
+		char c = html.charAt(next);
+		if (c == '!') {
+			if (html.startsWith("!--", next)) //$NON-NLS-1$
+				pos = skipPast(next + 3, "-->"); //$NON-NLS-1$
+			else if (html.startsWith("![CDATA[", next)) //$NON-NLS-1$
+				pos = skipPast(next + 8, "]]>"); //$NON-NLS-1$
+			else
+				pos = skipPast(next, ">"); //$NON-NLS-1$
+			separate();
+			return true;
+		}
+		if (c == '?') {
+			pos = skipPast(next, ">"); //$NON-NLS-1$
+			return true;
+		}
+		if (c == '%') {
+			// Server-side code, e.g. ASP or JSP
+			pos = skipPast(next, "%>"); //$NON-NLS-1$
+			return true;
+		}
+		if (c == '/') {
+			if (next + 1 >= length || !isLetter(html.charAt(next + 1)))
+				return false;
+			int nameEnd = readName(next + 1);
+			int tagEnd = html.indexOf('>', nameEnd);
+			if (tagEnd < 0)
+				return false;
+			String name = html.substring(next + 1, nameEnd).toLowerCase(Locale.ENGLISH);
+			pos = tagEnd + 1;
+			handleEndTag(name);
+			return true;
+		}
+		if (!isLetter(c))
+			return false;
+		int nameEnd = readName(next);
+		String name = html.substring(next, nameEnd).toLowerCase(Locale.ENGLISH);
+		boolean isMeta = name.equals("meta"); //$NON-NLS-1$
+		int tagEnd = readAttributes(nameEnd, isMeta);
+		if (tagEnd < 0)
+			return false;
+		boolean selfClosing = html.charAt(tagEnd - 1) == '/';
+		pos = tagEnd + 1;
+		handleStartTag(name, selfClosing);
+		return true;
+	}
+
+	private void handleStartTag(@NotNull String name, boolean selfClosing) {
+		if (name.equals("script") || name.equals("style")) { //$NON-NLS-1$ //$NON-NLS-2$
+			if (!selfClosing)
+				skipRawText(name);
+			separate();
+		}
+		else if (name.equals("title")) { //$NON-NLS-1$
+			if (!selfClosing) {
+				int contentStart = pos;
+				int contentEnd = skipRawText(name);
+				if (title == null)
+					title = CharacterReference.decodeCollapseWhiteSpace(
+						html.subSequence(contentStart, contentEnd));
+			}
+			separate();
+		}
+		else if (name.equals("meta")) { //$NON-NLS-1$
+			if (metaName != null && metaContent != null) {
+				if (author == null && metaName.equalsIgnoreCase("author")) //$NON-NLS-1$
+					author = metaContent;
+				else if (description == null && metaName.equalsIgnoreCase("description")) //$NON-NLS-1$
+					description = metaContent;
+				else if (keywords == null && metaName.equalsIgnoreCase("keywords")) //$NON-NLS-1$
+					keywords = metaContent;
+			}
+			separate();
+		}
+		else if (name.equals("head")) { //$NON-NLS-1$
+			inHead = !selfClosing;
+			separate();
+		}
+		else if (name.equals("body")) { //$NON-NLS-1$
+			inHead = false;
+			if (!bodyFound) {
+				// Discard the text that was collected before the body
+				bodyFound = true;
+				text.setLength(0);
+				pendingSpace = false;
+			}
+		}
+		else if (!inlineElements.contains(name)) {
+			separate();
+		}
+	}
+
+	private void handleEndTag(@NotNull String name) {
+		if (name.equals("head")) { //$NON-NLS-1$
+			inHead = false;
+			separate();
+		}
+		else if (name.equals("body")) { //$NON-NLS-1$
+			if (bodyFound)
+				bodyEnded = true;
+		}
+		else if (!inlineElements.contains(name)) {
+			separate();
+		}
+	}
+
+	/**
+	 * Moves the current position behind the end tag of the element with the
+	 * given name, or to the end of the document if there is no such end tag.
+	 * Returns the position at which the end tag starts. This is used for
+	 * elements whose content is not parsed as HTML, such as scripts.
+	 */
+	private int skipRawText(@NotNull String name) {
+		int i = pos;
+		while (true) {
+			i = html.indexOf("</", i); //$NON-NLS-1$
+			if (i < 0) {
+				pos = length;
+				return length;
+			}
+			int nameEnd = i + 2 + name.length();
+			if (html.regionMatches(true, i + 2, name, 0, name.length())
+					&& (nameEnd >= length || !isNameChar(html.charAt(nameEnd)))) {
+				int tagEnd = html.indexOf('>', nameEnd);
+				pos = tagEnd < 0 ? length : tagEnd + 1;
+				return i;
+			}
+			i += 2;
+		}
+	}
+
+	/**
+	 * Reads the attributes of a start tag, starting at the given position,
+	 * which must be right behind the tag name. Returns the position of the
+	 * closing '&gt;' character, or -1 if the tag is not closed. If
+	 * <tt>collect</tt> is true, the values of the 'name' and 'content'
+	 * attributes are stored.
+	 */
+	private int readAttributes(int i, boolean collect) {
+		metaName = null;
+		metaContent = null;
+		while (i < length) {
+			char c = html.charAt(i);
+			if (c == '>')
+				return i;
+			if (isWhitespace(c) || c == '/') {
+				i++;
+				continue;
+			}
+			int nameStart = i;
+			while (i < length) {
+				c = html.charAt(i);
+				if (c == '=' || c == '>' || c == '/' || isWhitespace(c))
+					break;
+				i++;
+			}
+			int nameEnd = i;
+			while (i < length && isWhitespace(html.charAt(i)))
+				i++;
+			if (i >= length || html.charAt(i) != '=')
+				continue; // Attribute without value
+			i++;
+			while (i < length && isWhitespace(html.charAt(i)))
+				i++;
+			if (i >= length)
+				return -1;
+			int valueStart;
+			int valueEnd;
+			c = html.charAt(i);
+			if (c == '"' || c == '\'') {
+				valueStart = i + 1;
+				valueEnd = html.indexOf(c, valueStart);
+				if (valueEnd < 0)
+					return -1;
+				i = valueEnd + 1;
+			}
+			else {
+				valueStart = i;
+				while (i < length) {
+					c = html.charAt(i);
+					if (c == '>' || isWhitespace(c))
+						break;
+					i++;
+				}
+				valueEnd = i;
+			}
+			if (collect) {
+				String attName = html.substring(nameStart, nameEnd);
+				if (attName.equalsIgnoreCase("name")) //$NON-NLS-1$
+					metaName = decode(valueStart, valueEnd);
+				else if (attName.equalsIgnoreCase("content")) //$NON-NLS-1$
+					metaContent = decode(valueStart, valueEnd);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the position behind the first occurrence of the given string
+	 * at or after the given position, or the end of the document if there is
+	 * no such occurrence.
+	 */
+	private int skipPast(int from, @NotNull String terminator) {
+		int i = html.indexOf(terminator, from);
+		return i < 0 ? length : i + terminator.length();
+	}
+
+	private int readName(int i) {
+		while (i < length && isNameChar(html.charAt(i)))
+			i++;
+		return i;
+	}
+
+	/**
+	 * Marks a word boundary in the output.
+	 */
+	private void separate() {
+		pendingSpace = true;
+	}
+
+	/**
+	 * Appends the text between the given positions to the output, decoding
+	 * character references and collapsing whitespace.
+	 */
+	private void appendText(int start, int end) {
+		if (inHead || bodyEnded)
+			return;
+		for (int i = start; i < end; i++) {
+			char c = html.charAt(i);
+			if (c == '&') {
+				int[] ref = readCharacterReference(i, end, false);
+				if (ref != null) {
+					appendCodePoint(ref[0]);
+					i = ref[1] - 1;
+					continue;
+				}
+			}
+			appendCodePoint(c);
+		}
+	}
+
+	private void appendCodePoint(int codePoint) {
+		if (isWhitespace(codePoint) || codePoint == '\u00A0') { // Non-breaking space
+			pendingSpace = true;
+			return;
+		}
+		if (pendingSpace && text.length() > 0)
+			text.append(' ');
+		pendingSpace = false;
+		text.appendCodePoint(codePoint);
+	}
+
+	/**
+	 * Returns the decoded attribute value between the given positions.
+	 */
+	@NotNull
+	private String decode(int start, int end) {
+		int amp = html.indexOf('&', start);
+		if (amp < 0 || amp >= end)
+			return html.substring(start, end);
+		StringBuilder sb = new StringBuilder(end - start);
+		for (int i = start; i < end; i++) {
+			char c = html.charAt(i);
+			if (c == '&') {
+				int[] ref = readCharacterReference(i, end, true);
+				if (ref != null) {
+					sb.appendCodePoint(ref[0]);
+					i = ref[1] - 1;
+					continue;
+				}
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Reads the character reference starting at the given '&amp;' character.
+	 * Returns the code point of the reference and the position behind it, or
+	 * null if the given position does not start a valid character reference.
+	 * Named references in attribute values must be terminated with a
+	 * semicolon.
+	 */
+	@Nullable
+	private int[] readCharacterReference(int amp, int end, boolean inAttribute) {
+		int i = amp + 1;
+		if (i >= end)
+			return null;
+		int codePoint;
+		if (html.charAt(i) == '#') {
+			i++;
+			int radix = 10;
+			if (i < end && (html.charAt(i) == 'x' || html.charAt(i) == 'X')) {
+				radix = 16;
+				i++;
+			}
+			int digitsStart = i;
+			codePoint = 0;
+			while (i < end && Character.digit(html.charAt(i), radix) >= 0) {
+				codePoint = codePoint * radix + Character.digit(html.charAt(i), radix);
+				if (codePoint > Character.MAX_CODE_POINT)
+					return null;
+				i++;
+			}
+			if (i == digitsStart || codePoint == 0)
+				return null;
+		}
+		else {
+			int nameStart = i;
+			while (i < end && i - nameStart < MAX_ENTITY_NAME_LENGTH
+					&& isAsciiLetterOrDigit(html.charAt(i)))
+				i++;
+			if (i == nameStart)
+				return null;
+			boolean terminated = i < end && html.charAt(i) == ';';
+			if (inAttribute && !terminated)
+				return null;
+			codePoint = CharacterEntityReference.getCodePointFromName(
+				html.substring(nameStart, i));
+			if (codePoint == CharacterReference.INVALID_CODE_POINT)
+				return null;
+		}
+		if (i < end && html.charAt(i) == ';')
+			i++;
+		return new int[] { codePoint, i };
+	}
+
+	private static boolean isWhitespace(int c) {
+		return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f'
+				|| c == '\u200B'; // Zero-width space
+	}
+
+	private static boolean isLetter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static boolean isAsciiLetterOrDigit(char c) {
+		return isLetter(c) || (c >= '0' && c <= '9');
+	}
+
+	private static boolean isNameChar(char c) {
+		return isAsciiLetterOrDigit(c) || c == '-' || c == '_' || c == ':'
+				|| c == '.';
+	}
+
+}
@@ -12,9 +12,10 @@
 package net.sourceforge.docfetcher.model.parse;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
 
 import jxl.Cell;
 import jxl.Sheet;
@@ -22,13 +23,11 @@ import jxl.Workbook;
 import jxl.WorkbookSettings;
 import net.sourceforge.docfetcher.enums.Msg;
 import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 
+import org.apache.poi.EncryptedDocumentException;
 import org.apache.poi.hssf.OldExcelFormatException;
-import org.apache.poi.hssf.extractor.ExcelExtractor;
-import org.apache.poi.poifs.filesystem.POIFSFileSystem;
-
-import com.google.common.io.Closeables;
 
 /**
  * @author Tran Nam Quang
@@ -44,31 +43,63 @@ final class MSExcelParser extends MSOfficeParser {
 		throw new UnsupportedOperationException();
 	}
 
+	@Override
+	protected ParseResult extractContent(	final File file,
+											final ParseContext context)
+			throws ParseException {
+		/*
+		 * For large files, extract the text on a separate thread while the
+		 * caller is reading it.
+		 */
+		if (context.isStreamingAllowed()
+				&& StreamingContent.isEnabled(context.getFileSize())) {
+			StreamingContent content = new StreamingContent(
+				MSExcelParser.class.getName() + " (streaming extraction)",
+				new StreamingContent.Producer() {
+					public void produce(Writer writer) throws Exception {
+						extract(file, writer, context.getCancelable());
+					}
+				});
+			return new ParseResult(content);
+		}
+		StringWriter writer = new StringWriter();
+		extract(file, writer, context.getCancelable());
+		return new ParseResult(writer.getBuffer());
+	}
+
 	protected String renderText(File file, String filename)
 			throws ParseException {
-		InputStream in = null;
+		StringWriter writer = new StringWriter();
+		extract(file, writer, Cancelable.nullCancelable);
+		return writer.toString();
+	}
+
+	private void extract(	@NotNull File file,
+							@NotNull Writer writer,
+							@NotNull Cancelable cancelable)
+			throws ParseException {
 		try {
-			in = new FileInputStream(file);
-			ExcelExtractor extractor = null;
+			MSExcelTextExtractor.extract(
+				file, writer, ProgramConf.Bool.IndexExcelFormulas.get(),
+				cancelable);
+		}
+		catch (OldExcelFormatException e) {
+			/*
+			 * POI doesn't support the old Excel 5.0/7.0 (BIFF5) format,
+			 * only the BIFF8 format from Excel 97/2000/XP/2003. Thus, we
+			 * fall back to another Excel library.
+			 */
 			try {
-				POIFSFileSystem fs = new POIFSFileSystem(in);
-				extractor = new ExcelExtractor(fs);
-				extractor.setFormulasNotResults(ProgramConf.Bool.IndexExcelFormulas.get());
-				return extractor.getText();
-			}
-			catch (OldExcelFormatException e) {
-				/*
-				 * POI doesn't support the old Excel 5.0/7.0 (BIFF5) format,
-				 * only the BIFF8 format from Excel 97/2000/XP/2003. Thus, we
-				 * fall back to another Excel library.
-				 */
-				Closeables.closeQuietly(in);
-				return extractWithJexcelAPI(file);
+				writer.write(extractWithJexcelAPI(file));
 			}
-			finally {
-				Closeables.closeQuietly(extractor);
+			catch (IOException e1) {
+				throw new ParseException(e1);
 			}
 		}
+		catch (EncryptedDocumentException e) {
+			// Discard throwable cause, we don't want to show its message
+			throw new ParseException(Msg.doc_pw_protected.get());
+		}
 		catch (IOException e) {
 			throw new ParseException(e);
 		}
@@ -76,9 +107,6 @@ final class MSExcelParser extends MSOfficeParser {
 			// POI can throw NullPointerExceptions on some odd Excel files
 			throw new ParseException(e);
 		}
-		finally {
-			Closeables.closeQuietly(in);
-		}
 	}
 
 	@NotNull
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import net.sourceforge.docfetcher.TestFiles;
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.Cancelable;
+
+import org.junit.Test;
+
+import com.google.common.io.CharStreams;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class MSExcelParserTest {
+	
+	@Test
+	public void testText() throws Exception {
+		/*
+		 * Same as the output of POI's ExcelExtractor with sheet names and
+		 * headers and footers, except that the formatting codes in the headers
+		 * and footers are stripped.
+		 */
+		File file = TestFiles.lorem_ipsum_xls_97.get();
+		StringWriter writer = new StringWriter();
+		MSExcelTextExtractor.extract(file, writer, false, Cancelable.nullCancelable);
+		String[] actual = writer.toString().trim().split("\\s+");
+		assertEquals(
+			Arrays.asList("Sheet1", "Page", "lorem", "ipsum", "Sheet2", "Page", "Sheet3", "Page"),
+			Arrays.asList(actual));
+	}
+	
+	@Test
+	public void testStreaming() throws Exception {
+		File file = TestFiles.lorem_ipsum_xls_97.get();
+		MSExcelParser parser = new MSExcelParser();
+		ParseResult expected = parser.parse(file, new ParseContext(file.getName()));
+		
+		ProgramConf.Int.ContentStreamingThreshold.load("0");
+		try {
+			ParseContext context = new ParseContext(file.getName());
+			context.setFileSize(file.length());
+			context.setStreamingAllowed(true);
+			ParseResult result = parser.parse(file, context);
+			StreamingContent content = result.getStreamingContent();
+			assertNotNull(content);
+			String text = CharStreams.toString(content);
+			result.finish();
+			assertEquals(expected.getContent().toString(), text);
+			assertEquals(expected.getTitle(), result.getTitle());
+			assertEquals(expected.getAuthors(), result.getAuthors());
+			
+			// Closing the content early must stop the extraction
+			result = parser.parse(file, context);
+			content = result.getStreamingContent();
+			assertNotNull(content);
+			content.read(new char[10]);
+			result.finish(); // Must not block or throw
+		}
+		finally {
+			ProgramConf.Int.ContentStreamingThreshold.load("32");
+		}
+	}
+
+}
@@ -0,0 +1,311 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import org.apache.poi.hssf.eventusermodel.AbortableHSSFListener;
+import org.apache.poi.hssf.eventusermodel.EventWorkbookBuilder.SheetRecordCollectingListener;
+import org.apache.poi.hssf.eventusermodel.FormatTrackingHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.eventusermodel.HSSFUserException;
+import org.apache.poi.hssf.model.HSSFFormulaParser;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.BoundSheetRecord;
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FooterRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.HeaderRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.poifs.filesystem.DirectoryNode;
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
+import org.apache.poi.ss.usermodel.Cell;
+
+import com.google.common.io.Closeables;
+
+/**
+ * Extracts the text of Excel 97-2003 (BIFF8) files with POI's event API.
+ * <p>
+ * In contrast to POI's <tt>ExcelExtractor</tt>, no workbook model is built:
+ * The records of the workbook stream are read one at a time, and the cell
+ * values are written to the given writer as they are encountered. Only the
+ * shared strings table and the number formats are held in memory. The file
+ * itself is accessed via positional reads rather than loaded into memory.
+ * <p>
+ * The output format is the same as for Excel 2007+ files, see
+ * {@link MSOffice2007TextExtractor}: For each sheet, the sheet name is
+ * followed by the rows of the sheet, with the cells separated by tabs.
+ *
+ * @author Tran Nam Quang
+ */
+final class MSExcelTextExtractor {
+
+	private static final int CANCEL_CHECK_INTERVAL = 1024; // records
+
+	private MSExcelTextExtractor() {
+	}
+
+	/**
+	 * Writes the text of the given Excel file to the given writer. If
+	 * <tt>indexFormulas</tt> is true, the formulas of the cells are written
+	 * instead of their values. Stops early if the given cancelable is
+	 * canceled.
+	 * <p>
+	 * Throws an <tt>OldExcelFormatException</tt> if the file is in the Excel
+	 * 5.0/95 (BIFF5) format or earlier, which is not supported by POI.
+	 */
+	public static void extract(	@NotNull File file,
+								@NotNull Writer writer,
+								boolean indexFormulas,
+								@NotNull Cancelable cancelable)
+			throws IOException {
+		Util.checkNotNull(file, writer, cancelable);
+		NPOIFSFileSystem fs = new NPOIFSFileSystem(file, true);
+		try {
+			Listener listener = new Listener(writer, indexFormulas, cancelable);
+			HSSFRequest request = new HSSFRequest();
+			request.addListenerForAllRecords(listener);
+			DirectoryNode root = fs.getRoot();
+			InputStream in = root.createDocumentInputStream(
+				HSSFWorkbook.getWorkbookDirEntryName(root));
+			try {
+				new HSSFEventFactory().abortableProcessEvents(request, in);
+			}
+			catch (HSSFUserException e) {
+				throw new IOException(e);
+			}
+			finally {
+				Closeables.closeQuietly(in);
+			}
+			if (listener.writeError != null)
+				throw listener.writeError;
+		}
+		finally {
+			fs.close();
+		}
+	}
+
+	private static final class Listener extends AbortableHSSFListener {
+		private final Writer writer;
+		private final boolean indexFormulas;
+		private final Cancelable cancelable;
+		private final FormatTrackingHSSFListener formats;
+		private final SheetRecordCollectingListener workbookRecords;
+
+		private final List<BoundSheetRecord> sheetRecords = new ArrayList<BoundSheetRecord>();
+		@Nullable private BoundSheetRecord[] orderedSheetRecords;
+		@Nullable private SSTRecord sst;
+		@Nullable private HSSFWorkbook stubWorkbook;
+
+		@Nullable private IOException writeError;
+		private int recordCount = 0;
+		private int depth = 0; // Nesting of BOF/EOF blocks, e.g. for charts
+		private int substreamCount = 0;
+		private int row = -1;
+		private boolean expectStringRecord = false;
+
+		public Listener(@NotNull Writer writer,
+						boolean indexFormulas,
+						@NotNull Cancelable cancelable) {
+			this.writer = writer;
+			this.indexFormulas = indexFormulas;
+			this.cancelable = cancelable;
+			/*
+			 * The records are passed on to these listeners manually, so that
+			 * they can track the number formats and the records needed for
+			 * rendering formulas.
+			 */
+			formats = new FormatTrackingHSSFListener(this);
+			workbookRecords = new SheetRecordCollectingListener(this);
+		}
+
+		public short abortableProcessRecord(Record record) {
+			if (++recordCount % CANCEL_CHECK_INTERVAL == 0
+					&& cancelable.isCanceled())
+				return 1; // Keep the text extracted so far
+			formats.processRecordInternally(record);
+			if (indexFormulas)
+				workbookRecords.processRecordInternally(record);
+			try {
+				processRecord0(record);
+				return 0;
+			}
+			catch (IOException e) {
+				writeError = e;
+				return 1;
+			}
+		}
+
+		private void processRecord0(@NotNull Record record) throws IOException {
+			switch (record.getSid()) {
+			case BOFRecord.sid:
+				if (depth++ == 0 && substreamCount++ > 0) {
+					// The first substream holds the workbook globals
+					BOFRecord bof = (BOFRecord) record;
+					if (bof.getType() == BOFRecord.TYPE_WORKSHEET)
+						startSheet(substreamCount - 2);
+				}
+				break;
+			case EOFRecord.sid:
+				if (--depth == 0)
+					endRow();
+				break;
+			case BoundSheetRecord.sid:
+				sheetRecords.add((BoundSheetRecord) record);
+				break;
+			case SSTRecord.sid:
+				sst = (SSTRecord) record;
+				break;
+			case HeaderRecord.sid:
+				writeHeaderFooter(((HeaderRecord) record).getText());
+				break;
+			case FooterRecord.sid:
+				writeHeaderFooter(((FooterRecord) record).getText());
+				break;
+			case LabelSSTRecord.sid:
+				LabelSSTRecord label = (LabelSSTRecord) record;
+				if (sst != null && label.getSSTIndex() < sst.getNumUniqueStrings())
+					writeCell(label, sst.getString(label.getSSTIndex()).getString());
+				break;
+			case LabelRecord.sid:
+				LabelRecord oldLabel = (LabelRecord) record;
+				writeCell(oldLabel, oldLabel.getValue());
+				break;
+			case NumberRecord.sid:
+				NumberRecord number = (NumberRecord) record;
+				writeCell(number, formatNumber(number, number.getValue()));
+				break;
+			case BoolErrRecord.sid:
+				BoolErrRecord boolErr = (BoolErrRecord) record;
+				if (boolErr.isBoolean())
+					writeCell(boolErr, boolErr.getBooleanValue() ? "TRUE" : "FALSE");
+				break;
+			case FormulaRecord.sid:
+				writeFormula((FormulaRecord) record);
+				break;
+			case StringRecord.sid:
+				// Cached string result of the preceding formula
+				if (expectStringRecord)
+					writer.write(((StringRecord) record).getString());
+				expectStringRecord = false;
+				break;
+			}
+		}
+
+		private void startSheet(int index) throws IOException {
+			if (orderedSheetRecords == null)
+				orderedSheetRecords = BoundSheetRecord.orderByBofPosition(sheetRecords);
+			if (index < orderedSheetRecords.length) {
+				writer.write(orderedSheetRecords[index].getSheetname());
+				writer.write('\n');
+			}
+			row = -1;
+		}
+
+		private void writeFormula(@NotNull FormulaRecord record)
+				throws IOException {
+			if (indexFormulas) {
+				String formula = null;
+				try {
+					if (stubWorkbook == null)
+						stubWorkbook = workbookRecords.getStubHSSFWorkbook();
+					formula = HSSFFormulaParser.toFormulaString(
+						stubWorkbook, record.getParsedExpression());
+				}
+				catch (RuntimeException e) {
+					// Shared formulas and formulas POI cannot render
+				}
+				if (formula != null) {
+					writeCell(record, formula);
+					return;
+				}
+			}
+			if (record.hasCachedResultString()) {
+				writeCell(record, "");
+				expectStringRecord = true;
+				return;
+			}
+			switch (record.getCachedResultType()) {
+			case Cell.CELL_TYPE_NUMERIC:
+				writeCell(record, formatNumber(record, record.getValue()));
+				break;
+			case Cell.CELL_TYPE_BOOLEAN:
+				writeCell(record, record.getCachedBooleanValue() ? "TRUE" : "FALSE");
+				break;
+			}
+		}
+
+		@NotNull
+		private String formatNumber(@NotNull CellValueRecordInterface cell,
+									double value) {
+			/*
+			 * Shortcut for whole numbers in the "General" format, which are by
+			 * far the most common numbers. Produces the same output as POI's
+			 * number formatting, but is much faster.
+			 */
+			if (formats.getFormatIndex(cell) == 0 && value == Math.rint(value)
+					&& Math.abs(value) < 1e15)
+				return Long.toString((long) value);
+			return formats.formatNumberDateCell(cell);
+		}
+
+		/*
+		 * Cells are stored row by row, so a new row starts whenever the row
+		 * index changes.
+		 */
+		private void writeCell(	@NotNull CellValueRecordInterface cell,
+								@NotNull String text) throws IOException {
+			if (cell.getRow() != row) {
+				endRow();
+				row = cell.getRow();
+			}
+			else {
+				writer.write('\t');
+			}
+			writer.write(text);
+		}
+
+		private void endRow() throws IOException {
+			if (row >= 0)
+				writer.write('\n');
+			row = -1;
+		}
+
+		private void writeHeaderFooter(@Nullable String text)
+				throws IOException {
+			if (text == null || text.isEmpty())
+				return;
+			endRow();
+			MSOffice2007TextExtractor.writeHeaderFooter(text, writer);
+		}
+	}
+
+}
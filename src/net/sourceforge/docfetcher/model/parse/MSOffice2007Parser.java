@@ -12,20 +12,21 @@
 package net.sourceforge.docfetcher.model.parse;
 
 import java.io.File;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.Collection;
 
 import net.sourceforge.docfetcher.enums.Msg;
 import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
 
-import org.apache.poi.POITextExtractor;
-import org.apache.poi.extractor.ExtractorFactory;
 import org.apache.poi.openxml4j.exceptions.OpenXML4JRuntimeException;
 import org.apache.poi.openxml4j.opc.OPCPackage;
 import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.openxml4j.opc.PackageProperties;
-import org.apache.poi.xssf.extractor.XSSFExcelExtractor;
 
 import com.google.common.io.Closeables;
 
@@ -64,12 +65,12 @@ abstract class MSOffice2007Parser extends FileParser {
 	}
 
 	@Override
-	protected ParseResult parse(File file, ParseContext context)
+	protected ParseResult parse(File file, final ParseContext context)
 			throws ParseException {
 		OPCPackage pkg = null;
+		boolean streaming = false;
 		try {
 			pkg = OPCPackage.open(file.getPath(), PackageAccess.READ);
-			String contents = extractText(pkg);
 			
 			// Open properties
 			PackageProperties props = pkg.getPackageProperties();
@@ -98,7 +99,41 @@ abstract class MSOffice2007Parser extends FileParser {
 			String subject = props.getSubjectProperty().getValue();
 			String title = props.getTitleProperty().getValue();
 			
-			return new ParseResult(contents)
+			/*
+			 * For large files, extract the text on a separate thread while the
+			 * caller is reading it. The package is then closed by the
+			 * extraction thread.
+			 */
+			final boolean indexFormulas = ProgramConf.Bool.IndexExcelFormulas.get();
+			ParseResult parseResult;
+			if (context.isStreamingAllowed()
+					&& StreamingContent.isEnabled(context.getFileSize())) {
+				final OPCPackage streamedPkg = pkg;
+				StreamingContent content = new StreamingContent(
+					MSOffice2007Parser.class.getName() + " (streaming extraction)",
+					new StreamingContent.Producer() {
+						public void produce(Writer writer) throws Exception {
+							try {
+								MSOffice2007TextExtractor.extract(
+									streamedPkg, writer, indexFormulas,
+									context.getCancelable());
+							}
+							finally {
+								close(streamedPkg);
+							}
+						}
+					});
+				streaming = true;
+				parseResult = new ParseResult(content);
+			}
+			else {
+				StringWriter writer = new StringWriter();
+				MSOffice2007TextExtractor.extract(
+					pkg, writer, indexFormulas, context.getCancelable());
+				parseResult = new ParseResult(writer.getBuffer());
+			}
+			
+			return parseResult
 				.setTitle(title)
 				.addAuthor(author)
 				.addMiscMetadata(description)
@@ -146,17 +181,25 @@ abstract class MSOffice2007Parser extends FileParser {
 				throw e;
 			}
 		}
+		catch (ParseException e) {
+			throw e;
+		}
 		catch (Exception e) {
 			throw new ParseException(e);
 		}
 		finally {
-			try {
-				Closeables.closeQuietly(pkg);
-			} catch (OpenXML4JRuntimeException e2) {
-				// Bug in POI 3.12 beta 1 and earlier, see:
-				// http://stackoverflow.com/questions/28593223/apache-poi-opcpackage-unable-to-save-jasper-report-generated-xlsx
-				// Remove this workaround once POI has been upgraded.
-			}
+			if (!streaming)
+				close(pkg);
+		}
+	}
+	
+	private static void close(@Nullable OPCPackage pkg) {
+		try {
+			Closeables.closeQuietly(pkg);
+		} catch (OpenXML4JRuntimeException e2) {
+			// Bug in POI 3.12 beta 1 and earlier, see:
+			// http://stackoverflow.com/questions/28593223/apache-poi-opcpackage-unable-to-save-jasper-report-generated-xlsx
+			// Remove this workaround once POI has been upgraded.
 		}
 	}
 	
@@ -166,26 +209,21 @@ abstract class MSOffice2007Parser extends FileParser {
 		OPCPackage pkg = null;
 		try {
 			pkg = OPCPackage.open(file.getPath(), PackageAccess.READ);
-			return extractText(pkg);
+			StringWriter writer = new StringWriter();
+			MSOffice2007TextExtractor.extract(
+				pkg, writer, ProgramConf.Bool.IndexExcelFormulas.get(),
+				Cancelable.nullCancelable);
+			return writer.toString();
+		}
+		catch (ParseException e) {
+			throw e;
 		}
 		catch (Exception e) {
 			throw new ParseException(e);
 		}
 		finally {
-			Closeables.closeQuietly(pkg);
-		}
-	}
-	
-	// Caller is responsible for closing the given package
-	@NotNull
-	private static String extractText(@NotNull OPCPackage pkg) throws Exception {
-		POITextExtractor extractor = ExtractorFactory.createExtractor(pkg);
-		if (extractor instanceof XSSFExcelExtractor) {
-			boolean indexFormulas = ProgramConf.Bool.IndexExcelFormulas.get();
-			((XSSFExcelExtractor) extractor).setFormulasNotResults(indexFormulas);
+			close(pkg);
 		}
-		String text = extractor.getText();
-		return text;
 	}
 
 	protected final Collection<String> getExtensions() {
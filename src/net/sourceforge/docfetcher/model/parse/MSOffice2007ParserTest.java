@@ -1,21 +1,40 @@
 package net.sourceforge.docfetcher.model.parse;
 
 import java.io.File;
+import java.io.OutputStream;
+import java.io.StringWriter;
 
 import junit.framework.Assert;
 import net.sourceforge.docfetcher.TestFiles;
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.model.Path;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
 import net.sourceforge.docfetcher.model.index.IndexingReporter;
+import net.sourceforge.docfetcher.model.parse.MSOffice2007Parser.MSExcel2007Parser;
+import net.sourceforge.docfetcher.model.parse.MSOffice2007Parser.MSPowerPoint2007Parser;
+import net.sourceforge.docfetcher.util.Util;
 
 import org.apache.poi.extractor.ExtractorFactory;
 import org.apache.poi.openxml4j.opc.OPCPackage;
 import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackagePartName;
+import org.apache.poi.openxml4j.opc.PackageRelationshipTypes;
+import org.apache.poi.openxml4j.opc.PackagingURIHelper;
+import org.apache.poi.openxml4j.opc.TargetMode;
 import org.junit.Test;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+
 public final class MSOffice2007ParserTest {
 	
+	private static final String relNs = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+	private static final String pmlNs = "http://schemas.openxmlformats.org/presentationml/2006/main";
+	private static final String dmlNs = "http://schemas.openxmlformats.org/drawingml/2006/main";
+	private static final String smlNs = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+	
 	@Test
 	public void testReadOnlySucceeds() throws Exception {
 		/*
@@ -45,5 +64,169 @@ public final class MSOffice2007ParserTest {
 		Assert.assertEquals(lengthBefore, file.length());
 		Assert.assertEquals(modBefore, file.lastModified());
 	}
+	
+	@Test
+	public void testHeaderFooterText() throws Exception {
+		File file = TestFiles.read_write_xls.get();
+		OPCPackage pkg = OPCPackage.open(file.getPath(), PackageAccess.READ);
+		StringWriter writer = new StringWriter();
+		try {
+			MSOffice2007TextExtractor.extract(
+				pkg, writer, false, Cancelable.nullCancelable);
+		}
+		finally {
+			pkg.revert();
+		}
+		String text = writer.toString();
+		Assert.assertTrue(text.startsWith("Tabelle1\n"));
+		Assert.assertTrue(text.contains("Festo - Dietikon"));
+		Assert.assertTrue(text.contains("rmu"));
+		Assert.assertFalse(text.contains("&"));
+	}
+	
+	@Test
+	public void testWordText() throws Exception {
+		File file = TestFiles.docx.get();
+		OPCPackage pkg = OPCPackage.open(file.getPath(), PackageAccess.READ);
+		StringWriter writer = new StringWriter();
+		try {
+			MSOffice2007TextExtractor.extract(
+				pkg, writer, false, Cancelable.nullCancelable);
+		}
+		finally {
+			pkg.revert();
+		}
+		String text = writer.toString();
+		
+		// Header, then body, then footer
+		int header = text.indexOf("This is the header for our document");
+		int body = text.indexOf("This is a sample Microsoft Word Document.");
+		int table = text.indexOf("Nested table");
+		int footer = text.indexOf("This is the footer for our document");
+		Assert.assertTrue(header >= 0);
+		Assert.assertTrue(header < body);
+		Assert.assertTrue(body < table);
+		Assert.assertTrue(table < footer);
+		Assert.assertTrue(text.contains("This document includes text that is BOLD and ITALIC."));
+	}
+	
+	@Test
+	public void testPowerPointText() throws Exception {
+		// The slides must be extracted in presentation order, not part order
+		String presentation = "<p:presentation xmlns:p='" + pmlNs + "' xmlns:r='" + relNs + "'>"
+				+ "<p:sldIdLst><p:sldId id='256' r:id='rId2'/><p:sldId id='257' r:id='rId1'/></p:sldIdLst>"
+				+ "</p:presentation>";
+		File tempDir = Util.createTempDir();
+		try {
+			File file = new File(tempDir, "test.pptx");
+			OPCPackage pkg = OPCPackage.create(file);
+			PackagePart mainPart = createMainPart(
+				pkg, "/ppt/presentation.xml",
+				"application/vnd.openxmlformats-officedocument.presentationml.presentation.main+xml",
+				presentation);
+			createRelatedPart(
+				mainPart, "rId1", "/ppt/slides/slide1.xml", "slide",
+				"application/vnd.openxmlformats-officedocument.presentationml.slide+xml",
+				createSlide("Second <a:t>slide</a:t>"));
+			createRelatedPart(
+				mainPart, "rId2", "/ppt/slides/slide2.xml", "slide",
+				"application/vnd.openxmlformats-officedocument.presentationml.slide+xml",
+				createSlide("First slide"));
+			pkg.close();
+			
+			ParseResult result = new MSPowerPoint2007Parser().parse(
+				file, new ParseContext(file.getName()));
+			Assert.assertEquals(
+				"First slide\nSecond slide\n", result.getContent().toString());
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
+	@Test
+	public void testExcelFormulas() throws Exception {
+		String workbook = "<workbook xmlns='" + smlNs + "' xmlns:r='" + relNs + "'>"
+				+ "<sheets><sheet name='Sheet1' sheetId='1' r:id='rId1'/></sheets>"
+				+ "</workbook>";
+		String sheet = "<worksheet xmlns='" + smlNs + "'><sheetData>"
+				+ "<row r='1'><c r='A1'><v>2</v></c><c r='B1'><f>A1*21</f><v>42</v></c></row>"
+				+ "</sheetData></worksheet>";
+		File tempDir = Util.createTempDir();
+		try {
+			File file = new File(tempDir, "test.xlsx");
+			OPCPackage pkg = OPCPackage.create(file);
+			PackagePart mainPart = createMainPart(
+				pkg, "/xl/workbook.xml",
+				"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml",
+				workbook);
+			createRelatedPart(
+				mainPart, "rId1", "/xl/worksheets/sheet1.xml", "worksheet",
+				"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml",
+				sheet);
+			pkg.close();
+			
+			MSExcel2007Parser parser = new MSExcel2007Parser();
+			ProgramConf.Bool.IndexExcelFormulas.load("false");
+			try {
+				ParseResult result = parser.parse(file, new ParseContext(file.getName()));
+				Assert.assertEquals("Sheet1\n2\t42\n", result.getContent().toString());
+				
+				ProgramConf.Bool.IndexExcelFormulas.load("true");
+				result = parser.parse(file, new ParseContext(file.getName()));
+				Assert.assertEquals("Sheet1\n2\tA1*21\n", result.getContent().toString());
+			}
+			finally {
+				ProgramConf.Bool.IndexExcelFormulas.load("true");
+			}
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
+	private static String createSlide(String text) {
+		return "<p:sld xmlns:p='" + pmlNs + "' xmlns:a='" + dmlNs + "'>"
+				+ "<p:cSld><p:spTree><p:sp><p:txBody>"
+				+ "<a:p><a:r><a:t>" + text + "</a:t></a:r></a:p>"
+				+ "</p:txBody></p:sp></p:spTree></p:cSld></p:sld>";
+	}
+	
+	private static PackagePart createMainPart(	OPCPackage pkg,
+												String name,
+												String contentType,
+												String xml)
+			throws Exception {
+		PackagePartName partName = PackagingURIHelper.createPartName(name);
+		PackagePart part = pkg.createPart(partName, contentType);
+		write(part, xml);
+		pkg.addRelationship(
+			partName, TargetMode.INTERNAL,
+			PackageRelationshipTypes.CORE_DOCUMENT);
+		return part;
+	}
+	
+	private static void createRelatedPart(	PackagePart parent,
+											String relId,
+											String name,
+											String relType,
+											String contentType,
+											String xml)
+			throws Exception {
+		PackagePartName partName = PackagingURIHelper.createPartName(name);
+		write(parent.getPackage().createPart(partName, contentType), xml);
+		parent.addRelationship(
+			partName, TargetMode.INTERNAL, relNs + "/" + relType, relId);
+	}
+	
+	private static void write(PackagePart part, String xml) throws Exception {
+		OutputStream out = part.getOutputStream();
+		try {
+			out.write(xml.getBytes(Charsets.UTF_8));
+		}
+		finally {
+			Closeables.closeQuietly(out);
+		}
+	}
 
 }
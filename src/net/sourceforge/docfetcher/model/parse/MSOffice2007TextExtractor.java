@@ -0,0 +1,895 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackageRelationship;
+import org.apache.poi.openxml4j.opc.PackageRelationshipCollection;
+import org.apache.poi.openxml4j.opc.PackageRelationshipTypes;
+import org.apache.poi.openxml4j.opc.PackagingURIHelper;
+import org.apache.poi.openxml4j.opc.TargetMode;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.google.common.io.Closeables;
+
+/**
+ * Extracts the text of MS Office 2007+ documents (docx, xlsx, pptx and their
+ * macro-enabled and template variants) by running SAX handlers over the XML
+ * parts of the package.
+ * <p>
+ * In contrast to POI's text extractors, no document model is built: The
+ * parts are read from the zip file one at a time and their text is written to
+ * the given writer as it is encountered. For spreadsheets, only the number
+ * formats and the shared strings table are held in memory, and the latter is
+ * moved to a temporary file if it is large. Apart from the string offsets in
+ * the shared strings table (4 bytes per string), the memory usage is thus
+ * bounded, regardless of the size of the spreadsheet.
+ *
+ * @author Tran Nam Quang
+ */
+final class MSOffice2007TextExtractor {
+
+	private static final SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+
+	static {
+		saxParserFactory.setNamespaceAware(true);
+		setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+	}
+
+	private static void setFeature(@NotNull String feature, boolean value) {
+		try {
+			saxParserFactory.setFeature(feature, value);
+		}
+		catch (Exception e) {
+			// Feature not supported by the XML parser
+		}
+	}
+
+	private MSOffice2007TextExtractor() {
+	}
+
+	/**
+	 * Writes the text of the given package to the given writer. If
+	 * <tt>indexFormulas</tt> is true, the formulas of spreadsheet cells are
+	 * written instead of their values. Stops early if the given cancelable is
+	 * canceled. The caller is responsible for closing the package.
+	 */
+	public static void extract(	@NotNull OPCPackage pkg,
+								@NotNull Writer writer,
+								boolean indexFormulas,
+								@NotNull Cancelable cancelable)
+			throws ParseException, IOException {
+		Util.checkNotNull(pkg, writer, cancelable);
+		try {
+			PackagePart mainPart = getMainPart(pkg);
+			String contentType = mainPart.getContentType();
+			if (contentType.contains(".wordprocessingml.") || contentType.contains(".ms-word."))
+				extractWord(mainPart, writer, cancelable);
+			else if (contentType.contains(".spreadsheetml.") || contentType.contains(".ms-excel."))
+				extractExcel(mainPart, writer, indexFormulas, cancelable);
+			else if (contentType.contains(".presentationml.") || contentType.contains(".ms-powerpoint."))
+				extractPowerPoint(mainPart, writer, cancelable);
+			else
+				throw new ParseException("Unsupported document type: " + contentType);
+		}
+		catch (CanceledException e) {
+			// Keep the text extracted so far
+		}
+		catch (SAXException e) {
+			if (e.getException() instanceof IOException)
+				throw (IOException) e.getException();
+			throw new ParseException(e);
+		}
+		catch (InvalidFormatException e) {
+			throw new ParseException(e);
+		}
+	}
+
+	@NotNull
+	private static PackagePart getMainPart(@NotNull OPCPackage pkg)
+			throws ParseException {
+		PackageRelationshipCollection rels = pkg.getRelationshipsByType(
+			PackageRelationshipTypes.CORE_DOCUMENT);
+		if (rels.size() == 0)
+			rels = pkg.getRelationshipsByType(
+				PackageRelationshipTypes.STRICT_CORE_DOCUMENT);
+		PackagePart part = rels.size() == 0 ? null : pkg.getPart(rels.getRelationship(0));
+		if (part == null)
+			throw new ParseException("No main document part found.");
+		return part;
+	}
+
+	/*
+	 * Returns the internal parts related to the given part with the given
+	 * relationship type. Only the last segment of the relationship type is
+	 * compared, so that both transitional and strict OOXML are supported.
+	 */
+	@NotNull
+	private static List<PackagePart> getRelatedParts(	@NotNull PackagePart part,
+														@NotNull String... types)
+			throws InvalidFormatException {
+		List<PackagePart> parts = new ArrayList<PackagePart>();
+		for (PackageRelationship rel : part.getRelationships()) {
+			String relType = rel.getRelationshipType();
+			for (String type : types) {
+				if (relType.endsWith("/" + type)) {
+					PackagePart target = getTarget(part, rel);
+					if (target != null)
+						parts.add(target);
+					break;
+				}
+			}
+		}
+		return parts;
+	}
+
+	@Nullable
+	private static PackagePart getRelatedPart(	@NotNull PackagePart part,
+												@NotNull String type)
+			throws InvalidFormatException {
+		List<PackagePart> parts = getRelatedParts(part, type);
+		return parts.isEmpty() ? null : parts.get(0);
+	}
+
+	@Nullable
+	private static PackagePart getTarget(	@NotNull PackagePart part,
+											@Nullable PackageRelationship rel)
+			throws InvalidFormatException {
+		if (rel == null || rel.getTargetMode() == TargetMode.EXTERNAL)
+			return null;
+		return part.getPackage().getPart(
+			PackagingURIHelper.createPartName(rel.getTargetURI()));
+	}
+
+	private static void parse(	@NotNull PackagePart part,
+								@NotNull DefaultHandler handler)
+			throws IOException, SAXException {
+		SAXParser parser;
+		try {
+			synchronized (saxParserFactory) {
+				parser = saxParserFactory.newSAXParser();
+			}
+		}
+		catch (ParserConfigurationException e) {
+			throw new SAXException(e);
+		}
+		InputStream in = part.getInputStream();
+		try {
+			parser.parse(in, handler);
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
+	}
+
+	private static void extractWord(@NotNull PackagePart mainPart,
+									@NotNull Writer writer,
+									@NotNull Cancelable cancelable)
+			throws IOException, SAXException, InvalidFormatException {
+		for (PackagePart part : getRelatedParts(mainPart, "header"))
+			parse(part, new WordHandler(writer, cancelable));
+		parse(mainPart, new WordHandler(writer, cancelable));
+		for (PackagePart part : getRelatedParts(
+				mainPart, "footnotes", "endnotes", "comments", "footer"))
+			parse(part, new WordHandler(writer, cancelable));
+	}
+
+	private static void extractExcel(	@NotNull PackagePart mainPart,
+										@NotNull Writer writer,
+										boolean indexFormulas,
+										@NotNull Cancelable cancelable)
+			throws IOException, SAXException, InvalidFormatException {
+		NumberFormats formats = new NumberFormats();
+		PackagePart stylesPart = getRelatedPart(mainPart, "styles");
+		if (stylesPart != null)
+			parse(stylesPart, new StylesHandler(formats, cancelable));
+
+		WorkbookHandler workbook = new WorkbookHandler(cancelable);
+		parse(mainPart, workbook);
+		formats.use1904Windowing = workbook.date1904;
+
+		SharedStrings strings = new SharedStrings();
+		try {
+			PackagePart stringsPart = getRelatedPart(mainPart, "sharedStrings");
+			if (stringsPart != null)
+				parse(stringsPart, new SharedStringsHandler(strings, cancelable));
+			strings.finish();
+
+			for (String[] sheet : workbook.sheets) {
+				PackagePart sheetPart = getTarget(
+					mainPart, mainPart.getRelationship(sheet[1]));
+				if (sheetPart == null)
+					continue;
+				if (sheet[0] != null) {
+					writer.write(sheet[0]);
+					writer.write('\n');
+				}
+				parse(sheetPart, new SheetHandler(
+					writer, strings, formats, indexFormulas, cancelable));
+			}
+		}
+		finally {
+			Closeables.closeQuietly(strings);
+		}
+	}
+
+	private static void extractPowerPoint(	@NotNull PackagePart mainPart,
+											@NotNull Writer writer,
+											@NotNull Cancelable cancelable)
+			throws IOException, SAXException, InvalidFormatException {
+		PresentationHandler presentation = new PresentationHandler(cancelable);
+		parse(mainPart, presentation);
+		for (String relId : presentation.slides) {
+			PackagePart slidePart = getTarget(
+				mainPart, mainPart.getRelationship(relId));
+			if (slidePart != null)
+				parse(slidePart, new SlideHandler(writer, cancelable));
+		}
+	}
+
+	/*
+	 * Returns the value of the r:id attribute, in both the transitional and
+	 * the strict relationships namespace.
+	 */
+	@Nullable
+	private static String getRelationshipId(@NotNull Attributes atts) {
+		for (int i = 0; i < atts.getLength(); i++)
+			if (atts.getLocalName(i).equals("id")
+					&& atts.getURI(i).endsWith("relationships"))
+				return atts.getValue(i);
+		return null;
+	}
+
+	private static final class CanceledException extends SAXException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * Base class of the SAX handlers. Skips fallback content of markup
+	 * compatibility blocks (mc:Fallback), which usually duplicates the content
+	 * of the preceding mc:Choice element, and regularly checks for
+	 * cancellation.
+	 */
+	private static abstract class Handler extends DefaultHandler {
+		private final Cancelable cancelable;
+		private int skipDepth = 0;
+		private int elementCount = 0;
+
+		public Handler(@NotNull Cancelable cancelable) {
+			this.cancelable = cancelable;
+		}
+
+		public final void startElement(	String uri,
+										String localName,
+										String qName,
+										Attributes atts) throws SAXException {
+			if (skipDepth > 0 || localName.equals("Fallback")) {
+				skipDepth++;
+				return;
+			}
+			if (++elementCount % 1024 == 0 && cancelable.isCanceled())
+				throw new CanceledException();
+			try {
+				start(localName, atts);
+			}
+			catch (IOException e) {
+				throw new SAXException(e);
+			}
+		}
+
+		public final void endElement(String uri, String localName, String qName)
+				throws SAXException {
+			if (skipDepth > 0) {
+				skipDepth--;
+				return;
+			}
+			try {
+				end(localName);
+			}
+			catch (IOException e) {
+				throw new SAXException(e);
+			}
+		}
+
+		public final void characters(char[] ch, int start, int length)
+				throws SAXException {
+			if (skipDepth > 0)
+				return;
+			try {
+				text(ch, start, length);
+			}
+			catch (IOException e) {
+				throw new SAXException(e);
+			}
+		}
+
+		protected abstract void start(	@NotNull String localName,
+										@NotNull Attributes atts)
+				throws IOException;
+
+		protected abstract void end(@NotNull String localName)
+				throws IOException;
+
+		protected void text(@NotNull char[] ch, int start, int length)
+				throws IOException {
+		}
+	}
+
+	private static final class WordHandler extends Handler {
+		private final Writer writer;
+		private int runDepth = 0;
+		private boolean inText = false;
+
+		public WordHandler(@NotNull Writer writer, @NotNull Cancelable cancelable) {
+			super(cancelable);
+			this.writer = writer;
+		}
+
+		protected void start(String localName, Attributes atts)
+				throws IOException {
+			if (localName.equals("t")) {
+				inText = true;
+			}
+			else if (localName.equals("r")) {
+				runDepth++;
+			}
+			else if (runDepth > 0) {
+				// Tab stop definitions etc. outside of runs are ignored
+				if (localName.equals("tab"))
+					writer.write('\t');
+				else if (localName.equals("br") || localName.equals("cr"))
+					writer.write('\n');
+				else if (localName.equals("noBreakHyphen"))
+					writer.write('-');
+			}
+		}
+
+		protected void end(String localName) throws IOException {
+			if (localName.equals("t"))
+				inText = false;
+			else if (localName.equals("r"))
+				runDepth--;
+			else if (localName.equals("p"))
+				writer.write('\n');
+			else if (localName.equals("tc"))
+				writer.write('\t');
+		}
+
+		protected void text(char[] ch, int start, int length)
+				throws IOException {
+			if (inText)
+				writer.write(ch, start, length);
+		}
+	}
+
+	private static final class SlideHandler extends Handler {
+		private final Writer writer;
+		private boolean inText = false;
+
+		public SlideHandler(@NotNull Writer writer, @NotNull Cancelable cancelable) {
+			super(cancelable);
+			this.writer = writer;
+		}
+
+		protected void start(String localName, Attributes atts)
+				throws IOException {
+			if (localName.equals("t"))
+				inText = true;
+			else if (localName.equals("br"))
+				writer.write('\n');
+		}
+
+		protected void end(String localName) throws IOException {
+			if (localName.equals("t"))
+				inText = false;
+			else if (localName.equals("p"))
+				writer.write('\n');
+			else if (localName.equals("tc"))
+				writer.write('\t');
+		}
+
+		protected void text(char[] ch, int start, int length)
+				throws IOException {
+			if (inText)
+				writer.write(ch, start, length);
+		}
+	}
+
+	private static final class PresentationHandler extends Handler {
+		public final List<String> slides = new ArrayList<String>();
+
+		public PresentationHandler(@NotNull Cancelable cancelable) {
+			super(cancelable);
+		}
+
+		protected void start(String localName, Attributes atts) {
+			if (localName.equals("sldId")) {
+				String relId = getRelationshipId(atts);
+				if (relId != null)
+					slides.add(relId);
+			}
+		}
+
+		protected void end(String localName) {
+		}
+	}
+
+	private static final class WorkbookHandler extends Handler {
+		// Sheet names and relationship IDs, in workbook order
+		public final List<String[]> sheets = new ArrayList<String[]>();
+		public boolean date1904 = false;
+
+		public WorkbookHandler(@NotNull Cancelable cancelable) {
+			super(cancelable);
+		}
+
+		protected void start(String localName, Attributes atts) {
+			if (localName.equals("sheet")) {
+				String relId = getRelationshipId(atts);
+				if (relId != null)
+					sheets.add(new String[] { atts.getValue("name"), relId });
+			}
+			else if (localName.equals("workbookPr")) {
+				String value = atts.getValue("date1904");
+				date1904 = "1".equals(value) || "true".equals(value);
+			}
+		}
+
+		protected void end(String localName) {
+		}
+	}
+
+	/**
+	 * Writes the text of a spreadsheet header or footer without its formatting
+	 * codes, e.g. "&L" for left alignment or "&\"Arial,Bold\"" for the font,
+	 * followed by a line break. The codes are the same in Excel 97-2003 and
+	 * Excel 2007+ files.
+	 */
+	static void writeHeaderFooter(	@NotNull CharSequence headerFooter,
+									@NotNull Writer writer)
+			throws IOException {
+		int length = headerFooter.length();
+		for (int i = 0; i < length; i++) {
+			char c = headerFooter.charAt(i);
+			if (c != '&' || i + 1 == length) {
+				writer.write(c);
+				continue;
+			}
+			char code = headerFooter.charAt(++i);
+			if (code == '&') {
+				writer.write('&');
+			}
+			else if (code == '"') {
+				while (i + 1 < length && headerFooter.charAt(i + 1) != '"')
+					i++;
+				i++;
+			}
+			else if (code >= '0' && code <= '9') {
+				while (i + 1 < length && Character.isDigit(headerFooter.charAt(i + 1)))
+					i++;
+			}
+			else if (code == 'K') {
+				i = Math.min(i + 6, length - 1); // Color code
+			}
+			else if (code == 'L' || code == 'C' || code == 'R') {
+				writer.write(' '); // Section separator
+			}
+		}
+		writer.write('\n');
+	}
+
+	/**
+	 * The shared strings table of a spreadsheet, stored in a single char array
+	 * to avoid the per-object overhead of a large number of strings. If the
+	 * table grows too large, the strings are moved to a temporary file, from
+	 * which they are read back through a small page cache.
+	 */
+	private static final class SharedStrings implements Closeable {
+		private static final int MEMORY_LIMIT = 1024 * 1024; // chars
+		private static final int PAGE_SIZE = 16 * 1024; // chars
+		private static final int PAGE_CACHE_SIZE = 32;
+
+		@Nullable private char[] chars = new char[8192];
+		private long length = 0;
+		private int[] ends = new int[1024];
+		private int count = 0;
+
+		// Only used after the strings were moved to a temporary file
+		@Nullable private File file;
+		@Nullable private RandomAccessFile randomAccess;
+		@Nullable private ByteBuffer writeBuffer;
+		@Nullable private Map<Integer, char[]> pageCache;
+
+		public void append(@NotNull char[] ch, int start, int len)
+				throws IOException {
+			if (file == null && length + len > MEMORY_LIMIT)
+				moveToFile();
+			if (file == null) {
+				if (length + len > chars.length)
+					chars = Arrays.copyOf(chars, Math.max(chars.length * 2, (int) length + len));
+				System.arraycopy(ch, start, chars, (int) length, len);
+			}
+			else {
+				for (int i = start; i < start + len; i++) {
+					writeBuffer.putChar(ch[i]);
+					if (!writeBuffer.hasRemaining())
+						flushWriteBuffer();
+				}
+			}
+			length += len;
+		}
+
+		public void endString() throws IOException {
+			if (length > Integer.MAX_VALUE)
+				throw new IOException("Shared strings table too large.");
+			if (count == ends.length)
+				ends = Arrays.copyOf(ends, count * 2);
+			ends[count++] = (int) length;
+		}
+
+		private void moveToFile() throws IOException {
+			file = Util.createTempFile("shared-strings", ".tmp");
+			randomAccess = new RandomAccessFile(file, "rw");
+			writeBuffer = ByteBuffer.allocate(PAGE_SIZE * 2);
+			for (int i = 0; i < length; i++) {
+				writeBuffer.putChar(chars[i]);
+				if (!writeBuffer.hasRemaining())
+					flushWriteBuffer();
+			}
+			chars = null;
+			pageCache = new LinkedHashMap<Integer, char[]>(PAGE_CACHE_SIZE, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				protected boolean removeEldestEntry(Map.Entry<Integer, char[]> eldest) {
+					return size() > PAGE_CACHE_SIZE;
+				}
+			};
+		}
+
+		private void flushWriteBuffer() throws IOException {
+			randomAccess.write(writeBuffer.array(), 0, writeBuffer.position());
+			writeBuffer.clear();
+		}
+
+		/**
+		 * Must be called after the last string was added.
+		 */
+		public void finish() throws IOException {
+			if (file != null && writeBuffer.position() > 0)
+				flushWriteBuffer();
+		}
+
+		public void write(int index, @NotNull Writer writer) throws IOException {
+			if (index < 0 || index >= count)
+				return;
+			int start = index == 0 ? 0 : ends[index - 1];
+			int end = ends[index];
+			if (file == null) {
+				writer.write(chars, start, end - start);
+				return;
+			}
+			for (int pos = start; pos < end;) {
+				char[] page = getPage(pos / PAGE_SIZE);
+				int offset = pos % PAGE_SIZE;
+				int n = Math.min(end - pos, PAGE_SIZE - offset);
+				writer.write(page, offset, n);
+				pos += n;
+			}
+		}
+
+		@NotNull
+		private char[] getPage(int pageIndex) throws IOException {
+			char[] page = pageCache.get(pageIndex);
+			if (page == null) {
+				byte[] bytes = new byte[PAGE_SIZE * 2];
+				long pos = (long) pageIndex * bytes.length;
+				int n = (int) Math.min(bytes.length, randomAccess.length() - pos);
+				randomAccess.seek(pos);
+				randomAccess.readFully(bytes, 0, n);
+				page = new char[PAGE_SIZE];
+				ByteBuffer.wrap(bytes, 0, n).asCharBuffer().get(page, 0, n / 2);
+				pageCache.put(pageIndex, page);
+			}
+			return page;
+		}
+
+		public void close() throws IOException {
+			if (file == null)
+				return;
+			try {
+				randomAccess.close();
+			}
+			finally {
+				file.delete();
+			}
+		}
+	}
+
+	private static final class SharedStringsHandler extends Handler {
+		private final SharedStrings strings;
+		private boolean inText = false;
+		private boolean inPhonetic = false;
+
+		public SharedStringsHandler(@NotNull SharedStrings strings,
+									@NotNull Cancelable cancelable) {
+			super(cancelable);
+			this.strings = strings;
+		}
+
+		protected void start(String localName, Attributes atts) {
+			if (localName.equals("t"))
+				inText = !inPhonetic;
+			else if (localName.equals("rPh"))
+				inPhonetic = true; // Phonetic reading of East Asian text
+		}
+
+		protected void end(String localName) throws IOException {
+			if (localName.equals("t"))
+				inText = false;
+			else if (localName.equals("rPh"))
+				inPhonetic = false;
+			else if (localName.equals("si"))
+				strings.endString();
+		}
+
+		protected void text(char[] ch, int start, int length)
+				throws IOException {
+			if (inText)
+				strings.append(ch, start, length);
+		}
+	}
+
+	/**
+	 * The number formats of a spreadsheet, indexed by cell style.
+	 */
+	private static final class NumberFormats {
+		private final DataFormatter formatter = new DataFormatter();
+		public final Map<Integer, String> customFormats = new HashMap<Integer, String>();
+		public int[] styleFormatIds = new int[0];
+		public boolean use1904Windowing = false;
+
+		@NotNull
+		public String format(double value, @Nullable String styleAttr) {
+			int style = 0;
+			if (styleAttr != null) {
+				try {
+					style = Integer.parseInt(styleAttr);
+				}
+				catch (NumberFormatException e) {
+				}
+			}
+			int formatId = style >= 0 && style < styleFormatIds.length
+				? styleFormatIds[style]
+				: 0;
+			String formatString = customFormats.get(formatId);
+			if (formatString == null)
+				formatString = BuiltinFormats.getBuiltinFormat(formatId);
+			if (formatString == null)
+				formatString = "General";
+			return formatter.formatRawCellContents(
+				value, formatId, formatString, use1904Windowing);
+		}
+	}
+
+	private static final class StylesHandler extends Handler {
+		private final NumberFormats formats;
+		private final List<Integer> formatIds = new ArrayList<Integer>();
+		private boolean inCellXfs = false;
+
+		public StylesHandler(	@NotNull NumberFormats formats,
+								@NotNull Cancelable cancelable) {
+			super(cancelable);
+			this.formats = formats;
+		}
+
+		protected void start(String localName, Attributes atts) {
+			if (localName.equals("numFmt")) {
+				Integer id = parseInt(atts.getValue("numFmtId"));
+				String formatCode = atts.getValue("formatCode");
+				if (id != null && formatCode != null)
+					formats.customFormats.put(id, formatCode);
+			}
+			else if (localName.equals("cellXfs")) {
+				inCellXfs = true;
+			}
+			else if (inCellXfs && localName.equals("xf")) {
+				Integer id = parseInt(atts.getValue("numFmtId"));
+				formatIds.add(id == null ? 0 : id);
+			}
+		}
+
+		protected void end(String localName) {
+			if (localName.equals("cellXfs")) {
+				inCellXfs = false;
+				int[] ids = new int[formatIds.size()];
+				for (int i = 0; i < ids.length; i++)
+					ids[i] = formatIds.get(i);
+				formats.styleFormatIds = ids;
+			}
+		}
+
+		@Nullable
+		private static Integer parseInt(@Nullable String value) {
+			if (value == null)
+				return null;
+			try {
+				return Integer.valueOf(value);
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Writes the cells of a worksheet, with cells separated by tabs and rows
+	 * separated by line breaks, similar to POI's XSSFExcelExtractor.
+	 */
+	private static final class SheetHandler extends Handler {
+		private final Writer writer;
+		private final SharedStrings strings;
+		private final NumberFormats formats;
+		private final boolean indexFormulas;
+		private final StringBuilder value = new StringBuilder();
+		private final StringBuilder formula = new StringBuilder();
+		private final StringBuilder headerFooter = new StringBuilder();
+		@Nullable private StringBuilder target;
+		@Nullable private String cellType;
+		@Nullable private String cellStyle;
+		private int cellCount = 0;
+		private boolean inInlineString = false;
+		private boolean inPhonetic = false;
+
+		public SheetHandler(@NotNull Writer writer,
+							@NotNull SharedStrings strings,
+							@NotNull NumberFormats formats,
+							boolean indexFormulas,
+							@NotNull Cancelable cancelable) {
+			super(cancelable);
+			this.writer = writer;
+			this.strings = strings;
+			this.formats = formats;
+			this.indexFormulas = indexFormulas;
+		}
+
+		protected void start(String localName, Attributes atts) {
+			if (localName.equals("c")) {
+				cellType = atts.getValue("t");
+				cellStyle = atts.getValue("s");
+				value.setLength(0);
+				formula.setLength(0);
+			}
+			else if (localName.equals("v")) {
+				target = value;
+			}
+			else if (localName.equals("f")) {
+				target = formula;
+			}
+			else if (localName.equals("is")) {
+				inInlineString = true;
+			}
+			else if (localName.equals("rPh")) {
+				inPhonetic = true;
+			}
+			else if (localName.equals("t") && inInlineString && !inPhonetic) {
+				target = value;
+			}
+			else if (isHeaderFooter(localName)) {
+				headerFooter.setLength(0);
+				target = headerFooter;
+			}
+		}
+
+		// oddHeader, evenFooter, firstHeader, etc., but not the parent element
+		private static boolean isHeaderFooter(@NotNull String localName) {
+			return localName.endsWith("Header") || (localName.endsWith("Footer")
+					&& !localName.equals("headerFooter"));
+		}
+
+		protected void end(String localName) throws IOException {
+			if (localName.equals("v") || localName.equals("f") || localName.equals("t")) {
+				target = null;
+			}
+			else if (localName.equals("is")) {
+				inInlineString = false;
+			}
+			else if (localName.equals("rPh")) {
+				inPhonetic = false;
+			}
+			else if (localName.equals("c")) {
+				if (cellCount++ > 0)
+					writer.write('\t');
+				writeCell();
+			}
+			else if (localName.equals("row")) {
+				writer.write('\n');
+				cellCount = 0;
+			}
+			else if (isHeaderFooter(localName) && target == headerFooter) {
+				writeHeaderFooter(headerFooter, writer);
+				target = null;
+			}
+		}
+
+		protected void text(char[] ch, int start, int length) {
+			if (target != null)
+				target.append(ch, start, length);
+		}
+
+		private void writeCell() throws IOException {
+			// Dependent cells of shared formulas have an empty formula element
+			if (indexFormulas && formula.length() > 0) {
+				writer.append(formula);
+				return;
+			}
+			if (value.length() == 0)
+				return;
+			if ("s".equals(cellType)) {
+				try {
+					strings.write(Integer.parseInt(value.toString()), writer);
+				}
+				catch (NumberFormatException e) {
+				}
+			}
+			else if ("b".equals(cellType)) {
+				boolean isTrue = value.length() == 1 && value.charAt(0) == '1';
+				writer.write(isTrue ? "TRUE" : "FALSE");
+			}
+			else if (cellType == null || "n".equals(cellType)) {
+				String raw = value.toString();
+				try {
+					writer.write(formats.format(Double.parseDouble(raw), cellStyle));
+				}
+				catch (RuntimeException e) {
+					// Invalid number or number format
+					writer.write(raw);
+				}
+			}
+			else {
+				// Inline strings, formula strings, errors and ISO dates
+				writer.append(value);
+			}
+		}
+	}
+
+}
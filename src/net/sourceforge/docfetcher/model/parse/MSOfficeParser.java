@@ -115,14 +115,14 @@ abstract class MSOfficeParser extends FileParser {
 
 	protected final ParseResult parse(File file, ParseContext context)
 			throws ParseException {
-		String contents = renderText(file, context.getFilename());
-		ParseResult parseResult = new ParseResult(contents);
+		ParseResult parseResult = extractContent(file, context);
 		
 		POIFSReader reader = new POIFSReader();
 		MyReaderListener listener = new MyReaderListener();
 		reader.registerListener(listener, "\005SummaryInformation"); //$NON-NLS-1$
 		
 		InputStream in = null;
+		boolean failed = true;
 		try {
 			in = new FileInputStream(file);
 			try {
@@ -139,18 +139,41 @@ abstract class MSOfficeParser extends FileParser {
 			.addMiscMetadata(listener.subject)
 			.addMiscMetadata(listener.keywords)
 			.addMiscMetadata(listener.comments);
+			failed = false;
 		}
 		catch (IOException e) {
 			// Ignore, we can live without meta data
 			Util.printErr(e);
+			failed = false;
 		}
 		finally {
 			Closeables.closeQuietly(in);
+			
+			/*
+			 * POI may also throw other runtime exceptions here. In any case,
+			 * nobody is going to read the streaming content, so its producer
+			 * must be stopped.
+			 */
+			StreamingContent content = parseResult.getStreamingContent();
+			if (failed && content != null)
+				content.close();
 		}
 		
 		return parseResult;
 	}
 	
+	/**
+	 * Returns a parse result holding the text of the given file, to which the
+	 * metadata is then added. Subclasses may override this to return a parse
+	 * result with streaming content.
+	 */
+	@NotNull
+	protected ParseResult extractContent(	@NotNull File file,
+											@NotNull ParseContext context)
+			throws ParseException {
+		return new ParseResult(renderText(file, context.getFilename()));
+	}
+	
 	protected String renderText(File file, String filename)
 			throws ParseException {
 		InputStream in = null;
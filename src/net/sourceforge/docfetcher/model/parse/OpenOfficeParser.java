@@ -11,31 +11,30 @@
 
 package net.sourceforge.docfetcher.model.parse;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import net.htmlparser.jericho.CharacterReference;
 import net.htmlparser.jericho.Element;
 import net.htmlparser.jericho.Source;
-import net.htmlparser.jericho.StartTag;
 import net.sourceforge.docfetcher.enums.Msg;
+import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
-import net.sourceforge.docfetcher.util.annotations.Nullable;
-
-import com.catcode.odf.OpenDocumentTextInputStream;
-import com.google.common.io.CharStreams;
-import com.google.common.io.Closeables;
 
 /**
  * @author Tran Nam Quang
@@ -68,6 +67,18 @@ abstract class OpenOfficeParser extends FileParser {
 	
 	private static final Collection<String> types = MediaType.Col.application("zip");
 	
+	private static final Collection<String> metadataFields = Arrays.asList(
+		"title", "creator", "description", "subject", "keyword"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+	
+	/*
+	 * Elements that can occur in the middle of a paragraph, but whose text
+	 * does not belong to the surrounding text: footnotes, comments, frames,
+	 * etc.
+	 */
+	private static final Set<String> separatedElements = new HashSet<String>(Arrays.asList(
+		"note", "note-citation", "annotation", "frame", "creator", "date", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+		"title", "desc")); //$NON-NLS-1$ //$NON-NLS-2$
+	
 	private final String typeLabel;
 	private final Collection<String> extensions;
 	
@@ -90,105 +101,253 @@ abstract class OpenOfficeParser extends FileParser {
 	
 	@Override
 	protected final ParseResult parse(	@NotNull File file,
-										@NotNull ParseContext context)
+										@NotNull final ParseContext context)
 			throws ParseException {
-		ZipFile zipFile = null;
+		ZipPackage pkg = null;
+		boolean streaming = false;
 		try {
-			// Get zip entries
-			zipFile = new ZipFile(file);
+			pkg = new ZipPackage(file);
 			
 			// Find out if file is password protected
-			Source manifSource = UtilParser.getSource(zipFile, "META-INF/manifest.xml"); //$NON-NLS-1$
-			StartTag encryptTag = manifSource.getNextStartTag(0, "manifest:encryption-data"); //$NON-NLS-1$
-			if (encryptTag != null)
+			if (isEncrypted(pkg))
 				throw new ParseException(Msg.doc_pw_protected.get());
 			
-			// Get tags from meta.xml file
-			Source metaSource = UtilParser.getSource(zipFile, "meta.xml"); //$NON-NLS-1$
-			String title = getElementContent(metaSource, "dc:title"); //$NON-NLS-1$
-			String author = getElementContent(metaSource, "dc:creator"); //$NON-NLS-1$
-			String description = getElementContent(metaSource, "dc:description"); //$NON-NLS-1$
-			String subject = getElementContent(metaSource, "dc:subject"); //$NON-NLS-1$
-			String keyword = getElementContent(metaSource, "meta:keyword"); //$NON-NLS-1$
-
+			// Get metadata from meta.xml file
+			Map<String, String> metadata = readMetadata(pkg);
+			
 			// Collect content.xml entries
-			List<ZipEntry> contentEntries = new ArrayList<ZipEntry>();
-			ZipEntry contentZipEntry = zipFile.getEntry("content.xml"); //$NON-NLS-1$
+			final List<ZipEntry> contentEntries = new ArrayList<ZipEntry>();
+			ZipEntry contentZipEntry = pkg.getEntry("content.xml"); //$NON-NLS-1$
 			if (contentZipEntry == null) { // bug #741
 				throw new ParseException("This document contains no content.xml file.");
 			}
 			contentEntries.add(contentZipEntry);
-			Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
-			while (zipEntries.hasMoreElements()) {
-				ZipEntry entry = zipEntries.nextElement();
-				if (entry.getName().endsWith("/content.xml")) //$NON-NLS-1$
-					contentEntries.add(entry);
-			}
+			contentEntries.addAll(pkg.getEntriesEndingWith("/content.xml")); //$NON-NLS-1$
 			
-			// Get contents from the content.xml entries
-			StringBuilder sb = new StringBuilder();
-			for (ZipEntry entry : contentEntries) {
-				InputStream contentInputStream = zipFile.getInputStream(entry);
-				Source contentSource = new Source(contentInputStream);
-				Closeables.closeQuietly(contentInputStream);
-				contentSource.setLogger(null);
-				Element contentElement = contentSource.getNextElement(0, "office:body"); //$NON-NLS-1$
-				if (contentElement == null) // this content.xml file doesn't seem to contain text
-					continue;
-				String content = UtilParser.extract(contentElement);
-				sb.append(content).append(" "); //$NON-NLS-1$
+			/*
+			 * For large files, extract the text on a separate thread while the
+			 * caller is reading it. The package is then closed by the
+			 * extraction thread.
+			 */
+			ParseResult parseResult;
+			if (context.isStreamingAllowed()
+					&& StreamingContent.isEnabled(context.getFileSize())) {
+				final ZipPackage streamedPkg = pkg;
+				StreamingContent content = new StreamingContent(
+					OpenOfficeParser.class.getName() + " (streaming extraction)",
+					new StreamingContent.Producer() {
+						public void produce(Writer writer) throws Exception {
+							try {
+								writeText(streamedPkg, contentEntries, writer, context.getCancelable());
+							}
+							finally {
+								streamedPkg.close();
+							}
+						}
+					});
+				streaming = true;
+				parseResult = new ParseResult(content);
+			}
+			else {
+				StringWriter writer = new StringWriter();
+				writeText(pkg, contentEntries, writer, context.getCancelable());
+				parseResult = new ParseResult(writer.getBuffer());
 			}
 			
 			// Create and return parse result
-			return new ParseResult(sb)
-				.setTitle(title)
-				.addAuthor(author)
-				.addMiscMetadata(description)
-				.addMiscMetadata(subject)
-				.addMiscMetadata(keyword);
+			return parseResult
+				.setTitle(metadata.get("title")) //$NON-NLS-1$
+				.addAuthor(metadata.get("creator")) //$NON-NLS-1$
+				.addMiscMetadata(metadata.get("description")) //$NON-NLS-1$
+				.addMiscMetadata(metadata.get("subject")) //$NON-NLS-1$
+				.addMiscMetadata(metadata.get("keyword")); //$NON-NLS-1$
 		}
 		catch (IOException e) {
 			throw new ParseException(e);
 		}
 		finally {
-			UtilParser.closeZipFile(zipFile);
+			if (pkg != null && !streaming)
+				pkg.close();
 		}
 	}
 	
-	protected final String renderText(File file, ParseContext context)
-			throws ParseException {
-		ZipFile zipFile = null;
-		Reader reader = null;
+	/*
+	 * The methods below read the XML files with the strict pull parser. If a
+	 * file is not well-formed, they fall back to the lenient Jericho parser, so
+	 * that a broken file yields at least some text rather than a parse error.
+	 */
+	
+	private static boolean isEncrypted(@NotNull ZipPackage pkg)
+			throws IOException, ParseException {
+		String path = "META-INF/manifest.xml"; //$NON-NLS-1$
+		XMLStreamReader reader = pkg.openXml(path);
 		try {
-			zipFile = new ZipFile(file);
-			ZipEntry contentZipEntry = zipFile.getEntry("content.xml"); //$NON-NLS-1$
-			if (contentZipEntry == null)
-				throw new ParseException(Msg.file_corrupted.get());
-			
-			InputStream in = zipFile.getInputStream(contentZipEntry);
-			in = new OpenDocumentTextInputStream(in);
-			reader = new BufferedReader(new InputStreamReader(in, "utf8"));
-			
-			return CharStreams.toString(reader);
+			while (reader.hasNext())
+				if (reader.next() == XMLStreamConstants.START_ELEMENT
+						&& reader.getLocalName().equals("encryption-data")) //$NON-NLS-1$
+					return true;
+			return false;
 		}
-		catch (IOException e) {
-			throw new ParseException(e);
+		catch (XMLStreamException e) {
+			Source source = pkg.openSource(path);
+			return source.getNextStartTag(0, "manifest:encryption-data") != null; //$NON-NLS-1$
+		}
+		finally {
+			ZipPackage.closeQuietly(reader);
+		}
+	}
+	
+	/**
+	 * Returns the first value of each of the metadata fields 'title',
+	 * 'creator', 'description', 'subject' and 'keyword' found in the meta.xml
+	 * file, keyed by the local name of the element.
+	 */
+	@NotNull
+	private static Map<String, String> readMetadata(@NotNull ZipPackage pkg)
+			throws IOException, ParseException {
+		Map<String, String> metadata = new HashMap<String, String>();
+		String path = "meta.xml"; //$NON-NLS-1$
+		XMLStreamReader reader = pkg.openXml(path);
+		try {
+			while (reader.hasNext()) {
+				if (reader.next() != XMLStreamConstants.START_ELEMENT)
+					continue;
+				String name = reader.getLocalName();
+				if (metadataFields.contains(name) && !metadata.containsKey(name))
+					metadata.put(name, ZipPackage.readText(reader));
+			}
+			return metadata;
+		}
+		catch (XMLStreamException e) {
+			metadata.clear();
+			Source source = pkg.openSource(path);
+			for (String name : metadataFields) {
+				String prefix = name.equals("keyword") ? "meta:" : "dc:"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				Element el = source.getNextElement(0, prefix + name);
+				if (el != null)
+					metadata.put(name, CharacterReference.decode(el.getContent()));
+			}
+			return metadata;
 		}
 		finally {
-			Closeables.closeQuietly(reader);
-			UtilParser.closeZipFile(zipFile);
+			ZipPackage.closeQuietly(reader);
+		}
+	}
+	
+	private static void writeText(	@NotNull ZipPackage pkg,
+									@NotNull List<ZipEntry> contentEntries,
+									@NotNull Writer writer,
+									@NotNull Cancelable cancelable)
+			throws IOException, ParseException {
+		for (ZipEntry entry : contentEntries) {
+			if (cancelable.isCanceled())
+				break;
+			int mark = writer instanceof StringWriter
+				? ((StringWriter) writer).getBuffer().length()
+				: -1;
+			XMLStreamReader reader = pkg.openXml(entry);
+			try {
+				if (writeBody(reader, writer, cancelable))
+					writer.write("\n"); //$NON-NLS-1$
+			}
+			catch (XMLStreamException e) {
+				/*
+				 * Discard the text written so far, unless it has already been
+				 * streamed to the reader, in which case the beginning of the
+				 * entry will be indexed twice.
+				 */
+				if (mark >= 0)
+					((StringWriter) writer).getBuffer().setLength(mark);
+				Element bodyEl = pkg.openSource(entry).getNextElement(0, "office:body"); //$NON-NLS-1$
+				if (bodyEl != null) {
+					writer.write(UtilParser.extract(bodyEl));
+					writer.write("\n"); //$NON-NLS-1$
+				}
+			}
+			finally {
+				ZipPackage.closeQuietly(reader);
+			}
 		}
 	}
 	
 	/**
-	 * Returns the textual content inside the given HTML element from the given
-	 * HTML source. Returns null if the HTML element is not found.
+	 * Writes the text inside the office:body element of a content.xml file to
+	 * the given writer, and returns whether such an element was found.
+	 * Elements are matched by their local names.
 	 */
-	@Nullable
-	private static String getElementContent(@NotNull Source source,
-											@NotNull String elementName) {
-		Element el = source.getNextElement(0, elementName);
-		return el == null ? null : CharacterReference.decode(el.getContent());
+	private static boolean writeBody(	@NotNull XMLStreamReader reader,
+										@NotNull Writer writer,
+										@NotNull Cancelable cancelable)
+			throws XMLStreamException, IOException {
+		boolean inBody = false;
+		int paragraphDepth = 0;
+		int cellDepth = 0;
+		int elementCount = 0;
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				String name = reader.getLocalName();
+				if (!inBody) {
+					inBody = name.equals("body"); //$NON-NLS-1$
+					continue;
+				}
+				if (++elementCount % 1024 == 0 && cancelable.isCanceled())
+					return true;
+				if (name.equals("p") || name.equals("h")) { //$NON-NLS-1$ //$NON-NLS-2$
+					paragraphDepth++;
+				}
+				else if (name.equals("s")) { //$NON-NLS-1$
+					writer.write(' ');
+				}
+				else if (name.equals("tab")) { //$NON-NLS-1$
+					writer.write('\t');
+				}
+				else if (name.equals("line-break")) { //$NON-NLS-1$
+					writer.write('\n');
+				}
+				else if (name.equals("table-cell") || name.equals("covered-table-cell")) { //$NON-NLS-1$ //$NON-NLS-2$
+					cellDepth++;
+				}
+				else if (name.equals("binary-data") || name.equals("tracked-changes")) { //$NON-NLS-1$ //$NON-NLS-2$
+					// Embedded images and deleted text
+					ZipPackage.skipElement(reader);
+				}
+				else if (separatedElements.contains(name)) {
+					writer.write(' ');
+				}
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT) {
+				if (!inBody)
+					continue;
+				String name = reader.getLocalName();
+				if (name.equals("body")) //$NON-NLS-1$
+					return true;
+				if (name.equals("p") || name.equals("h")) { //$NON-NLS-1$ //$NON-NLS-2$
+					paragraphDepth--;
+					writer.write(cellDepth > 0 ? ' ' : '\n');
+				}
+				else if (name.equals("table-cell") || name.equals("covered-table-cell")) { //$NON-NLS-1$ //$NON-NLS-2$
+					cellDepth--;
+					writer.write('\t');
+				}
+				else if (name.equals("table-row")) { //$NON-NLS-1$
+					writer.write('\n');
+				}
+				else if (separatedElements.contains(name)) {
+					writer.write(' ');
+				}
+			}
+			else if (inBody && (event == XMLStreamConstants.CHARACTERS
+					|| event == XMLStreamConstants.CDATA)) {
+				// Skip formatting whitespace between elements
+				if (paragraphDepth == 0 && reader.isWhiteSpace())
+					continue;
+				writer.write(
+					reader.getTextCharacters(), reader.getTextStart(),
+					reader.getTextLength());
+			}
+		}
+		return inBody;
 	}
 
 }
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.zip.ZipOutputStream;
+
+import net.sourceforge.docfetcher.model.parse.OpenOfficeParser.OpenOfficeWriterParser;
+import net.sourceforge.docfetcher.util.Util;
+
+import org.junit.Test;
+
+import com.google.common.io.Closeables;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class OpenOfficeParserTest {
+	
+	private static final String manifest = "<?xml version='1.0'?>"
+			+ "<manifest:manifest xmlns:manifest='urn:oasis:names:tc:opendocument:xmlns:manifest:1.0'>"
+			+ "<manifest:file-entry manifest:full-path='content.xml' manifest:media-type='text/xml'/>"
+			+ "</manifest:manifest>";
+	
+	@Test
+	public void testWellFormed() throws Exception {
+		ParseResult result = parse(
+			createMeta("Title"),
+			createContent("<text:p>First <text:span>para</text:span>graph</text:p>"
+					+ "<text:p>Second paragraph</text:p>"));
+		assertEquals("Title", result.getTitle());
+		assertEquals(Arrays.asList("Author"), result.getAuthors());
+		assertEquals(
+			"First paragraph\nSecond paragraph\n\n",
+			result.getContent().toString());
+	}
+	
+	@Test
+	public void testHtmlEntityInMeta() throws Exception {
+		ParseResult result = parse(
+			createMeta("Some&nbsp;title"),
+			createContent("<text:p>Text</text:p>"));
+		assertEquals("Some title", result.getTitle());
+		assertEquals(Arrays.asList("Author"), result.getAuthors());
+		assertEquals("Text\n\n", result.getContent().toString());
+	}
+	
+	@Test
+	public void testMalformedContent() throws Exception {
+		/*
+		 * The pull parser rejects the unclosed element. The text must still
+		 * be extracted, exactly once.
+		 */
+		ParseResult result = parse(
+			createMeta("Title"),
+			createContent("<text:p>First paragraph</text:p>"
+					+ "<text:p>Second <text:span>paragraph</text:p>"));
+		String text = result.getContent().toString();
+		assertTrue(text.contains("Second paragraph"));
+		assertEquals(text.indexOf("First"), text.lastIndexOf("First"));
+		assertEquals("Title", result.getTitle());
+	}
+	
+	private static String createMeta(String title) {
+		return "<?xml version='1.0'?>"
+				+ "<office:document-meta"
+				+ " xmlns:office='urn:oasis:names:tc:opendocument:xmlns:office:1.0'"
+				+ " xmlns:meta='urn:oasis:names:tc:opendocument:xmlns:meta:1.0'"
+				+ " xmlns:dc='http://purl.org/dc/elements/1.1/'>"
+				+ "<office:meta><dc:title>" + title + "</dc:title>"
+				+ "<dc:creator>Author</dc:creator></office:meta>"
+				+ "</office:document-meta>";
+	}
+	
+	private static String createContent(String body) {
+		return "<?xml version='1.0'?>"
+				+ "<office:document-content"
+				+ " xmlns:office='urn:oasis:names:tc:opendocument:xmlns:office:1.0'"
+				+ " xmlns:text='urn:oasis:names:tc:opendocument:xmlns:text:1.0'>"
+				+ "<office:body><office:text>" + body + "</office:text></office:body>"
+				+ "</office:document-content>";
+	}
+	
+	private static ParseResult parse(String meta, String content)
+			throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			File file = new File(tempDir, "test.odt");
+			ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+			try {
+				EpubParserTest.putEntry(out, "META-INF/manifest.xml", manifest);
+				EpubParserTest.putEntry(out, "meta.xml", meta);
+				EpubParserTest.putEntry(out, "content.xml", content);
+			}
+			finally {
+				Closeables.closeQuietly(out);
+			}
+			return new OpenOfficeWriterParser().parse(file, new ParseContext(file.getName()));
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+}
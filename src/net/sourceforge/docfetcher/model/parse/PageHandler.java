@@ -13,7 +13,10 @@ package net.sourceforge.docfetcher.model.parse;
 
 public interface PageHandler {
 	
-	/** Returns whether the parsing process should stop. */
-	public boolean handlePage(String pageText);
+	/**
+	 * Handles the text of the page with the given zero-based index and returns
+	 * whether the parsing process should stop.
+	 */
+	public boolean handlePage(String pageText, int pageIndex);
 	
 }
\ No newline at end of file
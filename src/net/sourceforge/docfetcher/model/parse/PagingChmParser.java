@@ -12,14 +12,14 @@
 package net.sourceforge.docfetcher.model.parse;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
 
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
 
 import org.apache.tika.parser.chm.accessor.DirectoryListingEntry;
 import org.apache.tika.parser.chm.core.ChmExtractor;
 
+import com.google.common.io.Closeables;
+
 public final class PagingChmParser {
 	
 	private final File file;
@@ -31,15 +31,17 @@ public final class PagingChmParser {
 	}
 	
 	public void run() throws ParseException, CheckedOutOfMemoryError {
-		ChmExtractor chmExtractor = null;
+		ChmExtractor chmExtractor = ChmParser.openExtractor(file);
 		try {
-			InputStream in = new FileInputStream(file);
-			chmExtractor = new ChmExtractor(in);
+			run(chmExtractor);
 		}
-		catch (Exception e) {
-			throw new ParseException(e);
+		finally {
+			Closeables.closeQuietly(chmExtractor);
 		}
-		
+	}
+	
+	private void run(ChmExtractor chmExtractor) {
+		int pageIndex = 0;
 		for (DirectoryListingEntry entry : chmExtractor.getChmDirList().getDirectoryListingEntryList()) {
 			String entryName = entry.getName().toLowerCase();
 			if (entryName.endsWith(".html") || entryName.endsWith(".htm")) {
@@ -49,7 +51,7 @@ public final class PagingChmParser {
 					if (text == null) {
 						text = "";
 					}
-					if (handler.handlePage(text)) {
+					if (handler.handlePage(text, pageIndex++)) {
 						return;
 					}
 				} catch (Exception e) {
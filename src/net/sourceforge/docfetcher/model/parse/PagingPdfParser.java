@@ -14,35 +14,90 @@ package net.sourceforge.docfetcher.model.parse;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.BitSet;
 
+import net.sourceforge.docfetcher.model.parse.PdfParser.ScratchFile;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.util.PDFTextStripper;
 
+import com.google.common.io.Closeables;
+
 /**
+ * Extracts the pages of a PDF file one by one for the preview. If the indices
+ * of some pages are given as first pages (typically the pages that contain
+ * search hits), these pages are extracted before all other pages. The page
+ * handler receives the page index along with the page text, since pages may
+ * not be extracted in document order.
+ * 
  * @author Tran Nam Quang
  */
 public final class PagingPdfParser {
 	
 	private final File file;
+	@Nullable private final int[] firstPages;
 	private final PageHandler handler;
 	private final StringWriter writer = new StringWriter();
+	private boolean stopped = false;
+	private boolean clearPages = false;
 
 	public PagingPdfParser(File file, PageHandler handler) {
+		this(file, null, handler);
+	}
+	
+	/**
+	 * @param firstPages
+	 *            The zero-based indices of the pages to extract before all
+	 *            other pages, or null. Invalid page indices are ignored.
+	 */
+	public PagingPdfParser(File file, @Nullable int[] firstPages, PageHandler handler) {
 		this.file = file;
+		this.firstPages = firstPages;
 		this.handler = handler;
 	}
 	
 	public void run() throws ParseException, CheckedOutOfMemoryError {
 		PDDocument doc = null;
+		ScratchFile scratchFile = null;
 		try {
-			doc = PDDocument.load(file);
+			scratchFile = ScratchFile.createIfNeeded(file.length());
+			if (scratchFile == null)
+				doc = PDDocument.load(file);
+			else
+				doc = PDDocument.load(file, scratchFile.randomAccess);
+			clearPages = scratchFile != null;
 			PagingStripper stripper = new PagingStripper();
 			stripper.setForceParsing(true);
 			stripper.setSortByPosition(true);
-			stripper.writeText(doc, writer);
+			if (firstPages == null || firstPages.length == 0) {
+				stripper.writeText(doc, writer);
+				return;
+			}
+			
+			// Extract first pages, then the remaining pages in document order
+			int pageCount = doc.getNumberOfPages();
+			BitSet done = new BitSet(pageCount);
+			for (int page : firstPages) {
+				if (page < 0 || page >= pageCount || done.get(page))
+					continue;
+				done.set(page);
+				writePages(doc, stripper, page, page);
+				if (stopped)
+					return;
+			}
+			int start = done.nextClearBit(0);
+			while (start < pageCount) {
+				int end = done.nextSetBit(start);
+				if (end < 0)
+					end = pageCount;
+				writePages(doc, stripper, start, end - 1);
+				if (stopped)
+					return;
+				start = done.nextClearBit(end);
+			}
 		}
 		catch (Exception e) {
 			throw new ParseException(e);
@@ -52,9 +107,20 @@ public final class PagingPdfParser {
 		}
 		finally {
 			PdfParser.close(doc);
+			Closeables.closeQuietly(scratchFile);
 		}
 	}
 
+	// Page indices are zero-based and inclusive
+	private void writePages(PDDocument doc,
+							PagingStripper stripper,
+							int startPage,
+							int endPage) throws IOException {
+		stripper.setStartPage(startPage + 1);
+		stripper.setEndPage(endPage + 1);
+		stripper.writeText(doc, writer);
+	}
+
 	private class PagingStripper extends PDFTextStripper {
 		public PagingStripper() throws IOException {
 			super();
@@ -62,8 +128,10 @@ public final class PagingPdfParser {
 
 		protected void endPage(PDPage page) throws IOException {
 			StringBuffer buffer = writer.getBuffer();
-			boolean stopped = handler.handlePage(buffer.toString());
+			stopped = handler.handlePage(buffer.toString(), getCurrentPageNo() - 1);
 			buffer.delete(0, buffer.length());
+			if (clearPages)
+				page.clear(); // Release cached page resources
 			if (stopped)
 				setEndPage(0);
 		}
@@ -14,6 +14,7 @@ package net.sourceforge.docfetcher.model.parse;
 import static org.junit.Assert.assertEquals;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import net.sourceforge.docfetcher.TestFiles;
@@ -31,7 +32,7 @@ public final class PagingPdfParserTest {
 	public void testParse() throws ParseException, CheckedOutOfMemoryError {
 		final List<String> pages = new ArrayList<String> (3);
 		PageHandler handler = new PageHandler() {
-			public boolean handlePage(String pageText) {
+			public boolean handlePage(String pageText, int pageIndex) {
 				pages.add(pageText);
 				return false;
 			}
@@ -48,7 +49,7 @@ public final class PagingPdfParserTest {
 			CheckedOutOfMemoryError {
 		final List<String> pages = new ArrayList<String> (2);
 		PageHandler handler = new PageHandler() {
-			public boolean handlePage(String pageText) {
+			public boolean handlePage(String pageText, int pageIndex) {
 				pages.add(pageText);
 				return pages.size() >= 2;
 			}
@@ -58,5 +59,25 @@ public final class PagingPdfParserTest {
 		assertEquals("page 1" + Util.LS, pages.get(0));
 		assertEquals("page 2" + Util.LS, pages.get(1));
 	}
+	
+	@Test
+	public void testParseFirstPages() throws ParseException,
+			CheckedOutOfMemoryError {
+		final List<String> pages = new ArrayList<String> (3);
+		final List<Integer> pageIndices = new ArrayList<Integer> (3);
+		PageHandler handler = new PageHandler() {
+			public boolean handlePage(String pageText, int pageIndex) {
+				pages.add(pageText);
+				pageIndices.add(pageIndex);
+				return false;
+			}
+		};
+		int[] firstPages = { 2, 5 }; // Page index 5 doesn't exist
+		new PagingPdfParser(TestFiles.multi_page_pdf.get(), firstPages, handler).run();
+		assertEquals(Arrays.asList(2, 0, 1), pageIndices);
+		assertEquals("page 3" + Util.LS, pages.get(0));
+		assertEquals("page 1" + Util.LS, pages.get(1));
+		assertEquals("page 2" + Util.LS, pages.get(2));
+	}
 
 }
@@ -24,6 +24,8 @@ final class ParseContext {
 	private final String filename;
 	private final IndexingReporter reporter;
 	private final Cancelable cancelable;
+	private long fileSize = -1;
+	private boolean streamingAllowed = false;
 
 	public ParseContext(@NotNull String filename) {
 		this(filename, IndexingReporter.nullReporter, Cancelable.nullCancelable);
@@ -52,5 +54,29 @@ final class ParseContext {
 	public Cancelable getCancelable() {
 		return cancelable;
 	}
+	
+	/**
+	 * Returns the size of the file being parsed in bytes, or -1 if the size is
+	 * unknown.
+	 */
+	public long getFileSize() {
+		return fileSize;
+	}
+	
+	public void setFileSize(long fileSize) {
+		this.fileSize = fileSize;
+	}
+	
+	/**
+	 * Returns whether the parser may return a parse result with streaming
+	 * content. See {@link StreamingContent}.
+	 */
+	public boolean isStreamingAllowed() {
+		return streamingAllowed;
+	}
+	
+	public void setStreamingAllowed(boolean streamingAllowed) {
+		this.streamingAllowed = streamingAllowed;
+	}
 
 }
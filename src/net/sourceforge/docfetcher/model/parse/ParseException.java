@@ -16,7 +16,7 @@ import net.sourceforge.docfetcher.util.annotations.NotNull;
 /**
  * @author Tran Nam Quang
  */
-public final class ParseException extends Exception {
+public class ParseException extends Exception {
 	
 	private static final long serialVersionUID = 1L;
 	
@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+
+/**
+ * Thrown if parsing a file was aborted because it exceeded the time or memory
+ * budget of the {@link ParseSandbox}.
+ *
+ * @author Tran Nam Quang
+ */
+public final class ParseLimitException extends ParseException {
+	
+	private static final long serialVersionUID = 1L;
+	
+	public ParseLimitException(@NotNull String message) {
+		super(message);
+	}
+	
+}
@@ -14,6 +14,7 @@ package net.sourceforge.docfetcher.model.parse;
 import java.util.ArrayList;
 import java.util.List;
 
+import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.MutableCopy;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
@@ -28,23 +29,59 @@ import net.sourceforge.docfetcher.util.annotations.Nullable;
 public final class ParseResult {
 	
 	@NotNull private CharSequence content;
+	@Nullable private StreamingContent streamingContent;
 	@Nullable private String title;
 	@Nullable private List<String> authors;
 	@Nullable private List<String> miscMetadata;
+	@Nullable private int[] pageOffsets;
 	@NotNull private String parserName;
 	
 	public ParseResult(@Nullable CharSequence content) {
 		setContent(content);
 	}
 	
+	/**
+	 * Creates a parse result whose content is still being extracted while it
+	 * is read. See {@link StreamingContent}.
+	 */
+	public ParseResult(@NotNull StreamingContent content) {
+		this.content = "";
+		this.streamingContent = Util.checkNotNull(content);
+	}
+	
+	/**
+	 * Returns the content of the receiver. Returns an empty string if the
+	 * receiver has streaming content, see {@link #getStreamingContent()}.
+	 */
 	@NotNull
 	public CharSequence getContent() {
 		return content;
 	}
 	
+	/**
+	 * Returns the streaming content of the receiver, or null if the receiver
+	 * does not have streaming content. After reading the streaming content,
+	 * the client must call {@link #finish()}.
+	 */
+	@Nullable
+	public StreamingContent getStreamingContent() {
+		return streamingContent;
+	}
+	
+	/**
+	 * Waits for the extraction of streaming content to finish and throws any
+	 * error that occurred during the extraction. Does nothing if the receiver
+	 * does not have streaming content.
+	 */
+	public void finish() throws ParseException, CheckedOutOfMemoryError {
+		if (streamingContent != null)
+			streamingContent.finish();
+	}
+	
 	@NotNull
 	public ParseResult setContent(@Nullable CharSequence content) {
 		this.content = content == null ? "" : content;
+		this.streamingContent = null;
 		return this;
 	}
 	
@@ -106,6 +143,22 @@ public final class ParseResult {
 		return metadata;
 	}
 	
+	/**
+	 * Returns the character offsets at which the pages of the document start
+	 * in the content, followed by the character offset at which the last page
+	 * ends. Returns null if the document is not divided into pages.
+	 */
+	@Nullable
+	public int[] getPageOffsets() {
+		return pageOffsets;
+	}
+	
+	@NotNull
+	public ParseResult setPageOffsets(@Nullable int[] pageOffsets) {
+		this.pageOffsets = pageOffsets;
+		return this;
+	}
+	
 	// Should not be called by Parser implementations
 	@Nullable
 	public String getParserName() {
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sourceforge.docfetcher.enums.Msg;
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Runs parsers under a wall-clock and memory budget, so that a single
+ * pathological file (e.g. a file that sends a parser into an endless loop, or
+ * a zip bomb) cannot stall the indexing for hours. The budget is configured
+ * via {@link ProgramConf.Int#ParseTimeout} and
+ * {@link ProgramConf.Int#ParseMemoryLimit}. Files smaller than
+ * {@link ProgramConf.Int#ParseSandboxThreshold} are parsed on the calling
+ * thread without a budget, since handing them to a worker thread would cost
+ * more than parsing them.
+ * <p>
+ * The parser runs on a worker thread while the calling thread watches it. When
+ * the budget is exceeded, the sandbox reports itself as canceled to the parser
+ * and interrupts the worker thread. If the parser does not react to that
+ * within a few seconds, the worker thread is abandoned, since Java offers no
+ * safe way of killing a thread. In either case, a
+ * {@link ParseLimitException} is thrown, so that the caller can move on to the
+ * next file. Abandoned threads may keep running and using the CPU, so their
+ * number is capped: Once the cap is reached, files are parsed on the calling
+ * thread without a budget until some of the abandoned threads have finished.
+ * <p>
+ * The memory budget is global and best-effort: It is checked against the heap
+ * usage after garbage collection and thus applies to the heap as a whole
+ * rather than to the parser alone, including memory used by other threads.
+ * It is only checked every now and then, so a parser allocating memory very
+ * quickly may still run out of memory. Parse results with streaming content
+ * are only covered until the parser returns, not while the streaming content
+ * is being read.
+ *
+ * @author Tran Nam Quang
+ */
+final class ParseSandbox implements Cancelable {
+
+	interface Task {
+		@NotNull
+		public ParseResult call() throws ParseException, CheckedOutOfMemoryError;
+	}
+
+	private static final long POLL_INTERVAL = 250; // milliseconds
+	private static final long ABORT_GRACE_PERIOD = 5000; // milliseconds
+	private static final int MAX_ABANDONED_THREADS = 4;
+
+	private static final int RUNNING = 0;
+	private static final int FINISHED = 1;
+	private static final int ABANDONED = 2;
+
+	/*
+	 * A cached thread pool reuses idle worker threads, and replaces abandoned
+	 * worker threads with new ones as needed. The worker threads are daemon
+	 * threads, so that abandoned threads won't prevent the program from
+	 * exiting.
+	 */
+	private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger(0);
+
+		public Thread newThread(Runnable r) {
+			String name = ParseSandbox.class.getName()
+					+ " (parser " + count.incrementAndGet() + ")";
+			Thread thread = new Thread(r, name);
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private static final AtomicInteger abandonedThreads = new AtomicInteger(0);
+
+	private static final List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+
+	static {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported())
+				heapPools.add(pool);
+	}
+
+	private final Cancelable cancelable;
+	private final long fileSize;
+	private volatile boolean aborted = false;
+
+	/**
+	 * Creates a sandbox for a file of the given size in bytes, or -1 if the
+	 * size is unknown. The sandbox reports itself as canceled if either the
+	 * given cancelable is canceled or the budget was exceeded.
+	 */
+	public ParseSandbox(@NotNull Cancelable cancelable, long fileSize) {
+		this.cancelable = Util.checkNotNull(cancelable);
+		this.fileSize = fileSize;
+	}
+
+	public boolean isCanceled() {
+		return aborted || cancelable.isCanceled();
+	}
+
+	/**
+	 * Runs the given task under the configured budget. If no budget is
+	 * configured, if the file is small, or if too many worker threads have
+	 * been abandoned, the task runs on the calling thread.
+	 */
+	@NotNull
+	public ParseResult run(@NotNull final Task task)
+			throws ParseException, CheckedOutOfMemoryError {
+		long timeout = ProgramConf.Int.ParseTimeout.get() * 1000L;
+		int memoryLimit = Math.min(ProgramConf.Int.ParseMemoryLimit.get(), 100);
+		if (timeout == 0 && (memoryLimit == 0 || heapPools.isEmpty()))
+			return task.call();
+		long threshold = ProgramConf.Int.ParseSandboxThreshold.get() * 1024L * 1024L;
+		if (fileSize >= 0 && fileSize < threshold)
+			return task.call();
+		if (abandonedThreads.get() >= MAX_ABANDONED_THREADS)
+			return task.call();
+
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicInteger state = new AtomicInteger(RUNNING);
+		Future<ParseResult> future = executor.submit(new Callable<ParseResult>() {
+			public ParseResult call() throws Exception {
+				try {
+					ParseResult result = task.call();
+					StreamingContent content = result.getStreamingContent();
+					if (aborted && content != null)
+						content.close(); // Nobody is going to read it
+					return result;
+				}
+				finally {
+					if (!state.compareAndSet(RUNNING, FINISHED))
+						abandonedThreads.decrementAndGet();
+					done.countDown();
+				}
+			}
+		});
+
+		long start = System.currentTimeMillis();
+		long gcCount = getGcCount();
+		while (true) {
+			try {
+				return future.get(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+			}
+			catch (TimeoutException e) {
+				if (timeout > 0 && System.currentTimeMillis() - start > timeout)
+					throw abort(future, done, state, Msg.parse_timeout.format(timeout / 1000));
+				if (memoryLimit > 0 && getGcCount() != gcCount
+						&& isHeapExhausted(memoryLimit))
+					throw abort(future, done, state, Msg.parse_memory_limit.format(memoryLimit));
+			}
+			catch (InterruptedException e) {
+				aborted = true;
+				future.cancel(true);
+				Thread.currentThread().interrupt();
+				throw new ParseException(e);
+			}
+			catch (ExecutionException e) {
+				Throwable t = e.getCause();
+				if (t instanceof ParseException)
+					throw (ParseException) t;
+				if (t instanceof CheckedOutOfMemoryError)
+					throw (CheckedOutOfMemoryError) t;
+				if (t instanceof RuntimeException)
+					throw (RuntimeException) t;
+				if (t instanceof Error)
+					throw (Error) t;
+				throw new ParseException(t);
+			}
+		}
+	}
+
+	@NotNull
+	private ParseLimitException abort(	@NotNull Future<ParseResult> future,
+										@NotNull CountDownLatch done,
+										@NotNull AtomicInteger state,
+										@NotNull String message) {
+		aborted = true;
+		future.cancel(true);
+		Uninterruptibles.awaitUninterruptibly(
+			done, ABORT_GRACE_PERIOD, TimeUnit.MILLISECONDS);
+		if (state.compareAndSet(RUNNING, ABANDONED)) {
+			abandonedThreads.incrementAndGet();
+			Util.printErr("Abandoning parser thread: " + message);
+		}
+		return new ParseLimitException(message);
+	}
+
+	private static long getGcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, gc.getCollectionCount());
+		return count;
+	}
+
+	/*
+	 * Returns whether the heap usage after the most recent garbage collection
+	 * exceeds the given percentage of the maximum heap size. Unlike the current
+	 * heap usage, this does not include garbage that has yet to be collected.
+	 */
+	private static boolean isHeapExhausted(int percent) {
+		long used = 0;
+		for (MemoryPoolMXBean pool : heapPools) {
+			MemoryUsage usage = pool.getCollectionUsage();
+			if (usage != null)
+				used += usage.getUsed();
+		}
+		return used * 100 > Runtime.getRuntime().maxMemory() * percent;
+	}
+
+}
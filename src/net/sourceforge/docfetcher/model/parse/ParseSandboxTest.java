@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.Cancelable;
+
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class ParseSandboxTest {
+
+	@Test
+	public void testResult() throws Exception {
+		ParseSandbox sandbox = new ParseSandbox(Cancelable.nullCancelable, -1);
+		ParseResult result = sandbox.run(new ParseSandbox.Task() {
+			public ParseResult call() {
+				return new ParseResult("text");
+			}
+		});
+		assertEquals("text", result.getContent().toString());
+	}
+
+	@Test
+	public void testSmallFileRunsInline() throws Exception {
+		final Thread caller = Thread.currentThread();
+		final boolean[] inline = { false };
+		ParseSandbox sandbox = new ParseSandbox(Cancelable.nullCancelable, 1000);
+		sandbox.run(new ParseSandbox.Task() {
+			public ParseResult call() {
+				inline[0] = Thread.currentThread() == caller;
+				return new ParseResult("");
+			}
+		});
+		assertTrue(inline[0]);
+		
+		ProgramConf.Int.ParseSandboxThreshold.load("0");
+		try {
+			sandbox = new ParseSandbox(Cancelable.nullCancelable, 1000);
+			sandbox.run(new ParseSandbox.Task() {
+				public ParseResult call() {
+					inline[0] = Thread.currentThread() == caller;
+					return new ParseResult("");
+				}
+			});
+			assertFalse(inline[0]);
+		}
+		finally {
+			ProgramConf.Int.ParseSandboxThreshold.load("1");
+		}
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		ProgramConf.Int.ParseTimeout.load("1");
+		try {
+			final ParseSandbox sandbox = new ParseSandbox(Cancelable.nullCancelable, -1);
+			final boolean[] stopped = { false };
+			long start = System.currentTimeMillis();
+			try {
+				sandbox.run(new ParseSandbox.Task() {
+					public ParseResult call() {
+						while (!sandbox.isCanceled())
+							Thread.yield();
+						stopped[0] = true;
+						return new ParseResult("");
+					}
+				});
+				fail();
+			}
+			catch (ParseLimitException e) {
+			}
+			assertTrue(stopped[0]);
+			assertTrue(System.currentTimeMillis() - start < 5000);
+		}
+		finally {
+			ProgramConf.Int.ParseTimeout.load("600");
+		}
+	}
+
+}
@@ -205,7 +205,29 @@ public final class ParseService {
 	                                @NotNull IndexingReporter reporter,
 	                                @NotNull Cancelable cancelable)
 			throws ParseException, CheckedOutOfMemoryError {
-		ParseContext context = new ParseContext(filename, reporter, cancelable);
+		return parse(config, file, filename, filepath, reporter, cancelable, false);
+	}
+	
+	/**
+	 * Same as the other parse method, except that if <code>allowStreaming</code>
+	 * is true, the returned parse result may have streaming content, in which
+	 * case the caller must read the streaming content and then call
+	 * {@link ParseResult#finish()}.
+	 */
+	@NotNull
+	public static ParseResult parse(@NotNull IndexingConfig config,
+	                                @NotNull File file,
+	                                @NotNull String filename,
+	                                @NotNull Path filepath,
+	                                @NotNull IndexingReporter reporter,
+	                                @NotNull Cancelable cancelable,
+	                                boolean allowStreaming)
+			throws ParseException, CheckedOutOfMemoryError {
+		long fileSize = file.length();
+		ParseSandbox sandbox = new ParseSandbox(cancelable, fileSize);
+		ParseContext context = new ParseContext(filename, reporter, sandbox);
+		context.setFileSize(fileSize);
+		context.setStreamingAllowed(allowStreaming);
 		
 		// Search for appropriate parser by mimetype
 		for (PatternAction patternAction : config.getPatternActions()) {
@@ -218,7 +240,10 @@ public final class ParseService {
 					config, file, filename);
 				for (Parser parser : matchingParsers) {
 					try {
-						return doParse(config, parser, file, context);
+						return doParse(config, parser, file, context, sandbox);
+					}
+					catch (ParseLimitException e) {
+						throw e; // Don't let the next parser run into the same problem
 					}
 					catch (ParseException e) {
 						// Try next parser
@@ -233,7 +258,7 @@ public final class ParseService {
 		// Search for appropriate parser by filename
 		Parser parser = findParserByName(config, file.getName());
 		if (parser != null)
-			return doParse(config, parser, file, context);
+			return doParse(config, parser, file, context, sandbox);
 		
 		/*
 		 * Fall back to filename parser if allowed. The filename will be added
@@ -245,6 +270,21 @@ public final class ParseService {
 		throw new ParseException(Msg.parser_not_found.get());
 	}
 
+	@NotNull
+	private static ParseResult doParse(	@NotNull final IndexingConfig config,
+										@NotNull final Parser parser,
+										@NotNull final File file,
+										@NotNull final ParseContext context,
+										@NotNull ParseSandbox sandbox)
+			throws ParseException, CheckedOutOfMemoryError {
+		return sandbox.run(new ParseSandbox.Task() {
+			public ParseResult call()
+					throws ParseException, CheckedOutOfMemoryError {
+				return doParse(config, parser, file, context);
+			}
+		});
+	}
+
 	// accepts TrueZIP files
 	@NotNull
 	private static ParseResult doParse(	@NotNull IndexingConfig config,
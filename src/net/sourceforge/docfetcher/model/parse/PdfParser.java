@@ -11,17 +11,24 @@
 
 package net.sourceforge.docfetcher.model.parse;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 
 import net.sourceforge.docfetcher.enums.Msg;
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 
 import org.apache.pdfbox.exceptions.CryptographyException;
+import org.apache.pdfbox.io.RandomAccessFile;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDDocumentInformation;
 import org.apache.pdfbox.pdmodel.PDPage;
@@ -29,6 +36,8 @@ import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
 import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationMarkup;
 import org.apache.pdfbox.util.PDFTextStripper;
 
+import com.google.common.io.Closeables;
+
 /**
  * @author Tran Nam Quang
  */
@@ -45,12 +54,19 @@ public final class PdfParser extends StreamParser {
 	                            @NotNull final ParseContext context)
 			throws ParseException {
 		PDDocument pdfDoc = null;
+		ScratchFile scratchFile = null;
+		boolean streaming = false;
 		try {
 			/*
 			 * TODO post-release-1.1: check if 'force' argument in PDDocument/Stripper increases
 			 * number of parsed PDF files
 			 */
-			pdfDoc = PDDocument.load(in, true);
+			scratchFile = ScratchFile.createIfNeeded(context.getFileSize());
+			if (scratchFile == null)
+				pdfDoc = PDDocument.load(in, true);
+			else
+				pdfDoc = PDDocument.load(in, scratchFile.randomAccess, true);
+			final boolean clearPages = scratchFile != null;
 			PDDocumentInformation pdInfo;
 			final int pageCount;
 			try {
@@ -61,83 +77,236 @@ public final class PdfParser extends StreamParser {
 				// Bug #3529070 and #3528345
 				throw new ParseException(e);
 			}
-			StringWriter writer = new StringWriter();
-			final StringBuilder annotations = new StringBuilder();
 			
 			/*
-			 * If the PDF file is encrypted, the PDF stripper will automatically
-			 * try an empty password.
-			 * 
-			 * In contrast to the paging PDF parser that is used for the
-			 * preview, we do not need to call setSortByPosition(true) here
-			 * because the extracted text will be digested by Lucene anyway.
+			 * For large files, extract the text on a separate thread while the
+			 * caller is reading it. The document and the scratch file are then
+			 * closed by the extraction thread. Page offsets are not available
+			 * in this case, because they must be stored in the index before the
+			 * content is read.
 			 */
-			PDFTextStripper stripper = new PDFTextStripper() {
-				protected void startPage(PDPage page) throws IOException {
-					context.getReporter().subInfo(getCurrentPageNo(), pageCount);
-				}
-				protected void endPage(PDPage page) throws IOException {
-					if (context.getCancelable().isCanceled()) {
-						setEndPage(0);
-						return;
-					}
-					try {
-						for (PDAnnotation a : page.getAnnotations()) {
-							if (a instanceof PDAnnotationMarkup) {
-								PDAnnotationMarkup annot = (PDAnnotationMarkup) a;
-								String title = annot.getTitlePopup();
-								String subject = annot.getSubject();
-								String contents = annot.getContents();
-								if (title != null) {
-									annotations.append(title + " ");
-								}
-								if (subject != null) {
-									annotations.append(subject + " ");
-								}
-								if (contents != null) {
-									annotations.append(contents + " ");
-								}
+			if (context.isStreamingAllowed()
+					&& StreamingContent.isEnabled(context.getFileSize())) {
+				final PDDocument streamedDoc = pdfDoc;
+				final ScratchFile streamedScratchFile = scratchFile;
+				StreamingContent content = new StreamingContent(
+					PdfParser.class.getName() + " (streaming extraction)",
+					new StreamingContent.Producer() {
+						public void produce(Writer writer) throws Exception {
+							try {
+								IndexingStripper stripper = new IndexingStripper(
+									context, pageCount, clearPages, null);
+								writeText(stripper, streamedDoc, writer);
+								writer.write(" ");
+								writer.write(stripper.annotations.toString());
+							}
+							catch (IOException e) {
+								throw wrapException(e);
+							}
+							finally {
+								close(streamedDoc);
+								Closeables.closeQuietly(streamedScratchFile);
 							}
 						}
-					} catch (IOException e) {
-						if (e.getMessage().startsWith("Error: Unknown annotation type")) {
-							// Ignore unsupported annotations
-							System.err.println(e.getMessage());
-						} else {
-							throw e;
+					});
+				streaming = true;
+				return addMetadata(new ParseResult(content), pdInfo);
+			}
+			
+			StringWriter writer = new StringWriter();
+			IndexingStripper stripper = new IndexingStripper(
+				context, pageCount, clearPages, writer);
+			writeText(stripper, pdfDoc, writer);
+			
+			/*
+			 * Pages that were not extracted are empty. This includes pages
+			 * after a cancellation and pages without a content stream, for
+			 * which PDFBox does not call startPage. Such a page starts where
+			 * the next page starts, so that the offsets stay sorted.
+			 */
+			int[] pageOffsets = stripper.pageOffsets;
+			int contentLength = writer.getBuffer().length();
+			pageOffsets[pageOffsets.length - 1] = contentLength;
+			for (int i = pageOffsets.length - 2; i >= 0; i--)
+				if (pageOffsets[i] == -1)
+					pageOffsets[i] = pageOffsets[i + 1];
+			
+			writer.write(" ");
+			writer.write(stripper.annotations.toString());
+
+			return addMetadata(new ParseResult(writer.getBuffer()), pdInfo)
+				.setPageOffsets(pageOffsets);
+		}
+		catch (IOException e) {
+			throw wrapException(e);
+		}
+		finally {
+			if (!streaming) {
+				close(pdfDoc);
+				Closeables.closeQuietly(scratchFile);
+			}
+		}
+	}
+	
+	@NotNull
+	private static ParseResult addMetadata(	@NotNull ParseResult parseResult,
+											@NotNull PDDocumentInformation pdInfo) {
+		return parseResult.setTitle(
+			pdInfo.getTitle())
+				.addAuthor(pdInfo.getAuthor())
+				.addMiscMetadata(pdInfo.getSubject())
+				.addMiscMetadata(pdInfo.getKeywords());
+	}
+	
+	private static void writeText(	@NotNull PDFTextStripper stripper,
+									@NotNull PDDocument pdfDoc,
+									@NotNull Writer writer)
+			throws IOException, ParseException {
+		try {
+			stripper.writeText(pdfDoc, writer);
+		}
+		catch (RuntimeException e) {
+			/*
+			 * PDFTextStripper.writeText can throw various
+			 * RuntimeExceptions, see bugs #3446010, #3448272, #3444887.
+			 */
+			throw new ParseException(e);
+		}
+	}
+	
+	@NotNull
+	private static ParseException wrapException(@NotNull IOException e) {
+		if (e.getCause() instanceof CryptographyException)
+			return new ParseException(Msg.doc_pw_protected.get());
+		return new ParseException(e);
+	}
+	
+	/*
+	 * If the PDF file is encrypted, the PDF stripper will automatically
+	 * try an empty password.
+	 * 
+	 * In contrast to the paging PDF parser that is used for the
+	 * preview, we do not need to call setSortByPosition(true) here
+	 * because the extracted text will be digested by Lucene anyway.
+	 */
+	private static final class IndexingStripper extends PDFTextStripper {
+		private final ParseContext context;
+		private final int pageCount;
+		private final boolean clearPages;
+		@Nullable private final StringWriter offsetWriter;
+		
+		/*
+		 * Record where each page starts in the extracted text, so that the
+		 * preview can later find out which pages contain search hits.
+		 */
+		final int[] pageOffsets;
+		final StringBuilder annotations = new StringBuilder();
+		
+		public IndexingStripper(	@NotNull ParseContext context,
+								int pageCount,
+								boolean clearPages,
+								@Nullable StringWriter offsetWriter)
+				throws IOException {
+			this.context = context;
+			this.pageCount = pageCount;
+			this.clearPages = clearPages;
+			this.offsetWriter = offsetWriter;
+			pageOffsets = new int[pageCount + 1];
+			Arrays.fill(pageOffsets, -1);
+			setForceParsing(true);
+		}
+		
+		protected void startPage(PDPage page) throws IOException {
+			int pageNo = getCurrentPageNo();
+			if (offsetWriter != null && pageNo >= 1 && pageNo <= pageCount)
+				pageOffsets[pageNo - 1] = offsetWriter.getBuffer().length();
+			context.getReporter().subInfo(pageNo, pageCount);
+		}
+		
+		protected void endPage(PDPage page) throws IOException {
+			if (context.getCancelable().isCanceled()) {
+				setEndPage(0);
+				return;
+			}
+			try {
+				for (PDAnnotation a : page.getAnnotations()) {
+					if (a instanceof PDAnnotationMarkup) {
+						PDAnnotationMarkup annot = (PDAnnotationMarkup) a;
+						String title = annot.getTitlePopup();
+						String subject = annot.getSubject();
+						String contents = annot.getContents();
+						if (title != null) {
+							annotations.append(title + " ");
+						}
+						if (subject != null) {
+							annotations.append(subject + " ");
+						}
+						if (contents != null) {
+							annotations.append(contents + " ");
 						}
 					}
 				}
-			};
-			stripper.setForceParsing(true);
+			} catch (IOException e) {
+				if (e.getMessage().startsWith("Error: Unknown annotation type")) {
+					// Ignore unsupported annotations
+					System.err.println(e.getMessage());
+				} else {
+					throw e;
+				}
+			}
 			
+			/*
+			 * In memory-bounded mode, release the fonts, images and
+			 * other resources cached by the page as soon as we're
+			 * done with the page.
+			 */
+			if (clearPages)
+				page.clear();
+		}
+	}
+	
+	/**
+	 * A temporary file in which PDFBox stores the contents of the PDF's COS
+	 * streams (page contents, images, fonts, etc.) instead of keeping them on
+	 * the heap. This keeps the memory usage for large PDF files bounded, at the
+	 * expense of some disk I/O. The scratch file is deleted when it is closed,
+	 * which must be done after closing the PDF document.
+	 */
+	static final class ScratchFile implements Closeable {
+		private final File file;
+		final RandomAccessFile randomAccess;
+		
+		private ScratchFile() throws IOException {
+			file = Util.createTempFile("pdfbox-scratch", ".tmp");
 			try {
-				stripper.writeText(pdfDoc, writer);
+				randomAccess = new RandomAccessFile(file, "rw");
 			}
-			catch (RuntimeException e) {
-				/*
-				 * PDFTextStripper.writeText can throw various
-				 * RuntimeExceptions, see bugs #3446010, #3448272, #3444887.
-				 */
-				throw new ParseException(e);
+			catch (IOException e) {
+				file.delete();
+				throw e;
 			}
-			
-			writer.write(" ");
-			writer.write(annotations.toString());
-
-			return new ParseResult(writer.getBuffer()).setTitle(
-				pdInfo.getTitle())
-					.addAuthor(pdInfo.getAuthor())
-					.addMiscMetadata(pdInfo.getSubject())
-					.addMiscMetadata(pdInfo.getKeywords());
 		}
-		catch (IOException e) {
-			if (e.getCause() instanceof CryptographyException)
-				throw new ParseException(Msg.doc_pw_protected.get());
-			throw new ParseException(e);
+		
+		/**
+		 * Returns a new scratch file if a PDF file of the given size should be
+		 * loaded in memory-bounded mode, or null otherwise. The file size may
+		 * be -1 if unknown.
+		 */
+		@Nullable
+		static ScratchFile createIfNeeded(long fileSize) throws IOException {
+			long threshold = ProgramConf.Int.PdfScratchFileThreshold.get();
+			if (fileSize < 0 || fileSize < threshold * 1024 * 1024)
+				return null;
+			return new ScratchFile();
 		}
-		finally {
-			close(pdfDoc);
+		
+		public void close() throws IOException {
+			try {
+				randomAccess.close();
+			}
+			finally {
+				file.delete();
+			}
 		}
 	}
 	
@@ -11,8 +11,12 @@
 
 package net.sourceforge.docfetcher.model.parse;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.util.logging.Logger;
 
@@ -20,6 +24,10 @@ import net.sourceforge.docfetcher.TestFiles;
 import net.sourceforge.docfetcher.enums.Msg;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
 
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
 import org.junit.Test;
 
 /**
@@ -42,5 +50,52 @@ public final class PdfParserTest {
 			assertTrue(e.getMessage().equals(Msg.doc_pw_protected.get()));
 		}
 	}
+	
+	@Test
+	public void testBlankPageOffsets() throws Exception {
+		// Page 4 has no content stream, so PDFBox skips it while extracting
+		int pageCount = 8;
+		int blankPage = 4;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PDDocument doc = new PDDocument();
+		try {
+			for (int i = 0; i < pageCount; i++) {
+				PDPage page = new PDPage();
+				doc.addPage(page);
+				if (i == blankPage)
+					continue;
+				PDPageContentStream stream = new PDPageContentStream(doc, page);
+				stream.beginText();
+				stream.setFont(PDType1Font.HELVETICA, 12);
+				stream.moveTextPositionByAmount(100, 700);
+				stream.drawString("word" + i);
+				stream.endText();
+				stream.close();
+			}
+			doc.save(out);
+		}
+		finally {
+			doc.close();
+		}
+		
+		ParseResult result = new PdfParser().parse(
+			new ByteArrayInputStream(out.toByteArray()),
+			new ParseContext("blank-page.pdf"));
+		int[] pageOffsets = result.getPageOffsets();
+		assertNotNull(pageOffsets);
+		assertEquals(pageCount + 1, pageOffsets.length);
+		for (int i = 1; i < pageOffsets.length; i++)
+			assertTrue(pageOffsets[i - 1] <= pageOffsets[i]);
+		assertEquals(pageOffsets[blankPage], pageOffsets[blankPage + 1]);
+		
+		String content = result.getContent().toString();
+		for (int i = 0; i < pageCount; i++) {
+			if (i == blankPage)
+				continue;
+			int offset = content.indexOf("word" + i);
+			assertTrue(pageOffsets[i] <= offset);
+			assertTrue(offset < pageOffsets[i + 1]);
+		}
+	}
 
 }
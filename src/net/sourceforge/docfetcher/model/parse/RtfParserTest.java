@@ -11,7 +11,13 @@
 
 package net.sourceforge.docfetcher.model.parse;
 
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
 
 import net.sourceforge.docfetcher.TestFiles;
 import net.sourceforge.docfetcher.model.Cancelable;
@@ -21,6 +27,8 @@ import net.sourceforge.docfetcher.model.index.file.FileIndex;
 
 import org.junit.Test;
 
+import com.google.common.io.Closeables;
+
 /**
  * @author Tran Nam Quang
  */
@@ -50,4 +58,53 @@ public final class RtfParserTest {
 		index.update(reporter, Cancelable.nullCancelable);
 	}
 
+	@Test
+	public void testSameTextAsTika() throws Exception {
+		File file = TestFiles.lorem_ipsum_rtf.get();
+		RtfParser parser = new RtfParser();
+		InputStream in = new FileInputStream(file);
+		String tikaText;
+		try {
+			tikaText = parser.renderText(in, file.getName());
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
+		in = new FileInputStream(file);
+		ParseResult result;
+		try {
+			result = RtfTextExtractor.extract(in, Cancelable.nullCancelable);
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
+		String[] expected = tikaText.trim().split("\\s+");
+		String[] actual = result.getContent().toString().trim().split("\\s+");
+		assertEquals(Arrays.asList(expected), Arrays.asList(actual));
+		assertEquals(Arrays.asList("Tran Quang"), result.getAuthors());
+	}
+	
+	@Test
+	public void testCodepagesAndUnicode() throws Exception {
+		String rtf = "{\\rtf1\\ansi\\ansicpg1252\\deff0"
+				+ "{\\fonttbl{\\f0 Arial;}{\\f1\\fcharset204 Arial;}{\\f2\\fcharset128 MS Mincho;}}"
+				+ "{\\info{\\title Title}{\\author Author}"
+				+ "{\\upr{\\keywords ansi}{\\*\\ud{\\keywords unicode}}}}"
+				+ "\\pard caf\\'e9 {\\f1 \\'cf\\'f0\\'e8\\'e2\\'e5\\'f2}"
+				+ " {\\f2 \\'83e\\'83L\\'83X\\'83g}"
+				+ " \\uc1\\u8364?\\uc2\\u-28647\\'80\\'81"
+				+ "{\\pict\\bin4 {}{}}{\\*\\generator Foo}"
+				+ "{\\field{\\*\\fldinst HYPERLINK \"x\"}{\\fldrslt link}}\\par}";
+		ParseResult result = RtfTextExtractor.extract(
+			new ByteArrayInputStream(rtf.getBytes("US-ASCII")),
+			Cancelable.nullCancelable);
+		assertEquals(
+			"caf\u00e9 \u041f\u0440\u0438\u0432\u0435\u0442 "
+					+ "\u30c6\u30ad\u30b9\u30c8 \u20ac\u9019link\n",
+			result.getContent().toString());
+		assertEquals("Title", result.getTitle());
+		assertEquals(Arrays.asList("Author"), result.getAuthors());
+		assertEquals(Arrays.asList("unicode"), result.getMiscMetadata());
+	}
+
 }
@@ -0,0 +1,815 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import org.apache.tika.parser.rtf.TextExtractor;
+
+/**
+ * A fast plain text extractor for RTF files, used for indexing instead of
+ * Tika's RTF parser. Tika's parser turns the RTF file into a sequence of SAX
+ * events for an XHTML document, with one callback per text run. This class
+ * skips that layer and appends the decoded text directly to a StringBuilder.
+ * <p>
+ * The input buffer, the buffers for decoding, the charset decoders and the
+ * StringBuilder are kept per thread and reused across files, so that apart
+ * from the extracted text itself, extracting text from a large number of RTF
+ * files produces very little garbage. Pictures, embedded objects and other
+ * binary destinations are skipped without being tokenized.
+ * <p>
+ * Only the text and the title, author, subject and keywords in the document's
+ * info group are extracted. Formatting, lists and hyperlink targets are
+ * ignored. The codepage tables are shared with Tika's parser, which is still
+ * used for the preview.
+ *
+ * @author Tran Nam Quang
+ */
+final class RtfTextExtractor {
+
+	private enum Keyword {
+		// Charsets and fonts
+		ansi, mac, pc, pca, ansicpg, deff, fonttbl, f, fcharset, cpg,
+
+		// Destinations
+		info, title, author, subject, keywords, upr, ud,
+		shptxt, annotation, atnid, atnauthor,
+
+		// Destinations that contain no text of interest
+		colortbl (true), stylesheet (true), listtable (true),
+		listoverridetable (true), listtext (true), pict (true),
+		objdata (true), fldinst (true), themedata (true),
+		colorschememapping (true), datastore (true), latentstyles (true),
+		rsidtbl (true), xmlnstbl (true),
+
+		// Special characters
+		par, sect, line, page, softline, softpage, cell, tab, column,
+		softcolumn, bullet, endash, emdash, enspace, qmspace, emspace,
+		lquote, rquote, ldblquote, rdblquote,
+
+		// Unicode characters and binary data
+		u, uc, bin,
+		;
+
+		/** Whether the rest of the group can be skipped without tokenizing it. */
+		public final boolean skipGroup;
+
+		Keyword() {
+			this(false);
+		}
+
+		Keyword(boolean skipGroup) {
+			this.skipGroup = skipGroup;
+		}
+	}
+
+	/*
+	 * Control words are looked up in an open-addressing hash table by their
+	 * raw bytes, so that no string has to be created for each control word.
+	 */
+	private static final int TABLE_MASK = 255;
+	private static final Keyword[] keywordTable = new Keyword[TABLE_MASK + 1];
+	private static final byte[][] keywordBytes = new byte[TABLE_MASK + 1][];
+
+	static {
+		for (Keyword keyword : Keyword.values()) {
+			byte[] bytes = keyword.name().getBytes();
+			int i = hash(bytes, bytes.length);
+			while (keywordTable[i] != null)
+				i = (i + 1) & TABLE_MASK;
+			keywordTable[i] = keyword;
+			keywordBytes[i] = bytes;
+		}
+	}
+
+	private static final int DEST_TEXT = 0;
+	private static final int DEST_IGNORE = 1;
+	private static final int DEST_FONTTBL = 2;
+	private static final int DEST_INFO = 3;
+	private static final int DEST_TITLE = 4;
+	private static final int DEST_AUTHOR = 5;
+	private static final int DEST_SUBJECT = 6;
+	private static final int DEST_KEYWORDS = 7;
+
+	private static final int MAX_WORD_LENGTH = 32;
+
+	// Buffers that grew larger than this are not kept for the next file
+	private static final int MAX_RETAINED_CHARS = 1024 * 1024;
+	private static final int INITIAL_TEXT_CAPACITY = 16 * 1024;
+	private static final int INITIAL_PENDING_BYTES = 256;
+
+	private static final Charset DEFAULT_CHARSET = TextExtractor.getCharsetForControlWord("ansi");
+
+	private static final ThreadLocal<RtfTextExtractor> instances = new ThreadLocal<RtfTextExtractor>() {
+		protected RtfTextExtractor initialValue() {
+			return new RtfTextExtractor();
+		}
+	};
+
+	/**
+	 * Extracts the text and the metadata from the given RTF input stream.
+	 * Stops early and returns the text extracted so far if the given cancelable
+	 * is canceled. The input stream is not closed.
+	 */
+	@NotNull
+	public static ParseResult extract(	@NotNull InputStream in,
+										@NotNull Cancelable cancelable)
+			throws IOException {
+		Util.checkNotNull(in, cancelable);
+		RtfTextExtractor extractor = instances.get();
+		if (extractor.inUse)
+			extractor = new RtfTextExtractor(); // Nested call on the same thread
+		extractor.inUse = true;
+		try {
+			return extractor.run(in, cancelable);
+		}
+		finally {
+			extractor.reset();
+			extractor.inUse = false;
+		}
+	}
+
+	private static final class Decoder {
+		public final CharsetDecoder decoder;
+
+		/*
+		 * Whether the bytes 0x00 to 0x7F are decoded as the corresponding
+		 * ASCII characters, so that they can be appended without decoding.
+		 */
+		public final boolean asciiCompatible;
+
+		public Decoder(@NotNull Charset charset) {
+			decoder = charset.newDecoder();
+			decoder.onMalformedInput(CodingErrorAction.REPLACE);
+			decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			asciiCompatible = isAsciiCompatible(charset);
+		}
+
+		private static boolean isAsciiCompatible(@NotNull Charset charset) {
+			byte[] bytes = new byte[0x80];
+			for (int i = 0; i < bytes.length; i++)
+				bytes[i] = (byte) i;
+			try {
+				CharBuffer chars = charset.newDecoder().decode(ByteBuffer.wrap(bytes));
+				if (chars.remaining() != bytes.length)
+					return false;
+				for (int i = 0; i < bytes.length; i++)
+					if (chars.get(i) != i)
+						return false;
+				return true;
+			}
+			catch (CharacterCodingException e) {
+				return false;
+			}
+		}
+	}
+
+	// Reused across files
+	private final byte[] inBuffer = new byte[64 * 1024];
+	private final byte[] word = new byte[MAX_WORD_LENGTH];
+	private final char[] decodedChars = new char[1024];
+	private final CharBuffer decodedBuffer = CharBuffer.wrap(decodedChars);
+	private final Map<Charset, Decoder> decoders = new HashMap<Charset, Decoder>();
+	private final Map<Integer, Charset> fontCharsets = new HashMap<Integer, Charset>();
+	private byte[] pendingBytes = new byte[INITIAL_PENDING_BYTES];
+	private ByteBuffer pendingBuffer = ByteBuffer.wrap(pendingBytes);
+	private StringBuilder text = new StringBuilder(INITIAL_TEXT_CAPACITY);
+	private final StringBuilder metadata = new StringBuilder();
+	private int[] destStack = new int[32];
+	private int[] ucSkipStack = new int[32];
+	private int[] fontStack = new int[32];
+	private boolean inUse = false;
+
+	// Input state
+	@Nullable private InputStream in;
+	@Nullable private Cancelable cancelable;
+	private int inPos;
+	private int inLimit;
+	private int wordLength;
+	private int param;
+	private boolean hasParam;
+
+	// Document state
+	private Charset globalCharset;
+	private int defaultFont;
+	private int fontTableEntry;
+	private int pendingByteCount;
+	@Nullable private Decoder decoder;
+	private int depth;
+	private int ansiSkip;
+	private boolean groupStart;
+	private boolean skipNextGroup;
+	private boolean finished;
+	@Nullable private String title;
+	@Nullable private String author;
+	@Nullable private String subject;
+	@Nullable private String keywords;
+
+	// Group state
+	private int dest;
+	private int ucSkip;
+	private int font;
+
+	private RtfTextExtractor() {
+		reset();
+	}
+
+	private void reset() {
+		in = null;
+		cancelable = null;
+		inPos = inLimit = 0;
+		globalCharset = DEFAULT_CHARSET;
+		defaultFont = -1;
+		fontTableEntry = -1;
+		fontCharsets.clear();
+		pendingByteCount = 0;
+		decoder = null;
+		depth = 0;
+		ansiSkip = 0;
+		groupStart = false;
+		skipNextGroup = false;
+		finished = false;
+		title = author = subject = keywords = null;
+		dest = DEST_TEXT;
+		ucSkip = 1;
+		font = -1;
+		metadata.setLength(0);
+		if (text.capacity() > MAX_RETAINED_CHARS)
+			text = new StringBuilder(INITIAL_TEXT_CAPACITY);
+		else
+			text.setLength(0);
+		if (pendingBytes.length > MAX_RETAINED_CHARS) {
+			pendingBytes = new byte[INITIAL_PENDING_BYTES];
+			pendingBuffer = ByteBuffer.wrap(pendingBytes);
+		}
+	}
+
+	@NotNull
+	private ParseResult run(@NotNull InputStream in, @NotNull Cancelable cancelable)
+			throws IOException {
+		this.in = in;
+		this.cancelable = cancelable;
+		int b;
+		while (!finished && (b = read()) != -1) {
+			switch (b) {
+			case '\\':
+				controlToken();
+				break;
+			case '{':
+				startGroup();
+				break;
+			case '}':
+				groupStart = false;
+				endGroup();
+				break;
+			case '\r':
+			case '\n':
+				break; // Not significant
+			default:
+				groupStart = false;
+				textByte(b);
+			}
+		}
+		flushPendingBytes();
+		return new ParseResult(text.toString())
+			.setTitle(title)
+			.addAuthor(author)
+			.addMiscMetadata(subject)
+			.addMiscMetadata(keywords);
+	}
+
+	private int read() throws IOException {
+		if (inPos == inLimit) {
+			if (cancelable.isCanceled())
+				return -1;
+			int n;
+			do {
+				n = in.read(inBuffer, 0, inBuffer.length);
+			} while (n == 0);
+			if (n < 0)
+				return -1;
+			inPos = 0;
+			inLimit = n;
+		}
+		return inBuffer[inPos++] & 0xFF;
+	}
+
+	// Only valid directly after a successful read
+	private void unread() {
+		inPos--;
+	}
+
+	private static boolean isLetter(int b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+	}
+
+	private static boolean isDigit(int b) {
+		return b >= '0' && b <= '9';
+	}
+
+	private static int hexValue(int b) {
+		if (b >= '0' && b <= '9')
+			return b - '0';
+		if (b >= 'a' && b <= 'f')
+			return b - 'a' + 10;
+		if (b >= 'A' && b <= 'F')
+			return b - 'A' + 10;
+		return -1;
+	}
+
+	private static int hash(@NotNull byte[] bytes, int length) {
+		int h = 0;
+		for (int i = 0; i < length; i++)
+			h = 31 * h + bytes[i];
+		return (h ^ (h >>> 8)) & TABLE_MASK;
+	}
+
+	@Nullable
+	private static Keyword lookup(@NotNull byte[] bytes, int length) {
+		int i = hash(bytes, length);
+		while (keywordTable[i] != null) {
+			byte[] candidate = keywordBytes[i];
+			if (candidate.length == length) {
+				int j = 0;
+				while (j < length && candidate[j] == bytes[j])
+					j++;
+				if (j == length)
+					return keywordTable[i];
+			}
+			i = (i + 1) & TABLE_MASK;
+		}
+		return null;
+	}
+
+	/*
+	 * Reads a control word whose first letter has already been read, and sets
+	 * the param and hasParam fields. Returns null for unknown control words.
+	 */
+	@Nullable
+	private Keyword readControlWord(int firstLetter) throws IOException {
+		word[0] = (byte) firstLetter;
+		wordLength = 1;
+		int b = read();
+		while (isLetter(b)) {
+			if (wordLength < MAX_WORD_LENGTH)
+				word[wordLength] = (byte) b;
+			wordLength++;
+			b = read();
+		}
+		param = 0;
+		hasParam = false;
+		boolean negative = false;
+		if (b == '-') {
+			negative = true;
+			hasParam = true;
+			b = read();
+		}
+		while (isDigit(b)) {
+			param = param * 10 + (b - '0');
+			hasParam = true;
+			b = read();
+		}
+		if (negative)
+			param = -param;
+
+		// A space delimiting the control word is part of the control word
+		if (b != ' ' && b != -1)
+			unread();
+
+		if (wordLength > MAX_WORD_LENGTH)
+			return null;
+		return lookup(word, wordLength);
+	}
+
+	private void controlToken() throws IOException {
+		int b = read();
+		boolean isDestination = groupStart;
+		groupStart = false;
+		if (isLetter(b)) {
+			Keyword keyword = readControlWord(b);
+			if (keyword != null)
+				process(keyword);
+			return;
+		}
+		switch (b) {
+		case '\'':
+			int hi = hexValue(read());
+			if (hi == -1) {
+				unread(); // Malformed hex escape
+				return;
+			}
+			int lo = hexValue(read());
+			if (lo == -1) {
+				unread();
+				return;
+			}
+			textByte(hi * 16 + lo);
+			break;
+		case '{':
+		case '}':
+		case '\\':
+			textByte(b);
+			break;
+		case '\r':
+		case '\n':
+			appendChar('\n'); // Same as \par
+			break;
+		case '~':
+			appendChar('\u00A0'); // Non-breaking space
+			break;
+		case '_':
+			appendChar('\u2011'); // Non-breaking hyphen
+			break;
+		case '*':
+			/*
+			 * An ignorable destination, i.e. one that readers that don't
+			 * understand it should skip. The following control word may
+			 * still turn it into a destination we're interested in.
+			 */
+			if (isDestination) {
+				flushPendingBytes();
+				dest = DEST_IGNORE;
+			}
+			break;
+		case -1:
+			break;
+		default:
+			/*
+			 * Other control symbols, including optional hyphens, which are
+			 * dropped rather than converted to soft hyphens so that they
+			 * don't split words in the index.
+			 */
+			break;
+		}
+	}
+
+	private void process(@NotNull Keyword keyword) throws IOException {
+		flushPendingBytes();
+		if (keyword.skipGroup) {
+			skipGroup();
+			return;
+		}
+		switch (keyword) {
+		case ansi:
+		case mac:
+		case pc:
+		case pca:
+			globalCharset = TextExtractor.getCharsetForControlWord(keyword.name());
+			decoder = null;
+			break;
+		case ansicpg:
+			Charset ansiCharset = TextExtractor.getAnsiCodepageCharset(param);
+			if (ansiCharset != null) {
+				globalCharset = ansiCharset;
+				decoder = null;
+			}
+			break;
+		case deff:
+			defaultFont = param;
+			decoder = null;
+			break;
+		case fonttbl:
+			dest = DEST_FONTTBL;
+			break;
+		case f:
+			if (dest == DEST_FONTTBL) {
+				fontTableEntry = param;
+			}
+			else if (font != param) {
+				font = param;
+				decoder = null;
+			}
+			break;
+		case fcharset:
+			if (dest == DEST_FONTTBL)
+				putFontCharset(TextExtractor.getFontCharset(param));
+			break;
+		case cpg:
+			if (dest == DEST_FONTTBL)
+				putFontCharset(TextExtractor.getAnsiCodepageCharset(param));
+			break;
+		case info:
+			dest = DEST_INFO;
+			break;
+		case title:
+			setMetadataDest(DEST_TITLE);
+			break;
+		case author:
+			setMetadataDest(DEST_AUTHOR);
+			break;
+		case subject:
+			setMetadataDest(DEST_SUBJECT);
+			break;
+		case keywords:
+			setMetadataDest(DEST_KEYWORDS);
+			break;
+		case upr:
+			/*
+			 * The upr destination contains an ANSI version of the text,
+			 * followed by a Unicode version in the ud destination. Skip the
+			 * former and treat the latter as part of the enclosing group.
+			 */
+			skipNextGroup = true;
+			break;
+		case ud:
+			if (depth > 0)
+				dest = destStack[depth - 1];
+			break;
+		case shptxt:
+		case annotation:
+		case atnid:
+		case atnauthor:
+			dest = DEST_TEXT;
+			break;
+		case par:
+		case sect:
+		case line:
+		case page:
+		case softline:
+		case softpage:
+		case cell:
+			appendChar('\n');
+			break;
+		case tab:
+			appendChar('\t');
+			break;
+		case column:
+		case softcolumn:
+			appendChar(' ');
+			break;
+		case bullet:
+			appendChar('\u2022');
+			break;
+		case endash:
+			appendChar('\u2013');
+			break;
+		case emdash:
+			appendChar('\u2014');
+			break;
+		case enspace:
+			appendChar('\u2002');
+			break;
+		case qmspace:
+			appendChar('\u2005');
+			break;
+		case emspace:
+			appendChar('\u2003');
+			break;
+		case lquote:
+			appendChar('\u2018');
+			break;
+		case rquote:
+			appendChar('\u2019');
+			break;
+		case ldblquote:
+			appendChar('\u201C');
+			break;
+		case rdblquote:
+			appendChar('\u201D');
+			break;
+		case u:
+			// Negative values are used for code units above 32767
+			appendChar((char) (param & 0xFFFF));
+
+			// Skip the ANSI representation following the Unicode character
+			ansiSkip = ucSkip;
+			break;
+		case uc:
+			if (param >= 0)
+				ucSkip = param;
+			break;
+		case bin:
+			if (hasParam && param > 0)
+				skipBytes(param);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void putFontCharset(@Nullable Charset charset) {
+		if (charset != null) {
+			fontCharsets.put(fontTableEntry, charset);
+			decoder = null;
+		}
+	}
+
+	private void setMetadataDest(int metadataDest) {
+		if (dest == DEST_INFO) {
+			dest = metadataDest;
+			metadata.setLength(0);
+		}
+	}
+
+	private void startGroup() throws IOException {
+		flushPendingBytes();
+		if (depth == destStack.length) {
+			int newLength = depth * 2;
+			destStack = Arrays.copyOf(destStack, newLength);
+			ucSkipStack = Arrays.copyOf(ucSkipStack, newLength);
+			fontStack = Arrays.copyOf(fontStack, newLength);
+		}
+		destStack[depth] = dest;
+		ucSkipStack[depth] = ucSkip;
+		fontStack[depth] = font;
+		depth++;
+		ansiSkip = 0;
+		groupStart = true;
+		if (skipNextGroup) {
+			skipNextGroup = false;
+			skipGroup();
+		}
+	}
+
+	private void endGroup() {
+		flushPendingBytes();
+		ansiSkip = 0;
+		if (depth == 0) {
+			finished = true; // Too many closing braces
+			return;
+		}
+		depth--;
+		int outerDest = destStack[depth];
+		if (dest >= DEST_TITLE && dest != outerDest)
+			storeMetadata();
+		dest = outerDest;
+		ucSkip = ucSkipStack[depth];
+		if (font != fontStack[depth]) {
+			font = fontStack[depth];
+			decoder = null;
+		}
+		if (depth == 0)
+			finished = true; // Reached the end of the document
+	}
+
+	private void storeMetadata() {
+		String value = metadata.toString().trim();
+		metadata.setLength(0);
+		if (value.isEmpty())
+			return;
+		switch (dest) {
+		case DEST_TITLE: title = value; break;
+		case DEST_AUTHOR: author = value; break;
+		case DEST_SUBJECT: subject = value; break;
+		case DEST_KEYWORDS: keywords = value; break;
+		}
+	}
+
+	/*
+	 * Consumes the rest of the current group, including its closing brace,
+	 * without decoding any text. Nested groups and escaped braces are taken
+	 * into account, and binary data is skipped.
+	 */
+	private void skipGroup() throws IOException {
+		int level = 1;
+		int b;
+		while ((b = read()) != -1) {
+			if (b == '{') {
+				level++;
+			}
+			else if (b == '}') {
+				if (--level == 0) {
+					endGroup();
+					return;
+				}
+			}
+			else if (b == '\\') {
+				b = read();
+				if (isLetter(b)) {
+					if (readControlWord(b) == Keyword.bin && hasParam && param > 0)
+						skipBytes(param);
+				}
+			}
+		}
+	}
+
+	private void skipBytes(int count) throws IOException {
+		while (count > 0) {
+			int available = inLimit - inPos;
+			if (available == 0) {
+				if (read() == -1)
+					return;
+				count--;
+				continue;
+			}
+			int n = Math.min(count, available);
+			inPos += n;
+			count -= n;
+		}
+	}
+
+	@Nullable
+	private StringBuilder target() {
+		if (dest == DEST_TEXT)
+			return text;
+		if (dest >= DEST_TITLE)
+			return metadata;
+		return null;
+	}
+
+	@NotNull
+	private Decoder getDecoder() {
+		if (decoder == null) {
+			Charset charset = null;
+			if (font >= 0)
+				charset = fontCharsets.get(font);
+			if (charset == null && defaultFont >= 0)
+				charset = fontCharsets.get(defaultFont);
+			if (charset == null)
+				charset = globalCharset;
+			decoder = decoders.get(charset);
+			if (decoder == null) {
+				decoder = new Decoder(charset);
+				decoders.put(charset, decoder);
+			}
+		}
+		return decoder;
+	}
+
+	// Handles a byte of text in the current charset
+	private void textByte(int b) {
+		if (ansiSkip > 0) {
+			ansiSkip--;
+			return;
+		}
+		StringBuilder target = target();
+		if (target == null)
+			return;
+		if (pendingByteCount == 0 && b < 0x80 && getDecoder().asciiCompatible) {
+			target.append((char) b);
+			return;
+		}
+		if (pendingByteCount == pendingBytes.length) {
+			pendingBytes = Arrays.copyOf(pendingBytes, pendingBytes.length * 2);
+			pendingBuffer = ByteBuffer.wrap(pendingBytes);
+		}
+		pendingBytes[pendingByteCount++] = (byte) b;
+	}
+
+	private void appendChar(char c) {
+		StringBuilder target = target();
+		if (target == null)
+			return;
+		flushPendingBytes();
+		target.append(c);
+	}
+
+	/*
+	 * Decodes the buffered bytes with the current charset. This must be called
+	 * before the current charset or destination changes. Multibyte characters
+	 * are not split, since a control word or group boundary never occurs
+	 * within a character.
+	 */
+	private void flushPendingBytes() {
+		if (pendingByteCount == 0)
+			return;
+		StringBuilder target = target();
+		if (target != null) {
+			CharsetDecoder charsetDecoder = getDecoder().decoder;
+			charsetDecoder.reset();
+			pendingBuffer.limit(pendingByteCount);
+			pendingBuffer.position(0);
+			CoderResult result;
+			do {
+				result = charsetDecoder.decode(pendingBuffer, decodedBuffer, true);
+				drainDecodedChars(target);
+			} while (result.isOverflow());
+			do {
+				result = charsetDecoder.flush(decodedBuffer);
+				drainDecodedChars(target);
+			} while (result.isOverflow());
+		}
+		pendingByteCount = 0;
+	}
+
+	private void drainDecodedChars(@NotNull StringBuilder target) {
+		target.append(decodedChars, 0, decodedBuffer.position());
+		decodedBuffer.clear();
+	}
+
+}
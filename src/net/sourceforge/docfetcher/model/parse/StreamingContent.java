@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * The content of a parse result that is extracted on a background thread while
+ * it is being read, so that the extracted text can be fed to Lucene without
+ * holding the entire text in memory.
+ * <p>
+ * The producer thread writes the text in chunks into a small bounded buffer.
+ * When the buffer is full, the producer blocks until the reader catches up, so
+ * the amount of buffered text is bounded regardless of the document size.
+ * <p>
+ * The receiver must be closed after reading, which happens automatically when
+ * {@link #finish()} is called. Closing the receiver before all text was read
+ * stops the producer.
+ *
+ * @author Tran Nam Quang
+ */
+public final class StreamingContent extends Reader {
+
+	/**
+	 * Extracts text on the producer thread and writes it into the given
+	 * writer. The writer throws an IOException if the reader was closed in the
+	 * meantime.
+	 */
+	interface Producer {
+		public void produce(@NotNull Writer writer) throws Exception;
+	}
+
+	private static final int CHUNK_SIZE = 8192;
+	private static final int MAX_CHUNKS = 16;
+	private static final char[] EOF = new char[0];
+
+	private final BlockingQueue<char[]> queue = new ArrayBlockingQueue<char[]>(MAX_CHUNKS);
+	private final Thread thread;
+	private volatile boolean closed = false;
+	@Nullable private volatile Throwable failure;
+
+	// Accessed only by the reading thread
+	@Nullable private char[] chunk;
+	private int chunkPos = 0;
+	private boolean reachedEnd = false;
+
+	StreamingContent(@NotNull String threadName, @NotNull final Producer producer) {
+		Util.checkNotNull(threadName, producer);
+		thread = new Thread(threadName) {
+			public void run() {
+				ChunkWriter writer = new ChunkWriter();
+				try {
+					producer.produce(writer);
+				}
+				catch (Throwable t) {
+					failure = t;
+				}
+				finally {
+					writer.close();
+				}
+			}
+		};
+		thread.start();
+	}
+
+	/**
+	 * Returns whether the content of a file with the given size in bytes should
+	 * be streamed. The file size may be -1 if unknown.
+	 */
+	static boolean isEnabled(long fileSize) {
+		long threshold = ProgramConf.Int.ContentStreamingThreshold.get();
+		return fileSize >= 0 && fileSize >= threshold * 1024 * 1024;
+	}
+
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (closed)
+			throw new IOException("Stream closed");
+		if (reachedEnd)
+			return -1;
+		if (len == 0)
+			return 0;
+		if (chunk == null || chunkPos == chunk.length) {
+			try {
+				chunk = queue.take();
+			}
+			catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			chunkPos = 0;
+			if (chunk == EOF) {
+				reachedEnd = true;
+				return -1;
+			}
+		}
+		int n = Math.min(len, chunk.length - chunkPos);
+		System.arraycopy(chunk, chunkPos, cbuf, off, n);
+		chunkPos += n;
+		return n;
+	}
+
+	public void close() {
+		closed = true;
+		queue.clear(); // Unblock the producer
+	}
+
+	/**
+	 * Closes the receiver, waits for the producer thread to terminate and
+	 * rethrows any failure that occurred during text extraction. Failures that
+	 * occurred after the receiver was closed prematurely are ignored, since the
+	 * producer was stopped on purpose in that case.
+	 */
+	public void finish() throws ParseException, CheckedOutOfMemoryError {
+		boolean readToEnd = reachedEnd;
+		close();
+		Uninterruptibles.joinUninterruptibly(thread);
+		Throwable t = failure;
+		if (t == null || !readToEnd)
+			return;
+		if (t instanceof ParseException)
+			throw (ParseException) t;
+		if (t instanceof OutOfMemoryError)
+			throw new CheckedOutOfMemoryError((OutOfMemoryError) t);
+		throw new ParseException(t);
+	}
+
+	// Collects the written text in chunks and hands them over to the reader
+	private final class ChunkWriter extends Writer {
+		private char[] buffer = new char[CHUNK_SIZE];
+		private int pos = 0;
+		private boolean writerClosed = false;
+
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			if (writerClosed)
+				throw new IOException("Writer closed");
+			while (len > 0) {
+				int n = Math.min(len, buffer.length - pos);
+				System.arraycopy(cbuf, off, buffer, pos, n);
+				pos += n;
+				off += n;
+				len -= n;
+				if (pos == buffer.length) {
+					put(buffer);
+					buffer = new char[CHUNK_SIZE];
+					pos = 0;
+				}
+			}
+		}
+
+		public void flush() {
+			// Partial chunks are only handed over on close
+		}
+
+		public void close() {
+			if (writerClosed)
+				return;
+			writerClosed = true;
+			try {
+				if (pos > 0)
+					put(Arrays.copyOf(buffer, pos));
+				put(EOF);
+			}
+			catch (IOException e) {
+				// Reader was closed, so nobody is waiting for the end marker
+			}
+			buffer = null;
+		}
+
+		// Blocks while the queue is full, unless the reader is closed
+		private void put(@NotNull char[] chars) throws IOException {
+			try {
+				while (!queue.offer(chars, 100, TimeUnit.MILLISECONDS))
+					if (closed)
+						throw new IOException("Reader closed");
+			}
+			catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			if (closed) {
+				queue.clear();
+				throw new IOException("Reader closed");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.io.CharStreams;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class StreamingContentTest {
+
+	@Test
+	public void testReadAll() throws Exception {
+		final int lineCount = 100000;
+		final AtomicInteger written = new AtomicInteger(0);
+		StreamingContent content = new StreamingContent("test", new StreamingContent.Producer() {
+			public void produce(Writer writer) throws Exception {
+				for (int i = 0; i < lineCount; i++) {
+					writer.write("line " + i + "\n");
+					written.incrementAndGet();
+				}
+			}
+		});
+
+		// The producer must block when the buffer is full
+		Thread.sleep(200);
+		assertTrue(written.get() < lineCount);
+
+		String text = CharStreams.toString(content);
+		content.finish();
+		String[] lines = text.split("\n");
+		assertEquals(lineCount, lines.length);
+		assertEquals("line " + (lineCount - 1), lines[lineCount - 1]);
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		StreamingContent content = new StreamingContent("test", new StreamingContent.Producer() {
+			public void produce(Writer writer) throws Exception {
+				writer.write("partial text");
+				throw new ParseException(new Exception("broken"));
+			}
+		});
+		assertEquals("partial text", CharStreams.toString(content));
+		try {
+			content.finish();
+			fail();
+		}
+		catch (ParseException e) {
+		}
+	}
+
+	@Test
+	public void testCloseStopsProducer() throws Exception {
+		StreamingContent content = new StreamingContent("test", new StreamingContent.Producer() {
+			public void produce(Writer writer) throws Exception {
+				while (true)
+					writer.write("endless text ");
+			}
+		});
+		content.read(new char[10]);
+		content.finish(); // Must not block or throw
+	}
+
+}
@@ -15,18 +15,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import net.htmlparser.jericho.Element;
 import net.htmlparser.jericho.Segment;
 import net.htmlparser.jericho.Source;
-import net.sourceforge.docfetcher.enums.Msg;
 import net.sourceforge.docfetcher.util.CharsetDetectorHelper;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 
-import com.google.common.io.Closeables;
-
 /**
  * @author Tran Nam Quang
  */
@@ -43,22 +39,6 @@ final class UtilParser {
 		return source;
 	}
 	
-	public static Source getSource(ZipFile file, String entryPath) throws IOException, ParseException {
-		ZipEntry entry = file.getEntry(entryPath);
-		if (entry == null) {
-			// Apparently, ZipFile.getEntry expects forward slashes even on Windows
-			entry = file.getEntry(entryPath.replace("\\", "/"));
-			if (entry == null) {
-				throw new ParseException(Msg.file_corrupted.get());
-			}
-		}
-		InputStream inputStream = file.getInputStream(entry);
-		Source source = getSource(inputStream);
-		Closeables.closeQuietly(inputStream);
-		source.setLogger(null);
-		return source;
-	}
-	
 	@Nullable
 	public static String extract(@Nullable Element e) {
 		if (e == null) {
@@ -0,0 +1,270 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+
+import net.htmlparser.jericho.Source;
+import net.sourceforge.docfetcher.enums.Msg;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import com.google.common.io.Closeables;
+
+/**
+ * A zip-based document format such as OpenDocument or EPUB. The central
+ * directory of the zip file is read only once, when the package is opened.
+ * After that, the entries can be looked up by path and their XML content
+ * can be read with a StAX pull parser, without building a document tree.
+ * <p>
+ * The pull parser is strict: It rejects malformed XML and undeclared entities
+ * such as HTML's <tt>&amp;nbsp;</tt>. For such entries, callers can fall back
+ * to the lenient Jericho parser via {@link #openSource(ZipEntry)}.
+ *
+ * @author Tran Nam Quang
+ */
+final class ZipPackage implements Closeable {
+
+	private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+
+	static {
+		xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	private final ZipFile zipFile;
+	private final List<String> paths = new ArrayList<String>();
+	private final Map<String, ZipEntry> entries = new HashMap<String, ZipEntry>();
+
+	public ZipPackage(@NotNull File file) throws IOException {
+		zipFile = new ZipFile(file);
+		Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+		while (zipEntries.hasMoreElements()) {
+			ZipEntry entry = zipEntries.nextElement();
+			String path = normalize(entry.getName());
+			if (!entries.containsKey(path)) {
+				paths.add(path);
+				entries.put(path, entry);
+			}
+		}
+	}
+
+	/*
+	 * Apparently, zip entry paths may contain backslashes on Windows, and
+	 * paths referenced from within documents may start with a slash.
+	 */
+	@NotNull
+	private static String normalize(@NotNull String path) {
+		path = path.replace('\\', '/');
+		return path.startsWith("/") ? path.substring(1) : path;
+	}
+
+	/**
+	 * Returns the entry with the given path, or null if there is no such
+	 * entry.
+	 */
+	@Nullable
+	public ZipEntry getEntry(@NotNull String path) {
+		return entries.get(normalize(path));
+	}
+
+	/**
+	 * Returns all entries whose paths end with the given suffix, in the order
+	 * in which they appear in the zip file.
+	 */
+	@NotNull
+	public List<ZipEntry> getEntriesEndingWith(@NotNull String suffix) {
+		List<ZipEntry> matches = new ArrayList<ZipEntry>();
+		for (String path : paths)
+			if (path.endsWith(suffix))
+				matches.add(entries.get(path));
+		return matches;
+	}
+
+	/**
+	 * Returns an input stream for the entry with the given path. The caller is
+	 * responsible for closing the stream.
+	 *
+	 * @throws ParseException
+	 *             if there is no entry with the given path.
+	 */
+	@NotNull
+	public InputStream open(@NotNull String path)
+			throws IOException, ParseException {
+		ZipEntry entry = getEntry(path);
+		if (entry == null)
+			throw new ParseException(Msg.file_corrupted.get());
+		return zipFile.getInputStream(entry);
+	}
+
+	/**
+	 * Returns a pull parser for the XML content of the entry with the given
+	 * path. Closing the returned parser also closes the underlying stream.
+	 *
+	 * @throws ParseException
+	 *             if there is no entry with the given path, or if the XML
+	 *             parser could not be created.
+	 */
+	@NotNull
+	public XMLStreamReader openXml(@NotNull String path)
+			throws IOException, ParseException {
+		ZipEntry entry = getEntry(path);
+		if (entry == null)
+			throw new ParseException(Msg.file_corrupted.get());
+		return openXml(entry);
+	}
+
+	/**
+	 * Same as {@link #openXml(String)}, but takes an entry of this package
+	 * instead of a path.
+	 */
+	@NotNull
+	public XMLStreamReader openXml(@NotNull ZipEntry entry)
+			throws IOException, ParseException {
+		Util.checkNotNull(entry);
+		final InputStream in = zipFile.getInputStream(entry);
+		try {
+			XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(in);
+			return new StreamReaderDelegate(reader) {
+				public void close() throws XMLStreamException {
+					try {
+						super.close();
+					}
+					finally {
+						Closeables.closeQuietly(in);
+					}
+				}
+			};
+		}
+		catch (XMLStreamException e) {
+			Closeables.closeQuietly(in);
+			throw new ParseException(e);
+		}
+	}
+
+	/**
+	 * Returns a Jericho source for the entry with the given path, for lenient
+	 * parsing of entries the pull parser rejected.
+	 *
+	 * @throws ParseException
+	 *             if there is no entry with the given path.
+	 */
+	@NotNull
+	public Source openSource(@NotNull String path)
+			throws IOException, ParseException {
+		ZipEntry entry = getEntry(path);
+		if (entry == null)
+			throw new ParseException(Msg.file_corrupted.get());
+		return openSource(entry);
+	}
+
+	/**
+	 * Same as {@link #openSource(String)}, but takes an entry of this package
+	 * instead of a path.
+	 */
+	@NotNull
+	public Source openSource(@NotNull ZipEntry entry) throws IOException {
+		Util.checkNotNull(entry);
+		InputStream in = zipFile.getInputStream(entry);
+		try {
+			Source source = UtilParser.getSource(in);
+			source.setLogger(null);
+			return source;
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Returns the text inside the current element of the given parser,
+	 * including the text of nested elements, and moves the parser to the end
+	 * of the current element. The parser must be positioned on a start
+	 * element.
+	 */
+	@NotNull
+	public static String readText(@NotNull XMLStreamReader reader)
+			throws XMLStreamException {
+		StringBuilder sb = new StringBuilder();
+		int depth = 1;
+		while (depth > 0) {
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				depth++;
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				depth--;
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				sb.append(
+					reader.getTextCharacters(), reader.getTextStart(),
+					reader.getTextLength());
+				break;
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Moves the given parser to the end of the current element, skipping all
+	 * nested content. The parser must be positioned on a start element.
+	 */
+	public static void skipElement(@NotNull XMLStreamReader reader)
+			throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT)
+				depth--;
+		}
+	}
+
+	/**
+	 * Closes the given parser, ignoring any exceptions.
+	 */
+	public static void closeQuietly(@Nullable XMLStreamReader reader) {
+		if (reader == null)
+			return;
+		try {
+			reader.close();
+		}
+		catch (XMLStreamException e) {
+		}
+	}
+
+	public void close() {
+		UtilParser.closeZipFile(zipFile);
+	}
+
+}
@@ -35,6 +35,12 @@ public final class HighlightedString {
 		this.ranges = ranges;
 	}
 	
+	// Returns a new empty string without highlighting
+	@NotNull
+	public static HighlightedString createEmpty() {
+		return new HighlightedString("", new ArrayList<Range>(0));
+	}
+	
 	@NotNull
 	public String getString() {
 		StringBuilder sb = new StringBuilder(length);
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.sourceforge.docfetcher.model.Fields;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermVectorMapper;
+import org.apache.lucene.index.TermVectorOffsetInfo;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+
+/**
+ * Determines which pages of a paged document (e.g. a PDF file) contain search
+ * hits. This requires that the page offsets and the term offsets of the
+ * document's content were stored in the index, see
+ * {@link Fields#encodePageOffsets(int[])}.
+ * <p>
+ * The result is approximate: All pages that contain at least one of the terms
+ * of the query are considered hit pages, regardless of the query structure.
+ * For example, a page containing only one word of a phrase query counts as a
+ * hit page.
+ *
+ * @author Tran Nam Quang
+ */
+final class HitPageFinder {
+
+	private HitPageFinder() {
+	}
+
+	/**
+	 * Returns the sorted zero-based indices of the pages that contain hits for
+	 * the given query in the given document, or null if this information is
+	 * not available for the document.
+	 */
+	@Nullable
+	public static int[] findHitPages(	@NotNull IndexReader reader,
+										int docId,
+										@NotNull Query query)
+			throws IOException {
+		String pagesKey = Fields.PAGES.key();
+		Document doc = reader.document(docId, new MapFieldSelector(pagesKey));
+		String encodedPages = doc.get(pagesKey);
+		if (encodedPages == null)
+			return null;
+		final int[] pageOffsets;
+		try {
+			pageOffsets = Fields.decodePageOffsets(encodedPages);
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
+		if (pageOffsets.length < 2)
+			return null;
+
+		// Collect the terms of the query that target the content field
+		Set<Term> terms = new HashSet<Term>();
+		try {
+			/*
+			 * Wildcard and fuzzy queries must be rewritten against the index
+			 * before their terms can be extracted.
+			 */
+			query.rewrite(reader).extractTerms(terms);
+		}
+		catch (BooleanQuery.TooManyClauses e) {
+			return null;
+		}
+		catch (UnsupportedOperationException e) {
+			return null;
+		}
+		final Set<String> contentTerms = new HashSet<String>();
+		String contentKey = Fields.CONTENT.key();
+		for (Term term : terms)
+			if (term.field().equals(contentKey))
+				contentTerms.add(term.text());
+
+		// Map the term offsets to pages
+		final BitSet hitPages = new BitSet(pageOffsets.length - 1);
+		final boolean[] hasOffsets = { false };
+		reader.getTermFreqVector(docId, contentKey, new TermVectorMapper() {
+			public void setExpectations(String field,
+										int numTerms,
+										boolean storeOffsets,
+										boolean storePositions) {
+				hasOffsets[0] = storeOffsets;
+			}
+			public void map(String term,
+							int frequency,
+							TermVectorOffsetInfo[] offsets,
+							int[] positions) {
+				if (offsets == null || !contentTerms.contains(term))
+					return;
+				for (TermVectorOffsetInfo offset : offsets) {
+					int page = getPage(pageOffsets, offset.getStartOffset());
+					if (page >= 0)
+						hitPages.set(page);
+				}
+			}
+		});
+		if (!hasOffsets[0])
+			return null;
+
+		int[] result = new int[hitPages.cardinality()];
+		int i = 0;
+		for (int page = hitPages.nextSetBit(0); page >= 0; page = hitPages.nextSetBit(page + 1))
+			result[i++] = page;
+		return result;
+	}
+
+	/**
+	 * Returns the index of the page containing the given character offset, or
+	 * -1 if the offset lies outside of all pages. The latter happens for
+	 * instance for offsets in the metadata that is appended to the content
+	 * field.
+	 */
+	static int getPage(@NotNull int[] pageOffsets, int offset) {
+		int low = 0;
+		int high = pageOffsets.length - 2;
+		if (offset < pageOffsets[0] || offset >= pageOffsets[high + 1])
+			return -1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (pageOffsets[mid] <= offset)
+				low = mid;
+			else
+				high = mid - 1;
+		}
+		return low;
+	}
+
+}
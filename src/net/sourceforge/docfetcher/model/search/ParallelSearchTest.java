@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import net.sourceforge.docfetcher.model.IndexRegistry;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiSearcher;
+import org.apache.lucene.search.ParallelMultiSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Searchable;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+/**
+ * Checks that the parallel search mode returns the same results and scores as
+ * the sequential search mode.
+ *
+ * @author Tran Nam Quang
+ */
+@SuppressWarnings("deprecation")
+public final class ParallelSearchTest {
+
+	private static final String[] words = {
+		"alpha", "beta", "gamma", "delta", "epsilon", "zeta", "eta", "theta" };
+
+	@Test
+	public void testSameResults() throws Exception {
+		Searchable[] searchables1 = createSearchables(8, 2000);
+		Searchable[] searchables2 = createSearchables(8, 2000);
+		MultiSearcher sequential = Searcher.createMultiSearcher(searchables1, 1);
+		MultiSearcher parallel = Searcher.createMultiSearcher(searchables2, 4);
+		assertTrue(!(sequential instanceof ParallelMultiSearcher));
+		assertTrue(parallel instanceof ParallelMultiSearcher);
+
+		BooleanQuery query = new BooleanQuery();
+		query.add(new TermQuery(new Term("content", "alpha")), Occur.SHOULD);
+		query.add(new TermQuery(new Term("content", "theta")), Occur.SHOULD);
+
+		TopDocs expected = sequential.search(query, 500);
+		TopDocs actual = parallel.search(query, 500);
+		assertEquals(expected.totalHits, actual.totalHits);
+		assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+		for (int i = 0; i < expected.scoreDocs.length; i++) {
+			ScoreDoc sd1 = expected.scoreDocs[i];
+			ScoreDoc sd2 = actual.scoreDocs[i];
+			assertEquals(sd1.score, sd2.score, 0.0001f);
+			assertEquals(
+				sequential.subSearcher(sd1.doc),
+				parallel.subSearcher(sd2.doc));
+		}
+
+		sequential.close();
+		parallel.close();
+	}
+
+	private static Searchable[] createSearchables(int indexCount, int docCount)
+			throws IOException {
+		Random random = new Random(0);
+		Searchable[] searchables = new Searchable[indexCount];
+		for (int i = 0; i < indexCount; i++) {
+			Directory dir = new RAMDirectory();
+			IndexWriter writer = new IndexWriter(dir, new StandardAnalyzer(
+				IndexRegistry.LUCENE_VERSION), MaxFieldLength.UNLIMITED);
+			for (int j = 0; j < docCount * (i + 1) / indexCount; j++) {
+				StringBuilder sb = new StringBuilder();
+				for (int k = 0; k < 20; k++)
+					sb.append(words[random.nextInt(words.length)]).append(" ");
+				Document doc = new Document();
+				doc.add(new Field("content", sb.toString(), Store.NO, Index.ANALYZED));
+				writer.addDocument(doc);
+			}
+			writer.close();
+			searchables[i] = new IndexSearcher(dir);
+		}
+		return searchables;
+	}
+
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+
+import org.apache.lucene.search.Query;
+
+/**
+ * An LRU cache for search results. The cache key consists of the parsed query,
+ * which takes care of normalizing insignificant differences in the query
+ * string (e.g. whitespace), and the versions of the searched indexes. The size
+ * of the cache is bounded by the estimated memory footprint of the stored
+ * fields of the cached results rather than by the number of entries.
+ *
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+final class QueryResultCache {
+
+	static final class Key {
+		private final Query query;
+		private final boolean isPhraseQuery;
+		private final long[] indexVersions;
+		private final int hashCode;
+
+		public Key(	@NotNull Query query,
+					boolean isPhraseQuery,
+					@NotNull long[] indexVersions) {
+			this.query = Util.checkNotNull(query);
+			this.isPhraseQuery = isPhraseQuery;
+			this.indexVersions = indexVersions;
+			int hash = query.hashCode();
+			hash = 31 * hash + (isPhraseQuery ? 1 : 0);
+			hash = 31 * hash + Arrays.hashCode(indexVersions);
+			hashCode = hash;
+		}
+
+		public int hashCode() {
+			return hashCode;
+		}
+
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return isPhraseQuery == other.isPhraseQuery
+				&& query.equals(other.query)
+				&& Arrays.equals(indexVersions, other.indexVersions);
+		}
+	}
+
+	private static final class Entry {
+		private final ResultDocument[] results;
+		private final long size;
+
+		public Entry(@NotNull ResultDocument[] results) {
+			this.results = results;
+			long size = 0;
+			for (ResultDocument result : results)
+				size += result.getStoredSize();
+			this.size = size;
+		}
+	}
+
+	private final long capacity;
+	private final Map<Key, Entry> map = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	private long size = 0;
+
+	/**
+	 * Creates a cache with the given capacity in bytes. A capacity of 0
+	 * disables the cache.
+	 */
+	public QueryResultCache(long capacity) {
+		Util.checkThat(capacity >= 0);
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns a copy of the cached results for the given key, or null if there
+	 * are no cached results.
+	 */
+	@Nullable
+	public synchronized ResultDocument[] get(@NotNull Key key) {
+		Entry entry = map.get(key);
+		return entry == null ? null : entry.results.clone();
+	}
+
+	public synchronized void put(	@NotNull Key key,
+									@NotNull ResultDocument[] results) {
+		if (capacity == 0)
+			return;
+		Entry entry = new Entry(results.clone());
+		if (entry.size > capacity / 2)
+			return; // Don't let a single huge result set flush the cache
+		Entry oldEntry = map.put(key, entry);
+		if (oldEntry != null)
+			size -= oldEntry.size;
+		size += entry.size;
+		Iterator<Entry> it = map.values().iterator();
+		while (size > capacity && it.hasNext()) {
+			size -= it.next().size;
+			it.remove();
+		}
+	}
+
+	public synchronized void clear() {
+		map.clear();
+		size = 0;
+	}
+
+}
@@ -40,6 +40,7 @@ import net.sourceforge.docfetcher.util.annotations.Nullable;
 import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Fieldable;
 import org.apache.lucene.search.Query;
 
 /**
@@ -53,7 +54,8 @@ import org.apache.lucene.search.Query;
 public final class ResultDocument {
 	
 	public interface PreviewPageHandler {
-		public void handlePage(HighlightedString pageText);
+		// Pages may be reported out of order, see readPages
+		public void handlePage(HighlightedString pageText, int pageIndex);
 		public boolean isStopped();
 	}
 	
@@ -64,6 +66,7 @@ public final class ResultDocument {
 	private final IndexingConfig config;
 	private final FileFactory fileFactory;
 	private final OutlookMailFactory mailFactory;
+	private final Searcher searcher;
 	
 	// Cached values
 	private final String uid;
@@ -79,8 +82,10 @@ public final class ResultDocument {
 							boolean isPhraseQuery,
 							@NotNull IndexingConfig config,
 							@NotNull FileFactory fileFactory,
-							@NotNull OutlookMailFactory mailFactory) {
+							@NotNull OutlookMailFactory mailFactory,
+							@NotNull Searcher searcher) {
 		Util.checkNotNull(luceneDoc, query, config, fileFactory, mailFactory);
+		Util.checkNotNull(searcher);
 		this.luceneDoc = luceneDoc;
 		this.score = score;
 		this.query = query;
@@ -88,6 +93,7 @@ public final class ResultDocument {
 		this.config = config;
 		this.fileFactory = fileFactory;
 		this.mailFactory = mailFactory;
+		this.searcher = searcher;
 		
 		uid = luceneDoc.get(Fields.UID.key());
 		isEmail = DocumentType.isEmailType(uid);
@@ -224,6 +230,21 @@ public final class ResultDocument {
 		return parserName.equals(parserClass.getSimpleName());
 	}
 	
+	/**
+	 * Returns the approximate memory footprint of the receiver in bytes, which
+	 * is dominated by the stored fields of the underlying Lucene document.
+	 */
+	long getStoredSize() {
+		long size = 128; // Rough overhead of the receiver and its fields
+		for (Fieldable field : luceneDoc.getFields()) {
+			size += 64 + 2L * field.name().length();
+			String value = field.stringValue();
+			if (value != null)
+				size += 40 + 2L * value.length();
+		}
+		return size;
+	}
+	
 	// Should be run in a thread
 	// thrown parse exception has localized error message
 	@NotNull
@@ -252,6 +273,22 @@ public final class ResultDocument {
 		return HighlightService.highlight(query, isPhraseQuery, getText());
 	}
 	
+	@NotNull
+	String getUniqueId() {
+		return uid;
+	}
+	
+	@NotNull
+	Query getQuery() {
+		return query;
+	}
+	
+	/**
+	 * Extracts the pages of the receiver and hands them over to the given page
+	 * handler. For PDF files, the pages containing search hits are extracted
+	 * first if the index contains the necessary information, so the page
+	 * handler may receive the pages out of order.
+	 */
 	// should be run in a thread
 	public void readPages(@NotNull final PreviewPageHandler pageHandler)
 			throws ParseException, FileNotFoundException,
@@ -263,7 +300,7 @@ public final class ResultDocument {
 		try {
 			fileResource = getFileResource();
 			PageHandler handler = new PageHandler() {
-				public boolean handlePage(String pageText) {
+				public boolean handlePage(String pageText, int pageIndex) {
 					HighlightedString string;
 					try {
 						string = HighlightService.highlight(
@@ -273,12 +310,13 @@ public final class ResultDocument {
 					catch (CheckedOutOfMemoryError e) {
 						throw new OutOfMemoryError(e.getMessage());
 					}
-					pageHandler.handlePage(string);
+					pageHandler.handlePage(string, pageIndex);
 					return pageHandler.isStopped();
 				}
 			};
 			if (isPdfFile()) {
-				new PagingPdfParser(fileResource.getFile(), handler).run();
+				int[] hitPages = searcher.getHitPages(this);
+				new PagingPdfParser(fileResource.getFile(), hitPages, handler).run();
 			} else if (isChmFile()) {
 				new PagingChmParser(fileResource.getFile(), handler).run();
 			}
@@ -24,6 +24,8 @@ import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.Lock;
 
@@ -54,6 +56,9 @@ import net.sourceforge.docfetcher.util.collect.AlphanumComparator;
 import net.sourceforge.docfetcher.util.collect.LazyList;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.FieldSelectorResult;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
@@ -65,13 +70,18 @@ import org.apache.lucene.search.MultiSearcher;
 import org.apache.lucene.search.MultiTermQuery;
 import org.apache.lucene.search.MultiTermQuery.RewriteMethod;
 import org.apache.lucene.search.NumericRangeFilter;
+import org.apache.lucene.search.ParallelMultiSearcher;
 import org.apache.lucene.search.PrefixFilter;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Searchable;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TermsFilter;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.util.NamedThreadFactory;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.io.Closeables;
 
 /**
@@ -116,6 +126,20 @@ public final class Searcher {
 	}
 	
 	private static final int PAGE_SIZE = 50;
+	
+	/*
+	 * The page offsets of paged documents are only needed for the preview, so
+	 * we won't load them into the result documents.
+	 */
+	private static final FieldSelector resultFieldSelector = new FieldSelector() {
+		private static final long serialVersionUID = 1L;
+		
+		public FieldSelectorResult accept(String fieldName) {
+			if (fieldName.equals(Fields.PAGES.key()))
+				return FieldSelectorResult.NO_LOAD;
+			return FieldSelectorResult.LOAD;
+		}
+	};
 	public static final int MAX_RESULTS = ProgramConf.Int.MaxResultsTotal.get();
 	
 	private final IndexRegistry indexRegistry;
@@ -128,11 +152,14 @@ public final class Searcher {
 	
 	@NotNull private MultiSearcher luceneSearcher; // guarded by read-write lock
 	@NotNull private List<LuceneIndex> indexes; // guarded by read-write lock
+	@NotNull private long[] indexVersions; // guarded by read-write lock
 	@Nullable private volatile IOException ioException;
 	
 	private final Lock readLock;
 	private final Lock writeLock;
 	
+	private final QueryResultCache queryCache = new QueryResultCache(
+		ProgramConf.Int.QueryCacheSize.get() * 1024L);
 	
 
 	/**
@@ -235,22 +262,65 @@ public final class Searcher {
 			throws IOException {
 		this.indexes = Util.checkNotNull(indexes);
         Searchable[] searchables = new Searchable[indexes.size()];
+        long[] versions = new long[indexes.size()];
         LazyList<CorruptedIndex> corrupted = new LazyList<CorruptedIndex>();
 		for (int i = 0; i < indexes.size(); i++) {
 			LuceneIndex index = indexes.get(i);
             try {
-                searchables[i] = new IndexSearcher(index.getLuceneDir());
+                IndexSearcher searcher = new IndexSearcher(index.getLuceneDir());
+                searchables[i] = searcher;
+                versions[i] = searcher.getIndexReader().getVersion();
             }
             catch (IOException e) {
             	Util.printErr(e);
                 searchables[i] = new DummySearchable();
+                versions[i] = -1;
                 corrupted.add(new CorruptedIndex(index, e));
             }
         }
-        luceneSearcher = new MultiSearcher(searchables);
+		
+		/*
+		 * The index versions are part of the keys of the query cache, so stale
+		 * cache entries can never be hit after an index was modified. Clearing
+		 * the cache here merely frees the memory occupied by those entries.
+		 */
+		indexVersions = versions;
+		queryCache.clear();
+		
+        luceneSearcher = createMultiSearcher(
+        	searchables, ProgramConf.Int.SearchThreads.get());
         return corrupted;
 	}
 	
+	/**
+	 * Returns a searcher over the given searchables. If the given thread count
+	 * is not 1 and there is more than one searchable, the returned searcher
+	 * will search the searchables in parallel on a bounded thread pool, with
+	 * the given number of threads. A thread count of 0 means that the number of
+	 * available processors is used.
+	 * <p>
+	 * Either way, the scores are normalized across all searchables, since
+	 * MultiSearcher and ParallelMultiSearcher both compute document
+	 * frequencies over all searchables before searching.
+	 * <p>
+	 * The thread pool is owned by the returned searcher and is shut down when
+	 * the searcher is closed.
+	 */
+	@NotNull
+	@VisibleForTesting
+	static MultiSearcher createMultiSearcher(	@NotNull Searchable[] searchables,
+												int threadCount)
+			throws IOException {
+		if (threadCount == 0)
+			threadCount = Runtime.getRuntime().availableProcessors();
+		threadCount = Math.min(threadCount, searchables.length);
+		if (threadCount <= 1)
+			return new MultiSearcher(searchables);
+		ExecutorService executor = Executors.newFixedThreadPool(
+			threadCount, new NamedThreadFactory(Searcher.class.getSimpleName()));
+		return new ParallelMultiSearcher(executor, searchables);
+	}
+	
 	@ImmutableCopy
 	@NotNull
 	@ThreadSafe
@@ -287,20 +357,31 @@ public final class Searcher {
 		try {
 			checkIndexesExist();
 			
+			/*
+			 * The parsed query is used as cache key rather than the query
+			 * string, so that equivalent query strings share the same entry.
+			 */
+			QueryResultCache.Key cacheKey = new QueryResultCache.Key(
+				query, isPhraseQuery, indexVersions);
+			ResultDocument[] cachedResults = queryCache.get(cacheKey);
+			if (cachedResults != null)
+				return Arrays.asList(cachedResults);
+			
 			// Perform search; might throw OutOfMemoryError
 			ScoreDoc[] scoreDocs = luceneSearcher.search(query, MAX_RESULTS).scoreDocs;
 
 			// Create result documents
 			ResultDocument[] results = new ResultDocument[scoreDocs.length];
 			for (int i = 0; i < scoreDocs.length; i++) {
-				Document doc = luceneSearcher.doc(scoreDocs[i].doc);
+				Document doc = luceneSearcher.doc(scoreDocs[i].doc, resultFieldSelector);
 				float score = scoreDocs[i].score;
-				LuceneIndex index = indexes.get(luceneSearcher.subSearcher(i));
+				LuceneIndex index = indexes.get(luceneSearcher.subSearcher(scoreDocs[i].doc));
 				IndexingConfig config = index.getConfig();
 				results[i] = new ResultDocument(
 					doc, score, query, isPhraseQuery, config, fileFactory,
-					outlookMailFactory);
+					outlookMailFactory, this);
 			}
+			queryCache.put(cacheKey, results);
 			return Arrays.asList(results);
 		}
 		catch (IllegalArgumentException e) {
@@ -317,6 +398,42 @@ public final class Searcher {
 		}
 	}
 	
+	/**
+	 * Returns the sorted zero-based indices of the pages of the given result
+	 * document that contain hits for the query that produced the result
+	 * document. Returns null if this information is not available, e.g. if the
+	 * document is not a paged document, or if it is no longer in the indexes.
+	 */
+	@Nullable
+	@ThreadSafe
+	public int[] getHitPages(@NotNull ResultDocument doc) {
+		Util.checkNotNull(doc);
+		readLock.lock();
+		try {
+			Term uidTerm = new Term(Fields.UID.key(), doc.getUniqueId());
+			ScoreDoc[] scoreDocs = luceneSearcher.search(
+				new TermQuery(uidTerm), 1).scoreDocs;
+			if (scoreDocs.length == 0)
+				return null;
+			int n = scoreDocs[0].doc;
+			Searchable searchable = luceneSearcher.getSearchables()[luceneSearcher.subSearcher(n)];
+			if (!(searchable instanceof IndexSearcher))
+				return null;
+			IndexReader reader = ((IndexSearcher) searchable).getIndexReader();
+			return HitPageFinder.findHitPages(
+				reader, luceneSearcher.subDoc(n), doc.getQuery());
+		}
+		catch (IOException e) {
+			return null;
+		}
+		catch (AlreadyClosedException e) {
+			return null; // Searcher was shut down
+		}
+		finally {
+			readLock.unlock();
+		}
+	}
+	
 	@NotNull
 	private static SearchException wrapEmptyIndexException(@NotNull IllegalArgumentException e)
 			throws SearchException {
@@ -357,13 +474,13 @@ public final class Searcher {
 			// Create result documents
 			ResultDocument[] results = new ResultDocument[scoreDocs.length];
 			for (int i = 0; i < results.length; i++) {
-				Document doc = luceneSearcher.doc(scoreDocs[i].doc);
+				Document doc = luceneSearcher.doc(scoreDocs[i].doc, resultFieldSelector);
 				float score = scoreDocs[i].score;
-				LuceneIndex index = indexes.get(luceneSearcher.subSearcher(i));
+				LuceneIndex index = indexes.get(luceneSearcher.subSearcher(scoreDocs[i].doc));
 				IndexingConfig config = index.getConfig();
 				results[i] = new ResultDocument(
 					doc, score, query, true, config, fileFactory,
-					outlookMailFactory);
+					outlookMailFactory, this);
 			}
 			
 			// Sort results by title
@@ -471,13 +588,13 @@ public final class Searcher {
 			// Create and fill list of result documents to return
 			ResultDocument[] results = new ResultDocument[end - start];
 			for (int i = start; i < end; i++) {
-				Document doc = luceneSearcher.doc(scoreDocs[i].doc);
+				Document doc = luceneSearcher.doc(scoreDocs[i].doc, resultFieldSelector);
 				float score = scoreDocs[i].score;
-				LuceneIndex index = indexes.get(luceneSearcher.subSearcher(i));
+				LuceneIndex index = indexes.get(luceneSearcher.subSearcher(scoreDocs[i].doc));
 				IndexingConfig config = index.getConfig();
 				results[i - start] = new ResultDocument(
 					doc, score, query, isPhraseQuery, config, fileFactory,
-					outlookMailFactory);
+					outlookMailFactory, this);
 			}
 			
 			int hitCount = topDocs.totalHits;
@@ -11,26 +11,78 @@
 
 package net.sourceforge.docfetcher.util.concurrent;
 
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 
 /**
+ * Runs the most recently scheduled runnable once no other runnable has been
+ * scheduled for a certain amount of time.
+ * <p>
+ * All instances of this class share a single daemon thread, on which the
+ * runnables are run. Thus, the runnables should be short, and scheduling a
+ * runnable doesn't start a new thread. Runnables that trigger long tasks
+ * should hand them off to a thread of their own, since they would otherwise
+ * delay the runnables of all other instances.
+ *
  * @author Tran Nam Quang
  */
 public final class DelayedExecutor {
 	
-	private final long delay;
+	private static final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, DelayedExecutor.class.getName());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	private final long defaultDelay;
 	private final Object lock = new Object();
 	
 	// Fields below guarded by lock
-	@Nullable private Thread thread;
+	private boolean isScheduled = false;
 	@Nullable private Runnable lastRunnable;
 	private long lastTimestamp = 0;
+	private long delay;
+	private long wakeTime = 0;
+	
+	private final Runnable task = new Runnable() {
+		public void run() {
+			Runnable runnable;
+			synchronized (lock) {
+				// There may be more than one wake-up per runnable, see below
+				if (lastRunnable == null)
+					return;
+				long now = System.currentTimeMillis();
+				long timePassed = now - lastTimestamp;
+				if (timePassed < delay) {
+					wakeUp(now, delay - timePassed);
+					return;
+				}
+				runnable = lastRunnable;
+				lastRunnable = null;
+				isScheduled = false;
+			}
+			try {
+				runnable.run();
+			}
+			catch (Throwable t) {
+				Thread thread = Thread.currentThread();
+				UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+				handler.uncaughtException(thread, t);
+			}
+		}
+	};
 	
 	public DelayedExecutor(long delay) {
 		Util.checkThat(delay >= 0);
-		this.delay = delay;
+		this.defaultDelay = delay;
 	}
 	
 	/**
@@ -43,44 +95,38 @@ public final class DelayedExecutor {
 	 * continue to operate normally.
 	 */
 	public void schedule(@NotNull Runnable runnable) {
+		schedule(runnable, defaultDelay);
+	}
+	
+	/**
+	 * Schedules the given runnable for execution, like
+	 * {@link #schedule(Runnable)}, but with the given delay in milliseconds
+	 * instead of the delay set for the receiver. The given delay replaces the
+	 * delays of any previously scheduled runnables that haven't run yet.
+	 */
+	public void schedule(@NotNull Runnable runnable, long delay) {
 		Util.checkNotNull(runnable);
+		Util.checkThat(delay >= 0);
 		synchronized (lock) {
 			lastRunnable = runnable;
 			lastTimestamp = System.currentTimeMillis();
-			if (thread != null)
+			this.delay = delay;
+			/*
+			 * If a runnable is already scheduled, the scheduled wake-up will
+			 * take care of the given runnable, unless the given delay is
+			 * shorter than the remaining time until the wake-up.
+			 */
+			if (isScheduled && lastTimestamp + delay >= wakeTime)
 				return;
-			
-			thread = new Thread(DelayedExecutor.class.getName()) {
-				public void run() {
-					long sleepTime = delay;
-					while (true) {
-						try {
-							Thread.sleep(sleepTime);
-						}
-						catch (InterruptedException e) {
-							break;
-						}
-						synchronized (lock) {
-							long timePassed = System.currentTimeMillis() - lastTimestamp;
-							if (timePassed > delay) {
-								try {
-									lastRunnable.run();
-								}
-								finally {
-									lastRunnable = null;
-									thread = null;
-								}
-								break;
-							}
-							else {
-								sleepTime = delay - timePassed;
-							}
-						}
-					}
-				}
-			};
-			thread.start();
+			isScheduled = true;
+			wakeUp(lastTimestamp, delay);
 		}
 	}
+	
+	// Must be called while holding the lock
+	private void wakeUp(long now, long delay) {
+		wakeTime = now + delay;
+		scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+	}
 
 }
@@ -22,6 +22,7 @@ import java.util.List;
 import org.apache.tika.exception.TikaException;
 import org.apache.tika.parser.chm.core.ChmCommons;
 import org.apache.tika.parser.chm.core.ChmConstants;
+import org.apache.tika.parser.chm.core.ChmSource;
 import org.apache.tika.parser.chm.exception.ChmParsingException;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -31,7 +32,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  */
 public class ChmDirectoryListingSet {
     private List<DirectoryListingEntry> dlel;
-    private byte[] data;
+    private ChmSource data;
     private int placeHolder = -1;
     private long dataOffset = -1;
     private int controlDataIndex = -1;
@@ -51,12 +52,33 @@ public class ChmDirectoryListingSet {
      */
     public ChmDirectoryListingSet(byte[] data, ChmItsfHeader chmItsHeader,
             ChmItspHeader chmItspHeader) throws TikaException {
+        this(checkNotNull(data), chmItsHeader, chmItspHeader);
+    }
+
+    /**
+     * Constructs chm directory listing set, reading only the directory chunks
+     * from the given source
+     * 
+     * @param data
+     *            ChmSource
+     * @param chmItsHeader
+     * @param chmItspHeader
+     * @throws TikaException 
+     */
+    public ChmDirectoryListingSet(ChmSource data, ChmItsfHeader chmItsHeader,
+            ChmItspHeader chmItspHeader) throws TikaException {
         setDirectoryListingEntryList(new ArrayList<DirectoryListingEntry>());
-        ChmCommons.assertByteArrayNotNull(data);
+        if (data == null)
+            throw new TikaException("data is null");
         setData(data);
         enumerateChmDirectoryListingList(chmItsHeader, chmItspHeader);
     }
 
+    private static ChmSource checkNotNull(byte[] data) throws TikaException {
+        ChmCommons.assertByteArrayNotNull(data);
+        return ChmSource.fromBytes(data);
+    }
+
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("list:=" + getDirectoryListingEntryList().toString()
@@ -125,18 +147,16 @@ public class ChmDirectoryListingSet {
         try {
             int startPmgl = chmItspHeader.getIndex_head();
             int stopPmgl = chmItspHeader.getUnknown_0024();
-            int dir_offset = (int) (chmItsHeader.getDirOffset() + chmItspHeader
-                    .getHeader_len());
+            long dir_offset = chmItsHeader.getDirOffset() + chmItspHeader
+                    .getHeader_len();
             setDataOffset(chmItsHeader.getDataOffset());
 
             /* loops over all pmgls */
             byte[] dir_chunk = null;
             for (int i = startPmgl; i>=0; ) {
-                dir_chunk = new byte[(int) chmItspHeader.getBlock_len()];
-                int start = i * (int) chmItspHeader.getBlock_len() + dir_offset;
-                dir_chunk = ChmCommons
-                        .copyOfRange(getData(), start,
-                                start +(int) chmItspHeader.getBlock_len());
+                long start = i * chmItspHeader.getBlock_len() + dir_offset;
+                dir_chunk = getData().copyOfRange(start,
+                        start + chmItspHeader.getBlock_len());
 
                 PMGLheader = new ChmPmglHeader();
                 PMGLheader.parse(dir_chunk, PMGLheader);
@@ -365,7 +385,7 @@ public class ChmDirectoryListingSet {
      * 
      * @param data
      */
-    private void setData(byte[] data) {
+    private void setData(ChmSource data) {
         this.data = data;
     }
 
@@ -374,7 +394,7 @@ public class ChmDirectoryListingSet {
      * 
      * @return
      */
-    private byte[] getData() {
+    private ChmSource getData() {
         return data;
     }
 
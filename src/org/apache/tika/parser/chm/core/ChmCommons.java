@@ -112,6 +112,37 @@ public class ChmCommons {
         return (t != null) ? t : new byte[1];
     }
 
+    /**
+     * Same as {@link #getChmBlockSegment(byte[], ChmLzxcResetTable, int, int, int)},
+     * except that only the requested block is read from the given source.
+     */
+    public static byte[] getChmBlockSegment(ChmSource data,
+            ChmLzxcResetTable resetTable, int blockNumber, long lzxcBlockOffset,
+            long lzxcBlockLength) throws TikaException, IOException {
+        if (data == null)
+            throw new TikaException("data is null");
+        if (resetTable == null)
+            throw new TikaException("resetTable is null");
+        if (resetTable.getBlockAddress().length <= 1)
+            throw new TikaException("resetTable.getBlockAddress().length should be greater than zero");
+        if (blockNumber < 0)
+            throw new TikaException("blockNumber should be positive number");
+        if (lzxcBlockOffset < 0)
+            throw new TikaException("lzxcBlockOffset should be positive number");
+        if (lzxcBlockLength < 0)
+            throw new TikaException("lzxcBlockLength should be positive number");
+        long[] blockAddress = resetTable.getBlockAddress();
+        long blockLength;
+        if (blockNumber < (blockAddress.length - 1))
+            blockLength = blockAddress[blockNumber + 1] - blockAddress[blockNumber];
+        else if (blockNumber >= blockAddress.length)
+            blockLength = 0;
+        else
+            blockLength = lzxcBlockLength - blockAddress[blockNumber];
+        long start = lzxcBlockOffset + blockAddress[blockNumber];
+        return data.copyOfRange(start, start + blockLength);
+    }
+
     /**
      * Returns textual representation of LangID
      * 
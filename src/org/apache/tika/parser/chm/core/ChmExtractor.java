@@ -17,9 +17,12 @@
 package org.apache.tika.parser.chm.core;
 
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.commons.io.IOUtils;
@@ -32,6 +35,7 @@ import org.apache.tika.parser.chm.accessor.ChmLzxcResetTable;
 import org.apache.tika.parser.chm.accessor.DirectoryListingEntry;
 import org.apache.tika.parser.chm.assertion.ChmAssert;
 import org.apache.tika.parser.chm.core.ChmCommons.EntryType;
+import org.apache.tika.parser.chm.exception.ChmParsingException;
 import org.apache.tika.parser.chm.lzx.ChmBlockInfo;
 import org.apache.tika.parser.chm.lzx.ChmLzxBlock;
 
@@ -39,15 +43,28 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Extracts text from chm file. Enumerates chm entries.
+ * <p>
+ * When constructed from a file, only the chm headers and directory are read
+ * upfront. Compressed blocks are read from the file on demand, and only the
+ * most recently decompressed block is kept in memory, so that the memory
+ * usage does not depend on the size of the chm file. The extractor must be
+ * closed after use in that case.
  */
-public class ChmExtractor {
-    private List<ChmLzxBlock> lzxBlocksCache = null;
+public class ChmExtractor implements Closeable {
+    /*
+     * The most recently decompressed lzx block. Decompression of an entry can
+     * continue from this block if the entry starts in the same reset interval
+     * after this block, which is the common case when entries are extracted
+     * in the order of their offsets. Otherwise decompression restarts at the
+     * beginning of the entry's reset interval.
+     */
+    private ChmLzxBlock lastLzxBlock = null;
     private ChmDirectoryListingSet chmDirList = null;
     private ChmItsfHeader chmItsfHeader = null;
     private ChmItspHeader chmItspHeader = null;
     private ChmLzxcResetTable chmLzxcResetTable = null;
     private ChmLzxcControlData chmLzxcControlData = null;
-    private byte[] data = null;
+    private ChmSource data = null;
     private int indexOfContent;
     private long lzxBlockOffset;
     private long lzxBlockLength;
@@ -138,24 +155,45 @@ public class ChmExtractor {
         this.indexOfContent = indexOfContent;
     }
 
-    private byte[] getData() {
+    private ChmSource getData() {
         return data;
     }
 
-    private void setData(byte[] data) {
+    private void setData(ChmSource data) {
         this.data = data;
     }
 
+    /**
+     * Reads the complete chm file from the given stream into memory. For large
+     * files, {@link #ChmExtractor(File)} should be used instead.
+     */
     public ChmExtractor(InputStream is) throws TikaException, IOException {
+        this(toSource(is));
+    }
+
+    /**
+     * Reads the parts of the given chm file on demand. The extractor must be
+     * closed after use.
+     */
+    public ChmExtractor(File file) throws TikaException, IOException {
+        this(ChmSource.fromFile(file));
+    }
+
+    private static ChmSource toSource(InputStream is) throws TikaException, IOException {
         ChmAssert.assertInputStreamNotNull(is);
+        return ChmSource.fromBytes(IOUtils.toByteArray(is));
+    }
+
+    private ChmExtractor(ChmSource source) throws TikaException, IOException {
+        boolean success = false;
         try {
-            setData(IOUtils.toByteArray(is));
+            setData(source);
 
             /* Creates and parses chm itsf header */
             setChmItsfHeader(new ChmItsfHeader());
             // getChmItsfHeader().parse(Arrays.copyOfRange(getData(), 0,
             // ChmConstants.CHM_ITSF_V3_LEN - 1), getChmItsfHeader());
-            getChmItsfHeader().parse(ChmCommons.copyOfRange(getData(), 0,
+            getChmItsfHeader().parse(getData().copyOfRange(0,
                             ChmConstants.CHM_ITSF_V3_LEN - 1), getChmItsfHeader());
 
             /* Creates and parses chm itsp header */
@@ -165,8 +203,8 @@ public class ChmExtractor {
             // (int) getChmItsfHeader().getDirOffset() +
             // ChmConstants.CHM_ITSP_V1_LEN), getChmItspHeader());
             getChmItspHeader().parse(
-                    ChmCommons.copyOfRange(getData(), (int) getChmItsfHeader()
-                            .getDirOffset(), (int) getChmItsfHeader().getDirOffset() + 
+                    getData().copyOfRange(getChmItsfHeader().getDirOffset(),
+                            getChmItsfHeader().getDirOffset() + 
                             ChmConstants.CHM_ITSP_V1_LEN), getChmItspHeader());
 
             /* Creates instance of ChmDirListingContainer */
@@ -174,11 +212,10 @@ public class ChmExtractor {
                     getChmItsfHeader(), getChmItspHeader()));
 
             int indexOfControlData = getChmDirList().getControlDataIndex();
-            int indexOfResetData = ChmCommons.indexOfResetTableBlock(getData(),
-                    ChmConstants.LZXC.getBytes(UTF_8));
+            long indexOfResetData = indexOfControlData(indexOfControlData);
             byte[] dir_chunk = null;
             if (indexOfResetData > 0)
-                dir_chunk = ChmCommons.copyOfRange( getData(), indexOfResetData, indexOfResetData  
+                dir_chunk = getData().copyOfRange(indexOfResetData, indexOfResetData  
                         + getChmDirList().getDirectoryListingEntryList().get(indexOfControlData).getLength());
             // dir_chunk = Arrays.copyOfRange(getData(), indexOfResetData,
             // indexOfResetData
@@ -192,17 +229,18 @@ public class ChmExtractor {
             int indexOfResetTable = getChmDirList().getResetTableIndex();
             setChmLzxcResetTable(new ChmLzxcResetTable());
 
-            int startIndex = (int) getChmDirList().getDataOffset()
+            long startIndex = getChmDirList().getDataOffset()
                     + getChmDirList().getDirectoryListingEntryList()
                             .get(indexOfResetTable).getOffset();
 
             // assert startIndex < data.length
-            ChmAssert.assertCopyingDataIndex(startIndex, getData().length);
+            if (startIndex >= getData().length())
+                throw new ChmParsingException("Index is out of range");
 
             // dir_chunk = Arrays.copyOfRange(getData(), startIndex, startIndex
             // +
             // getChmDirList().getDirectoryListingEntryList().get(indexOfResetTable).getLength());
-            dir_chunk = ChmCommons.copyOfRange(getData(), startIndex, startIndex
+            dir_chunk = getData().copyOfRange(startIndex, startIndex
                             + getChmDirList().getDirectoryListingEntryList().get(indexOfResetTable).getLength());
 
             getChmLzxcResetTable().parse(dir_chunk, getChmLzxcResetTable());
@@ -213,11 +251,48 @@ public class ChmExtractor {
                     + getChmItsfHeader().getDataOffset()));
             setLzxBlockLength(getChmDirList().getDirectoryListingEntryList().get(getIndexOfContent()).getLength());
 
-            setLzxBlocksCache(new ArrayList<ChmLzxBlock>());
+            success = true;
+        } finally {
+            if (!success)
+                source.close();
+        }
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Returns the position of the lzxc control data in the chm file, or -1 if
+     * it could not be found. The control data is usually located where its
+     * directory entry says it is. Otherwise fall back to searching the file
+     * for the signature of the control data.
+     */
+    private long indexOfControlData(int indexOfControlData)
+            throws TikaException, IOException {
+        byte[] signature = ChmConstants.LZXC.getBytes(UTF_8);
+        if (indexOfControlData >= 0) {
+            long offset = getChmDirList().getDataOffset()
+                    + getChmDirList().getDirectoryListingEntryList()
+                            .get(indexOfControlData).getOffset();
+            byte[] bytes = getData().copyOfRange(offset + 4,
+                    offset + 4 + signature.length);
+            if (Arrays.equals(bytes, signature))
+                return offset;
         }
+        /* Search chunk-wise, with overlapping chunks for matches across chunk boundaries */
+        int chunkSize = 1 << 16;
+        for (long pos = 0; pos < getData().length(); pos += chunkSize - signature.length) {
+            byte[] chunk = getData().copyOfRange(pos, Math.min(pos + chunkSize, getData().length()));
+            int index = ChmCommons.indexOf(chunk, signature);
+            if (index >= 0)
+                return pos + index - 4;
+        }
+        return -1;
+    }
+
+    /**
+     * Releases the chm file.
+     */
+    public void close() throws IOException {
+        lastLzxBlock = null;
+        getData().close();
     }
 
     /**
@@ -249,12 +324,11 @@ public class ChmExtractor {
             if (directoryListingEntry.getEntryType() == EntryType.UNCOMPRESSED
                     && directoryListingEntry.getLength() > 0
                     && !ChmCommons.hasSkip(directoryListingEntry)) {
-                int dataOffset = (int) (getChmItsfHeader().getDataOffset() + directoryListingEntry
-                        .getOffset());
+                long dataOffset = getChmItsfHeader().getDataOffset() + directoryListingEntry
+                        .getOffset();
                 // dataSegment = Arrays.copyOfRange(getData(), dataOffset,
                 // dataOffset + directoryListingEntry.getLength());
-                buffer.write(ChmCommons.copyOfRange(
-                        getData(), dataOffset,
+                buffer.write(getData().copyOfRange(dataOffset,
                         dataOffset + directoryListingEntry.getLength()));
             } else if (directoryListingEntry.getEntryType() == EntryType.COMPRESSED
                     && !ChmCommons.hasSkip(directoryListingEntry)) {
@@ -263,46 +337,23 @@ public class ChmExtractor {
                         directoryListingEntry, (int) getChmLzxcResetTable()
                                 .getBlockLen(), getChmLzxcControlData());
 
-                int i = 0, start = 0, hit_cache = 0;
-
-                if ((getLzxBlockLength() < Integer.MAX_VALUE)
-                        && (getLzxBlockOffset() < Integer.MAX_VALUE)) {
-                    // TODO: Improve the caching
-                    // caching ... = O(n^2) - depends on startBlock and endBlock
-                    start = -1;
-                    if (!getLzxBlocksCache().isEmpty()) {
-                        for (i = 0; i < getLzxBlocksCache().size(); i++) {
-                            //lzxBlock = getLzxBlocksCache().get(i);
-                            int bn = getLzxBlocksCache().get(i).getBlockNumber();
-                            for (int j = bb.getIniBlock(); j <= bb.getStartBlock(); j++) {
-                                if (bn == j) {
-                                    if (j > start) {
-                                        start = j;
-                                        hit_cache = i;
-                                    }
-                                }
-                            }
-                            if (start == bb.getStartBlock())
-                                break;
-                        }
-                    }
-
-//                    if (i == getLzxBlocksCache().size() && i == 0) {
-                    if (start<0) {
-                        start = bb.getIniBlock();
-
-                        byte[] dataSegment = ChmCommons.getChmBlockSegment(
-                                getData(),
-                                getChmLzxcResetTable(), start,
-                                (int) getLzxBlockOffset(),
-                                (int) getLzxBlockLength());
-
-                        lzxBlock = new ChmLzxBlock(start, dataSegment,
-                                getChmLzxcResetTable().getBlockLen(), null);
-
-                        getLzxBlocksCache().add(lzxBlock);
+                int i, start;
+
+                if (getLzxBlockLength() < Integer.MAX_VALUE) {
+                    /*
+                     * Continue from the last decompressed block if it lies in
+                     * the same reset interval before the start of the entry,
+                     * otherwise start over at the beginning of the reset
+                     * interval.
+                     */
+                    lzxBlock = lastLzxBlock;
+                    if (lzxBlock != null
+                            && lzxBlock.getBlockNumber() >= bb.getIniBlock()
+                            && lzxBlock.getBlockNumber() <= bb.getStartBlock()) {
+                        start = lzxBlock.getBlockNumber();
                     } else {
-                        lzxBlock = getLzxBlocksCache().get(hit_cache);
+                        start = bb.getIniBlock();
+                        lzxBlock = createLzxBlock(start, null);
                     }
 
                     for (i = start; i <= bb.getEndBlock();) {
@@ -330,28 +381,10 @@ public class ChmExtractor {
                         i++;
 
                         if (i % getChmLzxcControlData().getResetInterval() == 0) {
-                            lzxBlock = new ChmLzxBlock(i,
-                                    ChmCommons.getChmBlockSegment(getData(),
-                                            getChmLzxcResetTable(), i,
-                                            (int) getLzxBlockOffset(),
-                                            (int) getLzxBlockLength()),
-                                    getChmLzxcResetTable().getBlockLen(), null);
+                            lzxBlock = createLzxBlock(i, null);
                         } else {
-                            lzxBlock = new ChmLzxBlock(i,
-                                    ChmCommons.getChmBlockSegment(getData(),
-                                            getChmLzxcResetTable(), i,
-                                            (int) getLzxBlockOffset(),
-                                            (int) getLzxBlockLength()),
-                                    getChmLzxcResetTable().getBlockLen(),
-                                    lzxBlock);
+                            lzxBlock = createLzxBlock(i, lzxBlock);
                         }
-
-                        getLzxBlocksCache().add(lzxBlock);
-                    }
-
-                    if (getLzxBlocksCache().size() > getChmLzxcResetTable()
-                            .getBlockCount()) {
-                        getLzxBlocksCache().clear();
                     }
                 } //end of if
                 
@@ -366,12 +399,20 @@ public class ChmExtractor {
         return buffer.toByteArray();
     }
 
-    private void setLzxBlocksCache(List<ChmLzxBlock> lzxBlocksCache) {
-        this.lzxBlocksCache = lzxBlocksCache;
-    }
-
-    private List<ChmLzxBlock> getLzxBlocksCache() {
-        return lzxBlocksCache;
+    /**
+     * Reads and decompresses the given block, and remembers it as the most
+     * recently decompressed block.
+     */
+    private ChmLzxBlock createLzxBlock(int blockNumber, ChmLzxBlock prevBlock)
+            throws TikaException, IOException {
+        /* Forget the last block first, so it can be garbage collected early */
+        lastLzxBlock = null;
+        byte[] dataSegment = ChmCommons.getChmBlockSegment(getData(),
+                getChmLzxcResetTable(), blockNumber, getLzxBlockOffset(),
+                getLzxBlockLength());
+        lastLzxBlock = new ChmLzxBlock(blockNumber, dataSegment,
+                getChmLzxcResetTable().getBlockLen(), prevBlock);
+        return lastLzxBlock;
     }
 
     private void setChmDirList(ChmDirectoryListingSet chmDirList) {
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tika.parser.chm.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Random access to the raw bytes of a chm file. Reading from a file only
+ * loads the requested byte ranges (directory chunks, compressed blocks) into
+ * memory, rather than the whole chm file.
+ */
+public abstract class ChmSource implements Closeable {
+
+    /**
+     * Returns a copy of the given byte range. Like
+     * {@link ChmCommons#copyOfRange(byte[], int, int)}, the part of the range
+     * beyond the end of the data is filled with zeros.
+     */
+    public abstract byte[] copyOfRange(long from, long to) throws IOException;
+
+    public abstract long length();
+
+    public static ChmSource fromBytes(final byte[] data) {
+        return new ChmSource() {
+            public byte[] copyOfRange(long from, long to) {
+                if (to > Integer.MAX_VALUE)
+                    throw new IllegalArgumentException(to + " is out of range");
+                return ChmCommons.copyOfRange(data, (int) from, (int) to);
+            }
+
+            public long length() {
+                return data.length;
+            }
+
+            public void close() {
+            }
+        };
+    }
+
+    /*
+     * Positional reads are used instead of memory-mapping the file, because
+     * on Windows a mapped file cannot be deleted until the mapping has been
+     * garbage collected, which would get in the way of deleting temporary
+     * files.
+     */
+    public static ChmSource fromFile(File file) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        final FileChannel channel = in.getChannel();
+        final long length = channel.size();
+        return new ChmSource() {
+            public byte[] copyOfRange(long from, long to) throws IOException {
+                if (from < 0)
+                    throw new IllegalArgumentException(from + " should be > 0");
+                int newLength = (int) (to - from);
+                if (to - from < 0 || to - from > Integer.MAX_VALUE)
+                    throw new IllegalArgumentException(from + " > " + to);
+                byte[] copy = new byte[newLength];
+                ByteBuffer buffer = ByteBuffer.wrap(copy);
+                long pos = from;
+                while (buffer.hasRemaining() && pos < length) {
+                    int n = channel.read(buffer, pos);
+                    if (n < 0)
+                        break;
+                    pos += n;
+                }
+                return copy;
+            }
+
+            public long length() {
+                return length;
+            }
+
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+}
@@ -51,7 +51,7 @@ import org.xml.sax.SAXException;
  * it should give better perf, by replacing the excessive
  * "else if" string compares with FSA traversal. */
 
-final class TextExtractor {
+public final class TextExtractor {
 
     private static final Charset ASCII = Charset.forName("US-ASCII");
     private static final Charset WINDOWS_1252 = getCharset("WINDOWS-1252");
@@ -310,6 +310,39 @@ final class TextExtractor {
         this.embObjHandler = embObjHandler;
     }
 
+    /**
+     * Returns the charset for the given \fcharsetN value, or null if the
+     * value is unknown.
+     */
+    public static Charset getFontCharset(int fcharset) {
+        return FCHARSET_MAP.get(fcharset);
+    }
+
+    /**
+     * Returns the charset for the given \ansicpgN value, or null if the
+     * value is unknown.
+     */
+    public static Charset getAnsiCodepageCharset(int ansicpg) {
+        return ANSICPG_MAP.get(ansicpg);
+    }
+
+    /**
+     * Returns the charset for the \ansi, \mac, \pc or \pca control
+     * word, or null if the given word is not a charset control word.
+     */
+    public static Charset getCharsetForControlWord(String word) {
+        if (word.equals("ansi")) {
+            return WINDOWS_1252;
+        } else if (word.equals("pca")) {
+            return CP850;
+        } else if (word.equals("pc")) {
+            return CP437;
+        } else if (word.equals("mac")) {
+            return MAC_ROMAN;
+        }
+        return null;
+    }
+
     private static Charset getCharset(String name) {
         try {
             return CharsetUtils.forName(name);